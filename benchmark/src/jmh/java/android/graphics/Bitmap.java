@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package android.graphics;
+
+/**
+ * Host shim of the framework bitmap, only used to run the benchmarks on the JVM. It holds no
+ * pixel, only the dimensions the caches need to size their entries.
+ */
+public final class Bitmap {
+
+	private final int width;
+	private final int height;
+
+	public Bitmap(int width, int height){
+		this.width = width;
+		this.height = height;
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	/**ARGB_8888: 4 bytes per pixel**/
+	public int getRowBytes(){
+		return width * 4;
+	}
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package android.util;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Host shim of the framework Base64 encoder, only used to run the benchmarks on the JVM. The
+ * output is never wrapped.
+ */
+public final class Base64 {
+
+	public static final int DEFAULT = 0;
+	public static final int NO_WRAP = 2;
+
+	private Base64(){}
+
+	public static String encodeToString(byte[] input, int flags){
+		return DatatypeConverter.printBase64Binary(input);
+	}
+}
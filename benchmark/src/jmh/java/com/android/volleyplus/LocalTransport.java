@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.ServerError;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpStack;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends the requests of a {@link ResumableUpload} or of a {@link BatchRequest} on the JVM:
+ * {@link VolleyPlus} needs an Android context, and the dispatchers of Volley the Android framework. The requests are performed by a
+ * stack on a pool of network threads, and parsed and delivered the way the dispatchers do, the
+ * callbacks running on a single thread standing for the main thread.
+ */
+public final class LocalTransport implements ResumableUpload.Transport {
+
+	private final HttpStack stack;
+	private final ExecutorService network;
+	private final ExecutorService main = Executors.newSingleThreadExecutor();
+	private final Map<String, String> noHeaders = Collections.emptyMap();
+
+	public LocalTransport(HttpStack stack, int networkThreads) {
+		this.stack = stack;
+		this.network = Executors.newFixedThreadPool(networkThreads);
+	}
+
+	/**
+	 * Send the requests of an upload with this transport
+	 */
+	public ResumableUpload.Builder attach(ResumableUpload.Builder builder) {
+		return builder.transport(this);
+	}
+
+	/**
+	 * Start an upload on the thread of its callbacks
+	 */
+	public void start(final ResumableUpload upload) {
+		post(new Runnable() {
+			@Override
+			public void run() {
+				upload.start();
+			}
+		});
+	}
+
+	/**
+	 * Cancel an upload on the thread of its callbacks
+	 */
+	public void cancel(final ResumableUpload upload) {
+		post(new Runnable() {
+			@Override
+			public void run() {
+				upload.cancel();
+			}
+		});
+	}
+
+	public void shutdown() {
+		network.shutdownNow();
+		main.shutdownNow();
+	}
+
+	/**
+	 * Send requests packed into one {@link BatchRequest}, posted to the given path
+	 */
+	public void enqueueBatch(String batchPath, List<BaseRequest<?>> requests) {
+		enqueue(new BatchRequest(batchPath, requests));
+	}
+
+	@Override
+	public void enqueue(final Request<?> request) {
+		network.execute(new Runnable() {
+			@Override
+			public void run() {
+				perform((BaseRequest<?>) request);
+			}
+		});
+	}
+
+	@Override
+	public void post(Runnable task) {
+		main.execute(task);
+	}
+
+	private <T> void perform(final BaseRequest<T> request) {
+		if (request.isCanceled()) {
+			return;
+		}
+		Response<T> parsed;
+		try {
+			HttpResponse response = stack.performRequest(request, noHeaders);
+			NetworkResponse networkResponse = networkResponseOf(response);
+			int status = networkResponse.statusCode;
+			parsed = status >= 200 && status < 300 ? request.parseNetworkResponse(networkResponse)
+					: Response.<T>error(new ServerError(networkResponse));
+		} catch (Exception e) {
+			parsed = Response.error(new VolleyError(e));
+		}
+
+		final Response<T> result = parsed;
+		post(new Runnable() {
+			@Override
+			public void run() {
+				if (request.isCanceled()) {
+					return;
+				}
+				if (result.isSuccess()) {
+					request.deliverResponse(result.result);
+				} else {
+					request.deliverError(result.error);
+				}
+			}
+		});
+	}
+
+	private static NetworkResponse networkResponseOf(HttpResponse response) throws Exception {
+		Map<String, String> headers = new HashMap<>();
+		for (Header header : response.getAllHeaders()) {
+			headers.put(header.getName(), header.getValue());
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		HttpEntity entity = response.getEntity();
+		InputStream in = null;
+		try {
+			in = entity != null ? entity.getContent() : null;
+		} catch (IllegalStateException e) {
+			// An error without a body, the stack leaves the content unset
+		}
+		if (in != null) {
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					body.write(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return new NetworkResponse(response.getStatusLine().getStatusCode(), body.toByteArray(),
+				headers, false);
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.benchmark;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.VolleyError;
+import com.android.volleyplus.BaseRequest;
+import com.android.volleyplus.LocalTransport;
+import com.android.volleyplus.toolbox.SslHurlStack;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Small authorized GETs sent one by one, or packed into one {@link com.android.volleyplus.BatchRequest}
+ * answered by the batch endpoint of {@link LocalServer}. Every response is checked against its
+ * request: path, params and Authorization header. The setup also checks that the parts answered
+ * with an error status, or not answered, fail.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BatchBenchmark {
+
+	@Param({"8", "32"})
+	public int requests;
+
+	private static final String AUTHORIZATION = "Bearer benchmark";
+
+	private LocalServer server;
+	private LocalTransport transport;
+
+	@Setup
+	public void setUp() throws Exception {
+		server = new LocalServer(false);
+		BenchRequest.setBaseUrl(server.getBaseUrl());
+		// As many threads as the default network pool
+		transport = new LocalTransport(new SslHurlStack(), 4);
+		checkErrors();
+	}
+
+	@TearDown
+	public void tearDown() {
+		transport.shutdown();
+		server.stop();
+	}
+
+	@Benchmark
+	public int batched() throws Exception {
+		Round round = new Round(requests);
+		transport.enqueueBatch("batch", round.ready());
+		return round.await();
+	}
+
+	@Benchmark
+	public int separate() throws Exception {
+		Round round = new Round(requests);
+		for (BaseRequest<?> request : round.ready()) {
+			transport.enqueue(request);
+		}
+		return round.await();
+	}
+
+	private void checkErrors() throws Exception {
+		Round round = new Round(0);
+		round.add("item/0", true);
+		round.add("status/404", false);
+		round.add("missing", false);
+		int batches = server.getBatchCount();
+		transport.enqueueBatch("batch", round.ready());
+		round.await();
+		if (server.getBatchCount() != batches + 1) {
+			throw new IllegalStateException("The parts were not batched");
+		}
+		VolleyError notFound = round.errors.get(1);
+		if (!(notFound instanceof ServerError) || notFound.networkResponse.statusCode != 404) {
+			throw new IllegalStateException("Expected a 404 ServerError: " + notFound);
+		}
+		if (!(round.errors.get(2) instanceof ParseError)) {
+			throw new IllegalStateException("Expected a ParseError: " + round.errors.get(2));
+		}
+	}
+
+	/**
+	 * A set of requests sent together, and their results
+	 */
+	private static final class Round {
+		final List<BaseRequest<?>> requests = new ArrayList<>();
+		final List<VolleyError> errors = Collections.synchronizedList(new ArrayList<VolleyError>());
+		final AtomicReference<String> mismatch = new AtomicReference<>();
+		final List<Boolean> succeeds = new ArrayList<>();
+		volatile CountDownLatch done;
+
+		Round(int size) {
+			for (int i = 0; i < size; i++) {
+				add("item/" + i, true);
+			}
+		}
+
+		void add(final String path, boolean succeeds) {
+			final int index = requests.size();
+			final Map<String, String> params = Collections.singletonMap("index", String.valueOf(index));
+			BenchRequest request = new BenchRequest(Request.Method.GET, path, params) {
+				@Override
+				public Map<String, String> getHeaders() throws AuthFailureError {
+					return Collections.singletonMap("Authorization", AUTHORIZATION);
+				}
+			};
+			request.setResponseListener(new BaseRequest.ResponseListener<JSONObject>() {
+				@Override
+				public void onResponse(JSONObject response) {
+					try {
+						if (!path.equals(response.getString("path"))
+								|| !String.valueOf(index).equals(response.getJSONObject("params").getString("index"))
+								|| !AUTHORIZATION.equals(response.optString("authorization"))) {
+							mismatch.set(path + " answered with " + response);
+						}
+					} catch (JSONException e) {
+						mismatch.set(path + ": " + e);
+					}
+					errors.set(index, null);
+					done.countDown();
+				}
+
+				@Override
+				public void onErrorResponse(VolleyError error) {
+					errors.set(index, error);
+					done.countDown();
+				}
+			});
+			request.setShouldCache(false);
+			requests.add(request);
+			errors.add(null);
+			this.succeeds.add(succeeds);
+		}
+
+		/**
+		 * Call once all the requests are added, before sending them
+		 */
+		List<BaseRequest<?>> ready() {
+			done = new CountDownLatch(requests.size());
+			return requests;
+		}
+
+		int await() throws Exception {
+			if (!done.await(30, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("Requests timed out");
+			}
+			if (mismatch.get() != null) {
+				throw new IllegalStateException(mismatch.get());
+			}
+			for (int i = 0; i < requests.size(); i++) {
+				if (succeeds.get(i) && errors.get(i) != null) {
+					throw new IllegalStateException("Request " + i + " failed", errors.get(i));
+				}
+			}
+			return requests.size();
+		}
+	}
+}
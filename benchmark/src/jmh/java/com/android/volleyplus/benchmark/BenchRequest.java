@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.benchmark;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+import com.android.volleyplus.BaseRequest;
+import com.android.volleyplus.VolleyPlus;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+/**
+ * A plain {@link BaseRequest} exposing its protected hot paths to the benchmarks.
+ */
+public class BenchRequest extends BaseRequest<JSONObject> {
+
+	private final String subPath;
+	private final Map<String, String> params;
+
+	public BenchRequest(int method, String subPath, Map<String, String> params) {
+		super(method, null);
+		this.subPath = subPath;
+		this.params = params;
+	}
+
+	/**
+	 * {@link VolleyPlus#init} needs an Android context, only set the base url the requests use
+	 */
+	public static void setBaseUrl(String baseUrl) {
+		try {
+			Field field = VolleyPlus.class.getDeclaredField("baseUrl");
+			field.setAccessible(true);
+			field.set(VolleyPlus.getInstance(), baseUrl);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public String encode(Map<String, String> params) {
+		return encodeParameters(params, "UTF-8");
+	}
+
+	public Response<JSONObject> parse(NetworkResponse response) {
+		return parseNetworkResponse(response);
+	}
+
+	@Override
+	protected String subPath() {
+		return subPath;
+	}
+
+	@Override
+	protected Map<String, String> getPostParams() throws AuthFailureError {
+		return params;
+	}
+
+	@Override
+	protected Map<String, String> getQueryParams() throws AuthFailureError {
+		return params;
+	}
+
+	@Override
+	protected JSONObject parseNetworkEntity(String json) throws JSONException {
+		return new JSONObject(json);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.benchmark;
+
+import android.graphics.Bitmap;
+
+import com.android.volleyplus.toolbox.LruBitmapCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code LruBitmapCache} get/put under contention: three readers and one writer share a cache
+ * holding about 80% of the working set, so reads both hit and miss and writes evict.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BitmapCacheBenchmark {
+
+	private static final int KEYS = 512;
+
+	/**100x100 ARGB_8888**/
+	private static final int BITMAP_BYTES = 100 * 100 * 4;
+
+	private LruBitmapCache cache;
+	private String[] urls;
+	private Bitmap[] bitmaps;
+
+	@Setup
+	public void setUp() {
+		cache = new LruBitmapCache(KEYS * BITMAP_BYTES * 4 / 5);
+		urls = new String[KEYS];
+		bitmaps = new Bitmap[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			urls[i] = "#W100#H100#S0https://img.example.com/thumbnails/" + i + ".jpg";
+			bitmaps[i] = new Bitmap(100, 100);
+			cache.putBitmap(urls[i], bitmaps[i]);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next;
+
+		/**Deterministic stride through the keys, different for every thread**/
+		int next() {
+			next = (next + 97) % KEYS;
+			return next;
+		}
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public Bitmap get(Cursor cursor) {
+		return cache.getBitmap(urls[cursor.next()]);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public void put(Cursor cursor) {
+		int i = cursor.next();
+		cache.putBitmap(urls[i], bitmaps[i]);
+	}
+}
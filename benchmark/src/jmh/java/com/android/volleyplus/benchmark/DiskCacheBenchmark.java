@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.benchmark;
+
+import com.android.volley.Cache;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volleyplus.toolbox.SegmentedDiskCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response caches holding {@value #ENTRIES} entries of 4KB: time to load the cache on start and
+ * latency of a hit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiskCacheBenchmark {
+
+	private static final int ENTRIES = 2000;
+
+	private static final int MAX_SIZE = 16 * 1024 * 1024;
+
+	@Param({"DiskBasedCache", "SegmentedDiskCache"})
+	public String impl;
+
+	private File directory;
+	private Cache cache;
+	private String[] keys;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = File.createTempFile("cache", "");
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("Unable to create " + directory);
+		}
+		keys = new String[ENTRIES];
+		cache = newCache();
+		cache.initialize();
+		for (int i = 0; i < ENTRIES; i++) {
+			keys[i] = "https://api.example.com/v1/users/" + i + "/profile";
+			cache.put(keys[i], entry(i));
+		}
+		if (cache instanceof SegmentedDiskCache) {
+			// Save the index, then load it like an app starting again
+			((SegmentedDiskCache) cache).close();
+			cache.initialize();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		cache.clear();
+		if (!directory.delete()) {
+			directory.deleteOnExit();
+		}
+	}
+
+	private Cache newCache() {
+		return "DiskBasedCache".equals(impl) ? new DiskBasedCache(directory, MAX_SIZE)
+				: new SegmentedDiskCache(directory, MAX_SIZE);
+	}
+
+	private static Cache.Entry entry(int i) {
+		Cache.Entry entry = new Cache.Entry();
+		entry.data = new byte[4096];
+		entry.etag = "\"" + i + "\"";
+		entry.serverDate = System.currentTimeMillis();
+		entry.ttl = entry.serverDate + 60000;
+		entry.softTtl = entry.ttl;
+		entry.responseHeaders = Collections.singletonMap("Content-Type", "application/json");
+		return entry;
+	}
+
+	@Benchmark
+	public Cache.Entry hit() {
+		next = (next + 97) % ENTRIES;
+		return cache.get(keys[next]);
+	}
+
+	/**A new instance loading the cache from disk, as on a cold start**/
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Cache initialize() {
+		Cache cold = newCache();
+		cold.initialize();
+		if (cold instanceof SegmentedDiskCache) {
+			((SegmentedDiskCache) cold).close();
+		}
+		return cold;
+	}
+}
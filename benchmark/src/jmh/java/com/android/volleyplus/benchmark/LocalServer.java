@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.KeyStore;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+/**
+ * An embedded HTTP or HTTPS server (self-signed certificate for localhost) for the benchmarks.
+ * <ul>
+ *     <li>/echo?size=n answers n bytes</li>
+ *     <li>/upload drains the request body and answers "ok"</li>
+ *     <li>/range?size=n answers n bytes, HEAD and single byte ranges are supported</li>
+ *     <li>/tus/ is a tus 1.0 server with the concatenation extension, PATCH is sent as a POST
+ *     overridden by X-HTTP-Method-Override. With ?interrupt=true at creation, the first PATCH of
+ *     an upload keeps half of its bytes and fails, as a dropped connection would.</li>
+ *     <li>/item/&lt;name&gt; answers a JSON object with the method, the path, the params and the
+ *     Authorization header of the request</li>
+ *     <li>/batch answers the envelope of a {@link com.android.volleyplus.BatchRequest}, every
+ *     part as /item/ would. A part for the path status/&lt;code&gt; is answered with that status,
+ *     one for the path "missing" is not answered.</li>
+ * </ul>
+ */
+public final class LocalServer {
+
+	private static final String KEYSTORE = "/benchmark.jks";
+	private static final char[] KEYSTORE_PASSWORD = "benchmark".toCharArray();
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final String baseUrl;
+	private final TusHandler tus = new TusHandler();
+	private final BatchHandler batch = new BatchHandler();
+
+	public LocalServer(boolean https) throws Exception {
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0);
+		if (https) {
+			HttpsServer httpsServer = HttpsServer.create(address, 128);
+			httpsServer.setHttpsConfigurator(new HttpsConfigurator(serverContext()));
+			server = httpsServer;
+		} else {
+			server = HttpServer.create(address, 128);
+		}
+		server.createContext("/echo", new EchoHandler());
+		server.createContext("/upload", new UploadHandler());
+		server.createContext("/range", new RangeHandler());
+		server.createContext("/tus/", tus);
+		server.createContext("/item/", new ItemHandler());
+		server.createContext("/batch", batch);
+		executor = Executors.newFixedThreadPool(8);
+		server.setExecutor(executor);
+		server.start();
+
+		baseUrl = (https ? "https" : "http") + "://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	/**
+	 * Returns the bytes of a complete tus upload, or null if there is none at this url
+	 */
+	public byte[] getTusUpload(String url) {
+		TusUpload upload = tus.uploads.get(url.substring(url.lastIndexOf('/') + 1));
+		return upload != null && upload.isComplete() ? upload.data.toByteArray() : null;
+	}
+
+	/**
+	 * Forget the tus uploads
+	 */
+	public void clearTusUploads() {
+		tus.uploads.clear();
+	}
+
+	/**
+	 * Number of batches answered so far
+	 */
+	public int getBatchCount() {
+		return batch.count.get();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private static SSLContext serverContext() throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		InputStream in = LocalServer.class.getResourceAsStream(KEYSTORE);
+		try {
+			keyStore.load(in, KEYSTORE_PASSWORD);
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keyStore, KEYSTORE_PASSWORD);
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keyManagers.getKeyManagers(), null, null);
+		return context;
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[8192];
+		while (in.read(buffer) != -1) {
+			// discard
+		}
+		in.close();
+	}
+
+	private static void answer(HttpExchange exchange, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	private static final class EchoHandler implements HttpHandler {
+		private volatile byte[] body = new byte[0];
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			drain(exchange.getRequestBody());
+			String query = exchange.getRequestURI().getQuery();
+			int size = query != null && query.startsWith("size=")
+					? Integer.parseInt(query.substring("size=".length())) : 0;
+			byte[] current = body;
+			if (current.length != size) {
+				current = new byte[size];
+				new Random(size).nextBytes(current);
+				body = current;
+			}
+			answer(exchange, current);
+		}
+	}
+
+	private static int sizeOf(HttpExchange exchange) {
+		String query = exchange.getRequestURI().getQuery();
+		return query != null && query.startsWith("size=")
+				? Integer.parseInt(query.substring("size=".length())) : 0;
+	}
+
+	private static final class RangeHandler implements HttpHandler {
+		private volatile byte[] body = new byte[0];
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			drain(exchange.getRequestBody());
+			int size = sizeOf(exchange);
+			byte[] current = body;
+			if (current.length != size) {
+				current = new byte[size];
+				new Random(size).nextBytes(current);
+				body = current;
+			}
+
+			exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+			exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+			exchange.getResponseHeaders().set("ETag", "\"" + size + "\"");
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Content-Length", String.valueOf(size));
+				exchange.sendResponseHeaders(200, -1);
+				exchange.close();
+				return;
+			}
+
+			int start = 0;
+			int end = size - 1;
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			if (range != null && range.startsWith("bytes=")) {
+				String[] bounds = range.substring("bytes=".length()).split("-");
+				start = Integer.parseInt(bounds[0]);
+				if (bounds.length > 1 && !bounds[1].isEmpty()) {
+					end = Math.min(end, Integer.parseInt(bounds[1]));
+				}
+				exchange.getResponseHeaders().set("Content-Range",
+						"bytes " + start + "-" + end + "/" + size);
+			}
+			exchange.sendResponseHeaders(range != null ? 206 : 200, end - start + 1);
+			OutputStream out = exchange.getResponseBody();
+			out.write(current, start, end - start + 1);
+			out.close();
+		}
+	}
+
+	private static final class UploadHandler implements HttpHandler {
+		private static final byte[] OK = {'o', 'k'};
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			drain(exchange.getRequestBody());
+			answer(exchange, OK);
+		}
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			body.write(buffer, 0, read);
+		}
+		in.close();
+		return body.toByteArray();
+	}
+
+	private static void answerJson(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	/**
+	 * What /item/ answers to a request
+	 */
+	private static JSONObject item(String method, String path, JSONObject params, String authorization)
+			throws JSONException {
+		JSONObject item = new JSONObject();
+		item.put("method", method);
+		item.put("path", path);
+		item.put("params", params != null ? params : new JSONObject());
+		if (authorization != null) {
+			item.put("authorization", authorization);
+		}
+		return item;
+	}
+
+	private static final class ItemHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			drain(exchange.getRequestBody());
+			try {
+				JSONObject params = new JSONObject();
+				String query = exchange.getRequestURI().getRawQuery();
+				if (query != null) {
+					for (String pair : query.split("&")) {
+						int equals = pair.indexOf('=');
+						if (equals > 0) {
+							params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+									URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+						}
+					}
+				}
+				String path = exchange.getRequestURI().getPath().substring(1);
+				answerJson(exchange, 200, item(exchange.getRequestMethod(), path, params,
+						exchange.getRequestHeaders().getFirst("Authorization")).toString());
+			} catch (JSONException e) {
+				answerJson(exchange, 500, "{}");
+			}
+		}
+	}
+
+	private static final class BatchHandler implements HttpHandler {
+		final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				JSONArray requests = new JSONObject(new String(read(exchange.getRequestBody()), "UTF-8"))
+						.getJSONArray("requests");
+				JSONArray responses = new JSONArray();
+				for (int i = 0; i < requests.length(); i++) {
+					JSONObject request = requests.getJSONObject(i);
+					String path = request.getString("path");
+					if ("missing".equals(path)) {
+						continue;
+					}
+					JSONObject response = new JSONObject();
+					response.put("id", request.getInt("id"));
+					if (path.startsWith("status/")) {
+						response.put("status", Integer.parseInt(path.substring("status/".length())));
+						response.put("body", path);
+					} else {
+						JSONObject headers = request.optJSONObject("headers");
+						response.put("status", 200);
+						response.put("body", item(request.getString("method"), path,
+								request.optJSONObject("params"),
+								headers != null ? headers.optString("Authorization", null) : null));
+					}
+					responses.put(response);
+				}
+				count.incrementAndGet();
+				answerJson(exchange, 200, new JSONObject().put("responses", responses).toString());
+			} catch (JSONException e) {
+				answerJson(exchange, 400, "{}");
+			}
+		}
+	}
+
+	private static final class TusUpload {
+		final long length;
+		final boolean interrupt;
+		final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		boolean interrupted;
+
+		TusUpload(long length, boolean interrupt) {
+			this.length = length;
+			this.interrupt = interrupt;
+		}
+
+		synchronized long offset() {
+			return data.size();
+		}
+
+		synchronized boolean isComplete() {
+			return data.size() == length;
+		}
+	}
+
+	private static final class TusHandler implements HttpHandler {
+		final Map<String, TusUpload> uploads = new ConcurrentHashMap<>();
+		private final AtomicInteger ids = new AtomicInteger();
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				exchange.getResponseHeaders().set("Tus-Resumable", "1.0.0");
+				if (!"1.0.0".equals(exchange.getRequestHeaders().getFirst("Tus-Resumable"))) {
+					drain(exchange.getRequestBody());
+					reply(exchange, 412);
+					return;
+				}
+				String path = exchange.getRequestURI().getPath();
+				String id = path.substring(path.lastIndexOf('/') + 1);
+				String method = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+				if (method == null) {
+					method = exchange.getRequestMethod();
+				}
+				if (id.isEmpty() && "POST".equals(method)) {
+					create(exchange);
+					return;
+				}
+				TusUpload upload = uploads.get(id);
+				if (upload == null) {
+					drain(exchange.getRequestBody());
+					reply(exchange, 404);
+				} else if ("HEAD".equals(method)) {
+					exchange.getResponseHeaders().set("Upload-Offset", String.valueOf(upload.offset()));
+					exchange.getResponseHeaders().set("Upload-Length", String.valueOf(upload.length));
+					exchange.getResponseHeaders().set("Cache-Control", "no-store");
+					reply(exchange, 200);
+				} else if ("PATCH".equals(method)) {
+					patch(exchange, upload);
+				} else {
+					drain(exchange.getRequestBody());
+					reply(exchange, 405);
+				}
+			} finally {
+				exchange.close();
+			}
+		}
+
+		private void create(HttpExchange exchange) throws IOException {
+			drain(exchange.getRequestBody());
+			String concat = exchange.getRequestHeaders().getFirst("Upload-Concat");
+			TusUpload upload;
+			if (concat != null && concat.startsWith("final;")) {
+				ByteArrayOutputStream data = new ByteArrayOutputStream();
+				for (String url : concat.substring("final;".length()).trim().split(" +")) {
+					TusUpload partial = uploads.get(url.substring(url.lastIndexOf('/') + 1));
+					if (partial == null || !partial.isComplete()) {
+						reply(exchange, 400);
+						return;
+					}
+					partial.data.writeTo(data);
+				}
+				upload = new TusUpload(data.size(), false);
+				data.writeTo(upload.data);
+			} else {
+				String query = exchange.getRequestURI().getQuery();
+				upload = new TusUpload(Long.parseLong(exchange.getRequestHeaders().getFirst("Upload-Length")),
+						query != null && query.contains("interrupt=true"));
+			}
+			String id = String.valueOf(ids.incrementAndGet());
+			uploads.put(id, upload);
+			exchange.getResponseHeaders().set("Location", "/tus/" + id);
+			reply(exchange, 201);
+		}
+
+		private void patch(HttpExchange exchange, TusUpload upload) throws IOException {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			InputStream in = exchange.getRequestBody();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				body.write(buffer, 0, read);
+			}
+			in.close();
+
+			if (!"application/offset+octet-stream".equals(exchange.getRequestHeaders().getFirst("Content-Type"))) {
+				reply(exchange, 415);
+				return;
+			}
+			synchronized (upload) {
+				long offset = Long.parseLong(exchange.getRequestHeaders().getFirst("Upload-Offset"));
+				if (offset != upload.offset() || offset + body.size() > upload.length) {
+					reply(exchange, 409);
+					return;
+				}
+				byte[] bytes = body.toByteArray();
+				if (upload.interrupt && !upload.interrupted && bytes.length > 1) {
+					upload.interrupted = true;
+					upload.data.write(bytes, 0, bytes.length / 2);
+					reply(exchange, 500);
+					return;
+				}
+				upload.data.write(bytes, 0, bytes.length);
+				exchange.getResponseHeaders().set("Upload-Offset", String.valueOf(upload.offset()));
+			}
+			reply(exchange, 204);
+		}
+
+		private static void reply(HttpExchange exchange, int status) throws IOException {
+			exchange.sendResponseHeaders(status, -1);
+		}
+	}
+}
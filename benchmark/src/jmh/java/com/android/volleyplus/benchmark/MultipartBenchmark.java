@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.benchmark;
+
+import com.android.volleyplus.toolbox.HttpMultipart;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code HttpMultipart.doWriteTo} uploading small and large file sets to a local server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MultipartBenchmark {
+
+	/**"count x size in KB"**/
+	@Param({"8x32", "2x8192"})
+	public String fileSet;
+
+	private LocalServer server;
+	private URL uploadUrl;
+	private final Map<String, File> files = new LinkedHashMap<>();
+
+	@Setup
+	public void setUp() throws Exception {
+		server = new LocalServer(false);
+		uploadUrl = new URL(server.getBaseUrl() + "upload");
+
+		String[] set = fileSet.split("x");
+		int count = Integer.parseInt(set[0]);
+		int size = Integer.parseInt(set[1]) * 1024;
+		Random random = new Random(size);
+		byte[] content = new byte[size];
+		for (int i = 0; i < count; i++) {
+			random.nextBytes(content);
+			File file = File.createTempFile("multipart" + i + "-", ".jpg");
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write(content);
+			} finally {
+				out.close();
+			}
+			files.put("image" + i, file);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.stop();
+		for (File file : files.values()) {
+			file.delete();
+		}
+	}
+
+	@Benchmark
+	public int doWriteTo() throws IOException {
+		HttpMultipart multipart = new HttpMultipart();
+		multipart.addStringPart("description", "benchmark upload");
+		multipart.addAllImageParts(files);
+
+		HttpURLConnection connection = (HttpURLConnection) uploadUrl.openConnection();
+		connection.setRequestMethod("POST");
+		multipart.doWriteTo(connection);
+		int status = connection.getResponseCode();
+		InputStream in = connection.getInputStream();
+		while (in.read() != -1) {
+			// drain, so the connection is kept alive
+		}
+		in.close();
+		return status;
+	}
+}
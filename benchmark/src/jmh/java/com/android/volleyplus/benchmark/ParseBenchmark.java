@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.benchmark;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code BaseRequest.parseNetworkResponse} on JSON documents of realistic sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseBenchmark {
+
+	@Param({"1", "64", "1024"})
+	public int sizeKb;
+
+	private BenchRequest request;
+	private NetworkResponse response;
+
+	@Setup
+	public void setUp() {
+		BenchRequest.setBaseUrl("https://api.example.com/v1/");
+		request = new BenchRequest(Request.Method.GET, "feed", null);
+
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Content-Type", "application/json; charset=utf-8");
+		byte[] data = feed(sizeKb * 1024).getBytes(Charset.forName("UTF-8"));
+		response = new NetworkResponse(200, data, headers, false);
+	}
+
+	/**
+	 * A feed of items, the same one for a given size on every run
+	 */
+	static String feed(int size) {
+		Random random = new Random(size);
+		StringBuilder json = new StringBuilder(size + 512);
+		json.append("{\"page\":1,\"items\":[");
+		for (int i = 0; json.length() < size; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"id\":").append(i)
+					.append(",\"title\":\"Item ").append(i).append(" \\u00e9t\\u00e9\"")
+					.append(",\"price\":").append(random.nextInt(100000) / 100.0)
+					.append(",\"available\":").append(random.nextBoolean())
+					.append(",\"tags\":[\"tag").append(random.nextInt(10)).append("\",\"tag")
+					.append(random.nextInt(10)).append("\"]")
+					.append(",\"author\":{\"id\":").append(random.nextInt(1000))
+					.append(",\"name\":\"Author ").append(random.nextInt(1000)).append("\"}}");
+		}
+		return json.append("]}").toString();
+	}
+
+	@Benchmark
+	public Response<JSONObject> parseNetworkResponse() {
+		return request.parse(response);
+	}
+}
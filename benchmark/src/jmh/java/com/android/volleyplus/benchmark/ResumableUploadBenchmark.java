@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.benchmark;
+
+import com.android.volley.VolleyError;
+import com.android.volleyplus.BaseRequest;
+import com.android.volleyplus.LocalTransport;
+import com.android.volleyplus.ResumableUpload;
+import com.android.volleyplus.toolbox.SslHurlStack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link ResumableUpload} of a file to the tus server of {@link LocalServer}: the chunks are
+ * created, sent and concatenated, and with {@code interrupted} the first PATCH of every chunk
+ * fails half way, so that the offset is asked and the chunk resumed. Each upload is checked
+ * against the file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ResumableUploadBenchmark {
+
+	@Param({"1", "4"})
+	public int parallelism;
+
+	@Param({"false", "true"})
+	public boolean interrupted;
+
+	@Param({"8388608"})
+	public int fileSize;
+
+	private static final int CHUNK_SIZE = 1024 * 1024;
+
+	private LocalServer server;
+	private LocalTransport transport;
+	private File file;
+	private byte[] content;
+
+	@Setup
+	public void setUp() throws Exception {
+		server = new LocalServer(false);
+		BenchRequest.setBaseUrl(server.getBaseUrl());
+		// As many threads as the default network pool
+		transport = new LocalTransport(new SslHurlStack(), 4);
+
+		content = new byte[fileSize];
+		new Random(fileSize).nextBytes(content);
+		file = File.createTempFile("resumable", ".bin");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		transport.shutdown();
+		server.stop();
+		file.delete();
+		new File(file.getPath() + ".upload").delete();
+	}
+
+	@Benchmark
+	public String upload() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<String> url = new AtomicReference<>();
+		final AtomicReference<VolleyError> failure = new AtomicReference<>();
+		ResumableUpload upload = transport.attach(new ResumableUpload.Builder(
+				server.getBaseUrl() + "tus/" + (interrupted ? "?interrupt=true" : ""), file))
+				.chunkSize(CHUNK_SIZE)
+				.parallelism(parallelism)
+				.metadata("filename", file.getName())
+				.listener(new BaseRequest.ResponseListener<String>() {
+					@Override
+					public void onResponse(String response) {
+						url.set(response);
+						done.countDown();
+					}
+
+					@Override
+					public void onErrorResponse(VolleyError error) {
+						failure.set(error);
+						done.countDown();
+					}
+				})
+				.build();
+		transport.start(upload);
+
+		if (!done.await(60, TimeUnit.SECONDS)) {
+			transport.cancel(upload);
+			throw new IllegalStateException("Upload timed out");
+		}
+		if (failure.get() != null) {
+			throw new IllegalStateException("Upload failed", failure.get());
+		}
+		if (!Arrays.equals(content, server.getTusUpload(url.get()))) {
+			throw new IllegalStateException("Uploaded bytes differ from the file: " + url.get());
+		}
+		server.clearTusUploads();
+		return url.get();
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.benchmark;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volleyplus.toolbox.SegmentedFile;
+import com.android.volleyplus.toolbox.SslHurlStack;
+
+import org.apache.http.HttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to download a file from a local range-capable server into a preallocated
+ * {@link SegmentedFile}, with one connection or with several ranges at once, the way
+ * {@code SegmentedDownload} drives the network threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SegmentedDownloadBenchmark {
+
+	@Param({"1", "4"})
+	public int segments;
+
+	@Param({"8388608"})
+	public int fileSize;
+
+	private LocalServer server;
+	private SslHurlStack stack;
+	private ExecutorService network;
+	private File target;
+	private final Map<String, String> noHeaders = Collections.emptyMap();
+
+	@Setup
+	public void setUp() throws Exception {
+		server = new LocalServer(false);
+		BenchRequest.setBaseUrl(server.getBaseUrl());
+		stack = new SslHurlStack();
+		// As many threads as the default network pool
+		network = Executors.newFixedThreadPool(4);
+		target = File.createTempFile("segmented", ".bin");
+	}
+
+	@TearDown
+	public void tearDown() {
+		network.shutdownNow();
+		server.stop();
+		target.delete();
+	}
+
+	@Benchmark
+	public long download() throws Exception {
+		final SegmentedFile file = new SegmentedFile(target, fileSize);
+		List<Future<Long>> transfers = new ArrayList<>();
+		for (final long[] range : SegmentedFile.split(fileSize, segments)) {
+			transfers.add(network.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					HttpResponse response = stack.performRequest(new RangeRequest(range), noHeaders);
+					InputStream in = response.getEntity().getContent();
+					try {
+						return file.transfer(in, range[0], range[1], new byte[8192], null);
+					} finally {
+						in.close();
+					}
+				}
+			}));
+		}
+		long total = 0;
+		for (Future<Long> transfer : transfers) {
+			total += transfer.get();
+		}
+		file.close();
+		return total;
+	}
+
+	/**
+	 * A GET of one byte range of the file
+	 */
+	private final class RangeRequest extends BenchRequest {
+		private final long[] range;
+
+		RangeRequest(long[] range) {
+			super(Request.Method.GET, "range",
+					Collections.singletonMap("size", String.valueOf(fileSize)));
+			this.range = range;
+		}
+
+		@Override
+		public Map<String, String> getHeaders() throws AuthFailureError {
+			return Collections.singletonMap("Range",
+					"bytes=" + range[0] + "-" + (range[0] + range[1] - 1));
+		}
+	}
+}
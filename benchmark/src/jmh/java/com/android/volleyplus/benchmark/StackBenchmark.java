@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.benchmark;
+
+import com.android.volley.Request;
+import com.android.volleyplus.toolbox.SslHurlStack;
+
+import org.apache.http.HttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end {@code SslHurlStack.performRequest} throughput against a local HTTP/HTTPS server,
+ * with as many threads as the default network pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class StackBenchmark {
+
+	@Param({"http", "https"})
+	public String scheme;
+
+	@Param({"512", "65536"})
+	public int responseSize;
+
+	private LocalServer server;
+	private SslHurlStack stack;
+	private BenchRequest request;
+	private final Map<String, String> noHeaders = Collections.emptyMap();
+
+	@Setup
+	public void setUp() throws Exception {
+		server = new LocalServer("https".equals(scheme));
+		BenchRequest.setBaseUrl(server.getBaseUrl());
+		stack = new SslHurlStack();
+		request = new BenchRequest(Request.Method.GET, "echo",
+				Collections.singletonMap("size", String.valueOf(responseSize)));
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Benchmark
+	public long performRequest() throws Exception {
+		HttpResponse response = stack.performRequest(request, noHeaders);
+		InputStream in = response.getEntity().getContent();
+		byte[] buffer = new byte[8192];
+		long total = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			total += read;
+		}
+		in.close();
+		return total;
+	}
+}
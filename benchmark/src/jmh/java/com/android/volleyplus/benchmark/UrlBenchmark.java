@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.benchmark;
+
+import com.android.volley.Request;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code BaseRequest.getUrl} and {@code BaseRequest.encodeParameters}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UrlBenchmark {
+
+	@Param({"0", "4", "16"})
+	public int queryParams;
+
+	private Map<String, String> params;
+	private BenchRequest request;
+
+	@Setup
+	public void setUp() {
+		BenchRequest.setBaseUrl("https://api.example.com/v1/");
+		params = new LinkedHashMap<>();
+		for (int i = 0; i < queryParams; i++) {
+			params.put("key" + i, "value " + i + " & été");
+		}
+		request = new BenchRequest(Request.Method.GET, "users/42/timeline", params);
+	}
+
+	@Benchmark
+	public String getUrl() {
+		return request.getUrl();
+	}
+
+	@Benchmark
+	public String newRequestGetUrl() {
+		return new BenchRequest(Request.Method.GET, "users/42/timeline", params).getUrl();
+	}
+
+	@Benchmark
+	public String encodeParameters() {
+		return request.encode(params);
+	}
+}
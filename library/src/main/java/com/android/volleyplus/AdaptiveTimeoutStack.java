@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.toolbox.HttpStack;
+import com.android.volleyplus.toolbox.LatencyHistogram;
+import com.android.volleyplus.toolbox.RequestMetrics;
+
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Derives the connect and read timeouts of the {@link BaseRequest}s from the latencies observed
+ * for their endpoint: a percentile of the connect times and of the times to first byte, times a
+ * factor, within a floor and a ceiling. Requests of an endpoint with too few samples keep the
+ * timeout of their retry policy.
+ * <p>
+ * A timed out attempt is recorded with the timeout it was given, so that the timeouts of an
+ * endpoint which became slower grow back. Latencies are read from the {@link RequestMetrics} of
+ * the requests, which are always recorded when the timeouts are adaptive.
+ */
+final class AdaptiveTimeoutStack implements HttpStack {
+
+	/**Latencies needed before the percentile of an endpoint is trusted**/
+	private static final int MIN_SAMPLES = 20;
+
+	private static final long UNKNOWN = -1;
+
+	/**Length from which a path segment holding a digit is taken for a hash or an uuid**/
+	private static final int MIN_HASH_LENGTH = 16;
+
+	private final HttpStack stack;
+	private final double percentile;
+	private final float factor;
+	private final int floorMs;
+	private final int ceilingMs;
+	private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+
+	AdaptiveTimeoutStack(HttpStack stack, double percentile, float factor, int floorMs, int ceilingMs){
+		this.stack = stack;
+		this.percentile = percentile;
+		this.factor = factor;
+		this.floorMs = floorMs;
+		this.ceilingMs = ceilingMs;
+	}
+
+
+	@Override
+	public HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders)
+			throws IOException, AuthFailureError {
+		if(!(request instanceof BaseRequest) || !((BaseRequest<?>) request).mAdaptiveTimeouts){
+			return stack.performRequest(request, additionalHeaders);
+		}
+
+		BaseRequest<?> baseRequest = (BaseRequest<?>) request;
+		Endpoint endpoint = endpointFor(baseRequest.subPath());
+		// Each retry gets more time, like the backoff of the default retry policy
+		int attempt = request.getRetryPolicy().getCurrentRetryCount() + 1;
+		baseRequest.mAdaptiveConnectTimeoutMs = timeoutMs(endpoint.connect, attempt);
+		baseRequest.mAdaptiveReadTimeoutMs = timeoutMs(endpoint.read, attempt);
+
+		RequestMetrics metrics = baseRequest.getMetrics();
+		long start = System.nanoTime();
+		HttpResponse response;
+		try {
+			response = stack.performRequest(request, additionalHeaders);
+		} catch (SocketTimeoutException e) {
+			if(metrics != null){
+				if(metrics.getConnectNanos() == UNKNOWN){
+					endpoint.connect.record(TimeUnit.MILLISECONDS.toNanos(baseRequest.getConnectTimeoutMs()));
+				}else{
+					endpoint.read.record(TimeUnit.MILLISECONDS.toNanos(baseRequest.getReadTimeoutMs()));
+				}
+			}
+			throw e;
+		}
+
+		long read = UNKNOWN;
+		if(metrics != null){
+			// A pooled connection has no connect phase, and the TLS handshake is bound by the
+			// read timeout
+			long connect = metrics.getConnectNanos();
+			if(connect != UNKNOWN){
+				endpoint.connect.record(connect);
+			}
+			read = Math.max(metrics.getTlsHandshakeNanos(), metrics.getTimeToFirstByteNanos());
+		}
+		// Stacks which do not record the phases are measured as a whole
+		endpoint.read.record(read != UNKNOWN ? read : System.nanoTime() - start);
+		return response;
+	}
+
+
+	/**
+	 * Returns the timeout of an attempt, or 0 to keep the retry policy's timeout
+	 */
+	int timeoutMs(LatencyHistogram histogram, int attempt){
+		if(histogram.count() < MIN_SAMPLES){
+			return 0;
+		}
+		long timeoutMs = (long) (TimeUnit.NANOSECONDS.toMillis(histogram.percentile(percentile))
+				* factor * attempt);
+		return (int) Math.min(ceilingMs, Math.max(floorMs, timeoutMs));
+	}
+
+
+	private Endpoint endpointFor(String subPath){
+		String pattern = patternOf(subPath);
+		Endpoint endpoint = endpoints.get(pattern);
+		if(endpoint == null){
+			Endpoint created = new Endpoint();
+			endpoint = endpoints.putIfAbsent(pattern, created);
+			if(endpoint == null){
+				endpoint = created;
+			}
+		}
+		return endpoint;
+	}
+
+
+	/**
+	 * Returns the endpoint of a related url: the query is dropped and the path segments which are
+	 * most likely ids, starting with a digit or long and holding one, are replaced by {@code *}.
+	 */
+	static String patternOf(String subPath){
+		if(subPath == null){
+			return "";
+		}
+		int end = subPath.length();
+		for(int i = 0; i < end; i++){
+			char c = subPath.charAt(i);
+			if(c == '?' || c == '#'){
+				end = i;
+			}
+		}
+
+		StringBuilder pattern = new StringBuilder(end);
+		int start = 0;
+		while(start <= end){
+			int slash = subPath.indexOf('/', start);
+			if(slash == -1 || slash > end){
+				slash = end;
+			}
+			if(isId(subPath, start, slash)){
+				pattern.append('*');
+			}else{
+				pattern.append(subPath, start, slash);
+			}
+			if(slash < end){
+				pattern.append('/');
+			}
+			start = slash + 1;
+		}
+		return pattern.toString();
+	}
+
+
+	private static boolean isId(String path, int start, int end){
+		if(start == end){
+			return false;
+		}
+		if(isDigit(path.charAt(start))){
+			return true;
+		}
+		if(end - start < MIN_HASH_LENGTH){
+			return false;
+		}
+		for(int i = start; i < end; i++){
+			if(isDigit(path.charAt(i))){
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	private static boolean isDigit(char c){
+		return c >= '0' && c <= '9';
+	}
+
+
+	/**
+	 * Latencies of one endpoint
+	 */
+	private static final class Endpoint {
+		final LatencyHistogram connect = new LatencyHistogram();
+		final LatencyHistogram read = new LatencyHistogram();
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.Request;
+import com.android.volley.RetryPolicy;
+import com.android.volley.VolleyError;
+
+import java.util.Random;
+
+
+/**
+ * A {@link RetryPolicy} waiting before every retry, for a random delay below an exponentially
+ * growing bound ("full jitter"), so that clients failing together do not retry together.
+ * <p>
+ * The wait happens on the network thread performing the request, which is why the delay is
+ * capped, why it stops as soon as the request is cancelled, and why a network thread waits
+ * {@value #MAX_WAIT_PER_WINDOW_MS} ms at most every {@value #WINDOW_MS} ms: past that, the
+ * request fails instead of keeping the thread from the other requests of its lane. When
+ * {@link VolleyConfiguration.Builder#retryBudget(int)} is set, a retry is only attempted if the
+ * global budget allows it.
+ */
+public class BackoffRetryPolicy implements RetryPolicy {
+
+	private static final Random RANDOM = new Random();
+
+	/** Time between two checks of the cancellation of the request while waiting */
+	static final long SLICE_MS = 50;
+	static final long WINDOW_MS = 10000;
+	static final long MAX_WAIT_PER_WINDOW_MS = 5000;
+
+	private static final ThreadLocal<WaitAllowance> ALLOWANCE = new ThreadLocal<WaitAllowance>(){
+		@Override
+		protected WaitAllowance initialValue() {
+			return new WaitAllowance(WINDOW_MS, MAX_WAIT_PER_WINDOW_MS);
+		}
+	};
+
+	private final int timeoutMs;
+	private final int maxRetries;
+	private final int baseDelayMs;
+	private final int maxDelayMs;
+	private final RetryBudget budget;
+	private final Random random;
+
+	private int retryCount;
+	private volatile Request<?> request;
+
+
+	/**
+	 * @param timeoutMs    timeout of every attempt
+	 * @param maxRetries   retries after the first attempt
+	 * @param baseDelayMs  bound of the delay before the first retry, doubled for every retry
+	 * @param maxDelayMs   cap of the delay bound
+	 */
+	public BackoffRetryPolicy(int timeoutMs, int maxRetries, int baseDelayMs, int maxDelayMs){
+		this(timeoutMs, maxRetries, baseDelayMs, maxDelayMs, null, RANDOM);
+	}
+
+
+	BackoffRetryPolicy(int timeoutMs, int maxRetries, int baseDelayMs, int maxDelayMs,
+			RetryBudget budget, Random random){
+		if(maxRetries < 0 || baseDelayMs < 0 || maxDelayMs < baseDelayMs){
+			throw new IllegalArgumentException("Invalid retry policy");
+		}
+		this.timeoutMs = timeoutMs;
+		this.maxRetries = maxRetries;
+		this.baseDelayMs = baseDelayMs;
+		this.maxDelayMs = maxDelayMs;
+		this.budget = budget;
+		this.random = random;
+		if(budget != null){
+			budget.deposit();
+		}
+	}
+
+
+	/**
+	 * The policy of the requests which did not set their own
+	 */
+	static BackoffRetryPolicy defaultPolicy(int maxRetries, int baseDelayMs, int maxDelayMs,
+			RetryBudget budget){
+		return new BackoffRetryPolicy(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS, maxRetries, baseDelayMs,
+				maxDelayMs, budget, RANDOM);
+	}
+
+
+	/**
+	 * Set by {@link BaseRequest#setRetryPolicy}, to stop waiting when the request is cancelled
+	 */
+	void bind(Request<?> request){
+		this.request = request;
+	}
+
+
+	boolean isRequestCanceled(){
+		Request<?> request = this.request;
+		return request != null && request.isCanceled();
+	}
+
+
+	@Override
+	public int getCurrentTimeout() {
+		return timeoutMs;
+	}
+
+
+	@Override
+	public int getCurrentRetryCount() {
+		return retryCount;
+	}
+
+
+	@Override
+	public void retry(VolleyError error) throws VolleyError {
+		retryCount++;
+		if(retryCount > maxRetries || (budget != null && !budget.tryWithdraw())){
+			throw error;
+		}
+		long delay = delayBeforeRetry(retryCount);
+		if(delay > 0){
+			if(!ALLOWANCE.get().tryTake(System.currentTimeMillis(), delay)){
+				throw error;
+			}
+			waitUnlessCanceled(delay, error);
+		}
+	}
+
+
+	private void waitUnlessCanceled(long delay, VolleyError error) throws VolleyError {
+		long deadline = System.currentTimeMillis() + delay;
+		long remaining = delay;
+		while(remaining > 0){
+			if(isRequestCanceled()){
+				throw error;
+			}
+			try {
+				Thread.sleep(Math.min(SLICE_MS, remaining));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw error;
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+		if(isRequestCanceled()){
+			throw error;
+		}
+	}
+
+
+	/**
+	 * A random delay between 0 and the bound of a retry
+	 * @param retry the retry number, starting at 1
+	 */
+	long delayBeforeRetry(int retry){
+		if(baseDelayMs == 0){
+			return 0;
+		}
+		int shift = Math.min(retry - 1, 30);
+		long bound = Math.min(maxDelayMs, (long) baseDelayMs << shift);
+		return (long) (random.nextDouble() * (bound + 1));
+	}
+
+
+	/**
+	 * The time a thread may wait before retries, {@code maxWaitMs} every {@code windowMs}
+	 */
+	static final class WaitAllowance {
+		private final long windowMs;
+		private final long maxWaitMs;
+		private long windowStart = -1;
+		private long waited;
+
+		WaitAllowance(long windowMs, long maxWaitMs){
+			this.windowMs = windowMs;
+			this.maxWaitMs = maxWaitMs;
+		}
+
+		/**
+		 * @return whether the thread may wait {@code delayMs} more, counted if so
+		 */
+		boolean tryTake(long nowMs, long delayMs){
+			if(windowStart < 0 || nowMs - windowStart >= windowMs){
+				windowStart = nowMs;
+				waited = 0;
+			}
+			if(waited + delayMs > maxWaitMs){
+				return false;
+			}
+			waited += delayMs;
+			return true;
+		}
+	}
+
+}
@@ -14,23 +14,40 @@
 
 package com.android.volleyplus;
 
+import android.os.AsyncTask;
 import android.util.Log;
 
 import com.android.volley.AuthFailureError;
+import com.android.volley.Cache;
 import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkDispatcher;
 import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
 import com.android.volley.ParseError;
 import com.android.volley.Request;
 import com.android.volley.Response;
+import com.android.volley.RetryPolicy;
+import com.android.volley.VolleyError;
 import com.android.volley.VolleyLog;
 import com.android.volley.toolbox.HttpHeaderParser;
+import com.android.volleyplus.toolbox.CodecException;
+import com.android.volleyplus.toolbox.RequestMetrics;
+import com.android.volleyplus.toolbox.UrlTemplate;
 
 import org.json.JSONException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
 import java.net.URLEncoder;
+import java.util.Collections;
 import java.util.Map;
 
+import static com.android.volleyplus.toolbox.Utils.checkNotNull;
+
 /**
  *
  * Created by liujian (xiaojianmailbox@gmail.com) on 2016/9/28 14:51
@@ -43,12 +60,73 @@ public abstract class BaseRequest<T> extends Request<T> {
 
     private static final String HEADER_COOKIE = "Cookie";
 
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+
     /**Http request method**/
     private int method;
 
     /**Callback interface for https request**/
     private ResponseListener<T> mResponseListener;
 
+    /**Whether identical in-flight requests may share this request's response**/
+    private boolean mShouldCoalesce = true;
+
+    /**Whether this request may be packed into a {@link BatchRequest}**/
+    private boolean mShouldBatch = false;
+
+    /**Whether this request is kept in the {@link RequestOutbox} until it is answered**/
+    private boolean mDurable = false;
+
+    /**Whether a second copy of this GET request is sent if it is slow to answer**/
+    private boolean mHedged = false;
+
+    /**Whether the response body is parsed from the connection's stream instead of a buffer**/
+    private boolean mShouldStream = false;
+
+    /**The response parsed from the stream by the last attempt, not yet handed to the dispatcher**/
+    private volatile Response<T> mStreamedResponse;
+
+    /**Timing breakdown of this request, null if metrics are disabled**/
+    private volatile RequestMetrics mMetrics;
+
+    /**The connection performing this request, if it is in flight**/
+    private volatile HttpURLConnection mConnection;
+
+    /**The coalesced call this request is leading, if any**/
+    volatile RequestCoalescer.Call mCoalescedCall;
+
+    /**How this request uses the response cache**/
+    private CachePolicy mCachePolicy = CachePolicy.SERVER;
+
+    /**The parse stage of the lane dispatching this request, if any**/
+    volatile ParseStage mParseStage;
+
+    /**The race between this request and its copy, if it is hedged**/
+    volatile RequestHedger.Hedge<T> mHedge;
+
+    /**Timeouts set by {@link #setConnectTimeoutMs} and {@link #setReadTimeoutMs}, 0 if unset**/
+    private int mConnectTimeoutMs;
+    private int mReadTimeoutMs;
+
+    /**Whether the timeouts are derived from the endpoint's latencies**/
+    volatile boolean mAdaptiveTimeouts;
+
+    /**Timeouts derived from the endpoint's latencies, 0 while they are unknown**/
+    volatile int mAdaptiveConnectTimeoutMs;
+    volatile int mAdaptiveReadTimeoutMs;
+
+    /**The retry policy set by the constructor**/
+    private final RetryPolicy mDefaultRetryPolicy;
+
+    /**The url built by the first call to {@link #getUrl()}**/
+    private volatile String mUrl;
+
+    /**Whether the response being parsed comes from the cache dispatcher**/
+    private volatile boolean mCacheHit;
+
+    /**Whether the network answered with the cached entry, which must not be stored again**/
+    volatile boolean mServedFromCache;
+
 
     /**
      * @param method Http request method
@@ -59,7 +137,8 @@ public abstract class BaseRequest<T> extends Request<T> {
         this.method = method;
         mResponseListener = listener;
 
-        setRetryPolicy(new DefaultRetryPolicy(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS, 3, 1));
+        mDefaultRetryPolicy = new DefaultRetryPolicy(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS, 3, 1);
+        setRetryPolicy(mDefaultRetryPolicy);
     }
 
     @Override
@@ -69,10 +148,30 @@ public abstract class BaseRequest<T> extends Request<T> {
 
     /**
      * Get the url for request, different request need its corresponding url
-     * which implemented by {@link #subPath()} extented by the child class
+     * which implemented by {@link #subPath()} extented by the child class. The url is built on the
+     * first call and reused, call {@link #invalidateUrl()} if its parts change afterwards.
      */
     @Override
     public String getUrl() {
+        String url = mUrl;
+        if(url == null){
+            url = buildUrl();
+            mUrl = url;
+        }
+        return url;
+    }
+
+
+    /**
+     * Forget the url built by {@link #getUrl()}, so that the next call builds it again from
+     * {@link #subPath()} and {@link #getQueryParams()}.
+     */
+    protected void invalidateUrl(){
+        mUrl = null;
+    }
+
+
+    private String buildUrl() {
         String url = VolleyPlus.getInstance().getBaseUrl() + subPath();
 
         if(method == Method.POST){
@@ -97,6 +196,9 @@ public abstract class BaseRequest<T> extends Request<T> {
      * Converts <code>params</code> into an application/x-www-form-urlencoded encoded string.
      */
     protected String encodeParameters(Map<String, String> params, String paramsEncoding) {
+        if(DEFAULT_CHARSET.equalsIgnoreCase(paramsEncoding)){
+            return UrlTemplate.encodeQuery(params);
+        }
         StringBuilder encodedParams = new StringBuilder();
         try {
             boolean first = true;
@@ -141,6 +243,258 @@ public abstract class BaseRequest<T> extends Request<T> {
     }
 
 
+    /**
+     * Set whether or not this request may share the response of an identical in-flight request
+     * when coalescing is enabled by {@link VolleyConfiguration.Builder#coalesceRequests}.
+     */
+    public void setShouldCoalesce(boolean shouldCoalesce){
+        mShouldCoalesce = shouldCoalesce;
+    }
+
+
+    /**
+     * Returns true if this request may share the response of an identical in-flight request.
+     */
+    public boolean shouldCoalesce(){
+        return mShouldCoalesce;
+    }
+
+
+    /**
+     * Set whether or not this request may be packed with other requests into a
+     * {@link BatchRequest} when batching is enabled by {@link VolleyConfiguration.Builder#batch}.
+     * A {@link CodecRequest} with a request body is always sent alone, the batch only carries
+     * params.
+     */
+    public void setShouldBatch(boolean shouldBatch){
+        mShouldBatch = shouldBatch;
+    }
+
+
+    /**
+     * Returns true if this request may be packed into a {@link BatchRequest}.
+     */
+    public boolean shouldBatch(){
+        return mShouldBatch;
+    }
+
+
+    /**
+     * Set whether or not this request is written to the {@link RequestOutbox} and sent again until
+     * the server answers it, even after a restart. Only applies to requests which are not GET, when
+     * the outbox is enabled by {@link VolleyConfiguration.Builder#outbox(int)}.
+     * <p>
+     * The Authorization, Proxy-Authorization and Cookie headers are not written to the disk. Set a
+     * {@link RequestOutbox.CredentialProvider} to add them again to the requests sent after a
+     * restart.
+     */
+    public void setDurable(boolean durable){
+        mDurable = durable;
+    }
+
+
+    /**
+     * Returns true if this request is kept in the {@link RequestOutbox} until it is answered.
+     */
+    public boolean isDurable(){
+        return mDurable;
+    }
+
+
+    /**
+     * Set whether or not a second copy of this request is sent when it did not get a response
+     * after the delay set by {@link VolleyConfiguration.Builder#hedging(long, int)}. The first
+     * response is delivered and the other copy is cancelled. Only applies to GET requests, which
+     * must be idempotent, and not to streamed ones such as downloads.
+     */
+    public void setHedged(boolean hedged){
+        mHedged = hedged;
+    }
+
+
+    /**
+     * Returns true if a second copy of this request may be sent when it is slow to answer.
+     */
+    public boolean isHedged(){
+        return mHedged;
+    }
+
+
+    /**
+     * Set whether or not the response body is parsed straight from the connection's stream by
+     * {@link #parseNetworkEntity(InputStream, String)}, on the network thread, instead of being
+     * buffered and turned into a String first. Keeps the peak memory of large responses near the
+     * size of the parsed entity. Streamed responses are never written to the cache, as their body
+     * is not kept.
+     */
+    public void setShouldStream(boolean shouldStream){
+        mShouldStream = shouldStream;
+    }
+
+
+    /**
+     * Returns true if the response body is parsed straight from the connection's stream.
+     */
+    public boolean shouldStream(){
+        return mShouldStream;
+    }
+
+
+    /**
+     * Set the time allowed to open the connection, instead of the timeout of the retry policy or
+     * the adaptive timeout of {@link VolleyConfiguration.Builder#adaptiveTimeouts()}. Only applied
+     * by {@link com.android.volleyplus.toolbox.SslHurlStack}, other stacks use the timeout of the
+     * retry policy for both phases.
+     * @param timeoutMs timeout in milliseconds, 0 to unset
+     */
+    public void setConnectTimeoutMs(int timeoutMs){
+        if(timeoutMs < 0){
+            throw new IllegalArgumentException("timeoutMs < 0");
+        }
+        mConnectTimeoutMs = timeoutMs;
+    }
+
+
+    /**
+     * Returns the time allowed to open the connection of the current attempt.
+     */
+    public int getConnectTimeoutMs(){
+        return timeoutMs(mConnectTimeoutMs, mAdaptiveConnectTimeoutMs);
+    }
+
+
+    /**
+     * Set the time allowed to wait for the response's bytes, instead of the timeout of the retry
+     * policy or the adaptive timeout of {@link VolleyConfiguration.Builder#adaptiveTimeouts()}.
+     * Only applied by {@link com.android.volleyplus.toolbox.SslHurlStack}.
+     * @param timeoutMs timeout in milliseconds, 0 to unset
+     */
+    public void setReadTimeoutMs(int timeoutMs){
+        if(timeoutMs < 0){
+            throw new IllegalArgumentException("timeoutMs < 0");
+        }
+        mReadTimeoutMs = timeoutMs;
+    }
+
+
+    /**
+     * Returns the time allowed to wait for the response's bytes in the current attempt.
+     */
+    public int getReadTimeoutMs(){
+        return timeoutMs(mReadTimeoutMs, mAdaptiveReadTimeoutMs);
+    }
+
+
+    private int timeoutMs(int timeoutMs, int adaptiveTimeoutMs){
+        if(timeoutMs > 0){
+            return timeoutMs;
+        }
+        return adaptiveTimeoutMs > 0 ? adaptiveTimeoutMs : getTimeoutMs();
+    }
+
+
+    /**
+     * Set how this request uses the response cache, {@link CachePolicy#SERVER} by default.
+     * {@link CachePolicy#NETWORK_ONLY} is the same as {@code setShouldCache(false)}.
+     */
+    public void setCachePolicy(CachePolicy cachePolicy){
+        mCachePolicy = checkNotNull(cachePolicy, "cachePolicy == null");
+        setShouldCache(cachePolicy.type != CachePolicy.TYPE_NETWORK_ONLY);
+    }
+
+
+    public CachePolicy getCachePolicy(){
+        return mCachePolicy;
+    }
+
+
+    /**
+     * Returns the timing breakdown of this request, or null if no
+     * {@link com.android.volleyplus.toolbox.MetricsListener} is configured.
+     */
+    public RequestMetrics getMetrics(){
+        return mMetrics;
+    }
+
+
+    void setMetrics(RequestMetrics metrics){
+        mMetrics = metrics;
+    }
+
+
+    /**
+     * Returns true if the retry policy set by the constructor has not been replaced
+     */
+    boolean hasDefaultRetryPolicy(){
+        return getRetryPolicy() == mDefaultRetryPolicy;
+    }
+
+
+    /**
+     * A {@link BackoffRetryPolicy} stops waiting before a retry when this request is cancelled
+     */
+    @Override
+    public Request<?> setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy instanceof BackoffRetryPolicy) {
+            ((BackoffRetryPolicy) retryPolicy).bind(this);
+        }
+        return super.setRetryPolicy(retryPolicy);
+    }
+
+
+    /**
+     * Called by the {@link com.android.volley.toolbox.HttpStack} performing this request with
+     * the connection in use, so that cancelling the request aborts the exchange instead of
+     * letting it hold a network thread until it completes.
+     * @param connection the open connection, or null once the exchange is done
+     */
+    public void setConnection(HttpURLConnection connection){
+        mConnection = connection;
+        if(connection != null && isCanceled()){
+            connection.disconnect();
+        }
+    }
+
+
+    @Override
+    public void cancel() {
+        super.cancel();
+
+        final HttpURLConnection connection = mConnection;
+        if(connection != null){
+            // Closing the socket may write to it, keep that off the calling (main) thread
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connection.disconnect();
+                }
+            });
+        }
+
+        RequestHedger.Hedge<T> hedge = mHedge;
+        if(hedge != null){
+            hedge.onPrimaryCanceled();
+        }
+    }
+
+
+    @Override
+    public void addMarker(String tag) {
+        super.addMarker(tag);
+
+        if("cache-hit".equals(tag)){
+            mCacheHit = true;
+        }else if("network-queue-take".equals(tag)){
+            mCacheHit = false;
+        }
+
+        RequestMetrics metrics = mMetrics;
+        if(metrics != null){
+            metrics.onMarker(tag);
+        }
+    }
+
+
     /**
      * Get the related url (excepted the domain)
      */
@@ -179,34 +533,224 @@ public abstract class BaseRequest<T> extends Request<T> {
     protected abstract T parseNetworkEntity(String json) throws JSONException;
 
 
-    @Override
-    protected void deliverResponse(T response) {
-        mResponseListener.onResponse(response);
+    /**
+     * Parse the response body of a streamed request, see {@link #setShouldStream}. Override this
+     * or {@link #parseNetworkEntity(Reader)} to parse incrementally, the default implementation
+     * decodes the body with {@code charset}.
+     * @param in the body of the response, closed by the caller
+     * @param charset the charset of the body
+     * @return The parsed entity
+     * @throws IOException if reading the body fails, the request is then retried or fails like
+     *         for any network error
+     * @throws JSONException
+     */
+    protected T parseNetworkEntity(InputStream in, String charset) throws IOException, JSONException {
+        return parseNetworkEntity(new InputStreamReader(in, charset));
     }
 
 
-    @Override
-    protected Response<T> parseNetworkResponse(NetworkResponse response){
-        if(VolleyLog.DEBUG){
-            NetworkResponse responseLog = response;
-            Log.d("VolleyLog", "[Request] " + this.toString() + "\n[Response] " + "statusCode: " +
-                    responseLog.statusCode + " \nheaders: " + responseLog.headers.toString() + " " +
-                    "\ndata: " + new String(responseLog.data));
+    /**
+     * Parse the decoded response body of a streamed request, e.g. with an
+     * {@link android.util.JsonReader}. The default implementation reads the whole body and calls
+     * {@link #parseNetworkEntity(String)}.
+     */
+    protected T parseNetworkEntity(Reader reader) throws IOException, JSONException {
+        StringBuilder body = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            body.append(buffer, 0, read);
         }
+        return parseNetworkEntity(body.toString());
+    }
+
+
+    /**
+     * Called by {@link StreamingHttpStack} on the network thread with the body of a successful
+     * response, the result is returned by {@link #parseNetworkResponse}.
+     * @param headers the response headers, case insensitive
+     */
+    void parseStream(InputStream in, int statusCode, Map<String, String> headers) throws IOException {
+        onStreamStarted(statusCode, headers);
+        String contentType = headers.get(HEADER_CONTENT_TYPE);
+        RequestMetrics metrics = mMetrics;
+        if(metrics != null){
+            metrics.markParseStart();
+        }
+        try{
+            mStreamedResponse = Response.success(readEntity(in, contentType), null);
+        } catch (JSONException e){
+            mStreamedResponse = Response.error(new ParseError(e));
+        } catch (CodecException e){
+            mStreamedResponse = Response.error(new ParseError(e));
+        } finally {
+            if(metrics != null){
+                metrics.markParseEnd(0);
+            }
+        }
+    }
+
+
+    /**
+     * Called before the body of a streamed response is read
+     */
+    void onStreamStarted(int statusCode, Map<String, String> headers) throws IOException {
+    }
+
+
+    /**
+     * Read the entity from the body of a streamed response
+     * @param contentType the Content-Type of the response, may be null
+     */
+    T readEntity(InputStream in, String contentType) throws IOException, JSONException {
+        Map<String, String> headers = contentType == null
+                ? Collections.<String, String>emptyMap()
+                : Collections.singletonMap(HEADER_CONTENT_TYPE, contentType);
+        return parseNetworkEntity(in, HttpHeaderParser.parseCharset(headers));
+    }
 
+
+    /**
+     * Read the entity from the buffered body of a response
+     */
+    T readEntity(NetworkResponse response) throws IOException, JSONException {
         String parsed;
         try{
             parsed = new String(response.data, HttpHeaderParser.parseCharset(response.headers));
         } catch (UnsupportedEncodingException e){
             parsed = new String(response.data);
         }
+        if(VolleyLog.DEBUG){
+            logResponse(response, parsed);
+        }
+        return parseNetworkEntity(parsed);
+    }
+
+
+    @Override
+    protected void deliverResponse(T response) {
+        RequestHedger.Hedge<T> hedge = mHedge;
+        if(hedge != null && !hedge.onPrimaryResponse()){
+            return;
+        }
+        deliverResponseNow(response);
+    }
+
+
+    void deliverResponseNow(T response) {
+        RequestMetrics metrics = mMetrics;
+        if(metrics != null){
+            metrics.markDelivered();
+        }
+        mResponseListener.onResponse(response);
+
+        RequestCoalescer.Call call = mCoalescedCall;
+        if(call != null){
+            call.deliverResponse(response);
+        }
+    }
+
+
+    @Override
+    public void deliverError(VolleyError error) {
+        RequestHedger.Hedge<T> hedge = mHedge;
+        if(hedge != null && !hedge.onPrimaryError()){
+            return;
+        }
+        deliverErrorNow(error);
+    }
+
+
+    void deliverErrorNow(VolleyError error) {
+        RequestMetrics metrics = mMetrics;
+        if(metrics != null){
+            metrics.markDelivered();
+        }
+        // The error listener of Request is the one given to the constructor
+        ResponseListener<T> listener = mResponseListener;
+        if(listener != null){
+            listener.onErrorResponse(error);
+        }
+
+        RequestCoalescer.Call call = mCoalescedCall;
+        if(call != null){
+            call.deliverError(error);
+        }
+    }
+
+
+    /**
+     * Parse the response, on the lane's {@link ParseStage} if it has one and the response comes
+     * from the network. Subclasses should override {@link #parseNetworkEntity(String)} rather
+     * than this method: when the parse is deferred, this returns a placeholder.
+     */
+    @Override
+    protected Response<T> parseNetworkResponse(NetworkResponse response){
+        // The body has been read, nothing left to abort
+        mConnection = null;
+
+        ParseStage stage = mParseStage;
+        if(stage != null && !mCacheHit && mStreamedResponse == null
+                && Thread.currentThread() instanceof NetworkDispatcher){
+            return stage.defer(this, response);
+        }
+        return parseNow(response);
+    }
+
 
+    /**
+     * Parse the response on the calling thread
+     */
+    Response<T> parseNow(NetworkResponse response){
+        Response<T> streamed = mStreamedResponse;
+        if(streamed != null){
+            mStreamedResponse = null;
+            if(VolleyLog.DEBUG){
+                logResponse(response, "<streamed>");
+            }
+            return streamed;
+        }
+
+        long now = System.currentTimeMillis();
+        if(mCacheHit && mCachePolicy.type == CachePolicy.TYPE_OFFLINE_ONLY
+                && !mCachePolicy.isUsable(response.headers, now)){
+            return Response.error(new NoConnectionError());
+        }
+
+        RequestMetrics metrics = mMetrics;
+        if(metrics != null){
+            metrics.markParseStart();
+        }
         try{
-            T entity = parseNetworkEntity(parsed);
-            return Response.success(entity, HttpHeaderParser.parseCacheHeaders(response));
+            T entity = readEntity(response);
+            return Response.success(entity, cacheEntryFor(response));
         } catch (JSONException e){
             return Response.error(new ParseError(e));
+        } catch (IOException e){
+            return Response.error(new ParseError(e));
+        } finally {
+            if(metrics != null){
+                metrics.markParseEnd(response.data.length);
+            }
+        }
+    }
+
+
+    private void logResponse(NetworkResponse response, String body){
+        Log.d("VolleyLog", "[Request] " + this.toString() + "\n[Response] " + "statusCode: " +
+                response.statusCode + " \nheaders: " + response.headers.toString() + " " +
+                "\ndata: " + body);
+    }
+
+
+    /**
+     * The cache entry to store for a response, null if it comes from the cache
+     */
+    private Cache.Entry cacheEntryFor(NetworkResponse response){
+        if(mCacheHit || mServedFromCache){
+            return null;
         }
+        return mCachePolicy.entryFor(response, System.currentTimeMillis());
     }
 
 
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.volleyplus;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.VolleyError;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs several {@link BaseRequest}s into one POST to a batch endpoint. The requests are sent as
+ * <pre>
+ * {"requests": [{"id": 0, "method": "GET", "path": "users/1", "params": {"key": "value"},
+ *     "headers": {"Accept": "application/json"}}, ...]}
+ * </pre>
+ * and the server is expected to answer
+ * <pre>
+ * {"responses": [{"id": 0, "status": 200, "body": "..."}, ...]}
+ * </pre>
+ * Every body is handed to the {@link BaseRequest#parseNetworkEntity(String)} of the request having
+ * the same id, the result is delivered to that request's listener.
+ * <p>
+ * Batches are assembled by {@link VolleyPlus} for the requests marked with
+ * {@link BaseRequest#setShouldBatch(boolean)}, see {@link VolleyConfiguration.Builder#batch}.
+ */
+public class BatchRequest extends BaseRequest<List<BatchRequest.Part>> {
+
+    private static final String PROTOCOL_CONTENT_TYPE = "application/json; charset=utf-8";
+
+    private final String batchPath;
+
+    private final List<Part> parts;
+
+
+    BatchRequest(String batchPath, List<BaseRequest<?>> requests) {
+        super(Method.POST, null);
+        this.batchPath = batchPath;
+        List<Part> parts = new ArrayList<>(requests.size());
+        for(int i = 0; i < requests.size(); i++){
+            parts.add(new Part(i, requests.get(i)));
+        }
+        this.parts = Collections.unmodifiableList(parts);
+
+        setShouldCache(false);
+    }
+
+
+    /**
+     * The requests packed into this batch
+     */
+    public List<Part> getParts(){
+        return parts;
+    }
+
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        for(Part part : parts){
+            part.request.cancel();
+        }
+    }
+
+
+    @Override
+    protected void deliverResponse(List<Part> response) {
+        for(Part part : response){
+            part.deliver();
+        }
+    }
+
+
+    @Override
+    public void deliverError(VolleyError error) {
+        for(Part part : parts){
+            part.error = error;
+            part.deliver();
+        }
+    }
+
+
+    @Override
+    protected String subPath() {
+        return batchPath;
+    }
+
+
+    @Override
+    protected Map<String, String> getPostParams() throws AuthFailureError {
+        return null;
+    }
+
+
+    @Override
+    protected Map<String, String> getQueryParams() throws AuthFailureError {
+        return null;
+    }
+
+
+    @Override
+    public String getBodyContentType() {
+        return PROTOCOL_CONTENT_TYPE;
+    }
+
+
+    @Override
+    public byte[] getBody() throws AuthFailureError {
+        try {
+            JSONArray requests = new JSONArray();
+            for(Part part : parts){
+                BaseRequest<?> request = part.request;
+                Map<String, String> params = request.getMethod() == Method.GET
+                        ? request.getQueryParams() : request.getPostParams();
+                requests.put(encodePart(part.id, request.getMethod(), request.subPath(), params,
+                        request.getHeaders()));
+            }
+            return new JSONObject().put("requests", requests).toString().getBytes("UTF-8");
+        } catch (JSONException e) {
+            throw new IllegalStateException("Can not encode batch", e);
+        } catch (UnsupportedEncodingException uee) {
+            throw new RuntimeException("Encoding not supported: UTF-8", uee);
+        }
+    }
+
+
+    /**
+     * The entry of a request in the batch, its headers (authorization, Accept...) included since
+     * the batch POST only carries its own
+     */
+    static JSONObject encodePart(int id, int method, String path, Map<String, String> params,
+            Map<String, String> headers) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("method", methodName(method));
+        json.put("path", path);
+        if(params != null){
+            json.put("params", new JSONObject(params));
+        }
+        if(headers != null && !headers.isEmpty()){
+            json.put("headers", new JSONObject(headers));
+        }
+        return json;
+    }
+
+
+    /**
+     * Split the batch response and let every packed request parse its own part
+     */
+    @Override
+    protected List<Part> parseNetworkEntity(String json) throws JSONException {
+        String[] bodies = new String[parts.size()];
+        VolleyError[] errors = splitResponses(json, bodies);
+        for(Part part : parts){
+            if(errors[part.id] != null){
+                part.error = errors[part.id];
+                continue;
+            }
+            try {
+                part.entity = part.request.parseNetworkEntity(bodies[part.id]);
+            } catch (JSONException e) {
+                part.error = new ParseError(e);
+            }
+        }
+        return parts;
+    }
+
+
+    /**
+     * Read the body of every part by id. A part without a response gets a {@link ParseError},
+     * a part answered with a non 2xx status a {@link ServerError}, unknown ids are ignored.
+     * @param bodies receives the bodies, as many as the parts
+     * @return the errors of the parts, null for the parts to parse
+     */
+    static VolleyError[] splitResponses(String json, String[] bodies) throws JSONException {
+        VolleyError[] errors = new VolleyError[bodies.length];
+        boolean[] answered = new boolean[bodies.length];
+        JSONArray responses = new JSONObject(json).getJSONArray("responses");
+        for(int i = 0; i < responses.length(); i++){
+            JSONObject response = responses.getJSONObject(i);
+            int id = response.getInt("id");
+            if(id < 0 || id >= bodies.length){
+                continue;
+            }
+            answered[id] = true;
+            int status = response.optInt("status", 200);
+            Object body = response.opt("body");
+            String content = body == null || body == JSONObject.NULL ? null : body.toString();
+
+            if(status < 200 || status > 299){
+                byte[] data;
+                try {
+                    data = content == null ? new byte[0] : content.getBytes("UTF-8");
+                } catch (UnsupportedEncodingException uee) {
+                    throw new RuntimeException("Encoding not supported: UTF-8", uee);
+                }
+                errors[id] = new ServerError(new NetworkResponse(status, data,
+                        Collections.<String, String>emptyMap(), false));
+                continue;
+            }
+            bodies[id] = content;
+        }
+
+        for(int id = 0; id < bodies.length; id++){
+            if(!answered[id]){
+                errors[id] = new ParseError(new JSONException("No response for request " + id));
+            }
+        }
+        return errors;
+    }
+
+
+    private static String methodName(int method){
+        switch (method){
+            case Method.GET:
+                return "GET";
+            case Method.POST:
+                return "POST";
+            case Method.PUT:
+                return "PUT";
+            case Method.DELETE:
+                return "DELETE";
+            case Method.PATCH:
+                return "PATCH";
+            default:
+                throw new IllegalArgumentException("Method can not be batched: " + method);
+        }
+    }
+
+
+    /**
+     * Returns true if the request can be packed into a batch
+     */
+    static boolean isBatchable(Request<?> request){
+        if(!(request instanceof BaseRequest) || request instanceof MultipartRequest
+                || request instanceof BatchRequest){
+            return false;
+        }
+        // The envelope carries params, not the encoded body of a codec request
+        if(request instanceof CodecRequest && ((CodecRequest<?>) request).getRequestBody() != null){
+            return false;
+        }
+        switch (request.getMethod()){
+            case Method.GET:
+            case Method.POST:
+            case Method.PUT:
+            case Method.DELETE:
+            case Method.PATCH:
+                return ((BaseRequest<?>) request).shouldBatch();
+            default:
+                return false;
+        }
+    }
+
+
+    /**
+     * One request packed into a batch, and its result
+     */
+    public static final class Part {
+        final int id;
+        final BaseRequest<?> request;
+        volatile Object entity;
+        volatile VolleyError error;
+
+        Part(int id, BaseRequest<?> request){
+            this.id = id;
+            this.request = request;
+        }
+
+        public BaseRequest<?> getRequest(){
+            return request;
+        }
+
+        @SuppressWarnings("unchecked")
+        void deliver(){
+            if(request.isCanceled()){
+                return;
+            }
+            if(error != null){
+                request.deliverError(error);
+            }else{
+                ((BaseRequest) request).deliverResponse(entity);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Delivers the responses and errors on the main thread in batches, at most one batch per frame,
+ * instead of posting a message per response. HIGH and IMMEDIATE priority requests skip the batch.
+ */
+final class BatchedDelivery implements ResponseDelivery {
+
+	private final ResponseDelivery immediate;
+	private final ResponseDelivery batched;
+
+
+	/**
+	 * @param immediate  delivery of the priority requests
+	 * @param frames     runs the batches, shared by the lanes so that the cap applies to all
+	 */
+	BatchedDelivery(ResponseDelivery immediate, FrameExecutor frames){
+		this.immediate = immediate;
+		this.batched = new ExecutorDelivery(frames);
+	}
+
+
+	@Override
+	public void postResponse(Request<?> request, Response<?> response) {
+		deliveryFor(request).postResponse(request, response);
+	}
+
+
+	@Override
+	public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
+		deliveryFor(request).postResponse(request, response, runnable);
+	}
+
+
+	@Override
+	public void postError(Request<?> request, VolleyError error) {
+		deliveryFor(request).postError(request, error);
+	}
+
+
+	private ResponseDelivery deliveryFor(Request<?> request){
+		return request.getPriority().ordinal() >= Request.Priority.HIGH.ordinal() ? immediate : batched;
+	}
+
+
+	/**
+	 * Runs the queued deliveries on the next frame, until a cap or a time budget is reached. The
+	 * deliveries left run on the following frames.
+	 */
+	static final class FrameExecutor implements Executor, Runnable, Choreographer.FrameCallback {
+		private final Handler handler = new Handler(Looper.getMainLooper());
+		private final int maxPerFrame;
+		private final long budgetNanos;
+
+		/**Guarded by this**/
+		private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+
+		/**Whether a frame callback is posted or about to be, guarded by this**/
+		private boolean scheduled = false;
+
+
+		/**
+		 * @param maxPerFrame  deliveries run per frame at most
+		 * @param budgetMs     time after which no more deliveries are run in a frame
+		 */
+		FrameExecutor(int maxPerFrame, int budgetMs){
+			this.maxPerFrame = maxPerFrame;
+			this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMs);
+		}
+
+
+		@Override
+		public void execute(Runnable command) {
+			synchronized (this){
+				pending.add(command);
+				if(scheduled){
+					return;
+				}
+				scheduled = true;
+			}
+			// The Choreographer is bound to the thread of its looper
+			handler.post(this);
+		}
+
+
+		@Override
+		public void run() {
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+
+
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			long start = System.nanoTime();
+			for(int i = 0; i < maxPerFrame && System.nanoTime() - start < budgetNanos; i++){
+				Runnable command;
+				synchronized (this){
+					command = pending.poll();
+				}
+				if(command == null){
+					break;
+				}
+				command.run();
+			}
+
+			synchronized (this){
+				if(pending.isEmpty()){
+					scheduled = false;
+					return;
+				}
+			}
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * How a {@link BaseRequest} uses the response cache. The cache headers of the server decide by
+ * default ({@link #SERVER}), the other policies decide how long the responses they store are fresh
+ * or usable, whatever the server says, unless it forbids storing them with "no-store".
+ *
+ * @see BaseRequest#setCachePolicy(CachePolicy)
+ */
+public final class CachePolicy {
+
+	static final int TYPE_SERVER = 0;
+	static final int TYPE_NETWORK_ONLY = 1;
+	static final int TYPE_CACHE_FIRST = 2;
+	static final int TYPE_STALE_WHILE_REVALIDATE = 3;
+	static final int TYPE_OFFLINE_ONLY = 4;
+
+	/**Response header recording when a cached response was received from the network**/
+	static final String HEADER_RECEIVED_MILLIS = "X-VolleyPlus-Received-Millis";
+
+	/**Freshness of the responses is decided by the cache headers of the server**/
+	public static final CachePolicy SERVER = new CachePolicy(TYPE_SERVER, 0);
+
+	/**The cache is neither read nor written**/
+	public static final CachePolicy NETWORK_ONLY = new CachePolicy(TYPE_NETWORK_ONLY, 0);
+
+	final int type;
+	final long maxAgeMs;
+
+
+	private CachePolicy(int type, long maxAgeMs){
+		this.type = type;
+		this.maxAgeMs = maxAgeMs;
+	}
+
+
+	/**
+	 * A cached response younger than maxAge is delivered without touching the network. An older
+	 * one is revalidated: if the server answers "304 Not Modified" the cached data is delivered.
+	 */
+	public static CachePolicy cacheFirst(long maxAge, TimeUnit unit){
+		return new CachePolicy(TYPE_CACHE_FIRST, toMillis(maxAge, unit));
+	}
+
+
+	/**
+	 * A cached response younger than maxStale is delivered at once, then revalidated in the
+	 * background. The listener is called a second time only if the response has changed, a
+	 * "304 Not Modified" just extends the cached response's life.
+	 */
+	public static CachePolicy staleWhileRevalidate(long maxStale, TimeUnit unit){
+		return new CachePolicy(TYPE_STALE_WHILE_REVALIDATE, toMillis(maxStale, unit));
+	}
+
+
+	/**
+	 * The network is never used: a cached response younger than maxStale is delivered, otherwise
+	 * the request fails with a {@link com.android.volley.NoConnectionError}.
+	 */
+	public static CachePolicy offlineOnly(long maxStale, TimeUnit unit){
+		return new CachePolicy(TYPE_OFFLINE_ONLY, toMillis(maxStale, unit));
+	}
+
+
+	private static long toMillis(long duration, TimeUnit unit){
+		if(duration < 0){
+			throw new IllegalArgumentException("duration < 0");
+		}
+		return unit.toMillis(duration);
+	}
+
+
+	/**
+	 * The cache entry to store for a response received from the network, or null if it must not
+	 * be stored.
+	 */
+	Cache.Entry entryFor(NetworkResponse response, long now){
+		Cache.Entry entry = HttpHeaderParser.parseCacheHeaders(response);
+		if(entry == null){
+			if(type == TYPE_SERVER || isNoStore(response.headers)){
+				return null;
+			}
+			// "no-cache" only asks for a revalidation, the policy decides when it happens
+			entry = new Cache.Entry();
+			entry.data = response.data;
+			entry.etag = response.headers.get("ETag");
+			String date = response.headers.get("Date");
+			entry.serverDate = date != null ? HttpHeaderParser.parseDateAsEpoch(date) : 0;
+			String lastModified = response.headers.get("Last-Modified");
+			entry.lastModified = lastModified != null ? HttpHeaderParser.parseDateAsEpoch(lastModified) : 0;
+			entry.responseHeaders = response.headers;
+		}
+		return received(entry, now);
+	}
+
+
+	/**
+	 * A copy of a cached entry the server has just confirmed with a "304 Not Modified", or null
+	 * if the entry does not need to be stored again.
+	 */
+	Cache.Entry revalidated(Cache.Entry cached, long now){
+		if(type == TYPE_SERVER){
+			return null;
+		}
+		Cache.Entry entry = new Cache.Entry();
+		entry.data = cached.data;
+		entry.etag = cached.etag;
+		entry.serverDate = cached.serverDate;
+		entry.lastModified = cached.lastModified;
+		entry.responseHeaders = cached.responseHeaders;
+		return received(entry, now);
+	}
+
+
+	private Cache.Entry received(Cache.Entry entry, long now){
+		Map<String, String> headers = entry.responseHeaders != null
+				? new HashMap<>(entry.responseHeaders) : new HashMap<String, String>();
+		headers.put(HEADER_RECEIVED_MILLIS, String.valueOf(now));
+		entry.responseHeaders = headers;
+
+		switch (type){
+			case TYPE_CACHE_FIRST:
+			case TYPE_OFFLINE_ONLY:
+				entry.softTtl = now + maxAgeMs;
+				entry.ttl = now + maxAgeMs;
+				break;
+			case TYPE_STALE_WHILE_REVALIDATE:
+				// Always refreshed, usable until maxStale
+				entry.softTtl = now;
+				entry.ttl = now + maxAgeMs;
+				break;
+			default:
+				break;
+		}
+		return entry;
+	}
+
+
+	/**
+	 * Whether a cached response is young enough for this policy
+	 * @param headers the cached response's headers
+	 */
+	boolean isUsable(Map<String, String> headers, long now){
+		long received = receivedMillis(headers);
+		return received > 0 && now - received <= maxAgeMs;
+	}
+
+
+	private static long receivedMillis(Map<String, String> headers){
+		if(headers == null){
+			return 0;
+		}
+		String received = headers.get(HEADER_RECEIVED_MILLIS);
+		if(received != null){
+			try {
+				return Long.parseLong(received);
+			} catch (NumberFormatException ignored) {
+			}
+		}
+		String date = headers.get("Date");
+		return date != null ? HttpHeaderParser.parseDateAsEpoch(date) : 0;
+	}
+
+
+	private static boolean isNoStore(Map<String, String> headers){
+		String cacheControl = headers.get("Cache-Control");
+		return cacheControl != null && cacheControl.contains("no-store");
+	}
+
+
+	@Override
+	public String toString() {
+		switch (type){
+			case TYPE_NETWORK_ONLY:
+				return "CachePolicy[network-only]";
+			case TYPE_CACHE_FIRST:
+				return "CachePolicy[cache-first, maxAge=" + maxAgeMs + "ms]";
+			case TYPE_STALE_WHILE_REVALIDATE:
+				return "CachePolicy[stale-while-revalidate, maxStale=" + maxAgeMs + "ms]";
+			case TYPE_OFFLINE_ONLY:
+				return "CachePolicy[offline-only, maxStale=" + maxAgeMs + "ms]";
+			default:
+				return "CachePolicy[server]";
+		}
+	}
+}
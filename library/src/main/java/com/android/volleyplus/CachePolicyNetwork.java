@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.Cache;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+
+import java.net.HttpURLConnection;
+
+
+/**
+ * Applies the {@link CachePolicy} of the requests reaching the network: offline-only requests
+ * are answered from their cached entry or fail without a connection, and the entries the server
+ * confirms with a "304 Not Modified" are stored again with a new lifetime.
+ */
+final class CachePolicyNetwork implements Network {
+
+	private final Network network;
+	private final Cache cache;
+
+
+	CachePolicyNetwork(Network network, Cache cache){
+		this.network = network;
+		this.cache = cache;
+	}
+
+
+	@Override
+	public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+		if(!(request instanceof BaseRequest)){
+			return network.performRequest(request);
+		}
+		BaseRequest<?> baseRequest = (BaseRequest<?>) request;
+		CachePolicy policy = baseRequest.getCachePolicy();
+		Cache.Entry cached = request.getCacheEntry();
+
+		if(policy.type == CachePolicy.TYPE_OFFLINE_ONLY){
+			request.addMarker("offline-only");
+			if(cached != null && policy.isUsable(cached.responseHeaders, System.currentTimeMillis())){
+				baseRequest.mServedFromCache = true;
+				return new NetworkResponse(HttpURLConnection.HTTP_NOT_MODIFIED, cached.data,
+						cached.responseHeaders, true);
+			}
+			throw new NoConnectionError();
+		}
+
+		NetworkResponse response = network.performRequest(request);
+		if(response.notModified && cached != null && request.shouldCache()){
+			// Volley only stores the entry again if it parses the response, not when the cached
+			// response has already been delivered
+			Cache.Entry revalidated = policy.revalidated(cached, System.currentTimeMillis());
+			if(revalidated != null && request.hasHadResponseDelivered()){
+				cache.put(request.getCacheKey(), revalidated);
+			}
+		}
+		return response;
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+
+/**
+ * Health of one host. The circuit opens after a number of consecutive failures: requests fail
+ * fast while it is open. Once the open period is over, a single probe request is let through
+ * (half-open state), its outcome closes the circuit or opens it again.
+ */
+final class CircuitBreaker {
+
+	static final int CLOSED = 0;
+	static final int OPEN = 1;
+	static final int HALF_OPEN = 2;
+
+	private final int failureThreshold;
+	private final long openMillis;
+
+	/**State, guarded by this**/
+	private int state = CLOSED;
+	private int failures;
+	private long openedAt;
+
+
+	CircuitBreaker(int failureThreshold, long openMillis){
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+	}
+
+
+	/**
+	 * @return true if a request may be sent now
+	 */
+	synchronized boolean tryAcquire(long now){
+		switch (state){
+			case CLOSED:
+				return true;
+			case OPEN:
+				if(now - openedAt < openMillis){
+					return false;
+				}
+				state = HALF_OPEN;
+				return true;
+			default:
+				// A probe is in flight
+				return false;
+		}
+	}
+
+
+	synchronized void onSuccess(){
+		state = CLOSED;
+		failures = 0;
+	}
+
+
+	synchronized void onFailure(long now){
+		failures++;
+		if(state == HALF_OPEN || failures >= failureThreshold){
+			state = OPEN;
+			openedAt = now;
+		}
+	}
+
+
+	/**
+	 * The request was let through but its outcome says nothing about the host
+	 */
+	synchronized void onIgnored(){
+		if(state == HALF_OPEN){
+			state = OPEN;
+		}
+	}
+
+
+	synchronized int getState(){
+		return state;
+	}
+
+}
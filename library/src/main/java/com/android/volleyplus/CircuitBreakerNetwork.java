@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Network;
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Sends the requests through the {@link CircuitBreaker} of their host. Timeouts, connection
+ * failures and 5xx responses count as failures of the host, other answers as successes.
+ */
+final class CircuitBreakerNetwork implements Network {
+
+	private final Network network;
+	private final ConcurrentMap<String, CircuitBreaker> breakers;
+	private final int failureThreshold;
+	private final long openMillis;
+
+
+	/**
+	 * @param breakers breakers by host, shared by the networks of all the lanes
+	 */
+	CircuitBreakerNetwork(Network network, ConcurrentHashMap<String, CircuitBreaker> breakers,
+			int failureThreshold, long openMillis){
+		this.network = network;
+		this.breakers = breakers;
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+	}
+
+
+	@Override
+	public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+		String host = hostOf(request.getUrl());
+		if(host == null){
+			return network.performRequest(request);
+		}
+		CircuitBreaker breaker = breakers.get(host);
+		if(breaker == null){
+			CircuitBreaker created = new CircuitBreaker(failureThreshold, openMillis);
+			breaker = breakers.putIfAbsent(host, created);
+			if(breaker == null){
+				breaker = created;
+			}
+		}
+
+		if(!breaker.tryAcquire(now())){
+			request.addMarker("circuit-open");
+			throw new CircuitOpenError(host);
+		}
+		try {
+			NetworkResponse response = network.performRequest(request);
+			breaker.onSuccess();
+			return response;
+		} catch (VolleyError error) {
+			if(request.isCanceled()){
+				breaker.onIgnored();
+			}else if(isHostFailure(error)){
+				breaker.onFailure(now());
+			}else{
+				breaker.onSuccess();
+			}
+			throw error;
+		} catch (RuntimeException e) {
+			breaker.onIgnored();
+			throw e;
+		}
+	}
+
+
+	private static boolean isHostFailure(VolleyError error){
+		if(error instanceof TimeoutError){
+			return true;
+		}
+		if(error instanceof ServerError || error instanceof AuthFailureError){
+			return error.networkResponse == null || error.networkResponse.statusCode >= 500;
+		}
+		return error instanceof NetworkError;
+	}
+
+
+	private static String hostOf(String url){
+		try {
+			return url == null ? null : new URL(url).getAuthority();
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+
+	private static long now(){
+		return System.nanoTime() / 1000000;
+	}
+
+}
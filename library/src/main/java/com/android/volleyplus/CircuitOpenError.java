@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.VolleyError;
+
+
+/**
+ * Returned without sending the request while the circuit breaker of its host is open, see
+ * {@link VolleyConfiguration.Builder#circuitBreaker(int, long)}.
+ */
+public class CircuitOpenError extends VolleyError {
+
+	public CircuitOpenError(String host) {
+		super("Circuit open for " + host);
+	}
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volleyplus.toolbox.Codec;
+import com.android.volleyplus.toolbox.CodecException;
+import com.android.volleyplus.toolbox.JsonCodec;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A request whose bodies are encoded and decoded by the {@link Codec}s registered with
+ * {@link VolleyConfiguration.Builder#codec(Codec)}. The Accept header lists the registered
+ * codecs, the response is decoded straight from its bytes by the codec of its Content-Type and
+ * handed to {@link #parseNetworkBody(Object)}.
+ */
+public abstract class CodecRequest<T> extends BaseRequest<T> {
+
+    private static final String HEADER_ACCEPT = "Accept";
+
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+    private static final JsonCodec JSON = new JsonCodec();
+
+
+    /**
+     * @param method Http request method
+     * @param listener listener
+     */
+    public CodecRequest(int method, ResponseListener<T> listener) {
+        super(method, listener);
+    }
+
+
+    /**
+     * Returns the value encoded as the request body, in the data model of {@link Codec}, or null
+     * to send the parameters of {@link #getPostParams()} as a form.
+     */
+    protected Object getRequestBody() {
+        return null;
+    }
+
+
+    /**
+     * Returns the codec encoding the request body, the first registered one by default.
+     */
+    protected Codec getRequestCodec() {
+        return VolleyPlus.getInstance().getDefaultCodec();
+    }
+
+
+    /**
+     * Subclass must be implement this to build the entity from the decoded response body. This
+     * method is called on the network or parse thread.
+     * @param body the response body, in the data model of {@link Codec}
+     * @return The parsed entity
+     * @throws CodecException if the body does not have the expected shape
+     */
+    protected abstract T parseNetworkBody(Object body) throws CodecException;
+
+
+    @Override
+    protected Map<String, String> getPostParams() throws AuthFailureError {
+        return null;
+    }
+
+
+    @Override
+    protected Map<String, String> getQueryParams() throws AuthFailureError {
+        return null;
+    }
+
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        Map<String, String> headers = super.getHeaders();
+        if(headers.containsKey(HEADER_ACCEPT)){
+            return headers;
+        }
+        Map<String, String> negotiated = new HashMap<>(headers);
+        negotiated.put(HEADER_ACCEPT, VolleyPlus.getInstance().getAcceptHeader());
+        return negotiated;
+    }
+
+
+    @Override
+    public String getBodyContentType() {
+        if(getRequestBody() == null){
+            return super.getBodyContentType();
+        }
+        return getRequestCodec().mediaType();
+    }
+
+
+    @Override
+    public byte[] getBody() throws AuthFailureError {
+        Object body = getRequestBody();
+        if(body == null){
+            return super.getBody();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            getRequestCodec().encode(body, out);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot encode the body with " + getRequestCodec().mediaType(), e);
+        }
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Decodes the text with the JSON codec, for the responses split by a {@link BatchRequest}
+     */
+    @Override
+    protected final T parseNetworkEntity(String json) throws JSONException {
+        try {
+            return parseNetworkBody(JSON.decode(new ByteArrayInputStream(json.getBytes("UTF-8"))));
+        } catch (IOException e) {
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+
+    @Override
+    T readEntity(InputStream in, String contentType) throws IOException, JSONException {
+        return parseNetworkBody(codecFor(contentType).decode(in));
+    }
+
+
+    @Override
+    T readEntity(NetworkResponse response) throws IOException, JSONException {
+        Codec codec = codecFor(response.headers.get(HEADER_CONTENT_TYPE));
+        return parseNetworkBody(codec.decode(new ByteArrayInputStream(response.data)));
+    }
+
+
+    /**
+     * The codec of a response, a response without Content-Type is decoded like the request body
+     */
+    private Codec codecFor(String contentType) throws CodecException {
+        if(contentType == null){
+            return getRequestCodec();
+        }
+        Codec codec = VolleyPlus.getInstance().getCodec(contentType);
+        if(codec == null){
+            throw new CodecException("No codec for " + contentType);
+        }
+        return codec;
+    }
+
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.VolleyError;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.android.volleyplus.toolbox.Utils.checkNotNull;
+
+/**
+ * Downloads a file straight to disk: the body is copied from the connection to the file through
+ * a small buffer, so memory use does not depend on the size of the file. The listener receives
+ * the downloaded file.
+ * <p>
+ * The body is first written to {@code <target>.part}, next to the validator of the response,
+ * its strong ETag or its Last-Modified date. A download which was interrupted, by an error, a
+ * retry or the app being killed, resumes from the end of the partial file with a {@code Range}
+ * request, and {@code If-Range} makes the server send the whole file again if it changed.
+ */
+public class DownloadRequest extends BaseRequest<File> {
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_RANGE = "Range";
+    private static final String HEADER_IF_RANGE = "If-Range";
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    private static final int STATUS_PARTIAL_CONTENT = 206;
+    private static final int STATUS_RANGE_NOT_SATISFIABLE = 416;
+
+    private static final String UTF_8 = "UTF-8";
+
+    /**Shortest time between two progress reports**/
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    private final String mPath;
+    private final File mTarget;
+    private final File mPart;
+    private final File mValidator;
+    private final ProgressListener mProgressListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**Offset of the partial file where the body of the current attempt is written**/
+    private volatile long mOffset;
+
+    /**Size of the file, -1 if unknown**/
+    private volatile long mTotal;
+
+
+    /**
+     * @param path the url of the file, absolute or related to the base url
+     * @param target where the file is written, replaced once the download completes
+     * @param progressListener receives the progress on the main thread, may be null
+     * @param listener receives the target once the download completes
+     */
+    public DownloadRequest(String path, File target, ProgressListener progressListener,
+                           ResponseListener<File> listener) {
+        super(Method.GET, listener);
+        mPath = checkNotNull(path, "path == null");
+        mTarget = checkNotNull(target, "target == null");
+        mPart = new File(target.getPath() + ".part");
+        mValidator = new File(target.getPath() + ".part.validator");
+        mProgressListener = progressListener;
+        setShouldStream(true);
+        setShouldCache(false);
+        setShouldCoalesce(false);
+    }
+
+
+    @Override
+    protected String subPath() {
+        return mPath;
+    }
+
+
+    @Override
+    public String getUrl() {
+        return isAbsolute(mPath) ? mPath : super.getUrl();
+    }
+
+
+    /**
+     * Returns the url of a file, absolute or related to the base url
+     */
+    static String urlOf(String path) {
+        return isAbsolute(path) ? path : VolleyPlus.getInstance().getBaseUrl() + path;
+    }
+
+
+    private static boolean isAbsolute(String path) {
+        return path.startsWith("http://") || path.startsWith("https://");
+    }
+
+
+    @Override
+    protected Map<String, String> getPostParams() throws AuthFailureError {
+        return null;
+    }
+
+
+    @Override
+    protected Map<String, String> getQueryParams() throws AuthFailureError {
+        return null;
+    }
+
+
+    /**
+     * Returns the file being written until the download completes
+     */
+    public File getPartialFile() {
+        return mPart;
+    }
+
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        Map<String, String> headers = new HashMap<>(super.getHeaders());
+        // Ranges address the bytes as sent, a decoded body would not match them
+        headers.put(HEADER_ACCEPT_ENCODING, "identity");
+
+        long resumeFrom = resumeOffset();
+        if (resumeFrom > 0) {
+            headers.put(HEADER_RANGE, "bytes=" + resumeFrom + "-");
+            headers.put(HEADER_IF_RANGE, readValidator());
+        }
+        return headers;
+    }
+
+
+    /**
+     * Offset the next attempt resumes from, 0 if the partial file can not be resumed. Derived from
+     * the files rather than stored by {@link #getHeaders()}, which is also called by logs and
+     * lookups on other threads: only the attempt writes them, after {@link #onStreamStarted}.
+     */
+    private long resumeOffset() {
+        long length = mPart.length();
+        return length > 0 && readValidator() != null ? length : 0;
+    }
+
+
+    @Override
+    void onStreamStarted(int statusCode, Map<String, String> headers) throws IOException {
+        String range = headers.get(HEADER_CONTENT_RANGE);
+        mOffset = offsetOf(statusCode, range, resumeOffset());
+        if (statusCode == STATUS_PARTIAL_CONTENT) {
+            mTotal = parseRangeTotal(range);
+            return;
+        }
+
+        // The whole file, because it changed or the server does not support ranges
+        mTotal = parseLong(headers.get(HEADER_CONTENT_LENGTH));
+        writeValidator(validatorOf(headers.get(HEADER_ETAG), headers.get(HEADER_LAST_MODIFIED)));
+    }
+
+
+    @Override
+    protected File parseNetworkEntity(InputStream in, String charset) throws IOException {
+        File parent = mTarget.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can not create " + parent);
+        }
+
+        long written = mOffset;
+        long reported = 0;
+        FileOutputStream out = openPart(mPart, written);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (isCanceled()) {
+                    throw new IOException("Download canceled");
+                }
+                out.write(buffer, 0, read);
+                written += read;
+                long now = SystemClock.uptimeMillis();
+                if (now - reported >= PROGRESS_INTERVAL_MS) {
+                    reported = now;
+                    postProgress(written);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        long total = mTotal;
+        if (total >= 0 && written != total) {
+            throw new IOException("Download incomplete, " + written + " of " + total + " bytes");
+        }
+        if (mTarget.exists() && !mTarget.delete() || !mPart.renameTo(mTarget)) {
+            throw new IOException("Can not move the download to " + mTarget);
+        }
+        mValidator.delete();
+        postProgress(written);
+        return mTarget;
+    }
+
+
+    @Override
+    protected final File parseNetworkEntity(String body) {
+        throw new IllegalStateException("DownloadRequest must be streamed");
+    }
+
+
+    @Override
+    void deliverErrorNow(VolleyError error) {
+        // The partial file can not be resumed, start over next time
+        if (error.networkResponse != null
+                && error.networkResponse.statusCode == STATUS_RANGE_NOT_SATISFIABLE) {
+            mPart.delete();
+            mValidator.delete();
+        }
+        super.deliverErrorNow(error);
+    }
+
+
+    private void postProgress(final long bytes) {
+        final ProgressListener listener = mProgressListener;
+        if (listener == null) {
+            return;
+        }
+        final long total = mTotal;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCanceled()) {
+                    listener.onProgress(bytes, total);
+                }
+            }
+        });
+    }
+
+
+    private String readValidator() {
+        if (!mValidator.isFile()) {
+            return null;
+        }
+        try {
+            FileInputStream in = new FileInputStream(mValidator);
+            try {
+                byte[] bytes = new byte[(int) mValidator.length()];
+                int offset = 0;
+                int read;
+                while (offset < bytes.length && (read = in.read(bytes, offset, bytes.length - offset)) != -1) {
+                    offset += read;
+                }
+                String validator = new String(bytes, 0, offset, UTF_8);
+                return validator.isEmpty() ? null : validator;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+
+    private void writeValidator(String validator) throws IOException {
+        if (validator == null) {
+            mValidator.delete();
+            return;
+        }
+        FileOutputStream out = new FileOutputStream(mValidator);
+        try {
+            out.write(validator.getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Returns the offset of the partial file where a response starts
+     * @param resumeFrom the offset requested by the Range header, 0 if none
+     * @throws IOException if a partial response does not start at the requested offset
+     */
+    static long offsetOf(int statusCode, String contentRange, long resumeFrom) throws IOException {
+        if (statusCode != STATUS_PARTIAL_CONTENT) {
+            return 0;
+        }
+        if (contentRange == null || parseRangeStart(contentRange) != resumeFrom) {
+            throw new IOException("Unexpected Content-Range: " + contentRange);
+        }
+        return resumeFrom;
+    }
+
+
+    /**
+     * Returns the validator of a full response, its strong ETag or else its Last-Modified date
+     */
+    static String validatorOf(String etag, String lastModified) {
+        return etag != null && !etag.startsWith("W/") ? etag : lastModified;
+    }
+
+
+    /**
+     * Open the partial file to write a body starting at an offset, a body starting at 0 replaces
+     * the file
+     * @throws IOException if the partial file does not end at the offset
+     */
+    static FileOutputStream openPart(File part, long offset) throws IOException {
+        if (offset > 0 && part.length() != offset) {
+            throw new IOException("The partial file changed during the download");
+        }
+        return new FileOutputStream(part, offset > 0);
+    }
+
+
+    /**
+     * Returns the first byte of {@code bytes <start>-<end>/<total>}
+     */
+    static long parseRangeStart(String contentRange) {
+        int space = contentRange.indexOf(' ');
+        int dash = contentRange.indexOf('-', space + 1);
+        return dash == -1 ? -1 : parseLong(contentRange.substring(space + 1, dash));
+    }
+
+
+    /**
+     * Returns the total of {@code bytes <start>-<end>/<total>}, -1 if it is unknown
+     */
+    static long parseRangeTotal(String contentRange) {
+        int slash = contentRange.indexOf('/');
+        return slash == -1 ? -1 : parseLong(contentRange.substring(slash + 1));
+    }
+
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    /**Callback interface for the download progress**/
+    public interface ProgressListener {
+        /**
+         * Called on the main thread while the file is downloaded
+         * @param bytes bytes of the file on disk
+         * @param total size of the file, -1 if it is unknown
+         */
+        void onProgress(long bytes, long total);
+    }
+
+}
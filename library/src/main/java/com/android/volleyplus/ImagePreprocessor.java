@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+
+import com.android.volley.VolleyLog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.android.volleyplus.toolbox.Utils.checkNotNull;
+
+
+/**
+ * Downscales and recompresses the images of a {@link MultipartRequest} before it is sent, see
+ * {@link MultipartRequest#setImagePreprocessor(ImagePreprocessor)}. The bounds of an image are
+ * decoded first, it is then decoded at the nearest power of two above the target size, scaled to
+ * the target size and encoded again, which drops its EXIF metadata such as the location. The
+ * orientation is applied to the pixels.
+ * <p>
+ * Images are processed on a bounded pool of the preprocessor, the request is dispatched once they
+ * are ready. The results are kept in a cache directory, keyed by the file and the settings, so
+ * that a request sent again reuses them. A result is not evicted from the cache while a request
+ * uses it. Files which are not images are uploaded as they are.
+ */
+public final class ImagePreprocessor {
+
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	private static final long TEMPORARY_MAX_AGE_MS = 10 * 60 * 1000;
+
+	private final File cacheDir;
+	private final int maxDimension;
+	private final Bitmap.CompressFormat format;
+	private final int quality;
+	private final long maxCacheSize;
+	private final ThreadPoolExecutor executor;
+
+	/**Result -> number of users, results in use are not evicted. Guarded by this**/
+	private final Map<File, Integer> pins = new HashMap<>();
+
+
+	private ImagePreprocessor(Builder builder){
+		this.cacheDir = builder.cacheDir;
+		this.maxDimension = builder.maxDimension;
+		this.format = builder.format;
+		this.quality = builder.quality;
+		this.maxCacheSize = builder.maxCacheSize;
+
+		final AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(builder.threads, builder.threads, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "VolleyPlus-image-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+
+	/**
+	 * Run a task on the pool of the preprocessor
+	 */
+	void execute(Runnable task){
+		executor.execute(task);
+	}
+
+
+	/**
+	 * Process an image, on the calling thread. The result stays in the cache until it is
+	 * released by {@link #release(File)}.
+	 * @return the processed image, from the cache if it has already been processed, or the file
+	 * itself if it is not an image
+	 */
+	public File process(File image) throws IOException {
+		File result = new File(cacheDir, keyOf(image) + extensionOf(format));
+		synchronized (this){
+			// Pinned before it is written, so that a concurrent trim can not evict it
+			pin(result);
+			if(result.isFile()){
+				result.setLastModified(System.currentTimeMillis());
+				return result;
+			}
+		}
+
+		boolean processed = false;
+		try {
+			processed = encode(image, result);
+		} finally {
+			if(!processed){
+				release(result);
+			}
+		}
+		trimCache();
+		return processed ? result : image;
+	}
+
+
+	/**
+	 * Let the cache evict a result of {@link #process(File)} once nobody uses it. Files which are
+	 * not results are ignored.
+	 */
+	public synchronized void release(File result){
+		Integer count = pins.get(result);
+		if(count == null){
+			return;
+		}
+		if(count == 1){
+			pins.remove(result);
+		}else{
+			pins.put(result, count - 1);
+		}
+	}
+
+
+	synchronized void pin(File result){
+		Integer count = pins.get(result);
+		pins.put(result, count == null ? 1 : count + 1);
+	}
+
+
+	/**
+	 * Decode, scale and encode an image to the result
+	 * @return false if the file is not an image
+	 */
+	private boolean encode(File image, File result) throws IOException {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(image.getPath(), options);
+		if(options.outWidth <= 0 || options.outHeight <= 0){
+			return false;
+		}
+
+		int[] size = scaledSize(options.outWidth, options.outHeight, maxDimension);
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSizeFor(options.outWidth, options.outHeight, size[0], size[1]);
+		Bitmap bitmap;
+		try {
+			bitmap = BitmapFactory.decodeFile(image.getPath(), options);
+		} catch (OutOfMemoryError e) {
+			throw new IOException("Not enough memory to decode " + image);
+		}
+		if(bitmap == null){
+			return false;
+		}
+
+		Matrix matrix = orientationOf(image);
+		matrix.preScale((float) size[0] / bitmap.getWidth(), (float) size[1] / bitmap.getHeight());
+		if(!matrix.isIdentity()){
+			Bitmap transformed = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
+					bitmap.getHeight(), matrix, true);
+			if(transformed != bitmap){
+				bitmap.recycle();
+				bitmap = transformed;
+			}
+		}
+
+		try {
+			write(bitmap, result);
+		} finally {
+			bitmap.recycle();
+		}
+		return true;
+	}
+
+
+	/**
+	 * Encode a bitmap to a temporary file renamed to the result, so that a result is complete
+	 */
+	private void write(Bitmap bitmap, File result) throws IOException {
+		if(!cacheDir.isDirectory() && !cacheDir.mkdirs()){
+			throw new IOException("Unable to create " + cacheDir);
+		}
+		File temporary = File.createTempFile("image", TEMPORARY_SUFFIX, cacheDir);
+		try {
+			FileOutputStream out = new FileOutputStream(temporary);
+			try {
+				if(!bitmap.compress(format, quality, out)){
+					throw new IOException("Unable to encode " + result);
+				}
+			} finally {
+				out.close();
+			}
+			if(!temporary.renameTo(result)){
+				throw new IOException("Unable to write " + result);
+			}
+		} finally {
+			temporary.delete();
+		}
+	}
+
+
+	/**
+	 * Delete the least recently used results above the maximum size of the cache, but the ones in
+	 * use and the ones being written
+	 */
+	synchronized void trimCache(){
+		File[] files = cacheDir.listFiles();
+		if(files == null){
+			return;
+		}
+		long size = 0;
+		for(File file : files){
+			size += file.length();
+		}
+		if(size <= maxCacheSize){
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long delta = a.lastModified() - b.lastModified();
+				return delta < 0 ? -1 : (delta > 0 ? 1 : 0);
+			}
+		});
+		for(int i = 0; i < files.length && size > maxCacheSize; i++){
+			if(pins.containsKey(files[i]) || isBeingWritten(files[i])){
+				continue;
+			}
+			size -= files[i].length();
+			if(!files[i].delete()){
+				VolleyLog.d("Unable to delete %s", files[i]);
+			}
+		}
+	}
+
+
+	/**
+	 * Whether a file is the temporary file of an image being encoded, the ones left by a crash
+	 * are evicted
+	 */
+	private static boolean isBeingWritten(File file){
+		return file.getName().endsWith(TEMPORARY_SUFFIX)
+				&& System.currentTimeMillis() - file.lastModified() < TEMPORARY_MAX_AGE_MS;
+	}
+
+
+	/**
+	 * Returns the transform applying the EXIF orientation of an image
+	 */
+	private static Matrix orientationOf(File image){
+		Matrix matrix = new Matrix();
+		int orientation;
+		try {
+			orientation = new ExifInterface(image.getPath()).getAttributeInt(
+					ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+		} catch (IOException e) {
+			return matrix;
+		}
+		switch (orientation){
+			case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+				matrix.setScale(-1, 1);
+				break;
+			case ExifInterface.ORIENTATION_ROTATE_180:
+				matrix.setRotate(180);
+				break;
+			case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+				matrix.setScale(1, -1);
+				break;
+			case ExifInterface.ORIENTATION_TRANSPOSE:
+				matrix.setRotate(90);
+				matrix.postScale(-1, 1);
+				break;
+			case ExifInterface.ORIENTATION_ROTATE_90:
+				matrix.setRotate(90);
+				break;
+			case ExifInterface.ORIENTATION_TRANSVERSE:
+				matrix.setRotate(-90);
+				matrix.postScale(-1, 1);
+				break;
+			case ExifInterface.ORIENTATION_ROTATE_270:
+				matrix.setRotate(-90);
+				break;
+			default:
+				break;
+		}
+		return matrix;
+	}
+
+
+	/**
+	 * Identifies an image and the settings it is processed with, a modified file has an other key
+	 */
+	private String keyOf(File image) throws IOException {
+		String key = image.getCanonicalPath() + ':' + image.length() + ':' + image.lastModified()
+				+ ':' + maxDimension + ':' + format + ':' + quality;
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(hash.length * 2);
+			for(byte b : hash){
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+
+	private static String extensionOf(Bitmap.CompressFormat format){
+		switch (format){
+			case PNG:
+				return ".png";
+			case WEBP:
+				return ".webp";
+			default:
+				return ".jpg";
+		}
+	}
+
+
+	/**
+	 * Returns the size of an image scaled so that its longest side is at most maxDimension
+	 */
+	static int[] scaledSize(int width, int height, int maxDimension){
+		int longest = Math.max(width, height);
+		if(longest <= maxDimension){
+			return new int[]{width, height};
+		}
+		double scale = (double) maxDimension / longest;
+		return new int[]{
+				Math.max(1, (int) Math.round(width * scale)),
+				Math.max(1, (int) Math.round(height * scale))};
+	}
+
+
+	/**
+	 * Returns the largest power of two by which an image can be subsampled at decode time and stay
+	 * at least as large as the target
+	 */
+	static int sampleSizeFor(int width, int height, int targetWidth, int targetHeight){
+		int sampleSize = 1;
+		while(width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight){
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+
+	/**
+	 * Build an {@link ImagePreprocessor}.
+	 * <p>
+	 * By default the images are scaled down to 1600 pixels on their longest side and encoded as
+	 * JPEG at a quality of 85, on 2 threads.
+	 */
+	public static final class Builder {
+		private final File cacheDir;
+		private int maxDimension = 1600;
+		private Bitmap.CompressFormat format = Bitmap.CompressFormat.JPEG;
+		private int quality = 85;
+		private int threads = 2;
+		private long maxCacheSize = 32 * 1024 * 1024;
+
+		/**
+		 * @param cacheDir directory of the processed images, such as a directory in
+		 *                 {@link android.content.Context#getCacheDir()}, used by this preprocessor only
+		 */
+		public Builder(File cacheDir){
+			this.cacheDir = checkNotNull(cacheDir, "cacheDir == null");
+		}
+
+		/**
+		 * Maximum size of the longest side of the images, smaller images keep their size
+		 */
+		public Builder maxDimension(int maxDimension){
+			if(maxDimension < 1){
+				throw new IllegalArgumentException("maxDimension < 1");
+			}
+			this.maxDimension = maxDimension;
+			return this;
+		}
+
+		/**
+		 * Format and quality of the processed images, the quality is ignored by PNG
+		 */
+		public Builder encoding(Bitmap.CompressFormat format, int quality){
+			checkNotNull(format, "format == null");
+			if(quality < 0 || quality > 100){
+				throw new IllegalArgumentException("quality must be in [0, 100]");
+			}
+			this.format = format;
+			this.quality = quality;
+			return this;
+		}
+
+		/**
+		 * Number of images processed at once, each one holding a decoded bitmap
+		 */
+		public Builder threads(int threads){
+			if(threads < 1){
+				throw new IllegalArgumentException("threads < 1");
+			}
+			this.threads = threads;
+			return this;
+		}
+
+		/**
+		 * Size of the cache directory above which the least recently used images are deleted
+		 */
+		public Builder maxCacheSize(long maxCacheSize){
+			if(maxCacheSize < 0){
+				throw new IllegalArgumentException("maxCacheSize < 0");
+			}
+			this.maxCacheSize = maxCacheSize;
+			return this;
+		}
+
+		public ImagePreprocessor build(){
+			return new ImagePreprocessor(this);
+		}
+	}
+
+}
@@ -17,8 +17,12 @@ package com.android.volleyplus;
 import com.android.volley.AuthFailureError;
 import com.android.volley.Request;
 
+import com.android.volley.VolleyLog;
+
 import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -35,6 +39,14 @@ public abstract class MultipartRequest<T> extends BaseRequest<T>{
     /* To hold the parameter name and the string content to upload */
     private Map<String,String> stringUploads;
 
+    private ImagePreprocessor imagePreprocessor;
+
+    /* The files to upload once processed, reused by the retries */
+    private volatile Map<String,File> processedUploads;
+
+    /* The names sent for the processed files */
+    private volatile Map<String,String> processedNames;
+
     /**
      *
      * @param imageUploads
@@ -67,6 +79,7 @@ public abstract class MultipartRequest<T> extends BaseRequest<T>{
      */
     public void addFileUpload(String imageName,File image) {
         fileUploads.put(imageName, image);
+        releaseUploads();
     }
 
     public void addStringUpload(String param,String content) {
@@ -88,13 +101,98 @@ public abstract class MultipartRequest<T> extends BaseRequest<T>{
      */
     public void setFileUpload(Map<String, File> map){
         this.fileUploads = map;
+        releaseUploads();
     }
 
     /**
-     * Files to upload
+     * Files to upload, the processed ones once the images have been processed
      */
     public Map<String,File> getFileUploads() {
-        return fileUploads;
+        Map<String,File> processed = processedUploads;
+        return processed != null ? processed : fileUploads;
+    }
+
+
+    /**
+     * Downscale and recompress the images before the request is sent. The images are processed
+     * on the pool of the preprocessor when the request is enqueued.
+     */
+    public void setImagePreprocessor(ImagePreprocessor preprocessor){
+        releaseUploads();
+        this.imagePreprocessor = preprocessor;
+    }
+
+
+    public ImagePreprocessor getImagePreprocessor(){
+        return imagePreprocessor;
+    }
+
+
+    /**
+     * Names sent for the files which have been processed: the names of the original files, with
+     * the extension of the processed ones. Other files are sent with their own name.
+     */
+    public Map<String,String> getFileNames() {
+        Map<String,String> names = processedNames;
+        return names != null ? names : new HashMap<String, String>();
+    }
+
+
+    /**
+     * Returns true if the images must be processed before the request is dispatched
+     */
+    boolean needsProcessing(){
+        return imagePreprocessor != null && processedUploads == null && fileUploads != null;
+    }
+
+
+    /**
+     * Process the images, on the pool of the preprocessor. A file which can not be processed is
+     * uploaded as it is.
+     */
+    void processUploads(){
+        Map<String,File> processed = new LinkedHashMap<>();
+        Map<String,String> names = new HashMap<>();
+        for(Map.Entry<String,File> entry : fileUploads.entrySet()){
+            File original = entry.getValue();
+            File file = original;
+            if(!isCanceled()){
+                try {
+                    file = imagePreprocessor.process(original);
+                } catch (IOException | RuntimeException e) {
+                    VolleyLog.e(e, "Unable to process %s", original);
+                }
+            }
+            processed.put(entry.getKey(), file);
+            if(file != original){
+                names.put(entry.getKey(), nameOf(original, file));
+            }
+        }
+        processedNames = names;
+        processedUploads = processed;
+    }
+
+
+    /**
+     * Let the preprocessor evict the processed files, once the request is finished
+     */
+    void releaseUploads(){
+        Map<String,File> processed = processedUploads;
+        processedUploads = null;
+        processedNames = null;
+        if(processed != null && imagePreprocessor != null){
+            for(File file : processed.values()){
+                imagePreprocessor.release(file);
+            }
+        }
+    }
+
+
+    private static String nameOf(File original, File processed){
+        String name = original.getName();
+        int dot = name.lastIndexOf('.');
+        String extension = processed.getName().substring(processed.getName().lastIndexOf('.'));
+        return (dot > 0 ? name.substring(0, dot) : name) + extension;
     }
 
     /**
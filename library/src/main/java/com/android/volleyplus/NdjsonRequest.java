@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request whose response is a stream of records, one per line, such as newline-delimited JSON.
+ * The records are parsed as they arrive and handed in batches to an {@link ItemListener} on the
+ * main thread, a batch being delivered whenever the connection has no more bytes ready. The
+ * {@link ResponseListener} receives the number of records once the stream ends.
+ * <p>
+ * At most {@link #setMaxPendingBatches(int)} batches wait for the main thread: past that the
+ * network thread stops reading, which slows the server down through the TCP window. Cancelling
+ * the request stops the reading and drops the batches not delivered yet. The request is not
+ * retried, as the records already delivered can not be taken back.
+ */
+public abstract class NdjsonRequest<T> extends BaseRequest<Integer> {
+
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+    private static final String UTF_8 = "UTF-8";
+
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    private final ItemListener<T> mItemListener;
+
+    private int mMaxBatchSize = 50;
+
+    private int mMaxPendingBatches = 4;
+
+
+    /**
+     * @param method Http request method
+     * @param itemListener receives the records as they arrive
+     * @param listener receives the number of records once the stream ends
+     */
+    public NdjsonRequest(int method, ItemListener<T> itemListener, ResponseListener<Integer> listener) {
+        super(method, listener);
+        mItemListener = itemListener;
+        setShouldStream(true);
+        setShouldCache(false);
+        setShouldCoalesce(false);
+        setRetryPolicy(new DefaultRetryPolicy(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS, 0, 1));
+    }
+
+
+    /**
+     * Set the number of records delivered in a batch at most, 50 by default.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize < 1");
+        }
+        mMaxBatchSize = maxBatchSize;
+    }
+
+
+    /**
+     * Set the number of batches which may wait for the main thread before the network thread
+     * stops reading, 4 by default.
+     */
+    public void setMaxPendingBatches(int maxPendingBatches) {
+        if (maxPendingBatches < 1) {
+            throw new IllegalArgumentException("maxPendingBatches < 1");
+        }
+        mMaxPendingBatches = maxPendingBatches;
+    }
+
+
+    /**
+     * Subclass must be implement this to parse a record. This method is called on the network
+     * thread.
+     * @param line a line of the response, without its line terminator, never empty
+     * @return the parsed record, or null to skip it
+     * @throws JSONException
+     */
+    protected abstract T parseItem(String line) throws JSONException;
+
+
+    @Override
+    protected final Integer parseNetworkEntity(String body) throws JSONException {
+        try {
+            return parseNetworkEntity(new StringReader(body));
+        } catch (IOException e) {
+            // A StringReader does not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    @Override
+    protected final Integer parseNetworkEntity(InputStream in, String charset)
+            throws IOException, JSONException {
+        return parseNetworkEntity(new InputStreamReader(in, charset));
+    }
+
+
+    @Override
+    protected final Integer parseNetworkEntity(Reader reader) throws IOException, JSONException {
+        Semaphore pending = new Semaphore(mMaxPendingBatches);
+        List<T> batch = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        char[] buffer = new char[4096];
+        int count = 0;
+        int read;
+        while (!isCanceled() && (read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                char c = buffer[i];
+                if (c != '\n') {
+                    line.append(c);
+                    continue;
+                }
+                count += addItem(line, batch);
+                if (batch.size() >= mMaxBatchSize) {
+                    batch = deliverItems(batch, pending);
+                }
+            }
+            // The next read would block: hand the records over while waiting
+            if (!batch.isEmpty() && !reader.ready()) {
+                batch = deliverItems(batch, pending);
+            }
+        }
+        if (!isCanceled()) {
+            count += addItem(line, batch);
+            deliverItems(batch, pending);
+        }
+        return count;
+    }
+
+
+    private int addItem(StringBuilder line, List<T> batch) throws JSONException {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            length--;
+        }
+        String record = length > 0 ? line.substring(0, length).trim() : "";
+        line.setLength(0);
+        if (record.isEmpty()) {
+            return 0;
+        }
+        T item = parseItem(record);
+        if (item == null) {
+            return 0;
+        }
+        batch.add(item);
+        return 1;
+    }
+
+
+    /**
+     * Post a batch to the main thread, waiting while too many batches are pending
+     * @return the list collecting the next batch
+     */
+    private List<T> deliverItems(final List<T> batch, final Semaphore pending) throws IOException {
+        if (batch.isEmpty()) {
+            return batch;
+        }
+        try {
+            while (!pending.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                if (isCanceled()) {
+                    return new ArrayList<>();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the main thread");
+        }
+        final List<T> items = Collections.unmodifiableList(batch);
+        MAIN.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!isCanceled()) {
+                        mItemListener.onItems(items);
+                    }
+                } finally {
+                    pending.release();
+                }
+            }
+        });
+        return new ArrayList<>();
+    }
+
+
+    @Override
+    Integer readEntity(InputStream in, String contentType) throws IOException, JSONException {
+        Map<String, String> headers = contentType == null
+                ? Collections.<String, String>emptyMap()
+                : Collections.singletonMap(HEADER_CONTENT_TYPE, contentType);
+        return parseNetworkEntity(in, HttpHeaderParser.parseCharset(headers, UTF_8));
+    }
+
+
+    @Override
+    Integer readEntity(NetworkResponse response) throws IOException, JSONException {
+        String body;
+        try {
+            body = new String(response.data, HttpHeaderParser.parseCharset(response.headers, UTF_8));
+        } catch (UnsupportedEncodingException e) {
+            body = new String(response.data);
+        }
+        return parseNetworkEntity(body);
+    }
+
+
+    /**Callback interface for delivering the records as they arrive**/
+    public interface ItemListener<T> {
+        /**
+         * Called on the main thread with the records parsed since the previous call
+         * @param items records, in the order of the response
+         */
+        void onItems(List<T> items);
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.AuthFailureError;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * What the {@link RequestOutbox} keeps of a durable request to send it again, possibly after the
+ * process has died: its method, related url, headers and body, or its parts if it is a
+ * {@link MultipartRequest} (files are kept by path). Credential headers are not kept, see
+ * {@link RequestOutbox.CredentialProvider}.
+ */
+final class OutboxEntry {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**Lower case names of the headers never written to the log**/
+	private static final Set<String> CREDENTIAL_HEADERS = new HashSet<>(
+			Arrays.asList("authorization", "proxy-authorization", "cookie"));
+
+	final long id;
+	final int method;
+	final String subPath;
+	final Map<String, String> headers;
+	final byte[] body;
+	final String bodyContentType;
+	final boolean multipart;
+	final Map<String, String> stringParts;
+	final Map<String, String> fileParts;
+	/**Kept in the log format, replays are never batched: their origins parse the raw response**/
+	final boolean shouldBatch;
+	final int timeoutMs;
+
+
+	OutboxEntry(long id, int method, String subPath, Map<String, String> headers, byte[] body,
+	                    String bodyContentType, boolean multipart, Map<String, String> stringParts,
+	                    Map<String, String> fileParts, boolean shouldBatch, int timeoutMs){
+		this.id = id;
+		this.method = method;
+		this.subPath = subPath;
+		this.headers = headers;
+		this.body = body;
+		this.bodyContentType = bodyContentType;
+		this.multipart = multipart;
+		this.stringParts = stringParts;
+		this.fileParts = fileParts;
+		this.shouldBatch = shouldBatch;
+		this.timeoutMs = timeoutMs;
+	}
+
+
+	/**
+	 * Capture a request
+	 * @throws AuthFailureError if the request can not provide its headers or body
+	 */
+	static OutboxEntry of(long id, BaseRequest<?> request) throws AuthFailureError {
+		Map<String, String> stringParts = Collections.emptyMap();
+		Map<String, String> fileParts = Collections.emptyMap();
+		byte[] body = null;
+		boolean multipart = request instanceof MultipartRequest;
+		if(multipart){
+			MultipartRequest<?> multipartRequest = (MultipartRequest<?>) request;
+			if(multipartRequest.getStringUploads() != null){
+				stringParts = new LinkedHashMap<>(multipartRequest.getStringUploads());
+			}
+			if(multipartRequest.getFileUploads() != null){
+				fileParts = new LinkedHashMap<>();
+				for(Map.Entry<String, File> file : multipartRequest.getFileUploads().entrySet()){
+					fileParts.put(file.getKey(), file.getValue().getAbsolutePath());
+				}
+			}
+		}else{
+			body = request.getBody();
+		}
+		return new OutboxEntry(id, request.getMethod(), request.subPath(),
+				withoutCredentials(request.getHeaders()), body, request.getBodyContentType(), multipart, stringParts, fileParts,
+				request.shouldBatch(), request.getTimeoutMs());
+	}
+
+
+	static boolean isCredential(String header){
+		return CREDENTIAL_HEADERS.contains(header.toLowerCase(Locale.US));
+	}
+
+
+	static Map<String, String> withoutCredentials(Map<String, String> headers){
+		if(headers == null){
+			return Collections.emptyMap();
+		}
+		Map<String, String> kept = new LinkedHashMap<>();
+		for(Map.Entry<String, String> header : headers.entrySet()){
+			if(!isCredential(header.getKey())){
+				kept.put(header.getKey(), header.getValue());
+			}
+		}
+		return kept;
+	}
+
+
+	static Map<String, String> credentialsOf(Map<String, String> headers){
+		Map<String, String> credentials = new LinkedHashMap<>();
+		if(headers != null){
+			for(Map.Entry<String, String> header : headers.entrySet()){
+				if(isCredential(header.getKey())){
+					credentials.put(header.getKey(), header.getValue());
+				}
+			}
+		}
+		return credentials;
+	}
+
+
+	/**
+	 * Whether both entries would send the same request
+	 */
+	boolean isSameRequest(OutboxEntry other){
+		return method == other.method && multipart == other.multipart
+				&& subPath.equals(other.subPath) && Arrays.equals(body, other.body)
+				&& stringParts.equals(other.stringParts) && fileParts.equals(other.fileParts);
+	}
+
+
+	byte[] encode() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + (body != null ? body.length : 0));
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(id);
+		out.writeInt(method);
+		writeString(out, subPath);
+		writeMap(out, headers);
+		if(body != null){
+			out.writeInt(body.length);
+			out.write(body);
+		}else{
+			out.writeInt(-1);
+		}
+		writeString(out, bodyContentType);
+		out.writeBoolean(multipart);
+		writeMap(out, stringParts);
+		writeMap(out, fileParts);
+		out.writeBoolean(shouldBatch);
+		out.writeInt(timeoutMs);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+
+	static OutboxEntry decode(byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		long id = in.readLong();
+		int method = in.readInt();
+		String subPath = readString(in);
+		Map<String, String> headers = readMap(in);
+		int bodyLength = in.readInt();
+		byte[] body = null;
+		if(bodyLength >= 0){
+			body = new byte[bodyLength];
+			in.readFully(body);
+		}
+		String bodyContentType = readString(in);
+		boolean multipart = in.readBoolean();
+		Map<String, String> stringParts = readMap(in);
+		Map<String, String> fileParts = readMap(in);
+		boolean shouldBatch = in.readBoolean();
+		int timeoutMs = in.readInt();
+		return new OutboxEntry(id, method, subPath, headers, body, bodyContentType, multipart,
+				stringParts, fileParts, shouldBatch, timeoutMs);
+	}
+
+
+	private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+		out.writeInt(map.size());
+		for(Map.Entry<String, String> entry : map.entrySet()){
+			writeString(out, entry.getKey());
+			writeString(out, entry.getValue() != null ? entry.getValue() : "");
+		}
+	}
+
+
+	/**Unlike writeUTF, not limited to 64KB**/
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0){
+			throw new IOException("Negative string length");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+
+	private static Map<String, String> readMap(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		if(size < 0){
+			throw new IOException("Negative map size");
+		}
+		Map<String, String> map = new LinkedHashMap<>();
+		for(int i = 0; i < size; i++){
+			map.put(readString(in), readString(in));
+		}
+		return map;
+	}
+}
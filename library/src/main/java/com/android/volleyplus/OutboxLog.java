@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+
+/**
+ * Write-ahead log of the {@link RequestOutbox}: an entry is appended and synced to disk before its
+ * request is sent, and a "done" record is appended once it must not be sent again. Not thread-safe,
+ * the outbox uses it from a single thread.
+ */
+final class OutboxLog {
+
+	private static final byte TYPE_ADD = 1;
+	private static final byte TYPE_DONE = 2;
+
+	/**Every record starts with the length and the CRC32 of its body**/
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	private final File file;
+	private FileChannel channel;
+	private long length;
+	private long lastId;
+
+	/**Number of records which could be dropped by a compaction**/
+	private int deadRecords;
+
+
+	OutboxLog(File file){
+		this.file = file;
+	}
+
+
+	/**
+	 * Read the log and open it for appending. A record torn by a crash ends the log.
+	 * @return the entries which are not done, in the order they were added
+	 */
+	List<OutboxEntry> open() throws IOException {
+		Map<Long, OutboxEntry> pending = new LinkedHashMap<>();
+		long end = 0;
+		deadRecords = 0;
+		if(file.exists()){
+			long fileLength = file.length();
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				CRC32 crc = new CRC32();
+				while(end + RECORD_HEADER_SIZE <= fileLength){
+					int bodyLength = in.readInt();
+					int checksum = in.readInt();
+					if(bodyLength <= 0 || end + RECORD_HEADER_SIZE + bodyLength > fileLength){
+						break;
+					}
+					byte[] body = new byte[bodyLength];
+					in.readFully(body);
+					crc.reset();
+					crc.update(body, 0, bodyLength);
+					if((int) crc.getValue() != checksum){
+						break;
+					}
+
+					byte[] payload = new byte[bodyLength - 1];
+					System.arraycopy(body, 1, payload, 0, payload.length);
+					if(body[0] == TYPE_ADD){
+						OutboxEntry entry = OutboxEntry.decode(payload);
+						pending.put(entry.id, entry);
+						lastId = Math.max(lastId, entry.id);
+					}else if(body[0] == TYPE_DONE){
+						pending.remove(ByteBuffer.wrap(payload).getLong());
+						deadRecords += 2;
+					}
+					end += RECORD_HEADER_SIZE + bodyLength;
+				}
+			} catch (EOFException e) {
+				// Torn record
+			} finally {
+				in.close();
+			}
+		}
+
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		if(end < channel.size()){
+			channel.truncate(end);
+		}
+		length = end;
+		return new ArrayList<>(pending.values());
+	}
+
+
+	long nextId(){
+		return ++lastId;
+	}
+
+
+	void add(OutboxEntry entry) throws IOException {
+		append(TYPE_ADD, entry.encode());
+	}
+
+
+	void done(long id) throws IOException {
+		append(TYPE_DONE, ByteBuffer.allocate(8).putLong(id).array());
+		deadRecords += 2;
+	}
+
+
+	/**
+	 * Whether the log is mostly made of records a compaction would drop
+	 */
+	boolean needsCompaction(int pendingCount){
+		return deadRecords > 64 && deadRecords > pendingCount * 2;
+	}
+
+
+	/**
+	 * Rewrite the log with the pending entries only
+	 */
+	void compact(Collection<OutboxEntry> pending) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		OutboxLog compacted = new OutboxLog(tmp);
+		if(tmp.exists() && !tmp.delete()){
+			throw new IOException("Unable to delete " + tmp);
+		}
+		compacted.open();
+		try {
+			for(OutboxEntry entry : pending){
+				compacted.add(entry);
+			}
+		} finally {
+			compacted.close();
+		}
+
+		close();
+		long id = lastId;
+		try {
+			if(!tmp.renameTo(file)){
+				throw new IOException("Unable to rename " + tmp);
+			}
+		} finally {
+			// Appends go on to the previous log if it could not be replaced
+			open();
+			lastId = Math.max(lastId, id);
+		}
+	}
+
+
+	void close() throws IOException {
+		if(channel != null){
+			channel.close();
+			channel = null;
+		}
+	}
+
+
+	private void append(byte type, byte[] payload) throws IOException {
+		int bodyLength = 1 + payload.length;
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + bodyLength);
+		buffer.putInt(bodyLength);
+		buffer.putInt(0);
+		buffer.put(type);
+		buffer.put(payload);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), RECORD_HEADER_SIZE, bodyLength);
+		buffer.putInt(4, (int) crc.getValue());
+		buffer.flip();
+
+		while(buffer.hasRemaining()){
+			channel.write(buffer, length + buffer.position());
+		}
+		channel.force(false);
+		length += buffer.limit();
+	}
+}
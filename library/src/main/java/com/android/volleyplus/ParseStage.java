@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Parses the network responses of a lane on a separate pool, so that the network threads go back
+ * to I/O as soon as a body has been read. The network thread hands a placeholder response to its
+ * dispatcher, which this delivery drops, and the parse task stores the cache entry and delivers
+ * the real response.
+ * <p>
+ * The pool queues a bounded number of responses, when it is full the network thread parses the
+ * response itself and stops taking requests until it is done.
+ */
+final class ParseStage implements ResponseDelivery {
+
+	/**Handed to the network dispatcher in place of a response being parsed by the stage**/
+	private static final Response<Object> DEFERRED = Response.success(null, null);
+
+	private final Executor executor;
+	private final Cache cache;
+	private final ResponseDelivery delivery;
+
+
+	ParseStage(Executor executor, Cache cache, ResponseDelivery delivery){
+		this.executor = executor;
+		this.cache = cache;
+		this.delivery = delivery;
+	}
+
+
+	/**
+	 * Parses on the network thread when the pool is full. Unlike
+	 * {@link ThreadPoolExecutor.CallerRunsPolicy}, it also runs the task once the pool has been
+	 * shut down by a new {@link VolleyPlus#init}, else the deferred response would never be
+	 * delivered.
+	 */
+	static final RejectedExecutionHandler CALLER_PARSES = new RejectedExecutionHandler() {
+		@Override
+		public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+			task.run();
+		}
+	};
+
+
+	/**
+	 * A pool shared by the stages of all the lanes
+	 */
+	static ThreadPoolExecutor newExecutor(int threads, int maxQueuedResponses){
+		final AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(maxQueuedResponses),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "VolleyPlus-parse-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				},
+				CALLER_PARSES);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+
+	/**
+	 * Parse the response on the stage
+	 * @return the placeholder to return to the network dispatcher
+	 */
+	@SuppressWarnings("unchecked")
+	<T> Response<T> defer(final BaseRequest<T> request, final NetworkResponse response){
+		request.addMarker("parse-stage-queued");
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				parse(request, response);
+			}
+		});
+		return (Response<T>) DEFERRED;
+	}
+
+
+	private <T> void parse(BaseRequest<T> request, NetworkResponse networkResponse){
+		if(request.isCanceled()){
+			// The delivery finishes cancelled requests without calling them back
+			delivery.postError(request, new VolleyError("canceled"));
+			return;
+		}
+		try {
+			Response<T> response = request.parseNow(networkResponse);
+			request.addMarker("parse-stage-complete");
+			if(request.shouldCache() && response.cacheEntry != null){
+				cache.put(request.getCacheKey(), response.cacheEntry);
+				request.addMarker("network-cache-written");
+			}
+			delivery.postResponse(request, response);
+		} catch (RuntimeException e){
+			delivery.postError(request, new VolleyError(e));
+		}
+	}
+
+
+	@Override
+	public void postResponse(Request<?> request, Response<?> response) {
+		if(response != DEFERRED){
+			delivery.postResponse(request, response);
+		}
+	}
+
+
+	@Override
+	public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
+		if(response != DEFERRED){
+			delivery.postResponse(request, response, runnable);
+		}
+	}
+
+
+	@Override
+	public void postError(Request<?> request, VolleyError error) {
+		delivery.postError(request, error);
+	}
+
+}
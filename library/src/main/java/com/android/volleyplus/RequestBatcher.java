@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Collects the requests enqueued within a short window, or until a size limit is reached, and
+ * sends them as one {@link BatchRequest}.
+ */
+final class RequestBatcher {
+
+	private final String batchPath;
+	private final int windowMs;
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private final Window<BaseRequest<?>> window;
+
+	private final Runnable flushRunnable = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+
+	RequestBatcher(String batchPath, int windowMs, int maxBatchSize){
+		this.batchPath = batchPath;
+		this.windowMs = windowMs;
+		this.window = new Window<>(maxBatchSize);
+	}
+
+
+	void add(BaseRequest<?> request){
+		switch (window.add(request)){
+			case Window.OPENED:
+				handler.postDelayed(flushRunnable, windowMs);
+				break;
+			case Window.FULL:
+				handler.removeCallbacks(flushRunnable);
+				flush();
+				break;
+			default:
+				break;
+		}
+	}
+
+
+	/**
+	 * Send the pending requests which have not been cancelled
+	 */
+	void flush(){
+		List<BaseRequest<?>> requests = window.drain();
+
+		List<BaseRequest<?>> live = new ArrayList<>(requests.size());
+		for(BaseRequest<?> request : requests){
+			if(!request.isCanceled()){
+				live.add(request);
+			}
+		}
+		if(live.isEmpty()){
+			return;
+		}
+		if(live.size() == 1){
+			// Not worth the envelope
+			VolleyPlus.getInstance().dispatch(live.get(0));
+			return;
+		}
+		VolleyPlus.getInstance().dispatch(new BatchRequest(batchPath, live));
+	}
+
+
+	/**
+	 * The requests collected for the next batch, without Android types so that it can be tested
+	 * on the JVM. Thread safe.
+	 */
+	static final class Window<T> {
+		/**Added to a window already open**/
+		static final int ADDED = 0;
+		/**First of a window, the flush must be scheduled**/
+		static final int OPENED = 1;
+		/**The window reached its size, it must be flushed now**/
+		static final int FULL = 2;
+
+		private final int maxSize;
+
+		/**Guarded by this**/
+		private List<T> pending = new ArrayList<>();
+
+		Window(int maxSize){
+			this.maxSize = maxSize;
+		}
+
+		synchronized int add(T item){
+			pending.add(item);
+			if(pending.size() >= maxSize){
+				return FULL;
+			}
+			return pending.size() == 1 ? OPENED : ADDED;
+		}
+
+		/**
+		 * Take the collected items, the next add opens a new window
+		 */
+		synchronized List<T> drain(){
+			List<T> items = pending;
+			pending = new ArrayList<>();
+			return items;
+		}
+	}
+
+}
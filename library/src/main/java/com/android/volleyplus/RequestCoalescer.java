@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Coalesces identical in-flight GET requests. The first request of a kind (the leader) is sent,
+ * the identical ones enqueued while it is in flight are attached to it and receive the response
+ * parsed once for the leader.
+ * <p>
+ * Requests are identical if they have the same type, the same {@link Request#getUrl()} and the
+ * same values for all the headers that change the response.
+ */
+final class RequestCoalescer {
+
+	private final String[] varyHeaders;
+
+	/**Key -> in-flight call, guarded by this**/
+	private final Map<String, Call> inFlight = new HashMap<>();
+
+
+	RequestCoalescer(String[] varyHeaders){
+		this.varyHeaders = varyHeaders;
+	}
+
+
+	/**
+	 * Attach the request to an identical in-flight request if any, otherwise register it as a
+	 * leader.
+	 * @return true if the request has been attached and must not be sent
+	 */
+	boolean attach(BaseRequest<?> request){
+		if(request.getMethod() != Request.Method.GET || !request.shouldCoalesce()){
+			return false;
+		}
+		String key = keyFor(request);
+		if(key == null){
+			return false;
+		}
+
+		synchronized (this){
+			Call call = inFlight.get(key);
+			if(call != null && call.leader != request){
+				call.attach(request);
+				return true;
+			}
+			call = new Call(key, request);
+			request.mCoalescedCall = call;
+			inFlight.put(key, call);
+			return false;
+		}
+	}
+
+
+	/**
+	 * Called when the leader of a call is finished
+	 */
+	void onFinished(Call call){
+		synchronized (this){
+			if(inFlight.get(call.key) == call){
+				inFlight.remove(call.key);
+			}
+		}
+
+		// Requests attached after the last delivery, or to a cancelled leader, are still waiting
+		// for a response: send them again, the first one becoming the new leader.
+		for(BaseRequest<?> orphan : call.finish()){
+			VolleyPlus.getInstance().enqueue(orphan);
+		}
+	}
+
+
+	private String keyFor(BaseRequest<?> request){
+		StringBuilder key = new StringBuilder(request.getClass().getName());
+		key.append(' ').append(request.getUrl());
+		if(varyHeaders.length > 0){
+			Map<String, String> headers;
+			try {
+				headers = request.getHeaders();
+			} catch (AuthFailureError authFailureError) {
+				return null;
+			}
+			for(String header : varyHeaders){
+				key.append('\n').append(header).append(": ")
+						.append(headers == null ? null : headers.get(header));
+			}
+		}
+		return key.toString();
+	}
+
+
+	/**
+	 * A leader and the requests attached to it
+	 */
+	static final class Call {
+		final String key;
+		final BaseRequest<?> leader;
+
+		private final Followers<BaseRequest<?>> followers = new Followers<BaseRequest<?>>() {
+			@Override
+			boolean isCanceled(BaseRequest<?> follower) {
+				return follower.isCanceled();
+			}
+		};
+
+		Call(String key, BaseRequest<?> leader){
+			this.key = key;
+			this.leader = leader;
+		}
+
+		void attach(BaseRequest<?> follower){
+			followers.attach(follower);
+		}
+
+		List<BaseRequest<?>> followers(){
+			return followers.all();
+		}
+
+		List<BaseRequest<?>> finish(){
+			return followers.finish();
+		}
+
+		/**
+		 * Hand the leader's parsed response to the attached requests
+		 */
+		@SuppressWarnings("unchecked")
+		void deliverResponse(Object response){
+			for(BaseRequest follower : followers.deliverable()){
+				follower.deliverResponse(response);
+			}
+		}
+
+		/**
+		 * Hand the leader's error to the attached requests
+		 */
+		void deliverError(VolleyError error){
+			for(BaseRequest<?> follower : followers.deliverable()){
+				follower.deliverError(error);
+			}
+		}
+	}
+
+
+	/**
+	 * The requests attached to a leader, and which of them are still waiting for a response
+	 */
+	abstract static class Followers<R> {
+
+		/**Attached requests, guarded by this**/
+		private final List<R> followers = new ArrayList<>();
+
+		/**Attached requests which did not receive any response yet, guarded by this**/
+		private final List<R> waiting = new ArrayList<>();
+
+		private boolean finished = false;
+
+		abstract boolean isCanceled(R follower);
+
+		synchronized void attach(R follower){
+			followers.add(follower);
+			waiting.add(follower);
+		}
+
+		synchronized List<R> all(){
+			return new ArrayList<>(followers);
+		}
+
+		/**
+		 * Called when the leader is finished
+		 * @return the requests which did not receive any response and are not cancelled
+		 */
+		synchronized List<R> finish(){
+			finished = true;
+			List<R> orphans = new ArrayList<>();
+			for(R follower : waiting){
+				if(!isCanceled(follower)){
+					orphans.add(follower);
+				}
+			}
+			waiting.clear();
+			return orphans;
+		}
+
+		/**
+		 * Called for every response or error of the leader, possibly twice when a soft-expired
+		 * cache entry is refreshed
+		 * @return the requests to deliver it to
+		 */
+		synchronized List<R> deliverable(){
+			waiting.clear();
+			List<R> deliverable = new ArrayList<>();
+			if(!finished){
+				for(R follower : followers){
+					if(!isCanceled(follower)){
+						deliverable.add(follower);
+					}
+				}
+			}
+			return deliverable;
+		}
+	}
+
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+import com.android.volleyplus.toolbox.LatencyHistogram;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Sends a second copy of the hedged GET requests which did not get a response after a delay,
+ * see {@link BaseRequest#setHedged(boolean)}. The first answer is delivered and the other copy is
+ * cancelled, which aborts its connection. An error is only delivered once both copies failed.
+ * <p>
+ * The delay is either fixed or a percentile of the latencies observed for the endpoint, and a
+ * {@link RetryBudget} caps the copies at a percentage of the hedged requests.
+ */
+final class RequestHedger {
+
+	/**Latencies needed before the percentile of an endpoint is trusted**/
+	private static final int MIN_SAMPLES = 20;
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final long delayMs;
+	private final double percentile;
+	private final RetryBudget budget;
+	private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+
+	/**
+	 * @param delayMs     delay before sending a copy, or until the percentile is known
+	 * @param percentile  percentile of the endpoint's latencies to wait for, 0 to always wait
+	 *                    {@code delayMs}
+	 * @param maxPercent  copies allowed per 100 hedged requests
+	 */
+	RequestHedger(long delayMs, double percentile, int maxPercent){
+		this.delayMs = delayMs;
+		this.percentile = percentile;
+		this.budget = new RetryBudget(maxPercent);
+	}
+
+
+	/**
+	 * Called when a request is handed to its lane
+	 */
+	<T> void schedule(BaseRequest<T> request){
+		if(!isHedgeable(request.isHedged(), request.getMethod(), request.shouldStream())
+				|| request.mHedge != null){
+			return;
+		}
+		budget.deposit();
+		Hedge<T> hedge = new Hedge<>(this, request);
+		request.mHedge = hedge;
+		handler.postDelayed(hedge, delayFor(request.subPath()));
+	}
+
+
+	/**
+	 * Only GET requests are hedged, and not streamed ones: both copies would write to the sink of
+	 * the request, such as the file of a {@link DownloadRequest}.
+	 */
+	static boolean isHedgeable(boolean hedged, int method, boolean streamed){
+		return hedged && method == Request.Method.GET && !streamed;
+	}
+
+
+	private long delayFor(String endpoint){
+		if(percentile > 0){
+			LatencyHistogram histogram = latencies.get(endpoint);
+			if(histogram != null && histogram.count() >= MIN_SAMPLES){
+				return TimeUnit.NANOSECONDS.toMillis(histogram.percentile(percentile));
+			}
+		}
+		return delayMs;
+	}
+
+
+	private void record(String endpoint, long nanos){
+		if(percentile <= 0){
+			return;
+		}
+		LatencyHistogram histogram = latencies.get(endpoint);
+		if(histogram == null){
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = latencies.putIfAbsent(endpoint, created);
+			if(histogram == null){
+				histogram = created;
+			}
+		}
+		histogram.record(nanos);
+	}
+
+
+	/**
+	 * Which copy of a hedged request gets delivered. No Android nor Volley types, so that the
+	 * decisions can be tested on the JVM. Not thread safe, guarded by its {@link Hedge}.
+	 */
+	static final class Race {
+		private static final int NONE = 0;
+		private static final int PRIMARY = 1;
+		private static final int TWIN = 2;
+
+		private int winner = NONE;
+		private boolean twinStarted;
+		private boolean primaryFailed;
+		private boolean twinFailed;
+
+		boolean isDecided(){
+			return winner != NONE;
+		}
+
+		/**
+		 * Whether the copy may still be sent
+		 */
+		boolean canStartTwin(){
+			return winner == NONE && !primaryFailed && !twinStarted;
+		}
+
+		void onTwinStarted(){
+			twinStarted = true;
+		}
+
+		/**
+		 * The request wins if nothing has been delivered yet, its response is then delivered and
+		 * the copy cancelled. A refreshed response follows the one of a soft-expired cache entry.
+		 * @return true if the response must be delivered
+		 */
+		boolean onPrimaryResponse(){
+			if(winner == NONE){
+				winner = PRIMARY;
+			}
+			return winner == PRIMARY;
+		}
+
+		/**
+		 * @return true if the error of the request must be delivered, the copy having failed too
+		 * or never been sent
+		 */
+		boolean onPrimaryError(){
+			if(winner != NONE){
+				return false;
+			}
+			if(!twinStarted || twinFailed){
+				winner = PRIMARY;
+				return true;
+			}
+			primaryFailed = true;
+			return false;
+		}
+
+		/**
+		 * @return true if the copy in flight must be cancelled
+		 */
+		boolean onPrimaryCanceled(){
+			if(winner != NONE || !twinStarted){
+				return false;
+			}
+			winner = PRIMARY;
+			return true;
+		}
+
+		/**
+		 * @return true if the copy wins: its response is delivered and the request cancelled
+		 */
+		boolean onTwinResponse(){
+			if(winner != NONE){
+				return false;
+			}
+			winner = TWIN;
+			return true;
+		}
+
+		/**
+		 * @return true if the error of the copy must be delivered, the request having failed first
+		 */
+		boolean onTwinError(){
+			if(winner != NONE){
+				return false;
+			}
+			if(!primaryFailed){
+				twinFailed = true;
+				return false;
+			}
+			winner = TWIN;
+			return true;
+		}
+	}
+
+
+	/**
+	 * The race between a request and its copy. Deliveries happen on the main thread, cancellation
+	 * may come from any thread.
+	 */
+	static final class Hedge<T> implements Runnable {
+		private final RequestHedger hedger;
+		private final BaseRequest<T> primary;
+		private final long start = System.nanoTime();
+
+		/**Guarded by this**/
+		private final Race race = new Race();
+		private HedgeRequest<T> twin;
+
+		Hedge(RequestHedger hedger, BaseRequest<T> primary){
+			this.hedger = hedger;
+			this.primary = primary;
+		}
+
+		/**
+		 * The delay is over: send the copy if the request is still waiting
+		 */
+		@Override
+		public void run() {
+			HedgeRequest<T> copy;
+			synchronized (this){
+				if(!race.canStartTwin() || primary.isCanceled()
+						|| primary.hasHadResponseDelivered() || !hedger.budget.tryWithdraw()){
+					return;
+				}
+				copy = new HedgeRequest<>(primary, this);
+				twin = copy;
+				race.onTwinStarted();
+			}
+			primary.addMarker("hedge-sent");
+			VolleyPlus.getInstance().dispatchLike(copy, primary);
+		}
+
+		/**
+		 * @return true if the response of the request must be delivered
+		 */
+		synchronized boolean onPrimaryResponse(){
+			boolean first = !race.isDecided();
+			if(!race.onPrimaryResponse()){
+				return false;
+			}
+			if(!first){
+				return true;
+			}
+			hedger.record(primary.subPath(), System.nanoTime() - start);
+			hedger.handler.removeCallbacks(this);
+			if(twin != null){
+				twin.cancel();
+			}
+			return true;
+		}
+
+		/**
+		 * @return true if the error of the request must be delivered
+		 */
+		synchronized boolean onPrimaryError(){
+			return race.onPrimaryError();
+		}
+
+		synchronized void onPrimaryCanceled(){
+			if(race.onPrimaryCanceled()){
+				twin.cancel();
+			}
+		}
+
+		void onTwinResponse(T response){
+			synchronized (this){
+				if(!race.onTwinResponse()){
+					return;
+				}
+				hedger.record(primary.subPath(), System.nanoTime() - start);
+			}
+			primary.addMarker("hedge-won");
+			primary.cancel();
+			primary.deliverResponseNow(response);
+		}
+
+		void onTwinError(VolleyError error){
+			synchronized (this){
+				if(!race.onTwinError()){
+					return;
+				}
+			}
+			primary.deliverErrorNow(error);
+		}
+	}
+
+
+	/**
+	 * The copy of a hedged request: same url and headers, parsed by the original request, and
+	 * never retried, cached nor streamed.
+	 */
+	static final class HedgeRequest<T> extends BaseRequest<T> {
+		private final BaseRequest<T> primary;
+		private final Hedge<T> hedge;
+
+		HedgeRequest(BaseRequest<T> primary, Hedge<T> hedge){
+			super(Method.GET, null);
+			this.primary = primary;
+			this.hedge = hedge;
+			setShouldCache(false);
+			setShouldCoalesce(false);
+			setRetryPolicy(new DefaultRetryPolicy(primary.getTimeoutMs(), 0, 1));
+		}
+
+		@Override
+		public String getUrl() {
+			return primary.getUrl();
+		}
+
+		@Override
+		public Map<String, String> getHeaders() throws AuthFailureError {
+			return primary.getHeaders();
+		}
+
+		@Override
+		public Priority getPriority() {
+			return primary.getPriority();
+		}
+
+		@Override
+		protected String subPath() {
+			return primary.subPath();
+		}
+
+		@Override
+		protected Map<String, String> getPostParams() throws AuthFailureError {
+			return null;
+		}
+
+		@Override
+		protected Map<String, String> getQueryParams() throws AuthFailureError {
+			return null;
+		}
+
+		@Override
+		protected T parseNetworkEntity(String json) throws JSONException {
+			return primary.parseNetworkEntity(json);
+		}
+
+		@Override
+		T readEntity(NetworkResponse response) throws IOException, JSONException {
+			return primary.readEntity(response);
+		}
+
+		@Override
+		protected void deliverResponse(T response) {
+			hedge.onTwinResponse(response);
+		}
+
+		@Override
+		public void deliverError(VolleyError error) {
+			hedge.onTwinError(error);
+		}
+	}
+
+}
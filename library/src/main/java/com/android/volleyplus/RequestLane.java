@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.Cache;
+import com.android.volley.Request;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.android.volleyplus.toolbox.Utils.checkNotNull;
+
+
+/**
+ * A named dispatch lane. Every lane owns a {@link com.android.volley.RequestQueue} with its own
+ * network threads, queue depth limit and cache, so a burst of slow requests routed to one lane
+ * (uploads, images...) can not starve the requests waiting in the others.
+ * <p>
+ * Requests are routed to the first lane accepting their type or their tag, all other requests go
+ * to the {@link #DEFAULT} lane.
+ */
+public final class RequestLane {
+
+	/**Name of the lane receiving all requests that are not routed anywhere else**/
+	public static final String DEFAULT = "default";
+
+	/**Same as the network pool size of {@link com.android.volley.toolbox.Volley#newRequestQueue}**/
+	public static final int DEFAULT_THREAD_POOL_SIZE = 4;
+
+	/**No limit on the number of pending requests**/
+	public static final int UNBOUNDED = 0;
+
+	final String name;
+	final int threadPoolSize;
+	final int maxQueueDepth;
+	final Cache cache;
+	final List<Class<?>> requestTypes;
+	final List<Object> tags;
+
+
+	private RequestLane(Builder builder){
+		name = builder.name;
+		threadPoolSize = builder.threadPoolSize;
+		maxQueueDepth = builder.maxQueueDepth;
+		cache = builder.cache;
+		requestTypes = Collections.unmodifiableList(new ArrayList<>(builder.requestTypes));
+		tags = Collections.unmodifiableList(new ArrayList<>(builder.tags));
+	}
+
+
+	public String getName(){
+		return name;
+	}
+
+
+	/**
+	 * Whether the request should be dispatched by this lane.
+	 */
+	boolean accepts(Request<?> request){
+		Object tag = request.getTag();
+		if(tag != null && tags.contains(tag)){
+			return true;
+		}
+		return accepts(request.getClass());
+	}
+
+
+	/**
+	 * Whether requests of the given type should be dispatched by this lane.
+	 */
+	boolean accepts(Class<?> type){
+		for(Class<?> requestType : requestTypes){
+			if(requestType.isAssignableFrom(type)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Build a new {@link RequestLane}.
+	 */
+	public static class Builder {
+		private final String name;
+		private int threadPoolSize = DEFAULT_THREAD_POOL_SIZE;
+		private int maxQueueDepth = UNBOUNDED;
+		private Cache cache;
+		private final List<Class<?>> requestTypes = new ArrayList<>();
+		private final List<Object> tags = new ArrayList<>();
+
+		/**
+		 * @param name the lane's name, such as "api", "images" or "uploads"
+		 */
+		public Builder(String name){
+			this.name = checkNotNull(name, "name == null");
+		}
+
+
+		/**
+		 * Number of network threads dispatching the requests of this lane.
+		 */
+		public Builder threadPoolSize(int threadPoolSize){
+			if(threadPoolSize < 1){
+				throw new IllegalArgumentException("threadPoolSize < 1");
+			}
+			this.threadPoolSize = threadPoolSize;
+			return this;
+		}
+
+
+		/**
+		 * Maximum number of requests waiting or running in this lane, extra requests are
+		 * rejected with an error. {@link #UNBOUNDED} by default.
+		 */
+		public Builder maxQueueDepth(int maxQueueDepth){
+			if(maxQueueDepth < 0){
+				throw new IllegalArgumentException("maxQueueDepth < 0");
+			}
+			this.maxQueueDepth = maxQueueDepth;
+			return this;
+		}
+
+
+		/**
+		 * Response cache of this lane. If not set, a disk cache dedicated to the lane is created.
+		 */
+		public Builder cache(Cache cache){
+			this.cache = checkNotNull(cache, "cache == null");
+			return this;
+		}
+
+
+		/**
+		 * Route all requests of the given type (and its subclasses) to this lane.
+		 */
+		public Builder route(Class<? extends Request> requestType){
+			this.requestTypes.add(checkNotNull(requestType, "requestType == null"));
+			return this;
+		}
+
+
+		/**
+		 * Route all requests with the given tag to this lane.
+		 */
+		public Builder routeTag(Object tag){
+			this.tags.add(checkNotNull(tag, "tag == null"));
+			return this;
+		}
+
+
+		public RequestLane build(){
+			return new RequestLane(this);
+		}
+	}
+
+}
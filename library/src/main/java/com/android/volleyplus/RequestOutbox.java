@@ -0,0 +1,751 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.VolleyLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Persistent outbox of the requests marked with {@link BaseRequest#setDurable(boolean)}.
+ * <p>
+ * A durable request is written to a write-ahead log before it is sent, and stays there until the
+ * server has answered it. Requests failing without an answer (no connection, timeout, 5xx) are
+ * sent again when the connectivity comes back, or after a backoff, including after the process has
+ * died. They are started in the order they were submitted, a limited number at a time, and an
+ * identical request submitted while one is waiting is not sent twice.
+ * <p>
+ * The listener of a durable request is called once the request has been answered, if the process
+ * is still alive. Use {@link #setListener(Listener)} to learn about the requests sent again after
+ * a restart.
+ * <p>
+ * The Authorization, Proxy-Authorization and Cookie headers are not written to the log. A replay
+ * takes them from a {@link CredentialProvider} if one is set, else from the request it replays
+ * if it was submitted by this process.
+ */
+public final class RequestOutbox {
+
+	private static final String LOG_FILE = "outbox.log";
+
+	private static final long MIN_BACKOFF_MS = 5 * 1000;
+	private static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+
+	/**Callback interface for the requests sent by the outbox**/
+	public interface Listener {
+		/**
+		 * A durable request has been answered, called on the main thread.
+		 * @param subPath   the request's related url
+		 * @param response  the response parsed by the request if it was submitted by this process,
+		 *                  the response body otherwise
+		 */
+		void onSent(String subPath, Object response);
+
+		/**
+		 * A durable request has been dropped: the server rejected it, or it can not be sent anymore.
+		 */
+		void onDropped(String subPath, VolleyError error);
+	}
+
+	/**Provides the credentials of the requests sent again, which are not logged**/
+	public interface CredentialProvider {
+		/**
+		 * Add the credential headers of a request about to be sent again, called on a network
+		 * thread.
+		 * @param subPath  the request's related url
+		 * @param headers  the logged headers of the request, to add to
+		 * @throws AuthFailureError if the request can not be sent anymore, it is then dropped
+		 */
+		void addCredentials(String subPath, Map<String, String> headers) throws AuthFailureError;
+	}
+
+	private final Context context;
+	private final int maxConcurrentRequests;
+	private final OutboxLog log;
+
+	/**Log writes happen in order on this thread**/
+	private final ExecutorService io = Executors.newSingleThreadExecutor();
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	/**Id -> waiting request in submission order, guarded by this**/
+	private final LinkedHashMap<Long, Pending> pending = new LinkedHashMap<>();
+
+	private int inFlight;
+	private boolean loaded;
+	private boolean paused;
+	private long backoffMs = MIN_BACKOFF_MS;
+	private volatile Listener listener;
+	private volatile CredentialProvider credentialProvider;
+
+	private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			if(isConnected()){
+				resume();
+			}
+		}
+	};
+
+	private final Runnable resumeRunnable = new Runnable() {
+		@Override
+		public void run() {
+			resume();
+		}
+	};
+
+	private final Runnable drainRunnable = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+
+	RequestOutbox(Context context, File directory, int maxConcurrentRequests){
+		this.context = context.getApplicationContext();
+		this.maxConcurrentRequests = maxConcurrentRequests;
+		this.log = new OutboxLog(new File(directory, LOG_FILE));
+
+		if(!directory.exists() && !directory.mkdirs()){
+			VolleyLog.e("Unable to create outbox dir %s", directory.getAbsolutePath());
+		}
+		io.execute(new Runnable() {
+			@Override
+			public void run() {
+				load();
+			}
+		});
+		this.context.registerReceiver(connectivityReceiver,
+				new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+	}
+
+
+	/**
+	 * Set a listener informed of the requests answered or dropped
+	 */
+	public void setListener(Listener listener){
+		this.listener = listener;
+	}
+
+
+	/**
+	 * Set the provider of the credentials of the requests sent again. Set it right after
+	 * {@link VolleyPlus} is initialized, on the main thread, so that the requests logged before a
+	 * restart are not sent without it.
+	 */
+	public void setCredentialProvider(CredentialProvider provider){
+		this.credentialProvider = provider;
+	}
+
+
+	/**
+	 * Number of durable requests waiting for an answer
+	 */
+	public synchronized int getPendingCount(){
+		return pending.size();
+	}
+
+
+	/**
+	 * Send the waiting requests now instead of waiting for the connectivity to change or for the
+	 * backoff to expire.
+	 */
+	public void flush(){
+		handler.post(resumeRunnable);
+	}
+
+
+	/**
+	 * Drop all waiting requests, for instance when the user logs out. Requests in flight still
+	 * complete.
+	 */
+	public void clear(){
+		synchronized (this){
+			pending.clear();
+		}
+		io.execute(new Runnable() {
+			@Override
+			public void run() {
+				compactLog();
+			}
+		});
+	}
+
+
+	/**
+	 * Take a durable request
+	 * @return false if the request can not be durable and must be sent as usual
+	 */
+	boolean submit(final BaseRequest<?> request){
+		if(request.getMethod() == Request.Method.GET){
+			return false;
+		}
+		io.execute(new Runnable() {
+			@Override
+			public void run() {
+				write(request);
+			}
+		});
+		return true;
+	}
+
+
+	/**
+	 * Stop listening to the connectivity and close the log
+	 */
+	void shutdown(){
+		context.unregisterReceiver(connectivityReceiver);
+		handler.removeCallbacks(resumeRunnable);
+		handler.removeCallbacks(drainRunnable);
+		List<BaseRequest<?>> replays = new ArrayList<>();
+		synchronized (this){
+			// Nothing is started anymore, the cancelled replays stay in the log
+			paused = true;
+			for(Pending waiting : pending.values()){
+				if(waiting.replay != null){
+					replays.add(waiting.replay);
+				}
+			}
+		}
+		for(BaseRequest<?> replay : replays){
+			replay.cancel();
+		}
+		io.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					log.close();
+				} catch (IOException e) {
+					VolleyLog.e(e, "Unable to close outbox log");
+				}
+			}
+		});
+		io.shutdown();
+	}
+
+
+	private void load(){
+		List<OutboxEntry> entries;
+		try {
+			entries = log.open();
+		} catch (IOException e) {
+			VolleyLog.e(e, "Unable to read outbox log");
+			entries = new ArrayList<>();
+		}
+		synchronized (this){
+			for(OutboxEntry entry : entries){
+				pending.put(entry.id, new Pending(entry, null));
+			}
+			loaded = true;
+		}
+		handler.post(drainRunnable);
+	}
+
+
+	/**
+	 * Log a submitted request, called on the io thread
+	 */
+	private void write(BaseRequest<?> request){
+		OutboxEntry entry;
+		try {
+			entry = OutboxEntry.of(log.nextId(), request);
+		} catch (AuthFailureError authFailureError) {
+			sendNow(request);
+			return;
+		}
+
+		synchronized (this){
+			for(Pending waiting : pending.values()){
+				if(!waiting.inFlight && waiting.entry.isSameRequest(entry)){
+					waiting.origins.add(request);
+					return;
+				}
+			}
+		}
+
+		try {
+			log.add(entry);
+		} catch (IOException e) {
+			VolleyLog.e(e, "Unable to write outbox log");
+			sendNow(request);
+			return;
+		}
+		synchronized (this){
+			pending.put(entry.id, new Pending(entry, request));
+		}
+		handler.post(drainRunnable);
+	}
+
+
+	/**
+	 * Send a request which can not be made durable as a usual one
+	 */
+	private void sendNow(final BaseRequest<?> request){
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				request.setDurable(false);
+				VolleyPlus.getInstance().enqueue(request);
+			}
+		});
+	}
+
+
+	/**
+	 * Start waiting requests, up to the concurrency limit
+	 */
+	private void drain(){
+		List<Pending> ready = new ArrayList<>();
+		synchronized (this){
+			if(!loaded || paused || !isConnected()){
+				return;
+			}
+			for(Pending waiting : pending.values()){
+				if(inFlight >= maxConcurrentRequests){
+					break;
+				}
+				if(!waiting.inFlight){
+					waiting.inFlight = true;
+					inFlight++;
+					ready.add(waiting);
+				}
+			}
+		}
+		for(Pending waiting : ready){
+			String missing = missingFile(waiting.entry);
+			if(missing != null){
+				new Replay(this, waiting).drop(new VolleyError("File not found: " + missing));
+				continue;
+			}
+			BaseRequest<?> replay = waiting.entry.multipart
+					? new MultipartReplayRequest(this, waiting) : new ReplayRequest(this, waiting);
+			synchronized (this){
+				waiting.replay = replay;
+			}
+			VolleyPlus.getInstance().enqueue(replay);
+		}
+	}
+
+
+	private static String missingFile(OutboxEntry entry){
+		for(String path : entry.fileParts.values()){
+			if(!new File(path).isFile()){
+				return path;
+			}
+		}
+		return null;
+	}
+
+
+	private void resume(){
+		handler.removeCallbacks(resumeRunnable);
+		synchronized (this){
+			paused = false;
+		}
+		drain();
+	}
+
+
+	/**
+	 * Called when a replayed request is answered, failed or cancelled, once per replay
+	 */
+	private void onDone(final Pending waiting, boolean retry){
+		synchronized (this){
+			waiting.inFlight = false;
+			waiting.replay = null;
+			inFlight--;
+			if(retry){
+				if(!paused){
+					paused = true;
+					handler.postDelayed(resumeRunnable, backoffMs);
+					backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+				}
+			}else{
+				pending.remove(waiting.entry.id);
+				backoffMs = MIN_BACKOFF_MS;
+			}
+		}
+		if(retry){
+			return;
+		}
+
+		io.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					log.done(waiting.entry.id);
+				} catch (IOException e) {
+					VolleyLog.e(e, "Unable to write outbox log");
+				}
+				int count;
+				synchronized (RequestOutbox.this){
+					count = pending.size();
+				}
+				if(log.needsCompaction(count)){
+					compactLog();
+				}
+			}
+		});
+		drain();
+	}
+
+
+	/**
+	 * Rewrite the log with the waiting requests only, called on the io thread
+	 */
+	private void compactLog(){
+		List<OutboxEntry> entries = new ArrayList<>();
+		synchronized (this){
+			for(Pending waiting : pending.values()){
+				entries.add(waiting.entry);
+			}
+		}
+		try {
+			log.compact(entries);
+		} catch (IOException e) {
+			VolleyLog.e(e, "Unable to compact outbox log");
+		}
+	}
+
+
+	/**
+	 * Whether the request may succeed if sent again: the server did not answer, or answered
+	 * with a 5xx.
+	 */
+	private static boolean isTransient(VolleyError error){
+		if(error instanceof ParseError || error instanceof AuthFailureError){
+			return false;
+		}
+		NetworkResponse response = error.networkResponse;
+		return response == null || response.statusCode >= 500;
+	}
+
+
+	private boolean isConnected(){
+		ConnectivityManager manager =
+				(ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo info = manager.getActiveNetworkInfo();
+		return info != null && info.isConnected();
+	}
+
+
+	/**
+	 * A logged request and the requests of this process waiting for its answer
+	 */
+	private static final class Pending {
+		final OutboxEntry entry;
+		final List<BaseRequest<?>> origins = new ArrayList<>(1);
+		boolean inFlight;
+
+		/**The request replaying the entry while it is in flight**/
+		BaseRequest<?> replay;
+
+		Pending(OutboxEntry entry, BaseRequest<?> origin){
+			this.entry = entry;
+			if(origin != null){
+				origins.add(origin);
+			}
+		}
+	}
+
+
+	/**
+	 * Sends a logged request and hands the answer to its origins. Shared by both replay requests.
+	 */
+	private static final class Replay {
+		final RequestOutbox outbox;
+		final Pending waiting;
+		private List<BaseRequest<?>> origins;
+		private volatile Map<BaseRequest<?>, Response<?>> parsed;
+
+		/**Set once the outbox has been told the outcome of the replay**/
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		Replay(RequestOutbox outbox, Pending waiting){
+			this.outbox = outbox;
+			this.waiting = waiting;
+			synchronized (outbox){
+				this.origins = new ArrayList<>(waiting.origins);
+			}
+		}
+
+		String getUrl(){
+			return VolleyPlus.getInstance().getBaseUrl() + waiting.entry.subPath;
+		}
+
+		/**
+		 * The logged headers and the credentials left out of the log
+		 */
+		Map<String, String> getHeaders() throws AuthFailureError {
+			Map<String, String> headers = new LinkedHashMap<>(waiting.entry.headers);
+			CredentialProvider provider = outbox.credentialProvider;
+			if(provider != null){
+				provider.addCredentials(waiting.entry.subPath, headers);
+			}else if(!origins.isEmpty()){
+				headers.putAll(OutboxEntry.credentialsOf(origins.get(0).getHeaders()));
+			}
+			return headers;
+		}
+
+		/**
+		 * Let every origin parse the response, as it would have done itself
+		 */
+		Response<Object> parse(NetworkResponse response, Response<Object> raw){
+			Map<BaseRequest<?>, Response<?>> responses = new HashMap<>();
+			for(BaseRequest<?> origin : origins){
+				responses.put(origin, origin.parseNetworkResponse(response));
+			}
+			parsed = responses;
+			return raw;
+		}
+
+		@SuppressWarnings("unchecked")
+		void deliverResponse(Object body){
+			if(parsed == null){
+				// The origins never saw the response, they must not be told it was sent
+				drop(new VolleyError("The response of the replay was not parsed"));
+				return;
+			}
+			if(!done.compareAndSet(false, true)){
+				return;
+			}
+			Object response = body;
+			for(BaseRequest origin : origins){
+				Response<?> result = parsed.get(origin);
+				if(result == null || origin.isCanceled()){
+					continue;
+				}
+				if(result.isSuccess()){
+					origin.deliverResponse(result.result);
+					response = result.result;
+				}else{
+					origin.deliverError(result.error);
+				}
+			}
+			Listener listener = outbox.listener;
+			if(listener != null){
+				listener.onSent(waiting.entry.subPath, response);
+			}
+			outbox.onDone(waiting, false);
+		}
+
+		void deliverError(VolleyError error){
+			if(isTransient(error)){
+				// Kept for the next replay
+				cancel();
+			}else{
+				drop(error);
+			}
+		}
+
+		/**
+		 * Keep the entry for the next replay, the origins are not called
+		 */
+		void cancel(){
+			if(done.compareAndSet(false, true)){
+				outbox.onDone(waiting, true);
+			}
+		}
+
+		void drop(VolleyError error){
+			if(!done.compareAndSet(false, true)){
+				return;
+			}
+			for(BaseRequest<?> origin : origins){
+				if(!origin.isCanceled()){
+					origin.deliverError(error);
+				}
+			}
+			Listener listener = outbox.listener;
+			if(listener != null){
+				listener.onDropped(waiting.entry.subPath, error);
+			}
+			outbox.onDone(waiting, false);
+		}
+	}
+
+
+	/**
+	 * Replays a logged request with a body
+	 */
+	private static final class ReplayRequest extends BaseRequest<Object> {
+		private final Replay replay;
+
+		ReplayRequest(RequestOutbox outbox, Pending waiting){
+			super(waiting.entry.method, null);
+			this.replay = new Replay(outbox, waiting);
+			setShouldCache(false);
+			setShouldCoalesce(false);
+			setRetryPolicy(new DefaultRetryPolicy(waiting.entry.timeoutMs, 1, 1));
+		}
+
+		@Override
+		public String getUrl() {
+			return replay.getUrl();
+		}
+
+		@Override
+		protected String subPath() {
+			return replay.waiting.entry.subPath;
+		}
+
+		@Override
+		public Map<String, String> getHeaders() throws AuthFailureError {
+			return replay.getHeaders();
+		}
+
+		@Override
+		public byte[] getBody() throws AuthFailureError {
+			return replay.waiting.entry.body;
+		}
+
+		@Override
+		public String getBodyContentType() {
+			return replay.waiting.entry.bodyContentType;
+		}
+
+		@Override
+		protected Map<String, String> getPostParams() throws AuthFailureError {
+			return null;
+		}
+
+		@Override
+		protected Map<String, String> getQueryParams() throws AuthFailureError {
+			return null;
+		}
+
+		@Override
+		public Priority getPriority() {
+			return Priority.LOW;
+		}
+
+		@Override
+		protected Object parseNetworkEntity(String body) {
+			return body;
+		}
+
+		@Override
+		protected Response<Object> parseNetworkResponse(NetworkResponse response) {
+			return replay.parse(response, super.parseNetworkResponse(response));
+		}
+
+		@Override
+		protected void deliverResponse(Object response) {
+			replay.deliverResponse(response);
+		}
+
+		@Override
+		public void deliverError(VolleyError error) {
+			replay.deliverError(error);
+		}
+
+		/**A cancelled replay is not delivered, its entry stays in the outbox for the next replay**/
+		@Override
+		public void cancel() {
+			super.cancel();
+			replay.cancel();
+		}
+	}
+
+
+	/**
+	 * Replays a logged {@link MultipartRequest}, the files are read again from their paths
+	 */
+	private static final class MultipartReplayRequest extends MultipartRequest<Object> {
+		private final Replay replay;
+
+		MultipartReplayRequest(RequestOutbox outbox, Pending waiting){
+			super(null);
+			this.replay = new Replay(outbox, waiting);
+			setShouldCache(false);
+			setShouldCoalesce(false);
+			setRetryPolicy(new DefaultRetryPolicy(waiting.entry.timeoutMs, 1, 1));
+
+			Map<String, File> files = new LinkedHashMap<>();
+			for(Map.Entry<String, String> file : waiting.entry.fileParts.entrySet()){
+				files.put(file.getKey(), new File(file.getValue()));
+			}
+			setFileUpload(files);
+			setStringUpload(new LinkedHashMap<>(waiting.entry.stringParts));
+		}
+
+		@Override
+		public String getUrl() {
+			return replay.getUrl();
+		}
+
+		@Override
+		protected String subPath() {
+			return replay.waiting.entry.subPath;
+		}
+
+		@Override
+		public Map<String, String> getHeaders() throws AuthFailureError {
+			return replay.getHeaders();
+		}
+
+		@Override
+		protected Object parseNetworkEntity(String body) {
+			return body;
+		}
+
+		@Override
+		protected Response<Object> parseNetworkResponse(NetworkResponse response) {
+			return replay.parse(response, super.parseNetworkResponse(response));
+		}
+
+		@Override
+		protected void deliverResponse(Object response) {
+			replay.deliverResponse(response);
+		}
+
+		@Override
+		public void deliverError(VolleyError error) {
+			replay.deliverError(error);
+		}
+
+		@Override
+		public void cancel() {
+			super.cancel();
+			replay.cancel();
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.Request;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Concurrent index from a tag to its pending and in-flight requests, so that cancelling a tag
+ * costs time proportional to the requests under that tag instead of a scan of every queue.
+ */
+final class RequestTagIndex {
+
+	private final Tags<Request<?>> tags = new Tags<Request<?>>() {
+		@Override
+		void cancelRequest(Request<?> request) {
+			request.cancel();
+		}
+	};
+
+
+	void add(Request<?> request){
+		Object tag = request.getTag();
+		if(tag != null){
+			tags.add(tag, request);
+		}
+	}
+
+
+	void remove(Request<?> request){
+		Object tag = request.getTag();
+		if(tag != null){
+			tags.remove(tag, request);
+		}
+	}
+
+
+	/**
+	 * Cancel all requests having the tag
+	 */
+	void cancel(Object tag){
+		tags.cancel(tag);
+	}
+
+
+	/**
+	 * Cancel all indexed requests
+	 */
+	void cancelAll(){
+		tags.cancelAll();
+	}
+
+
+	/**
+	 * The requests of every tag
+	 */
+	abstract static class Tags<R> {
+
+		private final ConcurrentMap<Object, Entry<R>> entries = new ConcurrentHashMap<>();
+
+		abstract void cancelRequest(R request);
+
+		void add(Object tag, R request){
+			while(!tryAdd(tag, request, entryFor(tag))){
+				// The entry was dropped by remove() since we got it
+			}
+		}
+
+		Entry<R> entryFor(Object tag){
+			Entry<R> entry = entries.get(tag);
+			if(entry == null){
+				Entry<R> created = new Entry<>();
+				entry = entries.putIfAbsent(tag, created);
+				if(entry == null){
+					entry = created;
+				}
+			}
+			return entry;
+		}
+
+		/**
+		 * @return false if the request must be added again, to a new entry of the tag
+		 */
+		boolean tryAdd(Object tag, R request, Entry<R> entry){
+			entry.requests.add(request);
+			// Either the request is seen by cancel(), or cancel() is seen here
+			if(entry.canceled){
+				cancelRequest(request);
+				return true;
+			}
+			return entries.get(tag) == entry;
+		}
+
+		void remove(Object tag, R request){
+			Entry<R> entry = entries.get(tag);
+			if(entry != null && entry.requests.remove(request) && entry.requests.isEmpty()){
+				entries.remove(tag, entry);
+			}
+		}
+
+		void cancel(Object tag){
+			Entry<R> entry = entries.remove(tag);
+			if(entry == null){
+				return;
+			}
+			entry.canceled = true;
+			for(R request : entry.requests){
+				cancelRequest(request);
+			}
+		}
+
+		void cancelAll(){
+			List<Object> tags = new ArrayList<>(entries.keySet());
+			for(Object tag : tags){
+				cancel(tag);
+			}
+		}
+
+		boolean contains(Object tag, R request){
+			Entry<R> entry = entries.get(tag);
+			return entry != null && entry.requests.contains(request);
+		}
+	}
+
+
+	/**
+	 * The requests of a tag, and whether the tag has been cancelled since
+	 */
+	static final class Entry<R> {
+		final Set<R> requests = Collections.newSetFromMap(new ConcurrentHashMap<R, Boolean>());
+		volatile boolean canceled;
+	}
+
+}
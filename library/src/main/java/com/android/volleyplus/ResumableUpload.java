@@ -0,0 +1,768 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+import com.android.volley.VolleyLog;
+import com.android.volleyplus.toolbox.StreamingBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.android.volleyplus.toolbox.Utils.checkNotNull;
+
+/**
+ * Uploads a large file in chunks which survive network losses and process death, with the
+ * <a href="https://tus.io/protocols/resumable-upload.html">tus</a> protocol and its concatenation
+ * extension. Every chunk is a partial upload of its own, so that several chunks are sent at once;
+ * once they are all complete, a final upload concatenates them.
+ * <p>
+ * The url and the offset acknowledged by the server for every chunk are saved next to the file, in
+ * {@code <file>.upload}. Starting an upload of the same, unmodified file again asks the server the
+ * offset of the chunks already created and sends only their missing bytes. A chunk which fails is
+ * retried alone, from the offset of the server.
+ * <p>
+ * An upload is started and cancelled on the main thread, where its listeners are called. The state
+ * is read and written on a background thread. The chunks are streamed from the file by
+ * {@link com.android.volleyplus.toolbox.SslHurlStack}, other stacks send them from memory.
+ * <pre>
+ * new ResumableUpload.Builder("files/", video)
+ *         .chunkSize(4 * 1024 * 1024)
+ *         .parallelism(2)
+ *         .metadata("filename", video.getName())
+ *         .listener(listener)
+ *         .build()
+ *         .start();
+ * </pre>
+ */
+public final class ResumableUpload {
+
+    private static final String TUS_VERSION = "1.0.0";
+
+    private static final String HEADER_TUS_RESUMABLE = "Tus-Resumable";
+    private static final String HEADER_UPLOAD_LENGTH = "Upload-Length";
+    private static final String HEADER_UPLOAD_OFFSET = "Upload-Offset";
+    private static final String HEADER_UPLOAD_CONCAT = "Upload-Concat";
+    private static final String HEADER_UPLOAD_METADATA = "Upload-Metadata";
+    private static final String HEADER_LOCATION = "Location";
+    private static final String HEADER_METHOD_OVERRIDE = "X-HTTP-Method-Override";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String CONTENT_TYPE_OFFSET = "application/offset+octet-stream";
+
+    private static final int STATUS_NOT_FOUND = 404;
+    private static final int STATUS_GONE = 410;
+
+    private final String path;
+    private final File file;
+    private final File stateFile;
+    private final long chunkSize;
+    private final int parallelism;
+    private final int maxChunkRetries;
+    private final String metadata;
+    private final BaseRequest.ResponseListener<String> listener;
+    private final DownloadRequest.ProgressListener progressListener;
+    private final Transport transport;
+
+    /**Reads and writes the state file in order**/
+    private final ExecutorService io = Executors.newSingleThreadExecutor();
+
+    /**Set by the io thread when the upload starts**/
+    private volatile long fileLength;
+
+    /**Accessed on the main thread**/
+    private UploadState state;
+    private int[] attempts;
+    private final ArrayDeque<Integer> pending = new ArrayDeque<>();
+    private final List<BaseRequest<?>> inFlight = new ArrayList<>();
+    private int running;
+    private boolean started = false;
+    private boolean finished = false;
+
+
+    private ResumableUpload(Builder builder){
+        this.path = builder.path;
+        this.file = builder.file;
+        this.stateFile = new File(builder.file.getPath() + ".upload");
+        this.chunkSize = builder.chunkSize;
+        this.parallelism = builder.parallelism;
+        this.maxChunkRetries = builder.maxChunkRetries;
+        this.metadata = builder.metadata.length() > 0 ? builder.metadata.toString() : null;
+        this.listener = builder.listener;
+        this.progressListener = builder.progressListener;
+        this.transport = builder.transport != null ? builder.transport : new MainThreadTransport();
+    }
+
+
+    /**
+     * Start or resume the upload, once
+     */
+    public void start(){
+        if(started){
+            throw new IllegalStateException("Already started");
+        }
+        started = true;
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                final UploadState loaded = load();
+                transport.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoaded(loaded);
+                    }
+                });
+            }
+        });
+    }
+
+
+    /**
+     * Read the state of a previous upload of the file, on the io thread
+     * @return the state, or null if the file does not exist
+     */
+    private UploadState load(){
+        if(!file.isFile()){
+            return null;
+        }
+        long length = file.length();
+        String fingerprint = UploadState.fingerprintOf(file);
+        UploadState loaded = UploadState.load(stateFile, fingerprint, length, chunkSize);
+        fileLength = length;
+        return loaded != null ? loaded : new UploadState(fingerprint, length, chunkSize);
+    }
+
+
+    private void onLoaded(UploadState loaded){
+        if(finished){
+            return;
+        }
+        if(loaded == null){
+            fail(new VolleyError("No such file: " + file));
+            return;
+        }
+        state = loaded;
+        if(state.finalUrl != null){
+            complete();
+            return;
+        }
+
+        attempts = new int[state.urls.length];
+        for(int i = 0; i < state.urls.length; i++){
+            pending.add(i);
+        }
+        reportProgress();
+        next();
+    }
+
+
+    /**
+     * Cancel the upload, the listener is not called. The acknowledged chunks are kept, starting
+     * an upload of the file again resumes it.
+     */
+    public void cancel(){
+        if(finished){
+            return;
+        }
+        finished = true;
+        for(BaseRequest<?> request : inFlight){
+            request.cancel();
+        }
+        inFlight.clear();
+        // The pending writes of the state still run
+        io.shutdown();
+    }
+
+
+    public boolean isFinished(){
+        return finished;
+    }
+
+
+    /**
+     * Start the next chunks, or the final upload once all chunks are complete
+     */
+    private void next(){
+        while(running < parallelism && !pending.isEmpty()){
+            int chunk = pending.poll();
+            running++;
+            if(state.urls[chunk] == null){
+                enqueue(new CreateRequest(chunk));
+            }else{
+                // The server may have received more than it acknowledged before
+                enqueue(new OffsetRequest(chunk));
+            }
+        }
+        if(running == 0 && pending.isEmpty()){
+            enqueue(new ConcatRequest());
+        }
+    }
+
+
+    private void enqueue(BaseRequest<?> request){
+        inFlight.add(request);
+        transport.enqueue(request);
+    }
+
+
+    /**
+     * Send the bytes of a chunk the server does not have, or move to the next chunk
+     */
+    private void sendChunk(int chunk){
+        if(state.offsets[chunk] < state.lengthOf(chunk, fileLength)){
+            enqueue(new PatchRequest(chunk));
+            return;
+        }
+        running--;
+        next();
+    }
+
+
+    private void onAcknowledged(int chunk, String url, long offset){
+        state.urls[chunk] = url;
+        state.offsets[chunk] = offset;
+        save();
+        reportProgress();
+        sendChunk(chunk);
+    }
+
+
+    private void onChunkFailed(int chunk, VolleyError error){
+        if(finished){
+            return;
+        }
+        if(error.networkResponse != null && (error.networkResponse.statusCode == STATUS_NOT_FOUND
+                || error.networkResponse.statusCode == STATUS_GONE)){
+            // The server dropped the partial upload, create it again
+            state.urls[chunk] = null;
+            state.offsets[chunk] = 0;
+            save();
+        }
+        if(++attempts[chunk] > maxChunkRetries){
+            fail(error);
+            return;
+        }
+        enqueue(state.urls[chunk] == null ? new CreateRequest(chunk) : new OffsetRequest(chunk));
+    }
+
+
+    private void complete(){
+        finished = true;
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                stateFile.delete();
+            }
+        });
+        io.shutdown();
+        listener.onResponse(state.finalUrl);
+    }
+
+
+    private void fail(VolleyError error){
+        if(finished){
+            return;
+        }
+        cancel();
+        listener.onErrorResponse(error);
+    }
+
+
+    /**
+     * Save a copy of the state on the io thread. The server is asked the offsets of the chunks
+     * when an upload resumes, a state older than the server's is only slower to resume.
+     */
+    private void save(){
+        final UploadState snapshot = state.copy();
+        io.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshot.save(stateFile);
+                } catch (IOException e) {
+                    VolleyLog.e(e, "Unable to save upload state %s", stateFile);
+                }
+            }
+        });
+    }
+
+
+    private void reportProgress(){
+        if(progressListener == null){
+            return;
+        }
+        long sent = 0;
+        for(long offset : state.offsets){
+            sent += offset;
+        }
+        progressListener.onProgress(sent, fileLength);
+    }
+
+
+    /**
+     * Resolve a Location header against the url of the request
+     */
+    private static String resolve(String url, String location) throws IOException {
+        if(location == null){
+            throw new IOException("Missing Location header");
+        }
+        try {
+            return URI.create(url).resolve(location).toString();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid Location header: " + location);
+        }
+    }
+
+
+    private static long offsetOf(Map<String, String> headers) throws IOException {
+        String offset = headers.get(HEADER_UPLOAD_OFFSET);
+        try {
+            return Long.parseLong(offset.trim());
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid Upload-Offset: " + offset);
+        }
+    }
+
+
+    private static Map<String, String> caseInsensitive(Map<String, String> headers){
+        Map<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if(headers != null){
+            map.putAll(headers);
+        }
+        return map;
+    }
+
+
+    /**
+     * A tus request, its response is read from the headers
+     */
+    private abstract class TusRequest<T> extends BaseRequest<T> {
+        private final String url;
+
+        TusRequest(int method, String url){
+            super(method, null);
+            this.url = url;
+            setResponseListener(new ResponseListener<T>() {
+                @Override
+                public void onResponse(T response) {
+                    inFlight.remove(TusRequest.this);
+                    if(!finished){
+                        onTusResponse(response);
+                    }
+                }
+
+                @Override
+                public void onErrorResponse(VolleyError error) {
+                    inFlight.remove(TusRequest.this);
+                    onTusError(error);
+                }
+            });
+            setShouldCache(false);
+            setShouldCoalesce(false);
+            // Failed chunks are retried by the upload, from the offset of the server
+            setRetryPolicy(new DefaultRetryPolicy(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS, 0, 1));
+        }
+
+        abstract void onTusResponse(T response);
+
+        abstract void onTusError(VolleyError error);
+
+        abstract T readHeaders(Map<String, String> headers) throws IOException;
+
+        @Override
+        public String getUrl() {
+            return url;
+        }
+
+        @Override
+        protected String subPath() {
+            return path;
+        }
+
+        @Override
+        public Map<String, String> getHeaders() throws AuthFailureError {
+            Map<String, String> headers = new HashMap<>(super.getHeaders());
+            headers.put(HEADER_TUS_RESUMABLE, TUS_VERSION);
+            return headers;
+        }
+
+        @Override
+        protected Map<String, String> getPostParams() throws AuthFailureError {
+            return null;
+        }
+
+        @Override
+        protected Map<String, String> getQueryParams() throws AuthFailureError {
+            return null;
+        }
+
+        @Override
+        protected T parseNetworkEntity(String json) {
+            throw new IllegalStateException("tus responses are read from their headers");
+        }
+
+        @Override
+        T readEntity(NetworkResponse response) throws IOException {
+            return readHeaders(caseInsensitive(response.headers));
+        }
+    }
+
+
+    /**
+     * Creates the partial upload of a chunk
+     */
+    private final class CreateRequest extends TusRequest<String> {
+        private final int chunk;
+
+        CreateRequest(int chunk){
+            super(Method.POST, DownloadRequest.urlOf(path));
+            this.chunk = chunk;
+        }
+
+        @Override
+        public Map<String, String> getHeaders() throws AuthFailureError {
+            Map<String, String> headers = super.getHeaders();
+            headers.put(HEADER_UPLOAD_LENGTH, String.valueOf(state.lengthOf(chunk, fileLength)));
+            headers.put(HEADER_UPLOAD_CONCAT, "partial");
+            return headers;
+        }
+
+        @Override
+        String readHeaders(Map<String, String> headers) throws IOException {
+            return resolve(getUrl(), headers.get(HEADER_LOCATION));
+        }
+
+        @Override
+        void onTusResponse(String url) {
+            onAcknowledged(chunk, url, 0);
+        }
+
+        @Override
+        void onTusError(VolleyError error) {
+            onChunkFailed(chunk, error);
+        }
+    }
+
+
+    /**
+     * Asks the server the offset of a chunk
+     */
+    private final class OffsetRequest extends TusRequest<Long> {
+        private final int chunk;
+
+        OffsetRequest(int chunk){
+            super(Method.HEAD, state.urls[chunk]);
+            this.chunk = chunk;
+        }
+
+        @Override
+        Long readHeaders(Map<String, String> headers) throws IOException {
+            return offsetOf(headers);
+        }
+
+        @Override
+        void onTusResponse(Long offset) {
+            onAcknowledged(chunk, state.urls[chunk], offset);
+        }
+
+        @Override
+        void onTusError(VolleyError error) {
+            onChunkFailed(chunk, error);
+        }
+    }
+
+
+    /**
+     * Sends the bytes of a chunk from the offset of the server. HttpURLConnection does not send
+     * PATCH requests on every version, it is a POST overridden by a header.
+     */
+    private final class PatchRequest extends TusRequest<Long> implements StreamingBody {
+        private final int chunk;
+        private final long offset;
+
+        PatchRequest(int chunk){
+            super(Method.POST, state.urls[chunk]);
+            this.chunk = chunk;
+            this.offset = state.offsets[chunk];
+        }
+
+        @Override
+        public Map<String, String> getHeaders() throws AuthFailureError {
+            Map<String, String> headers = super.getHeaders();
+            headers.put(HEADER_METHOD_OVERRIDE, "PATCH");
+            headers.put(HEADER_UPLOAD_OFFSET, String.valueOf(offset));
+            return headers;
+        }
+
+        @Override
+        public String getBodyContentType() {
+            return CONTENT_TYPE_OFFSET;
+        }
+
+        @Override
+        public long getContentLength() {
+            return state.lengthOf(chunk, fileLength) - offset;
+        }
+
+        /**
+         * The chunk for the stacks which do not stream a {@link StreamingBody}
+         */
+        @Override
+        public byte[] getBody() throws AuthFailureError {
+            ByteArrayOutputStream body = new ByteArrayOutputStream((int) getContentLength());
+            try {
+                writeBody(body);
+            } catch (IOException e) {
+                // Failed by the network dispatcher, the chunk is retried
+                throw new IllegalStateException("Unable to read " + file, e);
+            }
+            return body.toByteArray();
+        }
+
+        @Override
+        public void writeBody(OutputStream out) throws IOException {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                input.seek(state.startOf(chunk) + offset);
+                byte[] buffer = new byte[8192];
+                long remaining = getContentLength();
+                while(remaining > 0){
+                    int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if(read == -1){
+                        throw new IOException("The file is shorter than when the upload started");
+                    }
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            } finally {
+                input.close();
+            }
+        }
+
+        @Override
+        Long readHeaders(Map<String, String> headers) throws IOException {
+            return offsetOf(headers);
+        }
+
+        @Override
+        void onTusResponse(Long serverOffset) {
+            attempts[chunk] = 0;
+            onAcknowledged(chunk, state.urls[chunk], serverOffset);
+        }
+
+        @Override
+        void onTusError(VolleyError error) {
+            onChunkFailed(chunk, error);
+        }
+    }
+
+
+    /**
+     * Concatenates the chunks into the final upload
+     */
+    private final class ConcatRequest extends TusRequest<String> {
+
+        ConcatRequest(){
+            super(Method.POST, DownloadRequest.urlOf(path));
+        }
+
+        @Override
+        public Map<String, String> getHeaders() throws AuthFailureError {
+            Map<String, String> headers = super.getHeaders();
+            StringBuilder concat = new StringBuilder("final;");
+            for(int i = 0; i < state.urls.length; i++){
+                concat.append(i > 0 ? " " : "").append(state.urls[i]);
+            }
+            headers.put(HEADER_UPLOAD_CONCAT, concat.toString());
+            if(metadata != null){
+                headers.put(HEADER_UPLOAD_METADATA, metadata);
+            }
+            return headers;
+        }
+
+        @Override
+        String readHeaders(Map<String, String> headers) throws IOException {
+            return resolve(getUrl(), headers.get(HEADER_LOCATION));
+        }
+
+        @Override
+        void onTusResponse(String url) {
+            state.finalUrl = url;
+            save();
+            complete();
+        }
+
+        @Override
+        void onTusError(VolleyError error) {
+            fail(error);
+        }
+    }
+
+
+    /**
+     * Sends the requests of an upload and runs its callbacks
+     */
+    interface Transport {
+        void enqueue(Request<?> request);
+
+        /**
+         * Run a task on the thread of the callbacks
+         */
+        void post(Runnable task);
+    }
+
+
+    /**
+     * Sends the requests with {@link VolleyPlus}, the callbacks run on the main thread
+     */
+    private static final class MainThreadTransport implements Transport {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void enqueue(Request<?> request) {
+            VolleyPlus.getInstance().enqueue(request);
+        }
+
+        @Override
+        public void post(Runnable task) {
+            handler.post(task);
+        }
+    }
+
+
+    /**
+     * Build a {@link ResumableUpload}.
+     * <p>
+     * Calling {@link #listener} is required before calling {@link #build()}. All other methods
+     * are optional.
+     */
+    public static final class Builder {
+        private final String path;
+        private final File file;
+        private long chunkSize = 2 * 1024 * 1024;
+        private int parallelism = 2;
+        private int maxChunkRetries = 5;
+        private final StringBuilder metadata = new StringBuilder();
+        private BaseRequest.ResponseListener<String> listener;
+        private DownloadRequest.ProgressListener progressListener;
+        private Transport transport;
+
+        /**
+         * @param path the tus creation url, absolute or related to the base url
+         * @param file the file to upload, which must not change until the upload completes
+         */
+        public Builder(String path, File file){
+            this.path = checkNotNull(path, "path == null");
+            this.file = checkNotNull(file, "file == null");
+        }
+
+        /**
+         * Size of the chunks, 2 MB by default. It must be the same to resume an upload.
+         */
+        public Builder chunkSize(long chunkSize){
+            if(chunkSize < 1){
+                throw new IllegalArgumentException("chunkSize < 1");
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Number of chunks sent at once, 2 by default
+         */
+        public Builder parallelism(int parallelism){
+            if(parallelism < 1){
+                throw new IllegalArgumentException("parallelism < 1");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Times a failed chunk is retried before the upload fails, 5 by default
+         */
+        public Builder maxChunkRetries(int maxChunkRetries){
+            if(maxChunkRetries < 0){
+                throw new IllegalArgumentException("maxChunkRetries < 0");
+            }
+            this.maxChunkRetries = maxChunkRetries;
+            return this;
+        }
+
+        /**
+         * Add a key and a value to the Upload-Metadata of the final upload
+         */
+        public Builder metadata(String key, String value){
+            checkNotNull(key, "key == null");
+            checkNotNull(value, "value == null");
+            if(metadata.length() > 0){
+                metadata.append(',');
+            }
+            metadata.append(key).append(' ').append(Base64.encodeToString(value.getBytes(UTF_8), Base64.NO_WRAP));
+            return this;
+        }
+
+        /**
+         * Receives the url of the uploaded file
+         */
+        public Builder listener(BaseRequest.ResponseListener<String> listener){
+            this.listener = checkNotNull(listener, "listener == null");
+            return this;
+        }
+
+        /**
+         * Receives the bytes acknowledged by the server
+         */
+        public Builder progressListener(DownloadRequest.ProgressListener progressListener){
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        /**
+         * Send the requests with an other transport than {@link VolleyPlus}, for the benchmarks
+         */
+        Builder transport(Transport transport){
+            this.transport = checkNotNull(transport, "transport == null");
+            return this;
+        }
+
+        public ResumableUpload build(){
+            checkNotNull(listener, "listener == null");
+            return new ResumableUpload(this);
+        }
+    }
+
+}
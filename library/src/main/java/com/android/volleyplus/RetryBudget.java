@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Caps the retries of all requests at a percentage of the requests sent: every request adds a
+ * fraction of a retry to the budget, every retry takes a whole one. The budget holds a few
+ * retries at most, so that a quiet period does not allow a burst of retries later.
+ */
+final class RetryBudget {
+
+	/**Fixed point scale of the balance**/
+	private static final long SCALE = 1000;
+
+	/**Retries the budget may hold**/
+	static final int MAX_RETRIES = 10;
+
+	private final long deposit;
+	private final long maxBalance;
+	private final AtomicLong balance;
+
+
+	/**
+	 * @param percent retries allowed per 100 requests
+	 */
+	RetryBudget(int percent){
+		this.deposit = percent * SCALE / 100;
+		this.maxBalance = MAX_RETRIES * SCALE;
+		this.balance = new AtomicLong(maxBalance);
+	}
+
+
+	/**
+	 * A request is sent
+	 */
+	void deposit(){
+		while(true){
+			long current = balance.get();
+			long next = Math.min(maxBalance, current + deposit);
+			if(next == current || balance.compareAndSet(current, next)){
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * @return true if a retry is allowed
+	 */
+	boolean tryWithdraw(){
+		while(true){
+			long current = balance.get();
+			if(current < SCALE){
+				return false;
+			}
+			if(balance.compareAndSet(current, current - SCALE)){
+				return true;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,649 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.VolleyError;
+import com.android.volleyplus.toolbox.SegmentedFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.android.volleyplus.toolbox.Utils.checkNotNull;
+
+/**
+ * Downloads a large file over several connections at once. A HEAD request probes the size of the
+ * file and whether the server accepts byte ranges, the file is then preallocated and its ranges
+ * are fetched in parallel by the network threads, each one writing at its own position. A range
+ * which fails is retried alone, from its last written byte.
+ * <p>
+ * Once all the ranges are written the size of the file, and its digest if one is expected, are
+ * checked before the file is moved to its target. Servers without ranges, or files too small to
+ * be split, are downloaded by a single {@link DownloadRequest}.
+ * <p>
+ * A download is started and cancelled on the main thread, where its listeners are called.
+ * <pre>
+ * new SegmentedDownload.Builder("assets/pack.zip", target)
+ *         .segments(4)
+ *         .checksum("SHA-256", expectedSha256)
+ *         .listener(listener)
+ *         .build()
+ *         .start();
+ * </pre>
+ */
+public final class SegmentedDownload {
+
+    private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_RANGE = "Range";
+    private static final String HEADER_IF_RANGE = "If-Range";
+
+    private static final int STATUS_PARTIAL_CONTENT = 206;
+
+    /**Shortest time between two progress reports**/
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    private final String path;
+    private final File target;
+    private final File part;
+    private final int segments;
+    private final long minSegmentSize;
+    private final int maxSegmentRetries;
+    private final String digestAlgorithm;
+    private final String expectedDigest;
+    private final BaseRequest.ResponseListener<File> listener;
+    private final DownloadRequest.ProgressListener progressListener;
+
+    /**Requests in flight, accessed on the main thread**/
+    private final List<BaseRequest<?>> inFlight = new ArrayList<>();
+
+
+    /**Set by the probe, before the segments start**/
+    private volatile SegmentedFile file;
+    private volatile long size = -1;
+    private volatile String validator;
+
+    /**The ranges of the file, set on the main thread before the segments start**/
+    private final List<Segment> parts = new CopyOnWriteArrayList<>();
+
+    /**Segments not written yet, accessed on the main thread**/
+    private int remaining;
+
+    private boolean started = false;
+    private volatile boolean finished = false;
+
+
+    private SegmentedDownload(Builder builder){
+        this.path = builder.path;
+        this.target = builder.target;
+        this.part = new File(builder.target.getPath() + ".part");
+        this.segments = builder.segments;
+        this.minSegmentSize = builder.minSegmentSize;
+        this.maxSegmentRetries = builder.maxSegmentRetries;
+        this.digestAlgorithm = builder.digestAlgorithm;
+        this.expectedDigest = builder.expectedDigest;
+        this.listener = builder.listener;
+        this.progressListener = builder.progressListener;
+    }
+
+
+    /**
+     * Start the download, once
+     */
+    public void start(){
+        if(started){
+            throw new IllegalStateException("Already started");
+        }
+        started = true;
+        enqueue(new ProbeRequest());
+    }
+
+
+    /**
+     * Cancel the download, the listener is not called
+     */
+    public void cancel(){
+        if(finished){
+            return;
+        }
+        finished = true;
+        for(BaseRequest<?> request : inFlight){
+            request.cancel();
+        }
+        inFlight.clear();
+        closeFile();
+        part.delete();
+    }
+
+
+    public boolean isFinished(){
+        return finished;
+    }
+
+
+    private void enqueue(BaseRequest<?> request){
+        inFlight.add(request);
+        VolleyPlus.getInstance().enqueue(request);
+    }
+
+
+    private void onProbed(boolean ranges){
+        if(finished){
+            closeFile();
+            return;
+        }
+        if(!ranges){
+            downloadAtOnce();
+            return;
+        }
+        for(long[] range : SegmentedFile.split(size, segments)){
+            Segment segment = new Segment(range[0], range[1]);
+            parts.add(segment);
+            enqueue(new SegmentRequest(segment));
+        }
+        remaining = parts.size();
+        if(progressListener != null){
+            MAIN.postDelayed(progressTicker, PROGRESS_INTERVAL_MS);
+        }
+    }
+
+
+    /**
+     * Download the file with a single request
+     */
+    private void downloadAtOnce(){
+        enqueue(new DownloadRequest(path, target, progressListener, new BaseRequest.ResponseListener<File>() {
+            @Override
+            public void onResponse(File response) {
+                finished = true;
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                fail(error);
+            }
+        }));
+    }
+
+
+    private void onSegmentDone(SegmentRequest request){
+        inFlight.remove(request);
+        if(finished){
+            return;
+        }
+        Segment segment = request.segment;
+        if(segment.written.get() < segment.length){
+            onSegmentFailed(request, new VolleyError("Range ended early"));
+            return;
+        }
+        if(--remaining == 0){
+            verify();
+        }
+    }
+
+
+    private void onSegmentFailed(SegmentRequest request, VolleyError error){
+        inFlight.remove(request);
+        if(finished){
+            return;
+        }
+        Segment segment = request.segment;
+        if(request.changed || ++segment.attempts > maxSegmentRetries){
+            fail(error);
+            return;
+        }
+        enqueue(new SegmentRequest(segment));
+    }
+
+
+    /**
+     * Check the written file off the main thread, then move it to the target
+     */
+    private void verify(){
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                VolleyError error = null;
+                try {
+                    SegmentedFile written = file;
+                    written.sync();
+                    if(digestAlgorithm != null){
+                        String digest = written.digest(digestAlgorithm);
+                        if(!digest.equalsIgnoreCase(expectedDigest)){
+                            throw new IOException(digestAlgorithm + " mismatch: " + digest);
+                        }
+                    }
+                    written.close();
+                    if(part.length() != size){
+                        throw new IOException("Size mismatch: " + part.length() + " of " + size);
+                    }
+                    if(target.exists() && !target.delete() || !part.renameTo(target)){
+                        throw new IOException("Can not move the download to " + target);
+                    }
+                } catch (IOException e) {
+                    closeFile();
+                    part.delete();
+                    error = new VolleyError(e);
+                }
+
+                final VolleyError failure = error;
+                MAIN.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(finished){
+                            return;
+                        }
+                        if(failure != null){
+                            fail(failure);
+                        }else{
+                            finished = true;
+                            if(progressListener != null){
+                                reportProgress();
+                            }
+                            listener.onResponse(target);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+
+    private void fail(VolleyError error){
+        if(finished){
+            return;
+        }
+        cancel();
+        listener.onErrorResponse(error);
+    }
+
+
+    private void closeFile(){
+        SegmentedFile opened = file;
+        if(opened != null){
+            try {
+                opened.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+
+    /**
+     * Reports the bytes written by all the segments, every {@link #PROGRESS_INTERVAL_MS} until
+     * the download is finished
+     */
+    private final Runnable progressTicker = new Runnable() {
+        @Override
+        public void run() {
+            if(finished){
+                return;
+            }
+            reportProgress();
+            MAIN.postDelayed(this, PROGRESS_INTERVAL_MS);
+        }
+    };
+
+
+    private void reportProgress(){
+        long written = 0;
+        for(Segment segment : parts){
+            written += segment.written.get();
+        }
+        progressListener.onProgress(written, size);
+    }
+
+
+    private static long parseLong(String value){
+        if(value == null){
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    private static Map<String, String> caseInsensitive(Map<String, String> headers){
+        Map<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if(headers != null){
+            map.putAll(headers);
+        }
+        return map;
+    }
+
+
+    /**
+     * A byte range of the file
+     */
+    private static final class Segment {
+        final long start;
+        final long length;
+
+        /**Bytes written so far, by the request in flight**/
+        final AtomicLong written = new AtomicLong();
+
+        /**Failed attempts, accessed on the main thread**/
+        int attempts;
+
+        Segment(long start, long length){
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+
+    /**
+     * The HEAD request finding the size of the file and whether ranges are accepted, its response
+     * is true if the file has been opened to be downloaded in ranges
+     */
+    private final class ProbeRequest extends BaseRequest<Boolean> {
+
+        ProbeRequest(){
+            super(Method.HEAD, new ResponseListener<Boolean>() {
+                @Override
+                public void onResponse(Boolean response) {
+                    inFlight.clear();
+                    onProbed(response);
+                }
+
+                @Override
+                public void onErrorResponse(VolleyError error) {
+                    inFlight.clear();
+                    if(finished){
+                        return;
+                    }
+                    // The server does not answer HEAD requests, let a GET find out
+                    if(error.networkResponse != null){
+                        downloadAtOnce();
+                    }else{
+                        fail(error);
+                    }
+                }
+            });
+            setShouldCache(false);
+            setShouldCoalesce(false);
+        }
+
+        @Override
+        protected String subPath() {
+            return path;
+        }
+
+        @Override
+        protected Map<String, String> getPostParams() throws AuthFailureError {
+            return null;
+        }
+
+        @Override
+        protected Map<String, String> getQueryParams() throws AuthFailureError {
+            return null;
+        }
+
+        @Override
+        public String getUrl() {
+            return DownloadRequest.urlOf(path);
+        }
+
+        @Override
+        public Map<String, String> getHeaders() throws AuthFailureError {
+            Map<String, String> headers = new HashMap<>(super.getHeaders());
+            headers.put(HEADER_ACCEPT_ENCODING, "identity");
+            return headers;
+        }
+
+        @Override
+        protected Boolean parseNetworkEntity(String json) {
+            return false;
+        }
+
+        /**
+         * Open the file on the network thread, preallocating it may take a while
+         */
+        @Override
+        Boolean readEntity(NetworkResponse response) throws IOException {
+            Map<String, String> headers = caseInsensitive(response.headers);
+            String acceptRanges = headers.get(HEADER_ACCEPT_RANGES);
+            long length = parseLong(headers.get(HEADER_CONTENT_LENGTH));
+            if(acceptRanges == null || !acceptRanges.toLowerCase(Locale.US).contains("bytes")
+                    || length < minSegmentSize * 2){
+                return false;
+            }
+
+            String etag = headers.get(HEADER_ETAG);
+            validator = etag != null && !etag.startsWith("W/") ? etag : headers.get(HEADER_LAST_MODIFIED);
+            size = length;
+            File parent = part.getAbsoluteFile().getParentFile();
+            if(parent != null && !parent.isDirectory() && !parent.mkdirs()){
+                throw new IOException("Can not create " + parent);
+            }
+            SegmentedFile opened = new SegmentedFile(part, length);
+            file = opened;
+            // Cancelled meanwhile: cancel() found no file to close, and the response is dropped
+            if(finished || isCanceled()){
+                opened.close();
+                part.delete();
+                throw new IOException("Canceled");
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * The GET request of the bytes of a segment not written yet
+     */
+    private final class SegmentRequest extends BaseRequest<Void> {
+        final Segment segment;
+
+        /**Offset requested by the current attempt**/
+        private volatile long from;
+
+        /**Whether the server answered with the whole file, which means it changed**/
+        volatile boolean changed;
+
+        SegmentRequest(Segment segment){
+            super(Method.GET, null);
+            this.segment = segment;
+            setResponseListener(new ResponseListener<Void>() {
+                @Override
+                public void onResponse(Void response) {
+                    onSegmentDone(SegmentRequest.this);
+                }
+
+                @Override
+                public void onErrorResponse(VolleyError error) {
+                    onSegmentFailed(SegmentRequest.this, error);
+                }
+            });
+            setShouldStream(true);
+            setShouldCache(false);
+            setShouldCoalesce(false);
+            // Failed segments are retried by the download, from their last byte
+            setRetryPolicy(new DefaultRetryPolicy(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS, 0, 1));
+        }
+
+        @Override
+        protected String subPath() {
+            return path;
+        }
+
+        @Override
+        protected Map<String, String> getPostParams() throws AuthFailureError {
+            return null;
+        }
+
+        @Override
+        protected Map<String, String> getQueryParams() throws AuthFailureError {
+            return null;
+        }
+
+        @Override
+        public String getUrl() {
+            return DownloadRequest.urlOf(path);
+        }
+
+        @Override
+        public Map<String, String> getHeaders() throws AuthFailureError {
+            Map<String, String> headers = new HashMap<>(super.getHeaders());
+            headers.put(HEADER_ACCEPT_ENCODING, "identity");
+            from = segment.start + segment.written.get();
+            long last = segment.start + segment.length - 1;
+            headers.put(HEADER_RANGE, "bytes=" + from + "-" + last);
+            if(validator != null){
+                headers.put(HEADER_IF_RANGE, validator);
+            }
+            return headers;
+        }
+
+        @Override
+        void onStreamStarted(int statusCode, Map<String, String> headers) throws IOException {
+            if(statusCode != STATUS_PARTIAL_CONTENT){
+                changed = true;
+                throw new IOException("The file changed, status " + statusCode);
+            }
+            String range = headers.get(HEADER_CONTENT_RANGE);
+            if(range == null || DownloadRequest.parseRangeStart(range) != from){
+                throw new IOException("Unexpected Content-Range: " + range);
+            }
+        }
+
+        @Override
+        protected Void parseNetworkEntity(InputStream in, String charset) throws IOException {
+            long written = segment.written.get();
+            // The written bytes are counted as they go, a retry resumes after the last one
+            file.transfer(in, segment.start + written, segment.length - written, new byte[8192],
+                    segment.written);
+            return null;
+        }
+
+        @Override
+        protected Void parseNetworkEntity(String json) {
+            throw new IllegalStateException("Segments must be streamed");
+        }
+    }
+
+
+    /**
+     * Build a {@link SegmentedDownload}.
+     * <p>
+     * Calling {@link #listener} is required before calling {@link #build()}. All other methods
+     * are optional.
+     */
+    public static final class Builder {
+        private final String path;
+        private final File target;
+        private int segments = 4;
+        private long minSegmentSize = 1024 * 1024;
+        private int maxSegmentRetries = 3;
+        private String digestAlgorithm;
+        private String expectedDigest;
+        private BaseRequest.ResponseListener<File> listener;
+        private DownloadRequest.ProgressListener progressListener;
+
+        /**
+         * @param path the url of the file, absolute or related to the base url
+         * @param target where the file is written, replaced once the download completes
+         */
+        public Builder(String path, File target){
+            this.path = checkNotNull(path, "path == null");
+            this.target = checkNotNull(target, "target == null");
+        }
+
+        /**
+         * Number of ranges downloaded at once, 4 by default. They share the network threads of
+         * the lane with the other requests.
+         */
+        public Builder segments(int segments){
+            if(segments < 1){
+                throw new IllegalArgumentException("segments < 1");
+            }
+            this.segments = segments;
+            return this;
+        }
+
+        /**
+         * Files smaller than twice this size are downloaded at once, 1 MB by default
+         */
+        public Builder minSegmentSize(long minSegmentSize){
+            if(minSegmentSize < 1){
+                throw new IllegalArgumentException("minSegmentSize < 1");
+            }
+            this.minSegmentSize = minSegmentSize;
+            return this;
+        }
+
+        /**
+         * Times a failed range is retried before the download fails, 3 by default
+         */
+        public Builder maxSegmentRetries(int maxSegmentRetries){
+            if(maxSegmentRetries < 0){
+                throw new IllegalArgumentException("maxSegmentRetries < 0");
+            }
+            this.maxSegmentRetries = maxSegmentRetries;
+            return this;
+        }
+
+        /**
+         * Check the digest of the downloaded file, e.g. ("SHA-256", "9f86d0...")
+         * @param algorithm a {@link java.security.MessageDigest} algorithm
+         * @param expectedHex the expected digest in hexadecimal
+         */
+        public Builder checksum(String algorithm, String expectedHex){
+            this.digestAlgorithm = checkNotNull(algorithm, "algorithm == null");
+            this.expectedDigest = checkNotNull(expectedHex, "expectedHex == null");
+            return this;
+        }
+
+        public Builder listener(BaseRequest.ResponseListener<File> listener){
+            this.listener = checkNotNull(listener, "listener == null");
+            return this;
+        }
+
+        public Builder progressListener(DownloadRequest.ProgressListener progressListener){
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        public SegmentedDownload build(){
+            checkNotNull(listener, "listener == null");
+            return new SegmentedDownload(this);
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.toolbox.HttpStack;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Parses the body of the successful responses to streamed {@link BaseRequest}s straight from the
+ * connection, see {@link BaseRequest#setShouldStream}. The response is then handed to the
+ * {@link com.android.volley.Network} with an empty body, so that neither the raw bytes nor their
+ * String copy are ever held in memory.
+ */
+final class StreamingHttpStack implements HttpStack {
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final HttpStack stack;
+
+
+	StreamingHttpStack(HttpStack stack){
+		this.stack = stack;
+	}
+
+
+	@Override
+	public HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders)
+			throws IOException, AuthFailureError {
+		HttpResponse response = stack.performRequest(request, additionalHeaders);
+		if(!(request instanceof BaseRequest) || !((BaseRequest<?>) request).shouldStream()){
+			return response;
+		}
+
+		int statusCode = response.getStatusLine().getStatusCode();
+		HttpEntity entity = response.getEntity();
+		// Errors and "304 Not Modified" are left to the network
+		if(statusCode < 200 || statusCode > 299 || entity == null){
+			return response;
+		}
+
+		Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for(Header header : response.getAllHeaders()){
+			headers.put(header.getName(), header.getValue());
+		}
+		InputStream in = entity.getContent();
+		try {
+			((BaseRequest<?>) request).parseStream(in, statusCode, headers);
+		} finally {
+			in.close();
+		}
+		response.setEntity(new ByteArrayEntity(EMPTY));
+		return response;
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+
+/**
+ * What the server acknowledged of a {@link ResumableUpload}: the url and the offset of every chunk,
+ * then the url of the whole file. A snapshot is written to a temporary file, synced and renamed over
+ * the previous one, so that a crash leaves either of them. Not thread-safe, the upload changes it
+ * on the main thread and saves copies on a background thread.
+ */
+final class UploadState {
+
+	private static final int VERSION = 1;
+
+	/**The checksum and the length of the body**/
+	private static final int HEADER_SIZE = 8;
+
+	/**Identifies the content of the uploaded file**/
+	final String fingerprint;
+	final long chunkSize;
+	final String[] urls;
+	final long[] offsets;
+	String finalUrl;
+
+
+	UploadState(String fingerprint, long fileLength, long chunkSize){
+		this(fingerprint, chunkSize, (int) Math.max(1, (fileLength + chunkSize - 1) / chunkSize));
+	}
+
+
+	private UploadState(String fingerprint, long chunkSize, int count){
+		this.fingerprint = fingerprint;
+		this.chunkSize = chunkSize;
+		this.urls = new String[count];
+		this.offsets = new long[count];
+	}
+
+
+	/**
+	 * Returns a copy to save while this state keeps changing
+	 */
+	UploadState copy(){
+		UploadState copy = new UploadState(fingerprint, chunkSize, urls.length);
+		System.arraycopy(urls, 0, copy.urls, 0, urls.length);
+		System.arraycopy(offsets, 0, copy.offsets, 0, offsets.length);
+		copy.finalUrl = finalUrl;
+		return copy;
+	}
+
+
+	/**
+	 * Returns the fingerprint of a file, which changes if the file is modified
+	 */
+	static String fingerprintOf(File file){
+		return file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified();
+	}
+
+
+	/**
+	 * Read a snapshot
+	 * @return the state, or null if there is none, it is corrupted or it is of an other file
+	 */
+	static UploadState load(File stateFile, String fingerprint, long fileLength, long chunkSize){
+		if(!stateFile.isFile()){
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(stateFile));
+			try {
+				int checksum = in.readInt();
+				int length = in.readInt();
+				// A corrupted length must not be trusted for an allocation
+				if(length < 0 || length > stateFile.length() - HEADER_SIZE){
+					return null;
+				}
+				byte[] body = new byte[length];
+				in.readFully(body);
+				CRC32 crc = new CRC32();
+				crc.update(body);
+				if((int) crc.getValue() != checksum){
+					return null;
+				}
+				return read(new DataInputStream(new ByteArrayInputStream(body)), fingerprint,
+						fileLength, chunkSize);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+
+	private static UploadState read(DataInputStream in, String fingerprint, long fileLength,
+	                                long chunkSize) throws IOException {
+		if(in.readInt() != VERSION || !fingerprint.equals(in.readUTF()) || in.readLong() != chunkSize){
+			return null;
+		}
+		UploadState state = new UploadState(fingerprint, fileLength, chunkSize);
+		if(in.readInt() != state.urls.length){
+			return null;
+		}
+		for(int i = 0; i < state.urls.length; i++){
+			state.urls[i] = in.readBoolean() ? in.readUTF() : null;
+			state.offsets[i] = in.readLong();
+		}
+		state.finalUrl = in.readBoolean() ? in.readUTF() : null;
+		return state;
+	}
+
+
+	/**
+	 * Replace the snapshot with the current state
+	 */
+	void save(File stateFile) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(bytes);
+		body.writeInt(VERSION);
+		body.writeUTF(fingerprint);
+		body.writeLong(chunkSize);
+		body.writeInt(urls.length);
+		for(int i = 0; i < urls.length; i++){
+			body.writeBoolean(urls[i] != null);
+			if(urls[i] != null){
+				body.writeUTF(urls[i]);
+			}
+			body.writeLong(offsets[i]);
+		}
+		body.writeBoolean(finalUrl != null);
+		if(finalUrl != null){
+			body.writeUTF(finalUrl);
+		}
+		byte[] data = bytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		File temporary = new File(stateFile.getPath() + ".tmp");
+		FileOutputStream file = new FileOutputStream(temporary);
+		try {
+			DataOutputStream out = new DataOutputStream(file);
+			out.writeInt((int) crc.getValue());
+			out.writeInt(data.length);
+			out.write(data);
+			out.flush();
+			file.getFD().sync();
+		} finally {
+			file.close();
+		}
+		if(!temporary.renameTo(stateFile)){
+			throw new IOException("Can not replace " + stateFile);
+		}
+	}
+
+
+	/**
+	 * Returns the first byte of a chunk in the file
+	 */
+	long startOf(int chunk){
+		return chunk * chunkSize;
+	}
+
+
+	/**
+	 * Returns the size of a chunk
+	 */
+	long lengthOf(int chunk, long fileLength){
+		return Math.min(chunkSize, fileLength - startOf(chunk));
+	}
+
+}
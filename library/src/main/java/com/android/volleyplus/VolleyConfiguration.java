@@ -14,10 +14,19 @@
 package com.android.volleyplus;
 
 
+import com.android.volley.Cache;
 import com.android.volley.toolbox.HttpStack;
 import com.android.volley.toolbox.HurlStack;
 import com.android.volley.toolbox.ImageLoader;
+import com.android.volleyplus.toolbox.Codec;
+import com.android.volleyplus.toolbox.JsonCodec;
 import com.android.volleyplus.toolbox.LruBitmapCache;
+import com.android.volleyplus.toolbox.MetricsListener;
+import com.android.volleyplus.toolbox.SslHurlStack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static com.android.volleyplus.toolbox.Utils.checkNotNull;
 
@@ -32,12 +41,64 @@ public final class VolleyConfiguration {
 	final String baseUrl;
 	final HttpStack httpStack;
 	final ImageLoader.ImageCache imageCache;
+	final Cache cache;
+	final List<RequestLane> lanes;
+	final String[] coalesceVaryHeaders;
+	final String batchPath;
+	final int batchWindowMs;
+	final int maxBatchSize;
+	final List<MetricsListener> metricsListeners;
+	final int outboxConcurrency;
+	final int parseThreads;
+	final List<Codec> codecs;
+	final int maxRetries;
+	final int retryBaseDelayMs;
+	final int retryMaxDelayMs;
+	final int retryBudgetPercent;
+	final int circuitFailureThreshold;
+	final long circuitOpenMillis;
+	final long hedgeDelayMs;
+	final double hedgePercentile;
+	final int hedgeMaxPercent;
+	final double timeoutPercentile;
+	final float timeoutFactor;
+	final int timeoutFloorMs;
+	final int timeoutCeilingMs;
+	final int maxQueuedParses;
+	final int maxDeliveriesPerFrame;
+	final int deliveryBudgetMs;
 
 
 	private VolleyConfiguration(Builder builder){
 		baseUrl = builder.baseUrl;
 		httpStack = builder.httpStack;
 		imageCache = builder.imageCache;
+		cache = builder.cache;
+		lanes = Collections.unmodifiableList(new ArrayList<>(builder.lanes));
+		coalesceVaryHeaders = builder.coalesceVaryHeaders;
+		batchPath = builder.batchPath;
+		batchWindowMs = builder.batchWindowMs;
+		maxBatchSize = builder.maxBatchSize;
+		metricsListeners = Collections.unmodifiableList(new ArrayList<>(builder.metricsListeners));
+		outboxConcurrency = builder.outboxConcurrency;
+		parseThreads = builder.parseThreads;
+		maxQueuedParses = builder.maxQueuedParses;
+		maxDeliveriesPerFrame = builder.maxDeliveriesPerFrame;
+		deliveryBudgetMs = builder.deliveryBudgetMs;
+		codecs = Collections.unmodifiableList(new ArrayList<>(builder.codecs));
+		maxRetries = builder.maxRetries;
+		retryBaseDelayMs = builder.retryBaseDelayMs;
+		retryMaxDelayMs = builder.retryMaxDelayMs;
+		retryBudgetPercent = builder.retryBudgetPercent;
+		circuitFailureThreshold = builder.circuitFailureThreshold;
+		circuitOpenMillis = builder.circuitOpenMillis;
+		hedgeDelayMs = builder.hedgeDelayMs;
+		hedgePercentile = builder.hedgePercentile;
+		hedgeMaxPercent = builder.hedgeMaxPercent;
+		timeoutPercentile = builder.timeoutPercentile;
+		timeoutFactor = builder.timeoutFactor;
+		timeoutFloorMs = builder.timeoutFloorMs;
+		timeoutCeilingMs = builder.timeoutCeilingMs;
 	}
 
 
@@ -51,6 +112,32 @@ public final class VolleyConfiguration {
 		private String baseUrl;
 		private HttpStack httpStack;
 		private ImageLoader.ImageCache imageCache;
+		private Cache cache;
+		private final List<RequestLane> lanes = new ArrayList<>();
+		private String[] coalesceVaryHeaders;
+		private String batchPath;
+		private int batchWindowMs;
+		private int maxBatchSize;
+		private final List<MetricsListener> metricsListeners = new ArrayList<>();
+		private int outboxConcurrency;
+		private int parseThreads;
+		private int maxQueuedParses;
+		private int maxDeliveriesPerFrame;
+		private int deliveryBudgetMs;
+		private final List<Codec> codecs = new ArrayList<>();
+		private int maxRetries = -1;
+		private int retryBaseDelayMs;
+		private int retryMaxDelayMs;
+		private int retryBudgetPercent = -1;
+		private int circuitFailureThreshold;
+		private long circuitOpenMillis;
+		private long hedgeDelayMs;
+		private double hedgePercentile;
+		private int hedgeMaxPercent;
+		private double timeoutPercentile;
+		private float timeoutFactor;
+		private int timeoutFloorMs;
+		private int timeoutCeilingMs;
 
 		public Builder baseUrl(String baseUrl){
 			this.baseUrl = checkNotNull(baseUrl, "baseUrl == null");
@@ -70,6 +157,295 @@ public final class VolleyConfiguration {
 		}
 
 
+		/**
+		 * Response cache of the default lane, such as a
+		 * {@link com.android.volleyplus.toolbox.SegmentedDiskCache}. If not set, a
+		 * {@link com.android.volley.toolbox.DiskBasedCache} is created. A default lane added with
+		 * {@link #lane(RequestLane)} keeps its own cache if it has one.
+		 */
+		public Builder cache(Cache cache){
+			this.cache = checkNotNull(cache, "cache == null");
+			return this;
+		}
+
+
+		/**
+		 * Add a dispatch lane with its own network threads, queue depth limit and cache.
+		 * Lanes are matched in the order they are added. A lane named {@link RequestLane#DEFAULT}
+		 * replaces the default lane.
+		 */
+		public Builder lane(RequestLane lane){
+			checkNotNull(lane, "lane == null");
+			for(RequestLane added : lanes){
+				if(added.name.equals(lane.name)){
+					throw new IllegalArgumentException("Duplicate lane: " + lane.name);
+				}
+			}
+			this.lanes.add(lane);
+			return this;
+		}
+
+
+		/**
+		 * Coalesce identical in-flight GET requests: a request enqueued while an identical one
+		 * is in flight is not sent, it receives the response parsed for the first one.
+		 * @param varyHeaders names of the request headers changing the response, such as
+		 *                    "Authorization" or "Accept-Language"
+		 */
+		public Builder coalesceRequests(String... varyHeaders){
+			this.coalesceVaryHeaders = checkNotNull(varyHeaders, "varyHeaders == null").clone();
+			return this;
+		}
+
+
+		/**
+		 * Pack the requests marked with {@link BaseRequest#setShouldBatch(boolean)} into
+		 * {@link BatchRequest}s sent to a batch endpoint.
+		 * @param batchPath     the batch endpoint's related url
+		 * @param windowMs      how long a request may wait for other requests to join its batch
+		 * @param maxBatchSize  a batch is sent as soon as it holds this many requests
+		 */
+		public Builder batch(String batchPath, int windowMs, int maxBatchSize){
+			if(windowMs < 0){
+				throw new IllegalArgumentException("windowMs < 0");
+			}
+			if(maxBatchSize < 1){
+				throw new IllegalArgumentException("maxBatchSize < 1");
+			}
+			this.batchPath = checkNotNull(batchPath, "batchPath == null");
+			this.batchWindowMs = windowMs;
+			this.maxBatchSize = maxBatchSize;
+			return this;
+		}
+
+
+		/**
+		 * Register a listener receiving the timing breakdown of every request. Requests are only
+		 * measured if at least one listener is registered.
+		 * @see com.android.volleyplus.toolbox.EndpointLatencyAggregator
+		 */
+		public Builder metricsListener(MetricsListener listener){
+			this.metricsListeners.add(checkNotNull(listener, "listener == null"));
+			return this;
+		}
+
+
+		/**
+		 * Enable the {@link RequestOutbox}: the requests marked with
+		 * {@link BaseRequest#setDurable(boolean)} are logged on disk and sent again until the
+		 * server answers them.
+		 * @param maxConcurrentRequests how many logged requests may be in flight at the same time
+		 */
+		public Builder outbox(int maxConcurrentRequests){
+			if(maxConcurrentRequests < 1){
+				throw new IllegalArgumentException("maxConcurrentRequests < 1");
+			}
+			this.outboxConcurrency = maxConcurrentRequests;
+			return this;
+		}
+
+
+		/**
+		 * Parse the network responses of {@link BaseRequest}s on a pool of its own instead of
+		 * the network threads, which then start their next exchange right away. When
+		 * {@code maxQueuedResponses} responses are waiting for a parse thread, a network thread
+		 * parses its response itself, which slows the lane down until the pool catches up.
+		 * @param threads             number of parse threads shared by all the lanes
+		 * @param maxQueuedResponses  how many read responses may wait for a parse thread
+		 */
+		public Builder parseStage(int threads, int maxQueuedResponses){
+			if(threads < 1){
+				throw new IllegalArgumentException("threads < 1");
+			}
+			if(maxQueuedResponses < 1){
+				throw new IllegalArgumentException("maxQueuedResponses < 1");
+			}
+			this.parseThreads = threads;
+			this.maxQueuedParses = maxQueuedResponses;
+			return this;
+		}
+
+
+		/**
+		 * Deliver the responses on the main thread in batches, at most one per frame, instead of
+		 * posting a message per response. A batch stops after {@code maxPerFrame} deliveries or
+		 * {@code budgetMs}, the rest is delivered on the next frames. Requests of
+		 * {@link com.android.volley.Request.Priority#HIGH} or higher priority are delivered
+		 * right away.
+		 * @param maxPerFrame  deliveries per frame at most
+		 * @param budgetMs     time after which a batch stops, such as 4 ms of a 16 ms frame
+		 */
+		public Builder batchedDelivery(int maxPerFrame, int budgetMs){
+			if(maxPerFrame < 1){
+				throw new IllegalArgumentException("maxPerFrame < 1");
+			}
+			if(budgetMs < 1){
+				throw new IllegalArgumentException("budgetMs < 1");
+			}
+			this.maxDeliveriesPerFrame = maxPerFrame;
+			this.deliveryBudgetMs = budgetMs;
+			return this;
+		}
+
+
+		/**
+		 * Give the requests which keep the retry policy of {@link BaseRequest} a
+		 * {@link BackoffRetryPolicy} instead, waiting a random, exponentially growing delay before
+		 * every retry.
+		 * <p>
+		 * The delay is waited on the network thread of the request, which serves no other request
+		 * of its lane meanwhile: a lane of 4 threads whose requests all back off stalls until one
+		 * delay ends. Keep {@code maxDelayMs} low, give the requests likely to fail together a
+		 * lane of their own, or both. A wait stops when its request is cancelled, and a thread
+		 * waits at most half of its time, past which the request fails instead of retrying.
+		 * @param maxRetries   retries after the first attempt
+		 * @param baseDelayMs  bound of the delay before the first retry, doubled for every retry
+		 * @param maxDelayMs   cap of the delay bound
+		 */
+		public Builder retryPolicy(int maxRetries, int baseDelayMs, int maxDelayMs){
+			if(maxRetries < 0){
+				throw new IllegalArgumentException("maxRetries < 0");
+			}
+			if(baseDelayMs < 0 || maxDelayMs < baseDelayMs){
+				throw new IllegalArgumentException("0 <= baseDelayMs <= maxDelayMs required");
+			}
+			this.maxRetries = maxRetries;
+			this.retryBaseDelayMs = baseDelayMs;
+			this.retryMaxDelayMs = maxDelayMs;
+			return this;
+		}
+
+
+		/**
+		 * Cap the retries of all the requests using the default {@link BackoffRetryPolicy} at a
+		 * percentage of the requests sent, so that a failing backend does not receive more
+		 * traffic because clients retry. Enables the default retry policy if
+		 * {@link #retryPolicy(int, int, int)} is not called.
+		 * @param percent retries allowed per 100 requests
+		 */
+		public Builder retryBudget(int percent){
+			if(percent < 0){
+				throw new IllegalArgumentException("percent < 0");
+			}
+			this.retryBudgetPercent = percent;
+			return this;
+		}
+
+
+		/**
+		 * Fail the requests to a host fast, with a {@link CircuitOpenError}, after
+		 * {@code failureThreshold} consecutive timeouts, connection failures or 5xx responses.
+		 * After {@code openMillis}, one request probes the host and closes the circuit if it
+		 * succeeds.
+		 */
+		public Builder circuitBreaker(int failureThreshold, long openMillis){
+			if(failureThreshold < 1){
+				throw new IllegalArgumentException("failureThreshold < 1");
+			}
+			if(openMillis < 0){
+				throw new IllegalArgumentException("openMillis < 0");
+			}
+			this.circuitFailureThreshold = failureThreshold;
+			this.circuitOpenMillis = openMillis;
+			return this;
+		}
+
+
+		/**
+		 * Send a second copy of the requests marked with {@link BaseRequest#setHedged(boolean)}
+		 * which did not get a response after {@code delayMs}.
+		 * @param delayMs     delay before sending a copy
+		 * @param maxPercent  copies allowed per 100 hedged requests
+		 */
+		public Builder hedging(long delayMs, int maxPercent){
+			return hedging(0, delayMs, maxPercent);
+		}
+
+
+		/**
+		 * Send a second copy of the requests marked with {@link BaseRequest#setHedged(boolean)}
+		 * which did not get a response after the given percentile of the latencies of their
+		 * endpoint, or after {@code delayMs} until enough latencies are known.
+		 * @param percentile  between 0 and 1, such as 0.95
+		 * @param delayMs     delay before sending a copy while the percentile is unknown
+		 * @param maxPercent  copies allowed per 100 hedged requests
+		 */
+		public Builder hedging(double percentile, long delayMs, int maxPercent){
+			if(percentile < 0 || percentile >= 1){
+				throw new IllegalArgumentException("0 <= percentile < 1 required");
+			}
+			if(delayMs < 1){
+				throw new IllegalArgumentException("delayMs < 1");
+			}
+			if(maxPercent < 1){
+				throw new IllegalArgumentException("maxPercent < 1");
+			}
+			this.hedgePercentile = percentile;
+			this.hedgeDelayMs = delayMs;
+			this.hedgeMaxPercent = maxPercent;
+			return this;
+		}
+
+
+		/**
+		 * Derive the connect and read timeouts of the requests keeping the retry policy of
+		 * {@link BaseRequest} from the latencies of their endpoint: 3 times the 99th percentile,
+		 * between 500 milliseconds and 30 seconds.
+		 * @see #adaptiveTimeouts(double, float, int, int)
+		 */
+		public Builder adaptiveTimeouts(){
+			return adaptiveTimeouts(0.99, 3, 500, 30000);
+		}
+
+
+		/**
+		 * Derive the connect and read timeouts of the requests keeping the retry policy of
+		 * {@link BaseRequest} from the latencies of their endpoint, their {@link BaseRequest#subPath()}
+		 * without the query and the ids. Requests keep the timeout of their retry policy until 20
+		 * latencies of the endpoint are known. The timeouts are applied by
+		 * {@link SslHurlStack}, which is the default client when they are enabled; building a
+		 * configuration with an other {@link #client(HttpStack)} fails.
+		 * @param percentile  percentile of the latencies, between 0 and 1, such as 0.99
+		 * @param factor      multiplier of the percentile, at least 1
+		 * @param floorMs     shortest timeout
+		 * @param ceilingMs   longest timeout
+		 */
+		public Builder adaptiveTimeouts(double percentile, float factor, int floorMs, int ceilingMs){
+			if(percentile <= 0 || percentile > 1){
+				throw new IllegalArgumentException("0 < percentile <= 1 required");
+			}
+			if(factor < 1){
+				throw new IllegalArgumentException("factor < 1");
+			}
+			if(floorMs < 1 || ceilingMs < floorMs){
+				throw new IllegalArgumentException("1 <= floorMs <= ceilingMs required");
+			}
+			this.timeoutPercentile = percentile;
+			this.timeoutFactor = factor;
+			this.timeoutFloorMs = floorMs;
+			this.timeoutCeilingMs = ceilingMs;
+			return this;
+		}
+
+
+		/**
+		 * Register a body codec for the {@link CodecRequest}s, such as a
+		 * {@link com.android.volleyplus.toolbox.MessagePackCodec}. Codecs are listed in the
+		 * Accept header in the order they are registered, the first one encodes the request
+		 * bodies. A {@link JsonCodec} is registered last if no JSON codec is.
+		 */
+		public Builder codec(Codec codec){
+			checkNotNull(codec, "codec == null");
+			for(Codec added : codecs){
+				if(added.mediaType().equalsIgnoreCase(codec.mediaType())){
+					throw new IllegalArgumentException("Duplicate codec: " + codec.mediaType());
+				}
+			}
+			this.codecs.add(codec);
+			return this;
+		}
+
+
 		/**
 		 * Create the {@link VolleyConfiguration} instance using the configured values.
 		 *
@@ -90,12 +466,36 @@ public final class VolleyConfiguration {
 			}
 
 			if(httpStack == null){
-				httpStack = new HurlStack();
+				// Only SslHurlStack applies the timeouts of the BaseRequests
+				httpStack = timeoutPercentile > 0 ? new SslHurlStack() : new HurlStack();
+			}
+			if(timeoutPercentile > 0 && !(httpStack instanceof SslHurlStack)){
+				throw new IllegalArgumentException("Adaptive timeouts require a SslHurlStack client.");
 			}
 
 			if(imageCache == null){
 				imageCache = new LruBitmapCache();
 			}
+
+			if(maxRetries == -1 && retryBudgetPercent != -1){
+				retryPolicy(3, 250, 4000);
+			}
+
+			boolean hasJsonCodec = false;
+			for(Codec codec : codecs){
+				hasJsonCodec |= JsonCodec.MEDIA_TYPE.equalsIgnoreCase(codec.mediaType());
+			}
+			if(!hasJsonCodec){
+				codecs.add(new JsonCodec());
+			}
+
+			boolean hasDefaultLane = false;
+			for(RequestLane lane : lanes){
+				hasDefaultLane |= RequestLane.DEFAULT.equals(lane.name);
+			}
+			if(!hasDefaultLane){
+				lanes.add(new RequestLane.Builder(RequestLane.DEFAULT).build());
+			}
 		}
 	}
 
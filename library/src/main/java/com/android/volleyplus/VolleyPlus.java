@@ -15,12 +15,34 @@ package com.android.volleyplus;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.ImageView;
 
+import com.android.volley.Cache;
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Network;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volley.toolbox.HttpStack;
 import com.android.volley.toolbox.ImageLoader;
-import com.android.volley.toolbox.Volley;
+import com.android.volley.toolbox.ImageRequest;
+import com.android.volleyplus.toolbox.Codec;
+import com.android.volleyplus.toolbox.MetricsListener;
+import com.android.volleyplus.toolbox.RequestMetrics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 
 
 /**
@@ -34,10 +56,54 @@ public class VolleyPlus {
 
 	private static VolleyPlus sInstance;
 
-	private RequestQueue requestQueue;
+	/**Default cache directory, the same one as {@link com.android.volley.toolbox.Volley}**/
+	private static final String DEFAULT_CACHE_DIR = "volley";
+
+	/**Directory of the outbox, in the files dir since it must not be cleared like a cache**/
+	private static final String OUTBOX_DIR = "volleyplus-outbox";
+
+	private final List<Lane> lanes = new ArrayList<>();
+
+	private Lane defaultLane;
 
 	private ImageLoader  imageLoader;
 
+	private RequestCoalescer coalescer;
+
+	private RequestBatcher batcher;
+
+	private List<MetricsListener> metricsListeners;
+
+	private RequestOutbox outbox;
+
+	/**Body codecs of the {@link CodecRequest}s, in order of preference**/
+	private List<Codec> codecs;
+
+	/**Accept header listing the codecs**/
+	private String acceptHeader;
+
+	/**Budget of the default retry policies, null if retries are not capped**/
+	private RetryBudget retryBudget;
+
+	/**Sends the copies of the hedged requests, null if hedging is disabled**/
+	private RequestHedger hedger;
+
+	/**Whether the timeouts are derived from the endpoints' latencies**/
+	private boolean adaptiveTimeouts;
+
+	/**Pool of the lanes' parse stages, null if responses are parsed on the network threads**/
+	private ThreadPoolExecutor parseExecutor;
+
+	private RequestTagIndex tagIndex = new RequestTagIndex();
+
+	private final RequestQueue.RequestFinishedListener<Object> finishedListener =
+			new RequestQueue.RequestFinishedListener<Object>() {
+				@Override
+				public void onRequestFinished(Request<Object> request) {
+					onFinished(request);
+				}
+			};
+
 	private String baseUrl;
 
 	private VolleyPlus(){}
@@ -61,12 +127,144 @@ public class VolleyPlus {
 
 	public void init(Context context, VolleyConfiguration configuration){
 		this.baseUrl = configuration.baseUrl;
-		requestQueue = Volley.newRequestQueue(context, configuration.httpStack);
-		imageLoader = new ImageLoader(requestQueue, configuration.imageCache);
+
+		// The old dispatchers must not hand responses to the parse pool shut down below
+		for(Lane lane : lanes){
+			lane.queue.stop();
+		}
+		lanes.clear();
+		tagIndex = new RequestTagIndex();
+		coalescer = configuration.coalesceVaryHeaders != null
+				? new RequestCoalescer(configuration.coalesceVaryHeaders) : null;
+		batcher = configuration.batchPath != null ? new RequestBatcher(configuration.batchPath,
+				configuration.batchWindowMs, configuration.maxBatchSize) : null;
+		metricsListeners = configuration.metricsListeners;
+		adaptiveTimeouts = configuration.timeoutPercentile > 0;
+		codecs = configuration.codecs;
+		acceptHeader = acceptHeaderFor(codecs);
+		if(parseExecutor != null){
+			parseExecutor.shutdown();
+			parseExecutor = null;
+		}
+		if(configuration.parseThreads > 0){
+			parseExecutor = ParseStage.newExecutor(configuration.parseThreads,
+					configuration.maxQueuedParses);
+		}
+
+		retryBudget = configuration.retryBudgetPercent >= 0
+				? new RetryBudget(configuration.retryBudgetPercent) : null;
+		ConcurrentHashMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+		BatchedDelivery.FrameExecutor frames = configuration.maxDeliveriesPerFrame > 0
+				? new BatchedDelivery.FrameExecutor(configuration.maxDeliveriesPerFrame,
+						configuration.deliveryBudgetMs) : null;
+		hedger = configuration.hedgeDelayMs > 0 ? new RequestHedger(configuration.hedgeDelayMs,
+				configuration.hedgePercentile, configuration.hedgeMaxPercent) : null;
+
+		Lane imageLane = null;
+		for(RequestLane requestLane : configuration.lanes){
+			boolean isDefault = RequestLane.DEFAULT.equals(requestLane.name);
+			Cache cache = requestLane.cache;
+			if(cache == null && isDefault){
+				cache = configuration.cache;
+			}
+			if(cache == null){
+				String dir = isDefault ? DEFAULT_CACHE_DIR
+						: DEFAULT_CACHE_DIR + "-" + requestLane.name;
+				cache = new DiskBasedCache(new File(context.getCacheDir(), dir));
+			}
+			HttpStack stack = new StreamingHttpStack(configuration.httpStack);
+			if(configuration.timeoutPercentile > 0){
+				stack = new AdaptiveTimeoutStack(stack, configuration.timeoutPercentile,
+						configuration.timeoutFactor, configuration.timeoutFloorMs,
+						configuration.timeoutCeilingMs);
+			}
+			Network network = new BasicNetwork(stack);
+			if(configuration.circuitFailureThreshold > 0){
+				network = new CircuitBreakerNetwork(network, circuitBreakers,
+						configuration.circuitFailureThreshold, configuration.circuitOpenMillis);
+			}
+			network = new CachePolicyNetwork(network, cache);
+			ResponseDelivery delivery = new ExecutorDelivery(new Handler(Looper.getMainLooper()));
+			if(frames != null){
+				delivery = new BatchedDelivery(delivery, frames);
+			}
+			ParseStage parseStage = null;
+			if(parseExecutor != null){
+				parseStage = new ParseStage(parseExecutor, cache, delivery);
+				delivery = parseStage;
+			}
+			RequestQueue queue = new IndexedRequestQueue(cache, network, requestLane.threadPoolSize,
+					delivery, tagIndex, parseStage, configuration, retryBudget);
+			Lane lane = new Lane(requestLane, queue, delivery);
+			queue.addRequestFinishedListener(finishedListener);
+			queue.start();
+
+			lanes.add(lane);
+			if(isDefault){
+				defaultLane = lane;
+			}else if(imageLane == null && requestLane.accepts(ImageRequest.class)){
+				imageLane = lane;
+			}
+		}
+
+		imageLoader = new ImageLoader(imageLane != null ? imageLane.queue : defaultLane.queue,
+				configuration.imageCache);
+
+		if(outbox != null){
+			outbox.shutdown();
+			outbox = null;
+		}
+		if(configuration.outboxConcurrency > 0){
+			outbox = new RequestOutbox(context, new File(context.getFilesDir(), OUTBOX_DIR),
+					configuration.outboxConcurrency);
+		}
 		isInitialized = true;
 	}
 
 
+	private static String acceptHeaderFor(List<Codec> codecs){
+		StringBuilder accept = new StringBuilder();
+		for(int i = 0; i < codecs.size(); i++){
+			if(i > 0){
+				accept.append(", ");
+			}
+			accept.append(codecs.get(i).mediaType());
+			if(i > 0){
+				accept.append(";q=0.").append(Math.max(1, 10 - i));
+			}
+		}
+		return accept.toString();
+	}
+
+
+	/**
+	 * Returns the codec of a Content-Type, or null if none is registered for it
+	 */
+	Codec getCodec(String contentType){
+		int parameters = contentType.indexOf(';');
+		String mediaType = (parameters == -1 ? contentType : contentType.substring(0, parameters)).trim();
+		for(Codec codec : codecs){
+			if(codec.mediaType().equalsIgnoreCase(mediaType)){
+				return codec;
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Returns the preferred codec, which encodes the request bodies
+	 */
+	Codec getDefaultCodec(){
+		return codecs.get(0);
+	}
+
+
+	String getAcceptHeader(){
+		return acceptHeader;
+	}
+
+
 	/**
 	 * Get the base url
 	 */
@@ -76,32 +274,124 @@ public class VolleyPlus {
 
 
 	/**
-	 * Get the request queue
+	 * Get the request queue of the {@link RequestLane#DEFAULT} lane
 	 */
 	public RequestQueue getRequestQueue(){
 		checkInit();
-		return requestQueue;
+		return defaultLane.queue;
 	}
 
 
 	/**
-	 * Do a request
+	 * Get the request queue of a lane
+	 * @param laneName  the lane's name
+	 * @return the lane's request queue, or null if no lane has this name
+	 */
+	public RequestQueue getRequestQueue(String laneName){
+		checkInit();
+		for(Lane lane : lanes){
+			if(lane.config.name.equals(laneName)){
+				return lane.queue;
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Do a request, the request is dispatched by the first lane accepting its type or its tag
 	 * @param request
 	 */
 	public <T> void  enqueue(Request<T> request){
 		checkInit();
-		requestQueue.add(request);
+		// Adaptive timeouts read the latencies from the metrics
+		if((!metricsListeners.isEmpty() || adaptiveTimeouts) && request instanceof BaseRequest){
+			BaseRequest<?> baseRequest = (BaseRequest<?>) request;
+			if(baseRequest.getMetrics() == null){
+				baseRequest.setMetrics(new RequestMetrics(baseRequest.subPath(), request.getMethod()));
+			}
+		}
+		if(request instanceof MultipartRequest && ((MultipartRequest<?>) request).needsProcessing()){
+			processThenEnqueue((MultipartRequest<?>) request);
+			return;
+		}
+		if(outbox != null && request instanceof BaseRequest && ((BaseRequest<?>) request).isDurable()
+				&& outbox.submit((BaseRequest<?>) request)){
+			return;
+		}
+		if(batcher != null && BatchRequest.isBatchable(request)){
+			tagIndex.add(request);
+			batcher.add((BaseRequest<?>) request);
+			return;
+		}
+		if(coalescer != null && request instanceof BaseRequest
+				&& coalescer.attach((BaseRequest<?>) request)){
+			tagIndex.add(request);
+			return;
+		}
+		dispatch(request);
+	}
+
+
+	/**
+	 * Process the images of a request on the pool of its preprocessor, then enqueue it again. The
+	 * request is indexed meanwhile so that it can be cancelled by its tag.
+	 */
+	private void processThenEnqueue(final MultipartRequest<?> request){
+		tagIndex.add(request);
+		request.addMarker("image-processing");
+		request.getImagePreprocessor().execute(new Runnable() {
+			@Override
+			public void run() {
+				request.processUploads();
+				if(request.isCanceled()){
+					tagIndex.remove(request);
+					request.releaseUploads();
+				}else{
+					enqueue(request);
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Get the outbox of the durable requests
+	 * @return the outbox, or null if it is not enabled by {@link VolleyConfiguration.Builder#outbox(int)}
+	 */
+	public RequestOutbox getOutbox(){
+		checkInit();
+		return outbox;
+	}
+
+
+	/**
+	 * Hand a request to its lane
+	 */
+	void dispatch(Request<?> request){
+		if(laneFor(request).add(request) && hedger != null && request instanceof BaseRequest){
+			hedger.schedule((BaseRequest<?>) request);
+		}
+	}
+
+
+	/**
+	 * Hand a request to the lane of an other one
+	 */
+	void dispatchLike(Request<?> request, Request<?> like){
+		laneFor(like).add(request);
 	}
 
 
 	/**
-	 * Cancel a request
+	 * Cancel a request. Only the requests having the tag are visited, pending and in-flight
+	 * requests are tracked by tag.
 	 * @param tag   request's tag
 	 */
 	public void cancel(Object tag){
 		checkInit();
 		if(tag != null){
-			requestQueue.cancelAll(tag);
+			tagIndex.cancel(tag);
 		}
 	}
 
@@ -111,12 +401,66 @@ public class VolleyPlus {
 	 */
 	public void cancelAll(){
 		checkInit();
-		requestQueue.cancelAll(new RequestQueue.RequestFilter() {
-			@Override
-			public boolean apply(Request<?> request) {
-				return true;
+		tagIndex.cancelAll();
+		for(Lane lane : lanes){
+			lane.queue.cancelAll(new RequestQueue.RequestFilter() {
+				@Override
+				public boolean apply(Request<?> request) {
+					return true;
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * Called when a request of any lane is finished
+	 */
+	private void onFinished(Request<?> request){
+		tagIndex.remove(request);
+		if(request instanceof BatchRequest){
+			for(BatchRequest.Part part : ((BatchRequest) request).getParts()){
+				tagIndex.remove(part.getRequest());
 			}
-		});
+		}
+		if(!(request instanceof BaseRequest)){
+			return;
+		}
+
+		if(request instanceof MultipartRequest){
+			((MultipartRequest<?>) request).releaseUploads();
+		}
+		BaseRequest<?> baseRequest = (BaseRequest<?>) request;
+		RequestCoalescer.Call call = baseRequest.mCoalescedCall;
+		if(call != null){
+			for(BaseRequest<?> follower : call.followers()){
+				tagIndex.remove(follower);
+			}
+			coalescer.onFinished(call);
+		}
+		reportMetrics(baseRequest);
+	}
+
+
+	private void reportMetrics(BaseRequest<?> request){
+		RequestMetrics metrics = request.getMetrics();
+		if(metrics == null){
+			return;
+		}
+		metrics.finish(request.getRetryPolicy().getCurrentRetryCount(), request.isCanceled());
+		for(MetricsListener listener : metricsListeners){
+			listener.onRequestMetrics(metrics);
+		}
+	}
+
+
+	private Lane laneFor(Request<?> request){
+		for(Lane lane : lanes){
+			if(lane != defaultLane && lane.config.accepts(request)){
+				return lane;
+			}
+		}
+		return defaultLane;
 	}
 
 
@@ -181,4 +525,109 @@ public class VolleyPlus {
 		return imageContainer.getBitmap();
 	}
 
+
+
+	/**
+	 * A started {@link RequestQueue} with the limits of its {@link RequestLane}
+	 */
+	private static final class Lane implements RequestQueue.RequestFinishedListener<Object> {
+		final RequestLane config;
+		final RequestQueue queue;
+		final ResponseDelivery delivery;
+		/**Free places of the lane, null if it is unbounded**/
+		final Semaphore slots;
+		final Set<Request<?>> pending = Collections.newSetFromMap(new ConcurrentHashMap<Request<?>, Boolean>());
+
+		Lane(RequestLane config, RequestQueue queue, ResponseDelivery delivery){
+			this.config = config;
+			this.queue = queue;
+			this.delivery = delivery;
+			if(config.maxQueueDepth != RequestLane.UNBOUNDED){
+				slots = new Semaphore(config.maxQueueDepth);
+				queue.addRequestFinishedListener(this);
+			}else{
+				slots = null;
+			}
+		}
+
+		/**
+		 * @return false if the lane is full and the request has been rejected
+		 */
+		boolean add(Request<?> request){
+			if(slots != null){
+				if(!slots.tryAcquire()){
+					reject(request);
+					return false;
+				}
+				pending.add(request);
+			}
+			queue.add(request);
+			return true;
+		}
+
+		/**
+		 * Deliver the error on the main thread like any other, the caller may be a worker thread.
+		 * The request is finished by the queue so that it is released, but it never reached the
+		 * cache: it must not release the requests waiting for its cache key.
+		 */
+		private void reject(Request<?> request){
+			request.setShouldCache(false);
+			request.setRequestQueue(queue);
+			delivery.postError(request, new VolleyError("Lane " + config.name + " is full"));
+		}
+
+		@Override
+		public void onRequestFinished(Request<Object> request) {
+			if(pending.remove(request)){
+				slots.release();
+			}
+		}
+	}
+
+
+	/**
+	 * A {@link RequestQueue} indexing its requests by tag, whoever adds them
+	 */
+	private static final class IndexedRequestQueue extends RequestQueue {
+		private final RequestTagIndex tagIndex;
+		private final ParseStage parseStage;
+		private final VolleyConfiguration configuration;
+		private final RetryBudget retryBudget;
+
+		IndexedRequestQueue(Cache cache, Network network, int threadPoolSize, ResponseDelivery delivery,
+				RequestTagIndex tagIndex, ParseStage parseStage, VolleyConfiguration configuration,
+				RetryBudget retryBudget){
+			super(cache, network, threadPoolSize, delivery);
+			this.tagIndex = tagIndex;
+			this.parseStage = parseStage;
+			this.configuration = configuration;
+			this.retryBudget = retryBudget;
+		}
+
+		@Override
+		public <T> Request<T> add(Request<T> request) {
+			tagIndex.add(request);
+			if(request instanceof BaseRequest){
+				BaseRequest<?> baseRequest = (BaseRequest<?>) request;
+				if(parseStage != null){
+					baseRequest.mParseStage = parseStage;
+				}
+				// A retry policy set by the app carries its own timeout
+				if(configuration.timeoutPercentile > 0 && baseRequest.hasDefaultRetryPolicy()){
+					baseRequest.mAdaptiveTimeouts = true;
+				}
+				if(configuration.maxRetries >= 0 && baseRequest.hasDefaultRetryPolicy()){
+					baseRequest.setRetryPolicy(BackoffRetryPolicy.defaultPolicy(configuration.maxRetries,
+							configuration.retryBaseDelayMs, configuration.retryMaxDelayMs, retryBudget));
+				}
+			}
+			return super.add(request);
+		}
+
+		@Override
+		public void cancelAll(Object tag) {
+			tagIndex.cancel(tag);
+		}
+	}
+
 }
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * <a href="https://tools.ietf.org/html/rfc7049">CBOR</a>. Values are written with definite
+ * lengths, floating point numbers as double precision. The decoder also reads indefinite lengths
+ * and half precision numbers, ignores tags and decodes "undefined" to {@code null}.
+ */
+public final class CborCodec implements Codec {
+
+	public static final String MEDIA_TYPE = "application/cbor";
+
+	/**Deepest nesting accepted by the decoder**/
+	private static final int MAX_DEPTH = 512;
+
+	private static final int TYPE_UNSIGNED = 0;
+	private static final int TYPE_NEGATIVE = 1;
+	private static final int TYPE_BYTES = 2;
+	private static final int TYPE_TEXT = 3;
+	private static final int TYPE_ARRAY = 4;
+	private static final int TYPE_MAP = 5;
+	private static final int TYPE_TAG = 6;
+	private static final int TYPE_SIMPLE = 7;
+
+	private static final int INDEFINITE = 31;
+	private static final int BREAK = 0xff;
+
+	/**Marks the end of an indefinite length item while decoding**/
+	private static final Object END = new Object();
+
+
+	@Override
+	public String mediaType() {
+		return MEDIA_TYPE;
+	}
+
+
+	@Override
+	public void encode(Object value, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		write(value, data);
+		data.flush();
+	}
+
+
+	@Override
+	public Object decode(InputStream in) throws IOException {
+		try {
+			Object value = read(new DataInputStream(new BufferedInputStream(in)), 0);
+			if(value == END){
+				throw new CodecException("Unexpected break");
+			}
+			return value;
+		} catch (EOFException e){
+			throw new CodecException("Unexpected end of input");
+		}
+	}
+
+
+	private static void write(Object value, DataOutputStream out) throws IOException {
+		if(value == null){
+			out.writeByte(0xf6);
+		}else if(value instanceof Boolean){
+			out.writeByte((Boolean) value ? 0xf5 : 0xf4);
+		}else if(value instanceof Double || value instanceof Float){
+			out.writeByte(0xfb);
+			out.writeDouble(((Number) value).doubleValue());
+		}else if(value instanceof Number){
+			long number = ((Number) value).longValue();
+			if(number >= 0){
+				writeHead(TYPE_UNSIGNED, number, out);
+			}else{
+				writeHead(TYPE_NEGATIVE, -1 - number, out);
+			}
+		}else if(value instanceof String){
+			byte[] utf8 = ((String) value).getBytes("UTF-8");
+			writeHead(TYPE_TEXT, utf8.length, out);
+			out.write(utf8);
+		}else if(value instanceof byte[]){
+			byte[] bytes = (byte[]) value;
+			writeHead(TYPE_BYTES, bytes.length, out);
+			out.write(bytes);
+		}else if(value instanceof List || value instanceof Object[]){
+			List<?> list = value instanceof List ? (List<?>) value : Arrays.asList((Object[]) value);
+			writeHead(TYPE_ARRAY, list.size(), out);
+			for(Object element : list){
+				write(element, out);
+			}
+		}else if(value instanceof Map){
+			Map<?, ?> map = (Map<?, ?>) value;
+			writeHead(TYPE_MAP, map.size(), out);
+			for(Map.Entry<?, ?> entry : map.entrySet()){
+				write(entry.getKey(), out);
+				write(entry.getValue(), out);
+			}
+		}else{
+			throw new CodecException("Cannot encode " + value.getClass().getName());
+		}
+	}
+
+
+	/**
+	 * Write a major type and its argument in the smallest form
+	 */
+	private static void writeHead(int type, long argument, DataOutputStream out) throws IOException {
+		int major = type << 5;
+		if(argument < 24){
+			out.writeByte(major | (int) argument);
+		}else if(argument <= 0xFF){
+			out.writeByte(major | 24);
+			out.writeByte((int) argument);
+		}else if(argument <= 0xFFFF){
+			out.writeByte(major | 25);
+			out.writeShort((int) argument);
+		}else if(argument <= 0xFFFFFFFFL){
+			out.writeByte(major | 26);
+			out.writeInt((int) argument);
+		}else{
+			out.writeByte(major | 27);
+			out.writeLong(argument);
+		}
+	}
+
+
+	private static Object read(DataInputStream in, int depth) throws IOException {
+		if(depth > MAX_DEPTH){
+			throw new CodecException("Nesting too deep");
+		}
+		int initial = in.readUnsignedByte();
+		if(initial == BREAK){
+			return END;
+		}
+		int type = initial >> 5;
+		int info = initial & 0x1f;
+
+		if(type == TYPE_SIMPLE){
+			return readSimple(in, info);
+		}
+		if(info == INDEFINITE){
+			return readIndefinite(in, type, depth);
+		}
+
+		long argument = readArgument(in, info);
+		switch (type){
+			case TYPE_UNSIGNED:
+				return argument;
+			case TYPE_NEGATIVE:
+				return -1 - argument;
+			case TYPE_BYTES:
+				return readBytes(in, length(argument));
+			case TYPE_TEXT:
+				return new String(readBytes(in, length(argument)), "UTF-8");
+			case TYPE_ARRAY: {
+				int size = length(argument);
+				List<Object> array = new ArrayList<>(Math.min(size, 1024));
+				for(int i = 0; i < size; i++){
+					array.add(item(in, depth));
+				}
+				return array;
+			}
+			case TYPE_MAP: {
+				int size = length(argument);
+				Map<Object, Object> map = new LinkedHashMap<>();
+				for(int i = 0; i < size; i++){
+					Object key = item(in, depth);
+					map.put(key, item(in, depth));
+				}
+				return map;
+			}
+			default:
+				// A tag only gives a meaning to the following item
+				return read(in, depth + 1);
+		}
+	}
+
+
+	/**
+	 * Read an item of a container, which cannot be a break
+	 */
+	private static Object item(DataInputStream in, int depth) throws IOException {
+		Object item = read(in, depth + 1);
+		if(item == END){
+			throw new CodecException("Unexpected break");
+		}
+		return item;
+	}
+
+
+	private static Object readIndefinite(DataInputStream in, int type, int depth) throws IOException {
+		switch (type){
+			case TYPE_BYTES:
+			case TYPE_TEXT: {
+				ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+				Object chunk;
+				while((chunk = read(in, depth + 1)) != END){
+					if(type == TYPE_BYTES && chunk instanceof byte[]){
+						chunks.write((byte[]) chunk);
+					}else if(type == TYPE_TEXT && chunk instanceof String){
+						chunks.write(((String) chunk).getBytes("UTF-8"));
+					}else{
+						throw new CodecException("Malformed chunk");
+					}
+				}
+				return type == TYPE_BYTES ? chunks.toByteArray() : chunks.toString("UTF-8");
+			}
+			case TYPE_ARRAY: {
+				List<Object> array = new ArrayList<>();
+				Object element;
+				while((element = read(in, depth + 1)) != END){
+					array.add(element);
+				}
+				return array;
+			}
+			case TYPE_MAP: {
+				Map<Object, Object> map = new LinkedHashMap<>();
+				Object key;
+				while((key = read(in, depth + 1)) != END){
+					map.put(key, item(in, depth));
+				}
+				return map;
+			}
+			default:
+				throw new CodecException("Indefinite length for major type " + type);
+		}
+	}
+
+
+	private static Object readSimple(DataInputStream in, int info) throws IOException {
+		switch (info){
+			case 20: return Boolean.FALSE;
+			case 21: return Boolean.TRUE;
+			case 22:
+			case 23:
+				return null;
+			case 24:
+				// One byte simple value, unassigned
+				in.readUnsignedByte();
+				return null;
+			case 25: return halfToDouble(in.readUnsignedShort());
+			case 26: return (double) in.readFloat();
+			case 27: return in.readDouble();
+			default:
+				if(info < 20){
+					return null;
+				}
+				throw new CodecException("Malformed simple value " + info);
+		}
+	}
+
+
+	private static long readArgument(DataInputStream in, int info) throws IOException {
+		if(info < 24){
+			return info;
+		}
+		switch (info){
+			case 24: return in.readUnsignedByte();
+			case 25: return in.readUnsignedShort();
+			case 26: return in.readInt() & 0xFFFFFFFFL;
+			case 27: return in.readLong();
+			default:
+				throw new CodecException("Malformed argument " + info);
+		}
+	}
+
+
+	private static int length(long length) throws CodecException {
+		if(length < 0 || length > Integer.MAX_VALUE){
+			throw new CodecException("Length too large");
+		}
+		return (int) length;
+	}
+
+
+	private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+
+	private static double halfToDouble(int half){
+		int exponent = (half >> 10) & 0x1f;
+		int mantissa = half & 0x3ff;
+		double value;
+		if(exponent == 0){
+			value = mantissa * Math.pow(2, -24);
+		}else if(exponent != 31){
+			value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+		}else{
+			value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+		}
+		return (half & 0x8000) != 0 ? -value : value;
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Encodes and decodes request and response bodies of one media type, straight from and to bytes.
+ * <p>
+ * Codecs share a schema-less data model: {@code null}, {@link Boolean}, {@link Long} for integers,
+ * {@link Double} for floating point numbers, {@link String}, {@code byte[]}, {@link java.util.List}
+ * and {@link java.util.Map}. Encoders also accept the other {@link Number}s and arrays of objects.
+ * A codec instance is used by several threads at the same time and must be stateless.
+ *
+ * @see JsonCodec
+ * @see MessagePackCodec
+ * @see CborCodec
+ * @see ProtobufCodec
+ */
+public interface Codec {
+
+	/**
+	 * The media type of the bodies, such as "application/json"
+	 */
+	String mediaType();
+
+
+	/**
+	 * Write a value to a stream, which is neither flushed nor closed
+	 * @throws CodecException if the value cannot be represented by this codec
+	 */
+	void encode(Object value, OutputStream out) throws IOException;
+
+
+	/**
+	 * Read one value from a stream
+	 * @throws CodecException if the stream is malformed
+	 */
+	Object decode(InputStream in) throws IOException;
+
+}
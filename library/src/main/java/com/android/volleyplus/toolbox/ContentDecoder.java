@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Decodes response bodies of one Content-Encoding as they are read, see
+ * {@link SslHurlStack#addContentDecoder(ContentDecoder)}. Implement this to plug codings such as
+ * "br" or "zstd" backed by a native library.
+ */
+public interface ContentDecoder {
+
+	/**
+	 * The Content-Encoding token, such as "gzip"
+	 */
+	String encoding();
+
+
+	/**
+	 * Wrap the encoded body in a stream returning the decoded bytes
+	 */
+	InputStream decode(InputStream in) throws IOException;
+
+
+	ContentDecoder GZIP = new ContentDecoder() {
+		@Override
+		public String encoding() {
+			return "gzip";
+		}
+
+		@Override
+		public InputStream decode(InputStream in) throws IOException {
+			return new GZIPInputStream(in, 8192);
+		}
+	};
+
+
+	/**
+	 * "deflate" is meant to be zlib wrapped, some servers send raw deflate data: the wrapper is
+	 * detected from the first two bytes.
+	 */
+	ContentDecoder DEFLATE = new ContentDecoder() {
+		@Override
+		public String encoding() {
+			return "deflate";
+		}
+
+		@Override
+		public InputStream decode(InputStream in) throws IOException {
+			PushbackInputStream pushback = new PushbackInputStream(in, 2);
+			int first = pushback.read();
+			if(first == -1){
+				return pushback;
+			}
+			int second = pushback.read();
+			if(second != -1){
+				pushback.unread(second);
+			}
+			pushback.unread(first);
+			boolean zlib = (first & 0x0F) == 8 && second != -1 && ((first << 8) | second) % 31 == 0;
+			final Inflater inflater = new Inflater(!zlib);
+			return new InflaterInputStream(pushback, inflater, 8192){
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						inflater.end();
+					}
+				}
+			};
+		}
+	};
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds the bytes read from a stream to a counter shared by several streams.
+ */
+class CountingInputStream extends FilterInputStream {
+
+	private final AtomicLong counter;
+
+
+	CountingInputStream(InputStream in, AtomicLong counter) {
+		super(in);
+		this.counter = counter;
+	}
+
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if(b != -1){
+			counter.incrementAndGet();
+		}
+		return b;
+	}
+
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int read = super.read(buffer, offset, length);
+		if(read > 0){
+			counter.addAndGet(read);
+		}
+		return read;
+	}
+
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		counter.addAndGet(skipped);
+		return skipped;
+	}
+
+}
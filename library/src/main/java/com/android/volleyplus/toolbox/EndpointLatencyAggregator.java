@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link MetricsListener} keeping a {@link LatencyHistogram} of the total latency of every
+ * endpoint, cancelled requests are not recorded.
+ * <pre>
+ * EndpointLatencyAggregator latencies = new EndpointLatencyAggregator();
+ * new VolleyConfiguration.Builder().metricsListener(latencies)...
+ * long p99 = latencies.percentile("users", 0.99);
+ * </pre>
+ */
+public class EndpointLatencyAggregator implements MetricsListener {
+
+	private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+
+	@Override
+	public void onRequestMetrics(RequestMetrics metrics) {
+		if(metrics.isCanceled() || metrics.getEndpoint() == null){
+			return;
+		}
+		histogram(metrics.getEndpoint()).record(metrics.getTotalNanos());
+	}
+
+
+	/**
+	 * The endpoints having at least one recorded request
+	 */
+	public Set<String> getEndpoints(){
+		return Collections.unmodifiableSet(histograms.keySet());
+	}
+
+
+	/**
+	 * Returns the histogram of an endpoint, creating it if needed
+	 */
+	public LatencyHistogram histogram(String endpoint){
+		LatencyHistogram histogram = histograms.get(endpoint);
+		if(histogram == null){
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = histograms.putIfAbsent(endpoint, created);
+			if(histogram == null){
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+
+	/**
+	 * Returns the latency of an endpoint at the given percentile in nanoseconds, or -1 if the
+	 * endpoint has no recorded request
+	 */
+	public long percentile(String endpoint, double percentile){
+		LatencyHistogram histogram = histograms.get(endpoint);
+		return histogram == null ? -1 : histogram.percentile(percentile);
+	}
+
+
+	/**
+	 * Returns a "endpoint: p50 p95 p99" line per endpoint, latencies in milliseconds
+	 */
+	public String report(){
+		StringBuilder report = new StringBuilder();
+		for(String endpoint : histograms.keySet()){
+			LatencyHistogram histogram = histograms.get(endpoint);
+			report.append(endpoint)
+					.append(": count=").append(histogram.count())
+					.append(" p50=").append(histogram.percentile(0.50) / 1000000)
+					.append(" p95=").append(histogram.percentile(0.95) / 1000000)
+					.append(" p99=").append(histogram.percentile(0.99) / 1000000)
+					.append('\n');
+		}
+		return report.toString();
+	}
+
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
 
@@ -41,12 +42,23 @@ public class HttpMultipart{
     private static final String CR_LF = "\r\n";
     private static final String TWO_DASHES = "--";
     private static final String DEFAULT_CHARSET = "UTF-8";
+
+    /**
+     * Copy buffer of the file parts, reused by the uploads of a network thread. Large reads keep
+     * the number of system calls per uploaded MB low.
+     */
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>(){
+        @Override
+        protected byte[] initialValue() {
+            return new byte[64 * 1024];
+        }
+    };
+
     private final String boundary;
     private final String charset;
     private final Map<String, String> stringParts;
     private final Map<String, File> imageParts;
-
-    private final int MAX_FIXED_SIZE = 5 * 1024 * 1024;
+    private final Map<String, String> fileNames;
 
     public HttpMultipart(String charset, String boundary){
         if(boundary == null){
@@ -56,6 +68,7 @@ public class HttpMultipart{
             this.boundary = boundary;
             this.stringParts = new HashMap<>();
             this.imageParts = new HashMap<>();
+            this.fileNames = new HashMap<>();
         }
     }
 
@@ -118,9 +131,48 @@ public class HttpMultipart{
         }
     }
 
+    /**
+     * Send the file of a part with an other name than its own, such as the name of the file it
+     * was made from
+     * @param key
+     * @param fileName
+     */
+    public void setFileName(String key, String fileName){
+        if(key != null && fileName != null){
+            this.fileNames.put(key, fileName);
+        }
+    }
+
+    public void setAllFileNames(Map<String, String> names){
+        if(names != null && names.size() > 0){
+            this.fileNames.putAll(names);
+        }
+    }
+
+
+    /**
+     * Returns the exact size of the multipart body, or -1 if a file's size can not be known
+     */
+    public long getContentLength() throws IOException {
+        long length = 0;
+        for(Map.Entry<String, String> entry : stringParts.entrySet()){
+            length += stringPartHeader(entry.getKey()).length
+                    + bytes(entry.getValue()).length + CR_LF.length();
+        }
+        for(Map.Entry<String, File> entry : imageParts.entrySet()){
+            File file = entry.getValue();
+            if(!file.isFile()){
+                return -1;
+            }
+            length += filePartHeader(entry.getKey(), file).length + file.length() + CR_LF.length();
+        }
+        return length + closingBoundary().length;
+    }
+
 
     /**
-     * Write the mutilpart body to http connection
+     * Write the mutilpart body to http connection. The body is streamed with its exact length, or
+     * in chunks when its length can not be known, so that the connection never buffers it.
      * @param connection HttpUrlConnection {@link HttpURLConnection}
      * @throws IOException
      */
@@ -135,6 +187,14 @@ public class HttpMultipart{
             connection.setRequestProperty("Cache-Control", "no-cache");
             connection.setRequestProperty("Content-Type", generateContentType(this.boundary, this.charset));
 
+            // The long overload needs API 19
+            long length = getContentLength();
+            if(length >= 0 && length <= Integer.MAX_VALUE){
+                connection.setFixedLengthStreamingMode((int) length);
+            }else{
+                connection.setChunkedStreamingMode(0);
+            }
+
             OutputStream output = connection.getOutputStream();
             requestData = new DataOutputStream(output);
 
@@ -150,7 +210,7 @@ public class HttpMultipart{
                 }
             }
 
-            requestData.writeBytes(TWO_DASHES + boundary + TWO_DASHES + CR_LF);
+            requestData.write(closingBoundary());
             requestData.flush();
 
         }finally {
@@ -204,11 +264,9 @@ public class HttpMultipart{
      * @throws IOException
      */
     protected void writeStringPart(DataOutputStream outputStream, String parameterName, String parameterValue) throws IOException {
-        outputStream.writeBytes(TWO_DASHES + boundary + CR_LF);
-        outputStream.writeBytes("Content-Disposition: form-data; name=\"" + parameterName + "\"" + CR_LF);
-        outputStream.writeBytes("Content-Type: text/plain; charset=" + this.charset + CR_LF);
+        outputStream.write(stringPartHeader(parameterName));
+        outputStream.write(bytes(parameterValue));
         outputStream.writeBytes(CR_LF);
-        outputStream.writeBytes(parameterValue + CR_LF);
     }
 
 
@@ -219,22 +277,56 @@ public class HttpMultipart{
      * @param file          {@link File} file to upload
      */
     protected void writeFilePart(DataOutputStream outputStream, String paramerName, File file) throws IOException {
-        outputStream.writeBytes(TWO_DASHES + boundary + CR_LF);
-        outputStream.writeBytes("Content-Disposition: form-data; name=\"" + paramerName + "\"; filename=\"" + file.getName() + "\"" + CR_LF);
-        outputStream.writeBytes("Content-Type: " + getMimeTypeForImage(file) + CR_LF);
-        outputStream.writeBytes(CR_LF);
+        outputStream.write(filePartHeader(paramerName, file));
 
         FileInputStream fileInputStream = new FileInputStream(file);
-        int bytesRead;
-        byte[] buffer = new byte[8192];
-        while((bytesRead = fileInputStream.read(buffer)) != -1){
-            outputStream.write(buffer, 0, bytesRead);
+        try{
+            byte[] buffer = BUFFER.get();
+            int bytesRead;
+            while((bytesRead = fileInputStream.read(buffer)) != -1){
+                outputStream.write(buffer, 0, bytesRead);
+            }
+        }finally {
+            fileInputStream.close();
         }
 
         outputStream.writeBytes(CR_LF);
     }
 
 
+    /**
+     * The boundary and headers of a string part, in the charset of the body
+     */
+    private byte[] stringPartHeader(String parameterName) throws IOException {
+        return bytes(TWO_DASHES + boundary + CR_LF
+                + "Content-Disposition: form-data; name=\"" + parameterName + "\"" + CR_LF
+                + "Content-Type: text/plain; charset=" + this.charset + CR_LF
+                + CR_LF);
+    }
+
+
+    /**
+     * The boundary and headers of a file part, in the charset of the body
+     */
+    private byte[] filePartHeader(String paramerName, File file) throws IOException {
+        String fileName = fileNames.containsKey(paramerName) ? fileNames.get(paramerName) : file.getName();
+        return bytes(TWO_DASHES + boundary + CR_LF
+                + "Content-Disposition: form-data; name=\"" + paramerName + "\"; filename=\"" + fileName + "\"" + CR_LF
+                + "Content-Type: " + getMimeTypeForImage(file) + CR_LF
+                + CR_LF);
+    }
+
+
+    private byte[] closingBoundary() throws IOException {
+        return bytes(TWO_DASHES + boundary + TWO_DASHES + CR_LF);
+    }
+
+
+    private byte[] bytes(String text) throws IOException {
+        return text.getBytes(charset != null ? charset : DEFAULT_CHARSET);
+    }
+
+
     /**
      * Get the Mime type form a image name such as "xxxxx.png".
      * This method is not always reliable, maybe a better one is needed in future.
@@ -243,7 +335,8 @@ public class HttpMultipart{
      */
     protected String getMimeTypeForImage(File image){
         String name = image.getName();
-        return "image/" + name.substring(name.lastIndexOf(".") + 1);
+        String extension = name.substring(name.lastIndexOf(".") + 1).toLowerCase(Locale.US);
+        return "image/" + (extension.equals("jpg") ? "jpeg" : extension);
     }
 
 }
@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * UTF-8 JSON, read and written as a stream of tokens without building the whole text. Objects
+ * are decoded to a {@link LinkedHashMap}, arrays to a {@link List}, and {@code byte[]} are
+ * encoded as Base64 strings.
+ */
+public final class JsonCodec implements Codec {
+
+	public static final String MEDIA_TYPE = "application/json";
+
+	/**Deepest nesting accepted by the decoder**/
+	private static final int MAX_DEPTH = 512;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final char[] BASE64 =
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+
+	@Override
+	public String mediaType() {
+		return MEDIA_TYPE;
+	}
+
+
+	@Override
+	public void encode(Object value, OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		write(value, writer);
+		writer.flush();
+	}
+
+
+	@Override
+	public Object decode(InputStream in) throws IOException {
+		Parser parser = new Parser(new InputStreamReader(in, "UTF-8"));
+		Object value = parser.value(0);
+		if(parser.peek() != -1){
+			throw parser.error("Trailing data");
+		}
+		return value;
+	}
+
+
+	private static void write(Object value, Writer out) throws IOException {
+		if(value == null){
+			out.write("null");
+		}else if(value instanceof String){
+			writeString((String) value, out);
+		}else if(value instanceof Boolean){
+			out.write(value.toString());
+		}else if(value instanceof Double || value instanceof Float){
+			double number = ((Number) value).doubleValue();
+			if(Double.isNaN(number) || Double.isInfinite(number)){
+				throw new CodecException("Not a JSON number: " + number);
+			}
+			out.write(number == Math.rint(number) && Math.abs(number) < 1e15
+					? Long.toString((long) number) : Double.toString(number));
+		}else if(value instanceof Number){
+			out.write(value.toString());
+		}else if(value instanceof Map){
+			out.write('{');
+			boolean first = true;
+			for(Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()){
+				if(!first){
+					out.write(',');
+				}
+				first = false;
+				writeString(String.valueOf(entry.getKey()), out);
+				out.write(':');
+				write(entry.getValue(), out);
+			}
+			out.write('}');
+		}else if(value instanceof List || value instanceof Object[]){
+			List<?> list = value instanceof List ? (List<?>) value : Arrays.asList((Object[]) value);
+			out.write('[');
+			for(int i = 0; i < list.size(); i++){
+				if(i > 0){
+					out.write(',');
+				}
+				write(list.get(i), out);
+			}
+			out.write(']');
+		}else if(value instanceof byte[]){
+			writeBase64((byte[]) value, out);
+		}else{
+			throw new CodecException("Cannot encode " + value.getClass().getName());
+		}
+	}
+
+
+	private static void writeString(String value, Writer out) throws IOException {
+		out.write('"');
+		int start = 0;
+		int length = value.length();
+		for(int i = 0; i < length; i++){
+			char c = value.charAt(i);
+			if(c >= 0x20 && c != '"' && c != '\\'){
+				continue;
+			}
+			out.write(value, start, i - start);
+			start = i + 1;
+			switch (c){
+				case '"': out.write("\\\""); break;
+				case '\\': out.write("\\\\"); break;
+				case '\n': out.write("\\n"); break;
+				case '\r': out.write("\\r"); break;
+				case '\t': out.write("\\t"); break;
+				default:
+					out.write("\\u");
+					out.write(HEX[(c >> 12) & 0xF]);
+					out.write(HEX[(c >> 8) & 0xF]);
+					out.write(HEX[(c >> 4) & 0xF]);
+					out.write(HEX[c & 0xF]);
+			}
+		}
+		out.write(value, start, length - start);
+		out.write('"');
+	}
+
+
+	private static void writeBase64(byte[] data, Writer out) throws IOException {
+		out.write('"');
+		int i = 0;
+		for(; i + 2 < data.length; i += 3){
+			int bits = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+			out.write(BASE64[bits >> 18]);
+			out.write(BASE64[(bits >> 12) & 0x3F]);
+			out.write(BASE64[(bits >> 6) & 0x3F]);
+			out.write(BASE64[bits & 0x3F]);
+		}
+		int remaining = data.length - i;
+		if(remaining > 0){
+			int bits = (data[i] & 0xFF) << 16 | (remaining == 2 ? (data[i + 1] & 0xFF) << 8 : 0);
+			out.write(BASE64[bits >> 18]);
+			out.write(BASE64[(bits >> 12) & 0x3F]);
+			out.write(remaining == 2 ? BASE64[(bits >> 6) & 0x3F] : '=');
+			out.write('=');
+		}
+		out.write('"');
+	}
+
+
+	/**
+	 * A recursive descent parser reading the text through its own buffer
+	 */
+	private static final class Parser {
+		private final Reader reader;
+		private final char[] buffer = new char[4096];
+		private final StringBuilder text = new StringBuilder();
+		private int position;
+		private int limit;
+		private long offset;
+
+		Parser(Reader reader){
+			this.reader = reader;
+		}
+
+		Object value(int depth) throws IOException {
+			if(depth > MAX_DEPTH){
+				throw error("Nesting too deep");
+			}
+			int c = peek();
+			switch (c){
+				case '{': return object(depth);
+				case '[': return array(depth);
+				case '"':
+					position++;
+					return string();
+				case 't':
+					literal("true");
+					return Boolean.TRUE;
+				case 'f':
+					literal("false");
+					return Boolean.FALSE;
+				case 'n':
+					literal("null");
+					return null;
+				case -1:
+					throw error("Unexpected end of input");
+				default:
+					return number();
+			}
+		}
+
+		private Map<String, Object> object(int depth) throws IOException {
+			position++;
+			Map<String, Object> object = new LinkedHashMap<>();
+			if(peek() == '}'){
+				position++;
+				return object;
+			}
+			while(true){
+				if(peek() != '"'){
+					throw error("Expected a name");
+				}
+				position++;
+				String name = string();
+				expect(':');
+				object.put(name, value(depth + 1));
+				int c = peek();
+				position++;
+				if(c == '}'){
+					return object;
+				}
+				if(c != ','){
+					throw error("Expected ',' or '}'");
+				}
+			}
+		}
+
+		private List<Object> array(int depth) throws IOException {
+			position++;
+			List<Object> array = new ArrayList<>();
+			if(peek() == ']'){
+				position++;
+				return array;
+			}
+			while(true){
+				array.add(value(depth + 1));
+				int c = peek();
+				position++;
+				if(c == ']'){
+					return array;
+				}
+				if(c != ','){
+					throw error("Expected ',' or ']'");
+				}
+			}
+		}
+
+		private String string() throws IOException {
+			text.setLength(0);
+			while(true){
+				if(position == limit && !fill()){
+					throw error("Unterminated string");
+				}
+				int start = position;
+				while(position < limit){
+					char c = buffer[position];
+					if(c == '"' || c == '\\'){
+						break;
+					}
+					position++;
+				}
+				text.append(buffer, start, position - start);
+				if(position == limit){
+					continue;
+				}
+				char c = buffer[position++];
+				if(c == '"'){
+					return text.toString();
+				}
+				text.append(escape());
+			}
+		}
+
+		private char escape() throws IOException {
+			int c = next();
+			switch (c){
+				case '"': case '\\': case '/': return (char) c;
+				case 'b': return '\b';
+				case 'f': return '\f';
+				case 'n': return '\n';
+				case 'r': return '\r';
+				case 't': return '\t';
+				case 'u':
+					int value = 0;
+					for(int i = 0; i < 4; i++){
+						int digit = Character.digit(next(), 16);
+						if(digit == -1){
+							throw error("Malformed unicode escape");
+						}
+						value = value << 4 | digit;
+					}
+					return (char) value;
+				default:
+					throw error("Malformed escape");
+			}
+		}
+
+		private Object number() throws IOException {
+			text.setLength(0);
+			boolean decimal = false;
+			while(position < limit || fill()){
+				char c = buffer[position];
+				if((c >= '0' && c <= '9') || c == '-' || c == '+'){
+					text.append(c);
+				}else if(c == '.' || c == 'e' || c == 'E'){
+					text.append(c);
+					decimal = true;
+				}else{
+					break;
+				}
+				position++;
+			}
+			if(text.length() == 0){
+				throw error("Unexpected character");
+			}
+			String number = text.toString();
+			try {
+				if(!decimal){
+					try {
+						return Long.parseLong(number);
+					} catch (NumberFormatException e){
+						// Too large for a long
+					}
+				}
+				return Double.parseDouble(number);
+			} catch (NumberFormatException e){
+				throw error("Malformed number " + number);
+			}
+		}
+
+		private void literal(String literal) throws IOException {
+			for(int i = 0; i < literal.length(); i++){
+				if(next() != literal.charAt(i)){
+					throw error("Expected " + literal);
+				}
+			}
+		}
+
+		private void expect(char expected) throws IOException {
+			if(peek() != expected){
+				throw error("Expected '" + expected + "'");
+			}
+			position++;
+		}
+
+		/**
+		 * The next character which is not a white space, without consuming it, or -1
+		 */
+		int peek() throws IOException {
+			while(position < limit || fill()){
+				char c = buffer[position];
+				if(c != ' ' && c != '\n' && c != '\r' && c != '\t'){
+					return c;
+				}
+				position++;
+			}
+			return -1;
+		}
+
+		private int next() throws IOException {
+			if(position == limit && !fill()){
+				throw error("Unexpected end of input");
+			}
+			return buffer[position++];
+		}
+
+		private boolean fill() throws IOException {
+			offset += limit;
+			position = 0;
+			limit = 0;
+			int read = reader.read(buffer, 0, buffer.length);
+			if(read <= 0){
+				return false;
+			}
+			limit = read;
+			return true;
+		}
+
+		CodecException error(String message){
+			return new CodecException(message + " at character " + (offset + position));
+		}
+	}
+
+}
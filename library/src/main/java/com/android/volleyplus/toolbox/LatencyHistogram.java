@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free latency histogram with logarithmic buckets: every power of two is split into
+ * {@link #SUB_BUCKETS} buckets, so a reported percentile is at most 12.5% above the real value.
+ * Recording a value is one atomic increment and the memory footprint is fixed.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	/**Values are recorded in microseconds**/
+	private static final long NANOS_PER_UNIT = 1000;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+
+	/**
+	 * Record a latency
+	 * @param nanos latency in nanoseconds, negative values are ignored
+	 */
+	public void record(long nanos){
+		if(nanos < 0){
+			return;
+		}
+		counts.incrementAndGet(indexOf(nanos / NANOS_PER_UNIT));
+	}
+
+
+	/**
+	 * Number of recorded values
+	 */
+	public long count(){
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+
+	/**
+	 * Returns the value at the given percentile, or -1 if nothing has been recorded
+	 * @param percentile between 0 and 1, such as 0.99
+	 * @return a latency in nanoseconds
+	 */
+	public long percentile(double percentile){
+		if(percentile < 0 || percentile > 1){
+			throw new IllegalArgumentException("percentile must be between 0 and 1");
+		}
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if(total == 0){
+			return -1;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile * total));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			seen += snapshot[i];
+			if(seen >= rank){
+				return highestValueOf(i) * NANOS_PER_UNIT;
+			}
+		}
+		return highestValueOf(BUCKETS - 1) * NANOS_PER_UNIT;
+	}
+
+
+	/**
+	 * Forget all recorded values
+	 */
+	public void reset(){
+		for(int i = 0; i < BUCKETS; i++){
+			counts.set(i, 0);
+		}
+	}
+
+
+	static int indexOf(long value){
+		if(value < SUB_BUCKETS){
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+
+	/**
+	 * Returns the highest value falling into the bucket
+	 */
+	static long highestValueOf(int index){
+		if(index < SUB_BUCKETS){
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = index % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS | subBucket) << (exponent - SUB_BUCKET_BITS);
+		return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+}
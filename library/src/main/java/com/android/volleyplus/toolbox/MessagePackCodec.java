@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * <a href="https://github.com/msgpack/msgpack/blob/master/spec.md">MessagePack</a>. Values are
+ * written in their smallest representation. Extension types are decoded to their raw data, and
+ * unsigned 64 bits integers above {@link Long#MAX_VALUE} wrap around.
+ */
+public final class MessagePackCodec implements Codec {
+
+	public static final String MEDIA_TYPE = "application/x-msgpack";
+
+	/**Deepest nesting accepted by the decoder**/
+	private static final int MAX_DEPTH = 512;
+
+
+	@Override
+	public String mediaType() {
+		return MEDIA_TYPE;
+	}
+
+
+	@Override
+	public void encode(Object value, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		write(value, data);
+		data.flush();
+	}
+
+
+	@Override
+	public Object decode(InputStream in) throws IOException {
+		try {
+			return read(new DataInputStream(new BufferedInputStream(in)), 0);
+		} catch (EOFException e){
+			throw new CodecException("Unexpected end of input");
+		}
+	}
+
+
+	private static void write(Object value, DataOutputStream out) throws IOException {
+		if(value == null){
+			out.writeByte(0xc0);
+		}else if(value instanceof Boolean){
+			out.writeByte((Boolean) value ? 0xc3 : 0xc2);
+		}else if(value instanceof Float){
+			out.writeByte(0xca);
+			out.writeFloat((Float) value);
+		}else if(value instanceof Double){
+			out.writeByte(0xcb);
+			out.writeDouble((Double) value);
+		}else if(value instanceof Number){
+			writeLong(((Number) value).longValue(), out);
+		}else if(value instanceof String){
+			byte[] utf8 = ((String) value).getBytes("UTF-8");
+			int length = utf8.length;
+			if(length < 32){
+				out.writeByte(0xa0 | length);
+			}else{
+				writeLength(length, 0xd9, out);
+			}
+			out.write(utf8);
+		}else if(value instanceof byte[]){
+			byte[] bytes = (byte[]) value;
+			writeLength(bytes.length, 0xc4, out);
+			out.write(bytes);
+		}else if(value instanceof List || value instanceof Object[]){
+			List<?> list = value instanceof List ? (List<?>) value : Arrays.asList((Object[]) value);
+			int size = list.size();
+			if(size < 16){
+				out.writeByte(0x90 | size);
+			}else{
+				writeCollectionSize(size, 0xdc, out);
+			}
+			for(Object element : list){
+				write(element, out);
+			}
+		}else if(value instanceof Map){
+			Map<?, ?> map = (Map<?, ?>) value;
+			int size = map.size();
+			if(size < 16){
+				out.writeByte(0x80 | size);
+			}else{
+				writeCollectionSize(size, 0xde, out);
+			}
+			for(Map.Entry<?, ?> entry : map.entrySet()){
+				write(entry.getKey(), out);
+				write(entry.getValue(), out);
+			}
+		}else{
+			throw new CodecException("Cannot encode " + value.getClass().getName());
+		}
+	}
+
+
+	private static void writeLong(long value, DataOutputStream out) throws IOException {
+		if(value >= 0){
+			if(value < 128){
+				out.writeByte((int) value);
+			}else if(value <= 0xFF){
+				out.writeByte(0xcc);
+				out.writeByte((int) value);
+			}else if(value <= 0xFFFF){
+				out.writeByte(0xcd);
+				out.writeShort((int) value);
+			}else if(value <= 0xFFFFFFFFL){
+				out.writeByte(0xce);
+				out.writeInt((int) value);
+			}else{
+				out.writeByte(0xcf);
+				out.writeLong(value);
+			}
+		}else if(value >= -32){
+			out.writeByte((int) value);
+		}else if(value >= Byte.MIN_VALUE){
+			out.writeByte(0xd0);
+			out.writeByte((int) value);
+		}else if(value >= Short.MIN_VALUE){
+			out.writeByte(0xd1);
+			out.writeShort((int) value);
+		}else if(value >= Integer.MIN_VALUE){
+			out.writeByte(0xd2);
+			out.writeInt((int) value);
+		}else{
+			out.writeByte(0xd3);
+			out.writeLong(value);
+		}
+	}
+
+
+	/**
+	 * Write the 8, 16 or 32 bits length of a string or binary, whose formats follow each other
+	 */
+	private static void writeLength(int length, int format8, DataOutputStream out) throws IOException {
+		if(length <= 0xFF){
+			out.writeByte(format8);
+			out.writeByte(length);
+		}else if(length <= 0xFFFF){
+			out.writeByte(format8 + 1);
+			out.writeShort(length);
+		}else{
+			out.writeByte(format8 + 2);
+			out.writeInt(length);
+		}
+	}
+
+
+	private static void writeCollectionSize(int size, int format16, DataOutputStream out) throws IOException {
+		if(size <= 0xFFFF){
+			out.writeByte(format16);
+			out.writeShort(size);
+		}else{
+			out.writeByte(format16 + 1);
+			out.writeInt(size);
+		}
+	}
+
+
+	private static Object read(DataInputStream in, int depth) throws IOException {
+		if(depth > MAX_DEPTH){
+			throw new CodecException("Nesting too deep");
+		}
+		int format = in.readUnsignedByte();
+		if(format <= 0x7f){
+			return (long) format;
+		}else if(format <= 0x8f){
+			return readMap(in, format & 0x0f, depth);
+		}else if(format <= 0x9f){
+			return readArray(in, format & 0x0f, depth);
+		}else if(format <= 0xbf){
+			return readString(in, format & 0x1f);
+		}else if(format >= 0xe0){
+			return (long) (byte) format;
+		}
+
+		switch (format){
+			case 0xc0: return null;
+			case 0xc2: return Boolean.FALSE;
+			case 0xc3: return Boolean.TRUE;
+			case 0xc4: return readBytes(in, in.readUnsignedByte());
+			case 0xc5: return readBytes(in, in.readUnsignedShort());
+			case 0xc6: return readBytes(in, length(in.readInt()));
+			case 0xc7: return readExtension(in, in.readUnsignedByte());
+			case 0xc8: return readExtension(in, in.readUnsignedShort());
+			case 0xc9: return readExtension(in, length(in.readInt()));
+			case 0xca: return (double) in.readFloat();
+			case 0xcb: return in.readDouble();
+			case 0xcc: return (long) in.readUnsignedByte();
+			case 0xcd: return (long) in.readUnsignedShort();
+			case 0xce: return in.readInt() & 0xFFFFFFFFL;
+			case 0xcf: return in.readLong();
+			case 0xd0: return (long) in.readByte();
+			case 0xd1: return (long) in.readShort();
+			case 0xd2: return (long) in.readInt();
+			case 0xd3: return in.readLong();
+			case 0xd4: return readExtension(in, 1);
+			case 0xd5: return readExtension(in, 2);
+			case 0xd6: return readExtension(in, 4);
+			case 0xd7: return readExtension(in, 8);
+			case 0xd8: return readExtension(in, 16);
+			case 0xd9: return readString(in, in.readUnsignedByte());
+			case 0xda: return readString(in, in.readUnsignedShort());
+			case 0xdb: return readString(in, length(in.readInt()));
+			case 0xdc: return readArray(in, in.readUnsignedShort(), depth);
+			case 0xdd: return readArray(in, length(in.readInt()), depth);
+			case 0xde: return readMap(in, in.readUnsignedShort(), depth);
+			case 0xdf: return readMap(in, length(in.readInt()), depth);
+			default:
+				throw new CodecException("Unknown format 0x" + Integer.toHexString(format));
+		}
+	}
+
+
+	private static int length(int length) throws CodecException {
+		if(length < 0){
+			throw new CodecException("Length too large");
+		}
+		return length;
+	}
+
+
+	private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+
+	private static byte[] readExtension(DataInputStream in, int length) throws IOException {
+		// The application defined type is dropped
+		in.readByte();
+		return readBytes(in, length);
+	}
+
+
+	private static String readString(DataInputStream in, int length) throws IOException {
+		return new String(readBytes(in, length), "UTF-8");
+	}
+
+
+	private static List<Object> readArray(DataInputStream in, int size, int depth) throws IOException {
+		List<Object> array = new ArrayList<>(Math.min(size, 1024));
+		for(int i = 0; i < size; i++){
+			array.add(read(in, depth + 1));
+		}
+		return array;
+	}
+
+
+	private static Map<Object, Object> readMap(DataInputStream in, int size, int depth) throws IOException {
+		Map<Object, Object> map = new LinkedHashMap<>();
+		for(int i = 0; i < size; i++){
+			Object key = read(in, depth + 1);
+			map.put(key, read(in, depth + 1));
+		}
+		return map;
+	}
+
+}
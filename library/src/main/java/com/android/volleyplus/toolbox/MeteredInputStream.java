@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes of a response body and reports the end of the body to a {@link RequestMetrics}.
+ */
+class MeteredInputStream extends FilterInputStream {
+
+	private final RequestMetrics metrics;
+
+	private long count;
+
+
+	MeteredInputStream(InputStream in, RequestMetrics metrics) {
+		super(in);
+		this.metrics = metrics;
+	}
+
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if(b == -1){
+			metrics.markBodyEnd(count);
+		}else{
+			count++;
+		}
+		return b;
+	}
+
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int read = super.read(buffer, offset, length);
+		if(read == -1){
+			metrics.markBodyEnd(count);
+		}else{
+			count += read;
+		}
+		return read;
+	}
+
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		count += skipped;
+		return skipped;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		metrics.markBodyEnd(count);
+		super.close();
+	}
+
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The <a href="https://developers.google.com/protocol-buffers/docs/encoding">Protocol Buffers</a>
+ * wire format, without schema: a message is a {@link Map} from field numbers to values.
+ * <p>
+ * Encoding: integers and booleans are written as varints, {@link Double}s as fixed64,
+ * {@link Float}s as fixed32, strings, {@code byte[]} and nested maps as length-delimited fields,
+ * lists as repeated fields. {@code null} values are skipped.
+ * <p>
+ * Decoding only knows the wire types: varints and fixed numbers are decoded to {@link Long}s, use
+ * {@link Double#longBitsToDouble} or {@link Float#intBitsToFloat} for floating point fields, and
+ * length-delimited fields to {@code byte[]}, read by {@link #string(Object)} or
+ * {@link #message(Object)}. A field found several times is decoded to a {@link List}.
+ */
+public final class ProtobufCodec implements Codec {
+
+	public static final String MEDIA_TYPE = "application/x-protobuf";
+
+	private static final int WIRE_VARINT = 0;
+	private static final int WIRE_FIXED64 = 1;
+	private static final int WIRE_LENGTH_DELIMITED = 2;
+	private static final int WIRE_FIXED32 = 5;
+
+	private static final int MAX_FIELD_NUMBER = (1 << 29) - 1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+
+	@Override
+	public String mediaType() {
+		return MEDIA_TYPE;
+	}
+
+
+	@Override
+	public void encode(Object value, OutputStream out) throws IOException {
+		if(!(value instanceof Map)){
+			throw new CodecException("A message must be a Map");
+		}
+		OutputStream buffered = new BufferedOutputStream(out);
+		writeMessage((Map<?, ?>) value, buffered);
+		buffered.flush();
+	}
+
+
+	@Override
+	public Object decode(InputStream in) throws IOException {
+		return readMessage(new BufferedInputStream(in));
+	}
+
+
+	/**
+	 * Returns a decoded length-delimited field as UTF-8 text
+	 */
+	public static String string(Object field) throws CodecException {
+		return new String(bytes(field), UTF_8);
+	}
+
+
+	/**
+	 * Returns a decoded length-delimited field as a nested message
+	 */
+	public static Map<Integer, Object> message(Object field) throws IOException {
+		return readMessage(new ByteArrayInputStream(bytes(field)));
+	}
+
+
+	private static byte[] bytes(Object field) throws CodecException {
+		if(!(field instanceof byte[])){
+			throw new CodecException("Not a length-delimited field: " + field);
+		}
+		return (byte[]) field;
+	}
+
+
+	private static void writeMessage(Map<?, ?> message, OutputStream out) throws IOException {
+		for(Map.Entry<?, ?> entry : message.entrySet()){
+			if(!(entry.getKey() instanceof Number)){
+				throw new CodecException("Field number expected: " + entry.getKey());
+			}
+			long number = ((Number) entry.getKey()).longValue();
+			if(number < 1 || number > MAX_FIELD_NUMBER){
+				throw new CodecException("Invalid field number " + number);
+			}
+			Object value = entry.getValue();
+			if(value instanceof List){
+				for(Object element : (List<?>) value){
+					writeField((int) number, element, out);
+				}
+			}else if(value instanceof Object[]){
+				for(Object element : (Object[]) value){
+					writeField((int) number, element, out);
+				}
+			}else{
+				writeField((int) number, value, out);
+			}
+		}
+	}
+
+
+	private static void writeField(int number, Object value, OutputStream out) throws IOException {
+		if(value == null){
+			return;
+		}
+		if(value instanceof Double){
+			writeVarint(number << 3 | WIRE_FIXED64, out);
+			writeLittleEndian(Double.doubleToLongBits((Double) value), 8, out);
+		}else if(value instanceof Float){
+			writeVarint(number << 3 | WIRE_FIXED32, out);
+			writeLittleEndian(Float.floatToIntBits((Float) value), 4, out);
+		}else if(value instanceof Number || value instanceof Boolean){
+			writeVarint(number << 3 | WIRE_VARINT, out);
+			writeVarint(value instanceof Boolean ? ((Boolean) value ? 1 : 0)
+					: ((Number) value).longValue(), out);
+		}else{
+			byte[] bytes;
+			if(value instanceof String){
+				bytes = ((String) value).getBytes(UTF_8);
+			}else if(value instanceof byte[]){
+				bytes = (byte[]) value;
+			}else if(value instanceof Map){
+				ByteArrayOutputStream nested = new ByteArrayOutputStream();
+				writeMessage((Map<?, ?>) value, nested);
+				bytes = nested.toByteArray();
+			}else{
+				throw new CodecException("Cannot encode " + value.getClass().getName());
+			}
+			writeVarint(number << 3 | WIRE_LENGTH_DELIMITED, out);
+			writeVarint(bytes.length, out);
+			out.write(bytes);
+		}
+	}
+
+
+	private static void writeVarint(long value, OutputStream out) throws IOException {
+		while((value & ~0x7FL) != 0){
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+
+	private static void writeLittleEndian(long value, int size, OutputStream out) throws IOException {
+		for(int i = 0; i < size; i++){
+			out.write((int) (value >> (8 * i)) & 0xFF);
+		}
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private static Map<Integer, Object> readMessage(InputStream in) throws IOException {
+		Map<Integer, Object> message = new LinkedHashMap<>();
+		int first;
+		while((first = in.read()) != -1){
+			long tag = readVarint(first, in);
+			int number = (int) (tag >>> 3);
+			if(number < 1 || tag >>> 3 > MAX_FIELD_NUMBER){
+				throw new CodecException("Invalid field number " + (tag >>> 3));
+			}
+			Object value;
+			switch ((int) tag & 0x7){
+				case WIRE_VARINT:
+					value = readVarint(readByte(in), in);
+					break;
+				case WIRE_FIXED64:
+					value = readLittleEndian(in, 8);
+					break;
+				case WIRE_LENGTH_DELIMITED:
+					long length = readVarint(readByte(in), in);
+					if(length < 0 || length > Integer.MAX_VALUE){
+						throw new CodecException("Length too large");
+					}
+					byte[] bytes = new byte[(int) length];
+					readFully(in, bytes);
+					value = bytes;
+					break;
+				case WIRE_FIXED32:
+					value = readLittleEndian(in, 4);
+					break;
+				default:
+					throw new CodecException("Unsupported wire type " + (tag & 0x7));
+			}
+
+			Object previous = message.get(number);
+			if(previous == null){
+				message.put(number, value);
+			}else if(previous instanceof List){
+				((List<Object>) previous).add(value);
+			}else{
+				List<Object> repeated = new ArrayList<>();
+				repeated.add(previous);
+				repeated.add(value);
+				message.put(number, repeated);
+			}
+		}
+		return message;
+	}
+
+
+	private static long readVarint(int first, InputStream in) throws IOException {
+		long value = first & 0x7F;
+		int b = first;
+		for(int shift = 7; (b & 0x80) != 0; shift += 7){
+			if(shift > 63){
+				throw new CodecException("Malformed varint");
+			}
+			b = readByte(in);
+			value |= (long) (b & 0x7F) << shift;
+		}
+		return value;
+	}
+
+
+	private static long readLittleEndian(InputStream in, int size) throws IOException {
+		long value = 0;
+		for(int i = 0; i < size; i++){
+			value |= (long) readByte(in) << (8 * i);
+		}
+		return value;
+	}
+
+
+	private static int readByte(InputStream in) throws IOException {
+		int b = in.read();
+		if(b == -1){
+			throw new CodecException("Unexpected end of input");
+		}
+		return b;
+	}
+
+
+	private static void readFully(InputStream in, byte[] bytes) throws IOException {
+		int offset = 0;
+		while(offset < bytes.length){
+			int read = in.read(bytes, offset, bytes.length - offset);
+			if(read == -1){
+				throw new CodecException("Unexpected end of input");
+			}
+			offset += read;
+		}
+	}
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+/**
+ * Timing breakdown of one request. The queue and cache phases are taken from the markers Volley
+ * adds to every request, the connection phases are recorded by {@link SslHurlStack}, the parse
+ * and delivery phases by {@link com.android.volleyplus.BaseRequest}.
+ * <p>
+ * All durations are in nanoseconds, or -1 if the phase did not happen or was not observed (for
+ * instance the connection phases with an other {@link com.android.volley.toolbox.HttpStack}).
+ */
+public final class RequestMetrics {
+
+	private static final long UNKNOWN = -1;
+
+	private final String endpoint;
+	private final int method;
+
+	private volatile long enqueued;
+	private volatile long cacheStart;
+	private volatile long cacheEnd;
+	private volatile boolean cacheHit;
+	private volatile long networkStart;
+	private volatile long networkEnd;
+
+	private volatile long connectStart;
+	private volatile long tlsStart;
+	private volatile long tlsEnd;
+	private volatile long connected;
+	private volatile long requestSent;
+	private volatile long firstByte;
+	private volatile long bodyEnd;
+
+	private volatile long parseStart;
+	private volatile long parseEnd;
+	private volatile long delivered;
+
+	private volatile int statusCode;
+	private volatile long bytesSent;
+	private volatile long bytesReceived;
+	private volatile int retryCount;
+	private volatile boolean canceled;
+
+
+	/**
+	 * @param endpoint  the request's related url
+	 * @param method    the request's {@link com.android.volley.Request.Method}
+	 */
+	public RequestMetrics(String endpoint, int method){
+		this.endpoint = endpoint;
+		this.method = method;
+		this.enqueued = System.nanoTime();
+	}
+
+
+	/**
+	 * Record a marker added by Volley to the request
+	 */
+	public void onMarker(String marker){
+		switch (marker){
+			case "cache-queue-take":
+				cacheStart = System.nanoTime();
+				break;
+			case "cache-miss":
+			case "cache-hit-expired":
+				cacheEnd = System.nanoTime();
+				break;
+			case "cache-hit":
+				cacheEnd = System.nanoTime();
+				cacheHit = true;
+				break;
+			case "network-queue-take":
+				networkStart = System.nanoTime();
+				break;
+			case "network-http-complete":
+				networkEnd = System.nanoTime();
+				break;
+			default:
+				break;
+		}
+	}
+
+
+	/**A new attempt starts opening a connection, phases of previous attempts are dropped**/
+	public void markConnectStart(){
+		connectStart = System.nanoTime();
+		tlsStart = 0;
+		tlsEnd = 0;
+		connected = 0;
+		requestSent = 0;
+		firstByte = 0;
+		bodyEnd = 0;
+		bytesSent = 0;
+		bytesReceived = 0;
+	}
+
+	/**The TCP connection is open, the TLS handshake starts**/
+	public void markTlsStart(){
+		tlsStart = System.nanoTime();
+	}
+
+	public void markTlsEnd(){
+		tlsEnd = System.nanoTime();
+	}
+
+	public void markConnected(){
+		if(connected == 0){
+			connected = System.nanoTime();
+		}
+	}
+
+	public void markRequestSent(long bytes){
+		requestSent = System.nanoTime();
+		bytesSent += bytes;
+	}
+
+	public void markFirstByte(int statusCode){
+		this.firstByte = System.nanoTime();
+		this.statusCode = statusCode;
+	}
+
+	public void markBodyEnd(long bytes){
+		if(bodyEnd == 0){
+			bodyEnd = System.nanoTime();
+			bytesReceived = bytes;
+		}
+	}
+
+	public void markParseStart(){
+		parseStart = System.nanoTime();
+	}
+
+	public void markParseEnd(long bytes){
+		parseEnd = System.nanoTime();
+		if(bytesReceived == 0){
+			bytesReceived = bytes;
+		}
+	}
+
+	public void markDelivered(){
+		delivered = System.nanoTime();
+	}
+
+	/**The request is done, no more phase will be recorded**/
+	public void finish(int retryCount, boolean canceled){
+		this.retryCount = retryCount;
+		this.canceled = canceled;
+	}
+
+
+	private static long span(long from, long to){
+		return from == 0 || to == 0 || to < from ? UNKNOWN : to - from;
+	}
+
+
+	/**The request's related url**/
+	public String getEndpoint(){
+		return endpoint;
+	}
+
+	public int getMethod(){
+		return method;
+	}
+
+	/**Time spent waiting in the cache and network queues**/
+	public long getQueueWaitNanos(){
+		long taken = networkStart != 0 ? networkStart : cacheEnd;
+		long wait = span(enqueued, taken);
+		long cacheLookup = getCacheLookupNanos();
+		return wait == UNKNOWN || cacheLookup == UNKNOWN ? wait : wait - cacheLookup;
+	}
+
+	public long getCacheLookupNanos(){
+		return span(cacheStart, cacheEnd);
+	}
+
+	public boolean isCacheHit(){
+		return cacheHit;
+	}
+
+	/**Time to open the connection, without the TLS handshake**/
+	public long getConnectNanos(){
+		return span(connectStart, tlsStart != 0 ? tlsStart : connected);
+	}
+
+	public long getTlsHandshakeNanos(){
+		return span(tlsStart, tlsEnd != 0 ? tlsEnd : connected);
+	}
+
+	/**Time between the request being sent and the response's status line**/
+	public long getTimeToFirstByteNanos(){
+		return span(requestSent != 0 ? requestSent : connected, firstByte);
+	}
+
+	public long getBodyReadNanos(){
+		return span(firstByte, bodyEnd);
+	}
+
+	/**Time spent in the whole network exchange, retries included**/
+	public long getNetworkNanos(){
+		return span(networkStart, networkEnd);
+	}
+
+	public long getParseNanos(){
+		return span(parseStart, parseEnd);
+	}
+
+	/**Time between the end of parsing and the listener being called**/
+	public long getDeliveryNanos(){
+		return span(parseEnd, delivered);
+	}
+
+	/**Time between the request being enqueued and its response being delivered**/
+	public long getTotalNanos(){
+		return span(enqueued, delivered);
+	}
+
+	public int getStatusCode(){
+		return statusCode;
+	}
+
+	public long getBytesSent(){
+		return bytesSent;
+	}
+
+	public long getBytesReceived(){
+		return bytesReceived;
+	}
+
+	public int getRetryCount(){
+		return retryCount;
+	}
+
+	public boolean isCanceled(){
+		return canceled;
+	}
+
+
+	@Override
+	public String toString() {
+		return "[" + endpoint + "] queue=" + getQueueWaitNanos() + " cache=" + getCacheLookupNanos()
+				+ " connect=" + getConnectNanos() + " tls=" + getTlsHandshakeNanos()
+				+ " ttfb=" + getTimeToFirstByteNanos() + " body=" + getBodyReadNanos()
+				+ " parse=" + getParseNanos() + " delivery=" + getDeliveryNanos()
+				+ " total=" + getTotalNanos() + " sent=" + bytesSent + " received=" + bytesReceived
+				+ " retries=" + retryCount;
+	}
+}
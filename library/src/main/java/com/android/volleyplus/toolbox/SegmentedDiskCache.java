@@ -0,0 +1,1093 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.VolleyLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static com.android.volleyplus.toolbox.Utils.checkNotNull;
+
+
+/**
+ * A {@link Cache} storing its entries in a few append-only segment files instead of one file per
+ * entry like {@link com.android.volley.toolbox.DiskBasedCache}.
+ * <p>
+ * The location of every entry is kept in memory and saved in a compact index file, so
+ * {@link #initialize()} reads one file and the records appended since it was saved, whatever the
+ * number of entries. A hit is a single positional read. Updated and removed entries leave dead
+ * records behind: segments which are mostly dead are compacted on a background thread, and the
+ * least recently used entries are evicted when the live entries exceed the maximum size.
+ * <p>
+ * The cache owns its directory, do not share it with an other cache.
+ */
+public class SegmentedDiskCache implements Cache {
+
+	/**Default maximum size of the live entries, the same as DiskBasedCache**/
+	private static final long DEFAULT_MAX_SIZE = 5 * 1024 * 1024;
+
+	/**The maximum size is spread over about this many segments**/
+	private static final int SEGMENTS_PER_CACHE = 8;
+
+	private static final long MIN_SEGMENT_SIZE = 64 * 1024;
+
+	/**A sealed segment is compacted when less than this part of it is live**/
+	private static final float COMPACTION_THRESHOLD = 0.5f;
+
+	/**The index file is saved again after this many writes**/
+	private static final int SNAPSHOT_INTERVAL = 64;
+
+	private static final String INDEX_FILE = "index";
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final int INDEX_MAGIC = 0x56504931;
+
+	private static final byte TYPE_PUT = 1;
+	private static final byte TYPE_REMOVE = 2;
+
+	/**Every record starts with the length and the CRC32 of its body**/
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File rootDirectory;
+	private final long maxSize;
+	private final long segmentSize;
+	private final Executor executor;
+
+	/**Key -> location of its live record in access order, guarded by this**/
+	private final LinkedHashMap<String, Location> index = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**Id -> segment, guarded by this**/
+	private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+
+	/**Segment receiving the new records, guarded by this**/
+	private Segment active;
+
+	private int nextSegmentId;
+	private long liveSize;
+	private int writesSinceSnapshot;
+	private boolean snapshotNeeded;
+	private boolean maintenanceScheduled;
+
+	/**Serializes the writes of the index file**/
+	private final Object snapshotLock = new Object();
+
+	private final Runnable maintenance = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				Segment victim;
+				while((victim = nextCompactionVictim()) != null && compact(victim)){
+					// Next one
+				}
+				boolean snapshot;
+				synchronized (SegmentedDiskCache.this){
+					snapshot = snapshotNeeded || writesSinceSnapshot >= SNAPSHOT_INTERVAL;
+				}
+				if(snapshot){
+					writeSnapshot();
+				}
+			} catch (IOException e) {
+				VolleyLog.e(e, "Cache maintenance failed in %s", rootDirectory);
+			} finally {
+				synchronized (SegmentedDiskCache.this){
+					maintenanceScheduled = false;
+				}
+			}
+		}
+	};
+
+
+	/**
+	 * @param rootDirectory  the cache's directory
+	 */
+	public SegmentedDiskCache(File rootDirectory){
+		this(rootDirectory, DEFAULT_MAX_SIZE);
+	}
+
+
+	/**
+	 * @param rootDirectory  the cache's directory
+	 * @param maxSizeInBytes maximum size of the live entries. Dead records are compacted away once
+	 *                       they fill half a segment, the directory stays under about twice this size.
+	 */
+	public SegmentedDiskCache(File rootDirectory, long maxSizeInBytes){
+		this(rootDirectory, maxSizeInBytes, newMaintenanceExecutor());
+	}
+
+
+	SegmentedDiskCache(File rootDirectory, long maxSizeInBytes, Executor executor){
+		if(maxSizeInBytes <= 0){
+			throw new IllegalArgumentException("maxSizeInBytes <= 0");
+		}
+		this.rootDirectory = checkNotNull(rootDirectory, "rootDirectory == null");
+		this.maxSize = maxSizeInBytes;
+		this.segmentSize = Math.max(maxSizeInBytes / SEGMENTS_PER_CACHE, MIN_SEGMENT_SIZE);
+		this.executor = executor;
+	}
+
+
+	private static Executor newMaintenanceExecutor(){
+		// One thread at most, stopped when idle
+		return new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "VolleyPlus-cache");
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+	}
+
+
+	/**
+	 * Load the index file, then replay the records appended since it was saved.
+	 */
+	@Override
+	public void initialize() {
+		synchronized (this){
+			if(!rootDirectory.exists() && !rootDirectory.mkdirs()){
+				VolleyLog.e("Unable to create cache dir %s", rootDirectory.getAbsolutePath());
+				return;
+			}
+			closeLocked();
+
+			TreeMap<Integer, File> segmentFiles = new TreeMap<>();
+			File[] files = rootDirectory.listFiles();
+			if(files != null){
+				for(File file : files){
+					int id = segmentId(file.getName());
+					if(id >= 0){
+						segmentFiles.put(id, file);
+					}
+				}
+			}
+
+			Snapshot snapshot = readSnapshot();
+			try {
+				for(Map.Entry<Integer, File> segmentFile : segmentFiles.entrySet()){
+					int id = segmentFile.getKey();
+					if(snapshot != null && !snapshot.coveredLengths.containsKey(id)
+							&& id <= snapshot.lastSegmentId){
+						// Compacted or cleared after the snapshot was saved
+						deleteFile(segmentFile.getValue());
+						continue;
+					}
+					segments.put(id, new Segment(id, segmentFile.getValue()));
+				}
+
+				if(snapshot != null){
+					for(int i = 0; i < snapshot.keys.size(); i++){
+						Segment segment = segments.get(snapshot.segmentIds[i]);
+						Long covered = snapshot.coveredLengths.get(snapshot.segmentIds[i]);
+						if(segment != null && covered != null && covered <= segment.length
+								&& snapshot.offsets[i] + snapshot.lengths[i] <= covered){
+							putLocation(snapshot.keys.get(i),
+									new Location(segment, snapshot.offsets[i], snapshot.lengths[i]));
+						}
+					}
+				}
+
+				for(Segment segment : segments.values()){
+					Long covered = snapshot != null ? snapshot.coveredLengths.get(segment.id) : null;
+					if(covered == null || covered != segment.length){
+						replay(segment, covered != null && covered < segment.length ? covered : 0);
+						snapshotNeeded = true;
+					}
+				}
+
+				nextSegmentId = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+				if(snapshot != null){
+					nextSegmentId = Math.max(nextSegmentId, snapshot.lastSegmentId + 1);
+				}
+				active = segments.isEmpty() ? newSegment() : segments.lastEntry().getValue();
+				evict(0);
+			} catch (IOException e) {
+				VolleyLog.e(e, "Unable to load cache %s", rootDirectory.getAbsolutePath());
+				clear();
+				return;
+			}
+		}
+		scheduleMaintenance();
+	}
+
+
+	@Override
+	public Entry get(String key) {
+		// A record moved by a compaction may be read from its deleted segment, look it up again
+		for(int attempt = 0; attempt < 2; attempt++){
+			Segment segment;
+			long offset;
+			int length;
+			synchronized (this){
+				Location location = index.get(key);
+				if(location == null){
+					return null;
+				}
+				segment = location.segment;
+				offset = location.offset;
+				length = location.length;
+			}
+
+			try {
+				Entry entry = decodeEntry(key, segment.read(offset, length));
+				if(entry != null){
+					return entry;
+				}
+			} catch (ClosedChannelException e) {
+				if(!segment.deleted){
+					return null;
+				}
+				continue;
+			} catch (IOException | BufferUnderflowException e) {
+				VolleyLog.d("%s: %s", segment.file.getAbsolutePath(), e.toString());
+			}
+			remove(key);
+			return null;
+		}
+		return null;
+	}
+
+
+	@Override
+	public void put(String key, Entry entry) {
+		byte[] record = encodeEntry(key, entry);
+		synchronized (this){
+			if(active == null){
+				return;
+			}
+			if(record.length > maxSize){
+				removeLocked(key);
+			}else{
+				evict(record.length - sizeOf(key));
+				try {
+					putLocation(key, append(record));
+					writesSinceSnapshot++;
+				} catch (IOException e) {
+					VolleyLog.e(e, "Unable to write cache entry %s", key);
+					removeLocation(key);
+				}
+			}
+		}
+		scheduleMaintenance();
+	}
+
+
+	@Override
+	public void invalidate(String key, boolean fullExpire) {
+		Entry entry = get(key);
+		if(entry != null){
+			entry.softTtl = 0;
+			if(fullExpire){
+				entry.ttl = 0;
+			}
+			put(key, entry);
+		}
+	}
+
+
+	@Override
+	public void remove(String key) {
+		synchronized (this){
+			removeLocked(key);
+		}
+		scheduleMaintenance();
+	}
+
+
+	@Override
+	public synchronized void clear() {
+		closeLocked();
+		writesSinceSnapshot = 0;
+		snapshotNeeded = false;
+
+		File[] files = rootDirectory.listFiles();
+		if(files != null){
+			for(File file : files){
+				if(segmentId(file.getName()) >= 0 || file.getName().startsWith(INDEX_FILE)){
+					deleteFile(file);
+				}
+			}
+		}
+		try {
+			active = rootDirectory.exists() || rootDirectory.mkdirs() ? newSegment() : null;
+		} catch (IOException e) {
+			VolleyLog.e(e, "Unable to create cache segment in %s", rootDirectory.getAbsolutePath());
+			active = null;
+		}
+	}
+
+
+	/**
+	 * Save the index and close the segment files. The cache is empty until it is initialized again.
+	 */
+	public void close(){
+		boolean unsaved;
+		synchronized (this){
+			unsaved = snapshotNeeded || writesSinceSnapshot > 0;
+		}
+		try {
+			if(unsaved){
+				writeSnapshot();
+			}
+		} catch (IOException e) {
+			VolleyLog.e(e, "Unable to save cache index in %s", rootDirectory.getAbsolutePath());
+		}
+		synchronized (this){
+			closeLocked();
+		}
+	}
+
+
+	private void closeLocked(){
+		closeSegments();
+		for(Location location : index.values()){
+			location.live = false;
+		}
+		index.clear();
+		liveSize = 0;
+	}
+
+
+	/**
+	 * Size of the live entries, dead records excluded
+	 */
+	public synchronized long getSize(){
+		return liveSize;
+	}
+
+
+	private void removeLocked(String key){
+		if(!index.containsKey(key) || active == null){
+			return;
+		}
+		removeLocation(key);
+		appendTombstone(key);
+	}
+
+
+	/**
+	 * Without a tombstone, replaying the segments would bring the entry back.
+	 * Caller must hold the lock.
+	 */
+	private void appendTombstone(String key){
+		try {
+			ByteBuffer record = newRecord(TYPE_REMOVE, key, 0);
+			append(sealRecord(record));
+			writesSinceSnapshot++;
+		} catch (IOException e) {
+			VolleyLog.e(e, "Unable to remove cache entry %s", key);
+		}
+	}
+
+
+	/**
+	 * Evict the least recently used entries until there is room for the given number of bytes.
+	 * Caller must hold the lock.
+	 */
+	private void evict(long needed){
+		Iterator<Map.Entry<String, Location>> iterator = index.entrySet().iterator();
+		while(liveSize + needed > maxSize && iterator.hasNext()){
+			Map.Entry<String, Location> entry = iterator.next();
+			iterator.remove();
+			kill(entry.getValue());
+			if(active != null){
+				appendTombstone(entry.getKey());
+			}
+		}
+	}
+
+
+	private long sizeOf(String key){
+		Location location = index.get(key);
+		return location != null ? location.length : 0;
+	}
+
+
+	private void putLocation(String key, Location location){
+		Location previous = index.put(key, location);
+		if(previous != null){
+			kill(previous);
+		}
+		location.segment.liveSize += location.length;
+		liveSize += location.length;
+	}
+
+
+	private void removeLocation(String key){
+		Location previous = index.remove(key);
+		if(previous != null){
+			kill(previous);
+		}
+	}
+
+
+	private void kill(Location location){
+		location.live = false;
+		location.segment.liveSize -= location.length;
+		liveSize -= location.length;
+	}
+
+
+	/**
+	 * Append a record to the active segment, starting a new one if it is full.
+	 * Caller must hold the lock.
+	 */
+	private Location append(byte[] record) throws IOException {
+		if(active.length > 0 && active.length + record.length > segmentSize){
+			active = newSegment();
+		}
+		long offset = active.length;
+		active.write(record, offset);
+		active.length += record.length;
+		return new Location(active, offset, record.length);
+	}
+
+
+	private Segment newSegment() throws IOException {
+		int id = nextSegmentId++;
+		Segment segment = new Segment(id, new File(rootDirectory, SEGMENT_PREFIX + id));
+		segments.put(id, segment);
+		return segment;
+	}
+
+
+	private void closeSegments(){
+		for(Segment segment : segments.values()){
+			segment.delete(false);
+		}
+		segments.clear();
+		active = null;
+	}
+
+
+	/**
+	 * Read the records of a segment from the given offset and apply them to the index. A torn
+	 * record left by a crash ends the segment: it is truncated there.
+	 */
+	private void replay(Segment segment, long from) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+		long offset = from;
+		try {
+			if(in.skip(from) != from){
+				throw new EOFException();
+			}
+			byte[] body = new byte[1024];
+			CRC32 crc = new CRC32();
+			while(offset + RECORD_HEADER_SIZE <= segment.length){
+				int length = in.readInt();
+				int checksum = in.readInt();
+				if(length <= 0 || offset + RECORD_HEADER_SIZE + length > segment.length){
+					break;
+				}
+				if(body.length < length){
+					body = new byte[Math.max(length, body.length * 2)];
+				}
+				in.readFully(body, 0, length);
+				crc.reset();
+				crc.update(body, 0, length);
+				if((int) crc.getValue() != checksum){
+					break;
+				}
+
+				ByteBuffer buffer = ByteBuffer.wrap(body, 0, length);
+				byte type = buffer.get();
+				String key = readString(buffer);
+				int recordLength = RECORD_HEADER_SIZE + length;
+				if(type == TYPE_PUT){
+					putLocation(key, new Location(segment, offset, recordLength));
+				}else{
+					removeLocation(key);
+				}
+				offset += recordLength;
+			}
+		} catch (EOFException | BufferUnderflowException e) {
+			// Torn record
+		} finally {
+			in.close();
+		}
+
+		if(offset < segment.length){
+			segment.truncate(offset);
+		}
+	}
+
+
+	/**
+	 * Read the tombstones of a sealed segment
+	 * @return key -> record
+	 */
+	private static Map<String, byte[]> tombstonesOf(Segment segment, long length) throws IOException {
+		Map<String, byte[]> tombstones = new HashMap<>();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+		try {
+			long offset = 0;
+			CRC32 crc = new CRC32();
+			while(offset + RECORD_HEADER_SIZE < length){
+				int recordLength = in.readInt();
+				int checksum = in.readInt();
+				if(recordLength <= 0){
+					throw new IOException("Corrupted record at " + offset);
+				}
+				byte type = in.readByte();
+				if(type != TYPE_REMOVE){
+					if(in.skipBytes(recordLength - 1) != recordLength - 1){
+						throw new EOFException();
+					}
+				}else{
+					byte[] record = new byte[RECORD_HEADER_SIZE + recordLength];
+					record[RECORD_HEADER_SIZE] = type;
+					in.readFully(record, RECORD_HEADER_SIZE + 1, recordLength - 1);
+					crc.reset();
+					crc.update(record, RECORD_HEADER_SIZE, recordLength);
+					if((int) crc.getValue() != checksum){
+						throw new IOException("Corrupted record at " + offset);
+					}
+					ByteBuffer buffer = ByteBuffer.wrap(record);
+					buffer.putInt(recordLength);
+					buffer.putInt(checksum);
+					buffer.get();
+					tombstones.put(readString(buffer), record);
+				}
+				offset += RECORD_HEADER_SIZE + recordLength;
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException(e);
+		} finally {
+			in.close();
+		}
+		return tombstones;
+	}
+
+
+	private synchronized boolean needsMaintenance(){
+		return snapshotNeeded || writesSinceSnapshot >= SNAPSHOT_INTERVAL
+				|| nextCompactionVictim() != null;
+	}
+
+
+	private void scheduleMaintenance(){
+		synchronized (this){
+			if(maintenanceScheduled || !needsMaintenance()){
+				return;
+			}
+			maintenanceScheduled = true;
+		}
+		executor.execute(maintenance);
+	}
+
+
+	/**
+	 * The sealed segment with the lowest live ratio under the compaction threshold
+	 */
+	private synchronized Segment nextCompactionVictim(){
+		Segment victim = null;
+		float lowest = COMPACTION_THRESHOLD;
+		for(Segment segment : segments.values()){
+			if(segment == active || segment.length == 0){
+				continue;
+			}
+			float ratio = (float) segment.liveSize / segment.length;
+			if(ratio < lowest){
+				lowest = ratio;
+				victim = segment;
+			}
+		}
+		return victim;
+	}
+
+
+	/**
+	 * Copy the live records of a segment to the active one, then delete it. Records are read
+	 * without holding the lock, so lookups and writes go on during a compaction.
+	 * <p>
+	 * The tombstones of the segment are copied too while an older segment is left, it may hold
+	 * the records they remove.
+	 */
+	private boolean compact(Segment victim) throws IOException {
+		List<Map.Entry<String, Location>> live = new ArrayList<>();
+		long length;
+		synchronized (this){
+			for(Map.Entry<String, Location> entry : index.entrySet()){
+				if(entry.getValue().segment == victim){
+					live.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+				}
+			}
+			length = victim.length;
+		}
+		Map<String, byte[]> tombstones;
+		try {
+			tombstones = tombstonesOf(victim, length);
+		} catch (IOException e) {
+			// Better keep the segment than resurrect its removed entries
+			VolleyLog.d("%s: %s", victim.file.getAbsolutePath(), e.toString());
+			return false;
+		}
+
+		for(Map.Entry<String, Location> entry : live){
+			Location location = entry.getValue();
+			long offset;
+			synchronized (this){
+				if(!location.live || location.segment != victim){
+					continue;
+				}
+				offset = location.offset;
+			}
+			byte[] record = null;
+			try {
+				record = victim.read(offset, location.length);
+			} catch (ClosedChannelException e) {
+				// Cleared in the meantime
+				return false;
+			} catch (IOException e) {
+				VolleyLog.d("%s: %s", victim.file.getAbsolutePath(), e.toString());
+			}
+			synchronized (this){
+				if(!location.live || location.segment != victim || active == null){
+					continue;
+				}
+				if(record == null){
+					// A live location is the one indexed for its key
+					removeLocation(entry.getKey());
+					appendTombstone(entry.getKey());
+					continue;
+				}
+				// Moved in place: the entry keeps its rank in the access order
+				Location moved = append(record);
+				victim.liveSize -= location.length;
+				location.segment = moved.segment;
+				location.offset = moved.offset;
+				moved.segment.liveSize += location.length;
+			}
+		}
+
+		synchronized (this){
+			if(segments.get(victim.id) != victim || victim.liveSize != 0 || active == null){
+				return false;
+			}
+			if(!segments.headMap(victim.id).isEmpty()){
+				for(Map.Entry<String, byte[]> tombstone : tombstones.entrySet()){
+					// Else the entry has been put again since, the tombstone is obsolete
+					if(!index.containsKey(tombstone.getKey())){
+						append(tombstone.getValue());
+					}
+				}
+			}
+			segments.remove(victim.id);
+		}
+		// The index must not list the segment anymore before it is deleted
+		writeSnapshot();
+		victim.delete(true);
+		return true;
+	}
+
+
+	/**
+	 * Save the index: the live locations in access order and the length of every segment.
+	 */
+	private void writeSnapshot() throws IOException {
+		int count;
+		String[] keys;
+		int[] ids;
+		long[] offsets;
+		int[] lengths;
+		Map<Integer, Long> segmentLengths = new TreeMap<>();
+		int lastSegmentId;
+		synchronized (this){
+			if(active == null){
+				// Closed
+				return;
+			}
+			snapshotNeeded = false;
+			writesSinceSnapshot = 0;
+			count = index.size();
+			keys = new String[count];
+			ids = new int[count];
+			offsets = new long[count];
+			lengths = new int[count];
+			int i = 0;
+			for(Map.Entry<String, Location> entry : index.entrySet()){
+				Location location = entry.getValue();
+				keys[i] = entry.getKey();
+				ids[i] = location.segment.id;
+				offsets[i] = location.offset;
+				lengths[i++] = location.length;
+			}
+			for(Segment segment : segments.values()){
+				segmentLengths.put(segment.id, segment.length);
+			}
+			lastSegmentId = nextSegmentId - 1;
+		}
+
+		synchronized (snapshotLock){
+			File tmp = new File(rootDirectory, INDEX_FILE + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(lastSegmentId);
+				out.writeInt(segmentLengths.size());
+				for(Map.Entry<Integer, Long> segment : segmentLengths.entrySet()){
+					out.writeInt(segment.getKey());
+					out.writeLong(segment.getValue());
+				}
+				out.writeInt(count);
+				for(int i = 0; i < count; i++){
+					writeString(out, keys[i]);
+					out.writeInt(ids[i]);
+					out.writeLong(offsets[i]);
+					out.writeInt(lengths[i]);
+				}
+			} finally {
+				out.close();
+			}
+			if(!tmp.renameTo(new File(rootDirectory, INDEX_FILE))){
+				throw new IOException("Unable to rename " + tmp);
+			}
+		}
+	}
+
+
+	/**
+	 * @return the saved index, or null if there is none or it can not be read
+	 */
+	private Snapshot readSnapshot(){
+		File file = new File(rootDirectory, INDEX_FILE);
+		if(!file.exists()){
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if(in.readInt() != INDEX_MAGIC){
+				return null;
+			}
+			Snapshot snapshot = new Snapshot();
+			snapshot.lastSegmentId = in.readInt();
+			int segmentCount = in.readInt();
+			for(int i = 0; i < segmentCount; i++){
+				snapshot.coveredLengths.put(in.readInt(), in.readLong());
+			}
+			int count = in.readInt();
+			snapshot.keys = new ArrayList<>(count);
+			snapshot.segmentIds = new int[count];
+			snapshot.offsets = new long[count];
+			snapshot.lengths = new int[count];
+			for(int i = 0; i < count; i++){
+				snapshot.keys.add(readString(in));
+				snapshot.segmentIds[i] = in.readInt();
+				snapshot.offsets[i] = in.readLong();
+				snapshot.lengths[i] = in.readInt();
+			}
+			return snapshot;
+		} catch (IOException | RuntimeException e) {
+			return null;
+		} finally {
+			if(in != null){
+				try {
+					in.close();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+
+	private static int segmentId(String fileName){
+		if(!fileName.startsWith(SEGMENT_PREFIX)){
+			return -1;
+		}
+		try {
+			return Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+
+	private static void deleteFile(File file){
+		if(!file.delete()){
+			VolleyLog.d("Could not delete cache file %s", file.getAbsolutePath());
+		}
+	}
+
+
+	private static byte[] encodeEntry(String key, Entry entry){
+		byte[] etag = entry.etag != null ? entry.etag.getBytes(UTF_8) : null;
+		byte[] data = entry.data != null ? entry.data : new byte[0];
+		Map<String, String> headers = entry.responseHeaders != null
+				? entry.responseHeaders : Collections.<String, String>emptyMap();
+
+		List<byte[]> headerBytes = new ArrayList<>(headers.size() * 2);
+		int size = 4 + (etag != null ? etag.length : 0) + 4 * 8 + 4 + 4 + data.length;
+		for(Map.Entry<String, String> header : headers.entrySet()){
+			byte[] name = header.getKey().getBytes(UTF_8);
+			byte[] value = header.getValue() != null ? header.getValue().getBytes(UTF_8) : new byte[0];
+			headerBytes.add(name);
+			headerBytes.add(value);
+			size += 8 + name.length + value.length;
+		}
+
+		ByteBuffer buffer = newRecord(TYPE_PUT, key, size);
+		putBytes(buffer, etag);
+		buffer.putLong(entry.serverDate);
+		buffer.putLong(entry.lastModified);
+		buffer.putLong(entry.ttl);
+		buffer.putLong(entry.softTtl);
+		buffer.putInt(headers.size());
+		for(byte[] bytes : headerBytes){
+			putBytes(buffer, bytes);
+		}
+		putBytes(buffer, data);
+		return sealRecord(buffer);
+	}
+
+
+	/**
+	 * @return the entry, or null if the record does not belong to the key
+	 */
+	private static Entry decodeEntry(String key, byte[] record){
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		buffer.position(RECORD_HEADER_SIZE);
+		if(buffer.get() != TYPE_PUT || !key.equals(readString(buffer))){
+			return null;
+		}
+		Entry entry = new Entry();
+		entry.etag = readString(buffer);
+		entry.serverDate = buffer.getLong();
+		entry.lastModified = buffer.getLong();
+		entry.ttl = buffer.getLong();
+		entry.softTtl = buffer.getLong();
+		int headerCount = buffer.getInt();
+		Map<String, String> headers = new HashMap<>(Math.max(headerCount * 2, 16));
+		for(int i = 0; i < headerCount; i++){
+			headers.put(readString(buffer), readString(buffer));
+		}
+		entry.responseHeaders = headers;
+		entry.data = new byte[buffer.getInt()];
+		buffer.get(entry.data);
+		return entry;
+	}
+
+
+	/**
+	 * A record buffer holding its type and key, with room for the given number of bytes more
+	 */
+	private static ByteBuffer newRecord(byte type, String key, int extra){
+		byte[] keyBytes = key.getBytes(UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + 1 + 4 + keyBytes.length + extra);
+		buffer.position(RECORD_HEADER_SIZE);
+		buffer.put(type);
+		putBytes(buffer, keyBytes);
+		return buffer;
+	}
+
+
+	/**
+	 * Fill the header of a record
+	 */
+	private static byte[] sealRecord(ByteBuffer buffer){
+		int length = buffer.capacity() - RECORD_HEADER_SIZE;
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), RECORD_HEADER_SIZE, length);
+		buffer.putInt(0, length);
+		buffer.putInt(4, (int) crc.getValue());
+		return buffer.array();
+	}
+
+
+	private static void putBytes(ByteBuffer buffer, byte[] bytes){
+		if(bytes == null){
+			buffer.putInt(-1);
+			return;
+		}
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+
+
+	private static String readString(ByteBuffer buffer){
+		int length = buffer.getInt();
+		if(length < 0){
+			return null;
+		}
+		if(length > buffer.remaining()){
+			throw new BufferUnderflowException();
+		}
+		String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+		buffer.position(buffer.position() + length);
+		return string;
+	}
+
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+
+	/**
+	 * Where the live record of a key is. Moved in place by compactions, guarded by the cache.
+	 */
+	private static final class Location {
+		Segment segment;
+		long offset;
+		final int length;
+		boolean live = true;
+
+		Location(Segment segment, long offset, int length){
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+
+	/**
+	 * An append-only segment file
+	 */
+	private static final class Segment {
+		final int id;
+		final File file;
+
+		/**Guarded by the cache**/
+		long length;
+		long liveSize;
+
+		private volatile FileChannel channel;
+		volatile boolean deleted;
+
+		Segment(int id, File file) throws IOException {
+			this.id = id;
+			this.file = file;
+			this.channel = new RandomAccessFile(file, "rw").getChannel();
+			this.length = channel.size();
+		}
+
+		byte[] read(long offset, int length) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			FileChannel channel = this.channel;
+			boolean retried = false;
+			while(buffer.hasRemaining()){
+				try {
+					if(channel.read(buffer, offset + buffer.position()) < 0){
+						throw new EOFException();
+					}
+				} catch (ClosedChannelException e) {
+					// An interrupted thread closes the channel for everyone, open it again
+					channel = reopen(channel);
+					if(e instanceof ClosedByInterruptException || retried){
+						throw e;
+					}
+					retried = true;
+				}
+			}
+			return buffer.array();
+		}
+
+		void write(byte[] record, long offset) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(record);
+			FileChannel channel = this.channel;
+			boolean retried = false;
+			while(buffer.hasRemaining()){
+				try {
+					channel.write(buffer, offset + buffer.position());
+				} catch (ClosedChannelException e) {
+					channel = reopen(channel);
+					if(e instanceof ClosedByInterruptException || retried){
+						throw e;
+					}
+					retried = true;
+				}
+			}
+		}
+
+		void truncate(long length) throws IOException {
+			channel.truncate(length);
+			this.length = length;
+		}
+
+		private synchronized FileChannel reopen(FileChannel closed) throws IOException {
+			if(deleted){
+				throw new ClosedChannelException();
+			}
+			if(channel == closed){
+				channel = new RandomAccessFile(file, "rw").getChannel();
+			}
+			return channel;
+		}
+
+		synchronized void delete(boolean deleteFile){
+			deleted = true;
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+			}
+			if(deleteFile){
+				deleteFile(file);
+			}
+		}
+	}
+
+
+	private static final class Snapshot {
+		int lastSegmentId;
+		final Map<Integer, Long> coveredLengths = new HashMap<>();
+		List<String> keys;
+		int[] segmentIds;
+		long[] offsets;
+		int[] lengths;
+	}
+
+}
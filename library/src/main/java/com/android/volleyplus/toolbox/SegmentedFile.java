@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A preallocated file written by several threads at once, each one copying a stream to its own
+ * byte range through positional {@link FileChannel} writes, without any lock.
+ */
+public final class SegmentedFile {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+
+
+	/**
+	 * Open or create the file and set its size
+	 */
+	public SegmentedFile(File file, long size) throws IOException {
+		if(size < 0){
+			throw new IllegalArgumentException("size < 0");
+		}
+		this.file = new RandomAccessFile(file, "rw");
+		this.file.setLength(size);
+		this.channel = this.file.getChannel();
+		this.size = size;
+	}
+
+
+	public long size(){
+		return size;
+	}
+
+
+	/**
+	 * Split the file in byte ranges of about the same size
+	 * @param count number of ranges
+	 * @return the first byte and the length of every range
+	 */
+	public static long[][] split(long size, int count){
+		if(count < 1){
+			throw new IllegalArgumentException("count < 1");
+		}
+		count = (int) Math.max(1, Math.min(count, size));
+		long[][] ranges = new long[count][];
+		long start = 0;
+		for(int i = 0; i < count; i++){
+			long end = size * (i + 1) / count;
+			ranges[i] = new long[]{start, end - start};
+			start = end;
+		}
+		return ranges;
+	}
+
+
+	/**
+	 * Copy a stream to a byte range of the file
+	 * @param in        the bytes of the range, from {@code position}
+	 * @param position  where the first byte is written
+	 * @param length    bytes to write at most, the rest of the stream is not read
+	 * @param buffer    the copy buffer of the calling thread
+	 * @param progress  incremented as bytes are written, may be null
+	 * @return the number of bytes written, less than {@code length} if the stream ended early
+	 */
+	public long transfer(InputStream in, long position, long length, byte[] buffer,
+	                     AtomicLong progress) throws IOException {
+		if(position < 0 || length < 0 || position + length > size){
+			throw new IllegalArgumentException("range out of the file");
+		}
+		ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+		long written = 0;
+		while(written < length){
+			int read = in.read(buffer, 0, (int) Math.min(buffer.length, length - written));
+			if(read == -1){
+				break;
+			}
+			wrapped.limit(read).position(0);
+			while(wrapped.hasRemaining()){
+				channel.write(wrapped, position + written + wrapped.position());
+			}
+			written += read;
+			if(progress != null){
+				progress.addAndGet(read);
+			}
+		}
+		return written;
+	}
+
+
+	/**
+	 * Returns the digest of the whole file in lowercase hexadecimal, such as for "SHA-256"
+	 */
+	public String digest(String algorithm) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		long position = 0;
+		while(position < size){
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if(read == -1){
+				break;
+			}
+			digest.update(buffer.array(), 0, read);
+			position += read;
+		}
+
+		byte[] bytes = digest.digest();
+		char[] hex = new char[bytes.length * 2];
+		for(int i = 0; i < bytes.length; i++){
+			hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+
+	/**
+	 * Flush the written bytes to the storage device
+	 */
+	public void sync() throws IOException {
+		channel.force(true);
+	}
+
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+}
@@ -18,6 +18,7 @@ import android.text.TextUtils;
 import com.android.volley.AuthFailureError;
 import com.android.volley.Request;
 import com.android.volley.toolbox.HttpStack;
+import com.android.volleyplus.BaseRequest;
 import com.android.volleyplus.MultipartRequest;
 
 import org.apache.http.Header;
@@ -31,17 +32,27 @@ import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.message.BasicStatusLine;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.HttpsURLConnection;
 
+import static com.android.volleyplus.toolbox.Utils.checkNotNull;
+
 /**
  * An {@link HttpStack} baseds on {@link HttpURLConnection} and supports multipart request
  *
@@ -55,6 +66,12 @@ public class SslHurlStack implements HttpStack {
 
 	private static final String HEADER_USER_AGENT = "User-Agent";
 
+	private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+	private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+	private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
 	/**
 	 * An interface for transforming URLs before use.
 	 */
@@ -71,6 +88,19 @@ public class SslHurlStack implements HttpStack {
 	private final javax.net.ssl.SSLSocketFactory mSslSocketFactory;
 	private final String mUserAgent;
 
+	/**Decoders of the response Content-Encodings, by lower case token**/
+	private final Map<String, ContentDecoder> mDecoders = new LinkedHashMap<>();
+	private volatile String mAcceptEncoding;
+
+	/**Content-Encoding of the compressed request bodies, null if they are sent as is**/
+	private volatile String mRequestEncoding;
+	private volatile int mMinCompressedBodySize;
+
+	private final AtomicLong mRequestBytesBeforeCompression = new AtomicLong();
+	private final AtomicLong mRequestBytesAfterCompression = new AtomicLong();
+	private final AtomicLong mResponseBytesBeforeDecoding = new AtomicLong();
+	private final AtomicLong mResponseBytesAfterDecoding = new AtomicLong();
+
 	public SslHurlStack() {
 		this(null, null, null);
 	}
@@ -104,17 +134,96 @@ public class SslHurlStack implements HttpStack {
 		mUrlRewriter = urlRewriter;
 		mUserAgent = userAgent;
 		if(null == sslSocketFactory){
-			mSslSocketFactory = SslSocketFactory.createIgnoreSSLSocketFactory();
-		}else{
-			mSslSocketFactory = sslSocketFactory;
+			sslSocketFactory = SslSocketFactory.createIgnoreSSLSocketFactory();
+		}
+		mSslSocketFactory = sslSocketFactory == null ? null : new TimingSslSocketFactory(sslSocketFactory);
+		addContentDecoder(ContentDecoder.GZIP);
+		addContentDecoder(ContentDecoder.DEFLATE);
+	}
+
+	/**
+	 * Compress the POST, PUT and PATCH bodies of at least {@code minBodySize} bytes. Only enable
+	 * this for servers accepting compressed request bodies. Multipart bodies are never compressed.
+	 * @param encoding     "gzip" or "deflate", null to stop compressing
+	 * @param minBodySize  smaller bodies are sent as is
+	 */
+	public void setRequestCompression(String encoding, int minBodySize) {
+		if (encoding != null && !"gzip".equals(encoding) && !"deflate".equals(encoding)) {
+			throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+		}
+		if (minBodySize < 0) {
+			throw new IllegalArgumentException("minBodySize < 0");
+		}
+		mRequestEncoding = encoding;
+		mMinCompressedBodySize = minBodySize;
+	}
+
+	/**
+	 * Accept and decode a response Content-Encoding, gzip and deflate are supported by default.
+	 * Decoders are advertised in the Accept-Encoding header in the order they are added, unless
+	 * the request sets this header itself.
+	 */
+	public synchronized void addContentDecoder(ContentDecoder decoder) {
+		String encoding = checkNotNull(decoder, "decoder == null").encoding().toLowerCase(Locale.US);
+		mDecoders.put(encoding, decoder);
+		StringBuilder acceptEncoding = new StringBuilder();
+		for (String accepted : mDecoders.keySet()) {
+			if (acceptEncoding.length() > 0) {
+				acceptEncoding.append(", ");
+			}
+			acceptEncoding.append(accepted);
 		}
+		mAcceptEncoding = acceptEncoding.toString();
+	}
+
+	/**
+	 * Returns the total size of the request bodies which have been compressed, before compression
+	 */
+	public long getRequestBytesBeforeCompression() {
+		return mRequestBytesBeforeCompression.get();
+	}
+
+	/**
+	 * Returns the total size of the request bodies which have been compressed, as sent
+	 */
+	public long getRequestBytesAfterCompression() {
+		return mRequestBytesAfterCompression.get();
+	}
+
+	/**
+	 * Returns the total size of the encoded response bodies which have been read, as received
+	 */
+	public long getResponseBytesBeforeDecoding() {
+		return mResponseBytesBeforeDecoding.get();
+	}
+
+	/**
+	 * Returns the total size of the encoded response bodies which have been read, once decoded
+	 */
+	public long getResponseBytesAfterDecoding() {
+		return mResponseBytesAfterDecoding.get();
 	}
 
 	@Override
 	public HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders)
 			throws IOException, AuthFailureError {
+		RequestMetrics metrics = metricsOf(request);
+		if(metrics == null){
+			return performRequest(request, additionalHeaders, null);
+		}
+		TimingSslSocketFactory.setCurrentMetrics(metrics);
+		try {
+			return performRequest(request, additionalHeaders, metrics);
+		} finally {
+			TimingSslSocketFactory.setCurrentMetrics(null);
+		}
+	}
+
+	private HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders,
+	                                    RequestMetrics metrics) throws IOException, AuthFailureError {
 		String url = request.getUrl();
 		HashMap<String, String> map = new HashMap<String, String>();
+		map.put(HEADER_ACCEPT_ENCODING, mAcceptEncoding);
 		map.putAll(request.getHeaders());
 		map.putAll(additionalHeaders);
 		if (mUrlRewriter != null) {
@@ -126,10 +235,20 @@ public class SslHurlStack implements HttpStack {
 		}
 		URL parsedUrl = new URL(url);
 		HttpURLConnection connection = openConnection(parsedUrl, request);
+		if (request instanceof BaseRequest) {
+			((BaseRequest<?>) request).setConnection(connection);
+		}
 		for (String headerName : map.keySet()) {
 			connection.addRequestProperty(headerName, map.get(headerName));
 		}
+		if (metrics != null) {
+			metrics.markConnectStart();
+		}
 		setConnectionParametersForRequest(connection, request);
+		if (metrics != null) {
+			connect(connection, metrics);
+			metrics.markRequestSent(0);
+		}
 		// Initialize HttpResponse with data from the HttpURLConnection.
 		ProtocolVersion protocolVersion = new ProtocolVersion("HTTP", 1, 1);
 		int responseCode = connection.getResponseCode();
@@ -138,13 +257,24 @@ public class SslHurlStack implements HttpStack {
 			// Signal to the caller that something was wrong with the connection.
 			throw new IOException("Could not retrieve response code from HttpUrlConnection.");
 		}
+		if (metrics != null) {
+			metrics.markFirstByte(responseCode);
+		}
 		StatusLine responseStatus = new BasicStatusLine(protocolVersion,
 				connection.getResponseCode(), connection.getResponseMessage());
 		BasicHttpResponse response = new BasicHttpResponse(responseStatus);
+		boolean decoded = false;
 		if (hasResponseBody(request.getMethod(), responseStatus.getStatusCode())) {
-			response.setEntity(entityFromConnection(connection));
+			HttpEntity entity = entityFromConnection(connection, metrics);
+			decoded = entity.getContentEncoding() == null && connection.getContentEncoding() != null;
+			response.setEntity(entity);
 		}
 		for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+			// The headers of a decoded body describe its encoded form
+			if (decoded && (HEADER_CONTENT_ENCODING.equalsIgnoreCase(header.getKey())
+					|| HEADER_CONTENT_LENGTH.equalsIgnoreCase(header.getKey()))) {
+				continue;
+			}
 			if (header.getKey() != null) {
 				Header h = new BasicHeader(header.getKey(), header.getValue().get(0));
 				response.addHeader(h);
@@ -173,7 +303,8 @@ public class SslHurlStack implements HttpStack {
 	 *
 	 * @return an HttpEntity populated with data from <code>connection</code>.
 	 */
-	private static HttpEntity entityFromConnection(HttpURLConnection connection) {
+	private HttpEntity entityFromConnection(HttpURLConnection connection, RequestMetrics metrics)
+			throws IOException {
 		BasicHttpEntity entity = new BasicHttpEntity();
 		InputStream inputStream;
 		try {
@@ -181,13 +312,44 @@ public class SslHurlStack implements HttpStack {
 		} catch (IOException ioe) {
 			inputStream = connection.getErrorStream();
 		}
+		String encoding = connection.getContentEncoding();
+		ContentDecoder decoder = encoding == null ? null
+				: mDecoders.get(encoding.trim().toLowerCase(Locale.US));
+		if (decoder != null && inputStream != null) {
+			inputStream = new CountingInputStream(decoder.decode(
+					new CountingInputStream(inputStream, mResponseBytesBeforeDecoding)),
+					mResponseBytesAfterDecoding);
+		}
+		if (metrics != null && inputStream != null) {
+			inputStream = new MeteredInputStream(inputStream, metrics);
+		}
 		entity.setContent(inputStream);
-		entity.setContentLength(connection.getContentLength());
-		entity.setContentEncoding(connection.getContentEncoding());
+		if (decoder != null) {
+			entity.setContentLength(-1);
+		} else {
+			entity.setContentLength(connection.getContentLength());
+			entity.setContentEncoding(encoding);
+		}
 		entity.setContentType(connection.getContentType());
 		return entity;
 	}
 
+	/**
+	 * Returns the metrics recorded for the request, or null if it is not measured
+	 */
+	private static RequestMetrics metricsOf(Request<?> request) {
+		return request instanceof BaseRequest ? ((BaseRequest<?>) request).getMetrics() : null;
+	}
+
+	/**
+	 * Connects before writing the request body, so that opening the connection is measured
+	 * apart from sending the request. Does nothing if the connection is already open.
+	 */
+	private static void connect(HttpURLConnection connection, RequestMetrics metrics) throws IOException {
+		connection.connect();
+		metrics.markConnected();
+	}
+
 	/**
 	 * Create an {@link HttpURLConnection} for the specified {@code url}.
 	 */
@@ -203,9 +365,14 @@ public class SslHurlStack implements HttpStack {
 	private HttpURLConnection openConnection(URL url, Request<?> request) throws IOException {
 		HttpURLConnection connection = createConnection(url);
 
-		int timeoutMs = request.getTimeoutMs();
-		connection.setConnectTimeout(timeoutMs);
-		connection.setReadTimeout(timeoutMs);
+		if (request instanceof BaseRequest) {
+			connection.setConnectTimeout(((BaseRequest<?>) request).getConnectTimeoutMs());
+			connection.setReadTimeout(((BaseRequest<?>) request).getReadTimeoutMs());
+		} else {
+			int timeoutMs = request.getTimeoutMs();
+			connection.setConnectTimeout(timeoutMs);
+			connection.setReadTimeout(timeoutMs);
+		}
 		connection.setUseCaches(false);
 		connection.setDoInput(true);
 
@@ -223,7 +390,7 @@ public class SslHurlStack implements HttpStack {
 	}
 
 	@SuppressWarnings("deprecation")
-    /* package */ static void setConnectionParametersForRequest(HttpURLConnection connection,
+    /* package */ void setConnectionParametersForRequest(HttpURLConnection connection,
 	                                                            Request<?> request) throws IOException, AuthFailureError {
 		switch (request.getMethod()) {
 			case Request.Method.DEPRECATED_GET_OR_POST:
@@ -278,36 +445,103 @@ public class SslHurlStack implements HttpStack {
 		}
 	}
 
-	private static void addBodyIfExists(HttpURLConnection connection, Request<?> request)
+	private void addBodyIfExists(HttpURLConnection connection, Request<?> request)
 			throws IOException, AuthFailureError {
 		if(request instanceof MultipartRequest){
 			postMultipartRequest(connection, request);
+		}else if(request instanceof StreamingBody){
+			postStreamingBody(connection, request);
 		}else{
 			byte[] body = request.getBody();
 			if (body != null) {
+				RequestMetrics metrics = metricsOf(request);
 				connection.setDoOutput(true);
 				connection.addRequestProperty(HEADER_CONTENT_TYPE, request.getBodyContentType());
+				String encoding = mRequestEncoding;
+				if (encoding != null && body.length >= mMinCompressedBodySize) {
+					int length = body.length;
+					body = compress(body, encoding);
+					connection.addRequestProperty(HEADER_CONTENT_ENCODING, encoding);
+					mRequestBytesBeforeCompression.addAndGet(length);
+					mRequestBytesAfterCompression.addAndGet(body.length);
+				}
+				if (metrics != null) {
+					connect(connection, metrics);
+				}
 				DataOutputStream out = new DataOutputStream(connection.getOutputStream());
 				out.write(body);
 				out.close();
+				if (metrics != null) {
+					metrics.markRequestSent(body.length);
+				}
 			}
 		}
 	}
 
+	/**
+	 * Compress a request body with "gzip" or "deflate" (zlib wrapped)
+	 */
+	/* package */ static byte[] compress(byte[] body, String encoding) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+		if ("gzip".equals(encoding)) {
+			GZIPOutputStream out = new GZIPOutputStream(compressed);
+			out.write(body);
+			out.close();
+		} else {
+			Deflater deflater = new Deflater();
+			try {
+				DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater);
+				out.write(body);
+				out.close();
+			} finally {
+				deflater.end();
+			}
+		}
+		return compressed.toByteArray();
+	}
+
 	/**
 	 * Post multipart data
 	 * @param connection {@link HttpURLConnection}
 	 * @param request {@link MultipartRequest}
 	 */
-	private static void postMultipartRequest(HttpURLConnection connection, Request<?> request){
+	private static void postMultipartRequest(HttpURLConnection connection, Request<?> request)
+			throws IOException {
 		HttpMultipart multipart = new HttpMultipart();
 		MultipartRequest multiPartRequest = (MultipartRequest)request;
 		multipart.addAllImageParts(multiPartRequest.getFileUploads());
 		multipart.addAllStringParts(multiPartRequest.getStringUploads());
+		multipart.setAllFileNames(multiPartRequest.getFileNames());
+		multipart.doWriteTo(connection);
+	}
+
+	/**
+	 * Stream the body of a {@link StreamingBody} request
+	 */
+	private static void postStreamingBody(HttpURLConnection connection, Request<?> request)
+			throws IOException {
+		StreamingBody body = (StreamingBody) request;
+		RequestMetrics metrics = metricsOf(request);
+		connection.setDoOutput(true);
+		connection.addRequestProperty(HEADER_CONTENT_TYPE, request.getBodyContentType());
+		// The long overload needs API 19
+		long length = body.getContentLength();
+		if (length >= 0 && length <= Integer.MAX_VALUE) {
+			connection.setFixedLengthStreamingMode((int) length);
+		} else {
+			connection.setChunkedStreamingMode(0);
+		}
+		if (metrics != null) {
+			connect(connection, metrics);
+		}
+		OutputStream out = connection.getOutputStream();
 		try {
-			multipart.doWriteTo(connection);
-		} catch (IOException e) {
-			e.printStackTrace();
+			body.writeBody(out);
+		} finally {
+			out.close();
+		}
+		if (metrics != null) {
+			metrics.markRequestSent(Math.max(length, 0));
 		}
 	}
 
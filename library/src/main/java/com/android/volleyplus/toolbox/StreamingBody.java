@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * A request whose body is written straight to the connection by {@link SslHurlStack}, instead of
+ * being built in memory by {@link com.android.volley.Request#getBody()}. The body is streamed
+ * with its length when it is known, and is never compressed.
+ */
+public interface StreamingBody {
+
+	/**
+	 * Returns the number of bytes written by {@link #writeBody}, or -1 if it is unknown
+	 */
+	long getContentLength();
+
+
+	/**
+	 * Write the body, the stream is closed by the caller
+	 */
+	void writeBody(OutputStream out) throws IOException;
+
+}
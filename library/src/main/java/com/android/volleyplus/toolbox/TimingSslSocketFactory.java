@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Delegates to an other {@link SSLSocketFactory} and records the TLS handshake of the sockets it
+ * creates into the {@link RequestMetrics} of the request performed by the current thread.
+ */
+class TimingSslSocketFactory extends SSLSocketFactory {
+
+	private static final ThreadLocal<RequestMetrics> sCurrentMetrics = new ThreadLocal<>();
+
+	private final SSLSocketFactory delegate;
+
+
+	TimingSslSocketFactory(SSLSocketFactory delegate) {
+		this.delegate = delegate;
+	}
+
+
+	/**
+	 * Set the metrics of the request performed by the current thread, or null when it is done
+	 */
+	static void setCurrentMetrics(RequestMetrics metrics){
+		if(metrics == null){
+			sCurrentMetrics.remove();
+		}else{
+			sCurrentMetrics.set(metrics);
+		}
+	}
+
+
+	private static Socket timed(Socket socket, final RequestMetrics metrics){
+		if(metrics != null && socket instanceof SSLSocket){
+			((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+				@Override
+				public void handshakeCompleted(HandshakeCompletedEvent event) {
+					metrics.markTlsEnd();
+				}
+			});
+		}
+		return socket;
+	}
+
+
+	private static RequestMetrics startHandshake(){
+		RequestMetrics metrics = sCurrentMetrics.get();
+		if(metrics != null){
+			metrics.markTlsStart();
+		}
+		return metrics;
+	}
+
+
+	@Override
+	public String[] getDefaultCipherSuites() {
+		return delegate.getDefaultCipherSuites();
+	}
+
+
+	@Override
+	public String[] getSupportedCipherSuites() {
+		return delegate.getSupportedCipherSuites();
+	}
+
+
+	@Override
+	public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+		RequestMetrics metrics = startHandshake();
+		return timed(delegate.createSocket(s, host, port, autoClose), metrics);
+	}
+
+
+	@Override
+	public Socket createSocket() throws IOException {
+		return timed(delegate.createSocket(), sCurrentMetrics.get());
+	}
+
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		return timed(delegate.createSocket(host, port), startHandshake());
+	}
+
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		return timed(delegate.createSocket(host, port, localHost, localPort), startHandshake());
+	}
+
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		return timed(delegate.createSocket(host, port), startHandshake());
+	}
+
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+		return timed(delegate.createSocket(address, port, localAddress, localPort), startHandshake());
+	}
+
+}
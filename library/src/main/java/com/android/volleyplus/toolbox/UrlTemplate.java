@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2016 Liujian.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.android.volleyplus.toolbox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.android.volleyplus.toolbox.Utils.checkNotNull;
+
+
+/**
+ * A url template such as {@code "users/{id}/posts"}, parsed once and expanded with the values of
+ * its path parameters and an optional set of query parameters. Path values are percent-encoded as
+ * path segments, query parameters as application/x-www-form-urlencoded in UTF-8, the same as
+ * {@link java.net.URLEncoder}. Expansion reuses a per-thread builder.
+ * <p>
+ * Templates are immutable and may be shared, typically as a constant of a request type:
+ * <pre>
+ * private static final UrlTemplate POSTS = UrlTemplate.compile("users/{id}/posts");
+ *
+ * protected String subPath() {
+ *     return POSTS.expand(userId);
+ * }
+ * </pre>
+ */
+public final class UrlTemplate {
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>(){
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(128);
+		}
+	};
+
+	/**Literal parts, literals[i] comes before names[i], the last one ends the template**/
+	private final String[] literals;
+
+	/**Path parameter names in order of appearance**/
+	private final String[] names;
+
+
+	private UrlTemplate(String[] literals, String[] names){
+		this.literals = literals;
+		this.names = names;
+	}
+
+
+	/**
+	 * Parse a template whose path parameters are written {@code {name}}
+	 * @throws IllegalArgumentException if a parameter is not closed or has no name
+	 */
+	public static UrlTemplate compile(String template){
+		checkNotNull(template, "template == null");
+		List<String> literals = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		int start = 0;
+		int open;
+		while((open = template.indexOf('{', start)) != -1){
+			int close = template.indexOf('}', open);
+			if(close == -1 || close == open + 1){
+				throw new IllegalArgumentException("Malformed parameter at " + open + " in " + template);
+			}
+			literals.add(template.substring(start, open));
+			names.add(template.substring(open + 1, close));
+			start = close + 1;
+		}
+		literals.add(template.substring(start));
+		return new UrlTemplate(literals.toArray(new String[literals.size()]),
+				names.toArray(new String[names.size()]));
+	}
+
+
+	/**
+	 * Expand the template with the values of its path parameters, in order of appearance
+	 * @throws IllegalArgumentException if the number of values does not match the template
+	 */
+	public String expand(Object... pathValues){
+		if(pathValues.length != names.length){
+			throw new IllegalArgumentException("Expected " + names.length + " values, got "
+					+ pathValues.length);
+		}
+		StringBuilder url = builder();
+		for(int i = 0; i < names.length; i++){
+			url.append(literals[i]);
+			encode(String.valueOf(pathValues[i]), false, url);
+		}
+		url.append(literals[names.length]);
+		return url.toString();
+	}
+
+
+	/**
+	 * Expand the template with the values of its path parameters by name, followed by the query
+	 * parameters if any
+	 * @throws IllegalArgumentException if a path parameter has no value
+	 */
+	public String expand(Map<String, ?> pathValues, Map<String, String> queryParams){
+		StringBuilder url = builder();
+		for(int i = 0; i < names.length; i++){
+			Object value = pathValues == null ? null : pathValues.get(names[i]);
+			if(value == null){
+				throw new IllegalArgumentException("No value for path parameter " + names[i]);
+			}
+			url.append(literals[i]);
+			encode(value.toString(), false, url);
+		}
+		url.append(literals[names.length]);
+		if(queryParams != null && !queryParams.isEmpty()){
+			url.append(url.indexOf("?") == -1 ? '?' : '&');
+			appendQuery(queryParams, url);
+		}
+		return url.toString();
+	}
+
+
+	/**
+	 * Returns the parameters encoded as application/x-www-form-urlencoded in UTF-8
+	 */
+	public static String encodeQuery(Map<String, String> params){
+		StringBuilder query = builder();
+		appendQuery(params, query);
+		return query.toString();
+	}
+
+
+	private static void appendQuery(Map<String, String> params, StringBuilder out){
+		boolean first = true;
+		for(Map.Entry<String, String> entry : params.entrySet()){
+			if(first){
+				first = false;
+			}else{
+				out.append('&');
+			}
+			encode(entry.getKey(), true, out);
+			out.append('=');
+			encode(entry.getValue(), true, out);
+		}
+	}
+
+
+	private static StringBuilder builder(){
+		StringBuilder builder = BUILDER.get();
+		builder.setLength(0);
+		return builder;
+	}
+
+
+	/**
+	 * Percent-encode UTF-8 as {@link java.net.URLEncoder} does, with "%20" for spaces in paths
+	 */
+	private static void encode(String value, boolean query, StringBuilder out){
+		int length = value.length();
+		for(int i = 0; i < length; i++){
+			char c = value.charAt(i);
+			if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+					|| c == '.' || c == '-' || c == '*' || c == '_'){
+				out.append(c);
+			}else if(c == ' '){
+				out.append(query ? "+" : "%20");
+			}else if(c < 0x80){
+				appendByte(c, out);
+			}else if(c < 0x800){
+				appendByte(0xC0 | (c >> 6), out);
+				appendByte(0x80 | (c & 0x3F), out);
+			}else if(Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))){
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				appendByte(0xF0 | (codePoint >> 18), out);
+				appendByte(0x80 | ((codePoint >> 12) & 0x3F), out);
+				appendByte(0x80 | ((codePoint >> 6) & 0x3F), out);
+				appendByte(0x80 | (codePoint & 0x3F), out);
+			}else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE){
+				// Unpaired surrogate, replaced like the UTF-8 encoder does
+				appendByte('?', out);
+			}else{
+				appendByte(0xE0 | (c >> 12), out);
+				appendByte(0x80 | ((c >> 6) & 0x3F), out);
+				appendByte(0x80 | (c & 0x3F), out);
+			}
+		}
+	}
+
+
+	private static void appendByte(int b, StringBuilder out){
+		out.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+	}
+
+
+	@Override
+	public String toString() {
+		StringBuilder template = new StringBuilder();
+		for(int i = 0; i < names.length; i++){
+			template.append(literals[i]).append('{').append(names[i]).append('}');
+		}
+		return template.append(literals[names.length]).toString();
+	}
+
+}
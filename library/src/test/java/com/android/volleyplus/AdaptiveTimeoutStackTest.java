@@ -0,0 +1,80 @@
+package com.android.volleyplus;
+
+import com.android.volley.toolbox.HurlStack;
+import com.android.volleyplus.toolbox.LatencyHistogram;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link AdaptiveTimeoutStack}.
+ */
+public class AdaptiveTimeoutStackTest {
+
+    @Test
+    public void patternOf_replacesIds() throws Exception {
+        assertEquals("users/*/posts", AdaptiveTimeoutStack.patternOf("users/42/posts"));
+        assertEquals("/users/*", AdaptiveTimeoutStack.patternOf("/users/7"));
+        assertEquals("items/*", AdaptiveTimeoutStack.patternOf("items/3f2504e0-4f89-11d3"));
+        assertEquals("files/*", AdaptiveTimeoutStack.patternOf("files/a94a8fe5ccb19ba61c4c"));
+    }
+
+    @Test
+    public void patternOf_keepsNames() throws Exception {
+        assertEquals("v2/search", AdaptiveTimeoutStack.patternOf("v2/search"));
+        assertEquals("users/", AdaptiveTimeoutStack.patternOf("users/"));
+        assertEquals("", AdaptiveTimeoutStack.patternOf(""));
+    }
+
+    @Test
+    public void patternOf_dropsQuery() throws Exception {
+        assertEquals("search", AdaptiveTimeoutStack.patternOf("search?q=1&page=2"));
+        assertEquals("users/*", AdaptiveTimeoutStack.patternOf("users/9#top"));
+    }
+
+    @Test
+    public void timeoutMs_waitsForEnoughSamples() throws Exception {
+        AdaptiveTimeoutStack stack = new AdaptiveTimeoutStack(null, 0.99, 3, 500, 30000);
+        assertEquals(0, stack.timeoutMs(histogram(19, 1000), 1));
+        assertTrue(stack.timeoutMs(histogram(20, 1000), 1) > 0);
+    }
+
+    @Test
+    public void timeoutMs_scalesWithTheAttempt() throws Exception {
+        AdaptiveTimeoutStack stack = new AdaptiveTimeoutStack(null, 0.99, 3, 500, 30000);
+        LatencyHistogram histogram = histogram(50, 1000);
+        int first = stack.timeoutMs(histogram, 1);
+        // The percentile is at most 12.5% above the latencies
+        assertTrue(first >= 3000 && first <= 3375);
+        assertEquals(2 * first, stack.timeoutMs(histogram, 2), 2);
+        assertEquals(3 * first, stack.timeoutMs(histogram, 3), 3);
+    }
+
+    @Test
+    public void timeoutMs_isClamped() throws Exception {
+        AdaptiveTimeoutStack stack = new AdaptiveTimeoutStack(null, 0.99, 3, 500, 30000);
+        assertEquals(500, stack.timeoutMs(histogram(50, 10), 1));
+        assertEquals(30000, stack.timeoutMs(histogram(50, 20000), 1));
+        assertEquals(30000, stack.timeoutMs(histogram(50, 6000), 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void adaptiveTimeouts_requireSslHurlStack() throws Exception {
+        new VolleyConfiguration.Builder()
+                .baseUrl("http://example.com/")
+                .client(new HurlStack())
+                .adaptiveTimeouts()
+                .build();
+    }
+
+    private static LatencyHistogram histogram(int samples, long latencyMs) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < samples; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(latencyMs));
+        }
+        return histogram;
+    }
+}
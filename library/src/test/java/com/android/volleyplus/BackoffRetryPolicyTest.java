@@ -0,0 +1,110 @@
+package com.android.volleyplus;
+
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link BackoffRetryPolicy} and {@link RetryBudget}.
+ */
+public class BackoffRetryPolicyTest {
+
+    private static boolean retries(BackoffRetryPolicy policy) {
+        try {
+            policy.retry(new TimeoutError());
+            return true;
+        } catch (VolleyError e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void retry_stopsAfterMaxRetries() throws Exception {
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(1000, 2, 0, 0);
+        assertTrue(retries(policy));
+        assertTrue(retries(policy));
+        assertFalse(retries(policy));
+        assertEquals(3, policy.getCurrentRetryCount());
+        assertEquals(1000, policy.getCurrentTimeout());
+    }
+
+    @Test
+    public void delay_isJitteredBelowAGrowingCappedBound() throws Exception {
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(1000, 10, 100, 1000, null, new Random(42));
+        long[] bounds = {100, 200, 400, 800, 1000, 1000};
+        long sum = 0;
+        for (int retry = 1; retry <= bounds.length; retry++) {
+            for (int i = 0; i < 50; i++) {
+                long delay = policy.delayBeforeRetry(retry);
+                assertTrue(delay >= 0 && delay <= bounds[retry - 1]);
+                sum += delay;
+            }
+        }
+        // Jitter: the delays are spread, not all at the bound
+        assertTrue(sum < 50 * (100 + 200 + 400 + 800 + 1000 + 1000) * 3 / 4);
+    }
+
+    @Test
+    public void budget_capsRetriesAtAPercentageOfRequests() throws Exception {
+        RetryBudget budget = new RetryBudget(10);
+        int retries = 0;
+        for (int i = 0; i < 1000; i++) {
+            BackoffRetryPolicy policy = new BackoffRetryPolicy(1000, 3, 0, 0, budget, new Random());
+            while (retries(policy)) {
+                retries++;
+            }
+        }
+        // 10% of 1000 requests plus what the budget holds at the start
+        assertTrue(retries <= 100 + RetryBudget.MAX_RETRIES);
+        assertTrue(retries >= 100);
+    }
+
+    @Test
+    public void budget_holdsALimitedNumberOfRetries() throws Exception {
+        RetryBudget budget = new RetryBudget(100);
+        for (int i = 0; i < 1000; i++) {
+            budget.deposit();
+        }
+        int withdrawn = 0;
+        while (budget.tryWithdraw()) {
+            withdrawn++;
+        }
+        assertEquals(RetryBudget.MAX_RETRIES, withdrawn);
+    }
+
+    @Test
+    public void wait_stopsWhenTheRequestIsCancelled() throws Exception {
+        Random atTheBound = new Random() {
+            @Override
+            public double nextDouble() {
+                return 0.99;
+            }
+        };
+        final long start = System.currentTimeMillis();
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(1000, 1, 3000, 3000, null, atTheBound) {
+            @Override
+            boolean isRequestCanceled() {
+                return System.currentTimeMillis() - start >= 100;
+            }
+        };
+        assertFalse(retries(policy));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void waitAllowance_capsTheWaitOfAThreadPerWindow() throws Exception {
+        BackoffRetryPolicy.WaitAllowance allowance = new BackoffRetryPolicy.WaitAllowance(1000, 500);
+        assertTrue(allowance.tryTake(0, 300));
+        assertTrue(allowance.tryTake(100, 200));
+        assertFalse(allowance.tryTake(200, 1));
+        // A new window
+        assertTrue(allowance.tryTake(1000, 400));
+        assertFalse(allowance.tryTake(1100, 200));
+        assertTrue(allowance.tryTake(1100, 100));
+    }
+}
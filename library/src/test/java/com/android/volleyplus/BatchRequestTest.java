@@ -0,0 +1,89 @@
+package com.android.volleyplus;
+
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.VolleyError;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link BatchRequest}.
+ */
+public class BatchRequestTest {
+
+    @Test
+    public void encodePart_carriesParamsAndHeaders() throws Exception {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Authorization", "Bearer token");
+        headers.put("Accept", "application/json");
+        JSONObject part = BatchRequest.encodePart(3, Request.Method.PUT, "users/1",
+                Collections.singletonMap("name", "value"), headers);
+
+        assertEquals(3, part.getInt("id"));
+        assertEquals("PUT", part.getString("method"));
+        assertEquals("users/1", part.getString("path"));
+        assertEquals("value", part.getJSONObject("params").getString("name"));
+        assertEquals("Bearer token", part.getJSONObject("headers").getString("Authorization"));
+        assertEquals("application/json", part.getJSONObject("headers").getString("Accept"));
+    }
+
+    @Test
+    public void encodePart_withoutParamsNorHeaders() throws Exception {
+        JSONObject part = BatchRequest.encodePart(0, Request.Method.GET, "users",
+                null, Collections.<String, String>emptyMap());
+        assertFalse(part.has("params"));
+        assertFalse(part.has("headers"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encodePart_rejectsHead() throws Exception {
+        BatchRequest.encodePart(0, Request.Method.HEAD, "users", null, null);
+    }
+
+    @Test
+    public void splitResponses_mapsTheBodiesById() throws Exception {
+        String[] bodies = new String[2];
+        VolleyError[] errors = BatchRequest.splitResponses("{\"responses\": ["
+                + "{\"id\": 1, \"status\": 201, \"body\": {\"name\": \"b\"}},"
+                + "{\"id\": 0, \"body\": \"a\"}]}", bodies);
+
+        assertNull(errors[0]);
+        assertNull(errors[1]);
+        assertEquals("a", bodies[0]);
+        assertEquals("b", new JSONObject(bodies[1]).getString("name"));
+    }
+
+    @Test
+    public void splitResponses_missingIds_areParseErrors() throws Exception {
+        String[] bodies = new String[3];
+        VolleyError[] errors = BatchRequest.splitResponses("{\"responses\": ["
+                + "{\"id\": 1, \"body\": \"b\"}, {\"id\": 7, \"body\": \"unknown\"}]}", bodies);
+
+        assertTrue(errors[0] instanceof ParseError);
+        assertNull(errors[1]);
+        assertTrue(errors[2] instanceof ParseError);
+    }
+
+    @Test
+    public void splitResponses_errorStatuses_areServerErrors() throws Exception {
+        String[] bodies = new String[2];
+        VolleyError[] errors = BatchRequest.splitResponses("{\"responses\": ["
+                + "{\"id\": 0, \"status\": 404, \"body\": \"café\"},"
+                + "{\"id\": 1, \"status\": 500, \"body\": null}]}", bodies);
+
+        assertTrue(errors[0] instanceof ServerError);
+        assertEquals(404, errors[0].networkResponse.statusCode);
+        assertEquals("café", new String(errors[0].networkResponse.data, "UTF-8"));
+        assertTrue(errors[1] instanceof ServerError);
+        assertEquals(0, errors[1].networkResponse.data.length);
+        assertNull(bodies[0]);
+    }
+}
@@ -0,0 +1,77 @@
+package com.android.volleyplus;
+
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link CachePolicy}.
+ */
+public class CachePolicyTest {
+
+    private static final long NOW = 1000000L;
+
+    private static NetworkResponse response(String cacheControl) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("ETag", "\"v1\"");
+        if (cacheControl != null) {
+            headers.put("Cache-Control", cacheControl);
+        }
+        return new NetworkResponse(200, "body".getBytes(), headers, false);
+    }
+
+    @Test
+    public void server_followsCacheHeaders() throws Exception {
+        assertNull(CachePolicy.SERVER.entryFor(response("no-cache"), NOW));
+
+        Cache.Entry entry = CachePolicy.SERVER.entryFor(response("max-age=60"), NOW);
+        assertNotNull(entry);
+        assertEquals("\"v1\"", entry.etag);
+        assertEquals(String.valueOf(NOW), entry.responseHeaders.get(CachePolicy.HEADER_RECEIVED_MILLIS));
+    }
+
+    @Test
+    public void cacheFirst_isFreshForMaxAge() throws Exception {
+        CachePolicy policy = CachePolicy.cacheFirst(5, TimeUnit.MINUTES);
+        Cache.Entry entry = policy.entryFor(response("no-cache"), NOW);
+        assertNotNull(entry);
+        assertEquals(NOW + 300000, entry.softTtl);
+        assertEquals(NOW + 300000, entry.ttl);
+        assertEquals("body", new String(entry.data));
+    }
+
+    @Test
+    public void staleWhileRevalidate_alwaysRefreshes() throws Exception {
+        CachePolicy policy = CachePolicy.staleWhileRevalidate(1, TimeUnit.DAYS);
+        Cache.Entry entry = policy.entryFor(response("max-age=60"), NOW);
+        assertEquals(NOW, entry.softTtl);
+        assertEquals(NOW + TimeUnit.DAYS.toMillis(1), entry.ttl);
+
+        Cache.Entry revalidated = policy.revalidated(entry, NOW + 5000);
+        assertEquals(NOW + 5000, revalidated.softTtl);
+        assertEquals(String.valueOf(NOW + 5000),
+                revalidated.responseHeaders.get(CachePolicy.HEADER_RECEIVED_MILLIS));
+        assertEquals(String.valueOf(NOW), entry.responseHeaders.get(CachePolicy.HEADER_RECEIVED_MILLIS));
+    }
+
+    @Test
+    public void noStore_isNeverStored() throws Exception {
+        assertNull(CachePolicy.cacheFirst(1, TimeUnit.HOURS).entryFor(response("no-store"), NOW));
+    }
+
+    @Test
+    public void offlineOnly_usesEntriesUpToMaxStale() throws Exception {
+        CachePolicy policy = CachePolicy.offlineOnly(10, TimeUnit.SECONDS);
+        Cache.Entry entry = CachePolicy.SERVER.entryFor(response("max-age=60"), NOW);
+        assertTrue(policy.isUsable(entry.responseHeaders, NOW + 10000));
+        assertFalse(policy.isUsable(entry.responseHeaders, NOW + 10001));
+        assertFalse(policy.isUsable(new HashMap<String, String>(), NOW));
+    }
+}
@@ -0,0 +1,60 @@
+package com.android.volleyplus;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link CircuitBreaker}.
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, 1000);
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        breaker.onSuccess();
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        assertTrue(breaker.tryAcquire(0));
+        breaker.onFailure(10);
+        assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(500));
+    }
+
+    @Test
+    public void halfOpen_letsOneProbeThrough() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+        breaker.onFailure(0);
+        assertFalse(breaker.tryAcquire(999));
+        assertTrue(breaker.tryAcquire(1000));
+        assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(1001));
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire(1002));
+    }
+
+    @Test
+    public void failedProbe_opensAgain() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(5, 1000);
+        for (int i = 0; i < 5; i++) {
+            breaker.onFailure(0);
+        }
+        assertTrue(breaker.tryAcquire(1000));
+        breaker.onFailure(1000);
+        assertFalse(breaker.tryAcquire(1999));
+        assertTrue(breaker.tryAcquire(2000));
+    }
+
+    @Test
+    public void ignoredProbe_letsAnotherOneThrough() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+        breaker.onFailure(0);
+        assertTrue(breaker.tryAcquire(1000));
+        breaker.onIgnored();
+        assertTrue(breaker.tryAcquire(1000));
+    }
+}
@@ -0,0 +1,92 @@
+package com.android.volleyplus;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the resume logic of {@link DownloadRequest}.
+ */
+public class DownloadRequestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void contentRange_isParsed() {
+        assertEquals(100, DownloadRequest.parseRangeStart("bytes 100-199/200"));
+        assertEquals(200, DownloadRequest.parseRangeTotal("bytes 100-199/200"));
+        assertEquals(0, DownloadRequest.parseRangeStart("bytes 0-0/*"));
+        assertEquals(-1, DownloadRequest.parseRangeTotal("bytes 0-0/*"));
+        assertEquals(-1, DownloadRequest.parseRangeStart("bytes */200"));
+        assertEquals(-1, DownloadRequest.parseRangeTotal("bytes 100-199"));
+    }
+
+    @Test
+    public void partialContent_resumesAtTheRequestedOffset() throws Exception {
+        assertEquals(100, DownloadRequest.offsetOf(206, "bytes 100-199/200", 100));
+    }
+
+    @Test(expected = IOException.class)
+    public void partialContent_atAnOtherOffset_fails() throws Exception {
+        DownloadRequest.offsetOf(206, "bytes 0-199/200", 100);
+    }
+
+    @Test(expected = IOException.class)
+    public void partialContent_withoutContentRange_fails() throws Exception {
+        DownloadRequest.offsetOf(206, null, 100);
+    }
+
+    @Test
+    public void fullContent_startsOver() throws Exception {
+        assertEquals(0, DownloadRequest.offsetOf(200, null, 100));
+        assertEquals(0, DownloadRequest.offsetOf(200, "bytes 100-199/200", 100));
+    }
+
+    @Test
+    public void validator_prefersAStrongEtag() {
+        assertEquals("\"v1\"", DownloadRequest.validatorOf("\"v1\"", "Mon, 01 Jan 2018 00:00:00 GMT"));
+        assertEquals("Mon, 01 Jan 2018 00:00:00 GMT",
+                DownloadRequest.validatorOf("W/\"v1\"", "Mon, 01 Jan 2018 00:00:00 GMT"));
+        assertNull(DownloadRequest.validatorOf(null, null));
+    }
+
+    @Test
+    public void openPart_appendsOrRewrites() throws Exception {
+        File part = folder.newFile("file.part");
+        write(part, "abc", 0);
+
+        write(part, "def", 3);
+        assertEquals(6, part.length());
+
+        // A 200 response replaces the partial file
+        write(part, "xy", 0);
+        assertEquals(2, part.length());
+        RandomAccessFile file = new RandomAccessFile(part, "r");
+        assertEquals('x', file.read());
+        file.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void openPart_ofAChangedFile_fails() throws Exception {
+        File part = folder.newFile("file.part");
+        write(part, "abc", 0);
+        DownloadRequest.openPart(part, 10);
+    }
+
+    private static void write(File part, String data, long offset) throws IOException {
+        FileOutputStream out = DownloadRequest.openPart(part, offset);
+        try {
+            out.write(data.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
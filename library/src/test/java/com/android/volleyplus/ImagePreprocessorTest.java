@@ -0,0 +1,65 @@
+package com.android.volleyplus;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link ImagePreprocessor}, the bitmaps themselves need a device.
+ */
+public class ImagePreprocessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void scaledSize_fitsTheLongestSide() {
+        assertArrayEquals(new int[]{1600, 1200}, ImagePreprocessor.scaledSize(4000, 3000, 1600));
+        assertArrayEquals(new int[]{1200, 1600}, ImagePreprocessor.scaledSize(3000, 4000, 1600));
+        assertArrayEquals(new int[]{800, 600}, ImagePreprocessor.scaledSize(800, 600, 1600));
+        assertArrayEquals(new int[]{1600, 1}, ImagePreprocessor.scaledSize(10000, 2, 1600));
+    }
+
+    @Test
+    public void sampleSize_staysAboveTheTarget() {
+        assertEquals(2, ImagePreprocessor.sampleSizeFor(4000, 3000, 1600, 1200));
+        assertEquals(4, ImagePreprocessor.sampleSizeFor(4000, 3000, 1000, 750));
+        assertEquals(1, ImagePreprocessor.sampleSizeFor(800, 600, 800, 600));
+    }
+
+    @Test
+    public void trimCache_keepsTheResultsInUse() throws Exception {
+        ImagePreprocessor preprocessor = new ImagePreprocessor.Builder(folder.getRoot())
+                .maxCacheSize(100)
+                .build();
+        File used = result("used.jpg", 1000);
+        File old = result("old.jpg", 2000);
+        File recent = result("recent.jpg", 3000);
+        File writing = result("image123.tmp", System.currentTimeMillis() / 1000);
+
+        preprocessor.pin(used);
+        preprocessor.trimCache();
+        assertTrue(used.exists());
+        assertTrue(writing.exists());
+        assertFalse(old.exists());
+        assertFalse(recent.exists());
+
+        preprocessor.release(used);
+        preprocessor.trimCache();
+        assertFalse(used.exists());
+    }
+
+    private File result(String name, long lastModified) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[60]);
+        out.close();
+        assertTrue(file.setLastModified(lastModified * 1000));
+        return file;
+    }
+}
@@ -0,0 +1,130 @@
+package com.android.volleyplus;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link OutboxLog} and {@link OutboxEntry}.
+ */
+public class OutboxLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static OutboxEntry entry(long id, String subPath) {
+        Map<String, String> none = Collections.emptyMap();
+        return new OutboxEntry(id, 1, subPath, Collections.singletonMap("Authorization", "token"),
+                ("id=" + id).getBytes(), "application/x-www-form-urlencoded; charset=UTF-8",
+                false, none, none, false, 2500);
+    }
+
+    private static List<String> subPaths(List<OutboxEntry> entries) {
+        List<String> subPaths = new ArrayList<>();
+        for (OutboxEntry entry : entries) {
+            subPaths.add(entry.subPath);
+        }
+        return subPaths;
+    }
+
+    @Test
+    public void reopen_keepsEntriesNotDone() throws Exception {
+        File file = new File(folder.getRoot(), "outbox.log");
+        OutboxLog log = new OutboxLog(file);
+        assertTrue(log.open().isEmpty());
+        log.add(entry(log.nextId(), "/a"));
+        log.add(entry(log.nextId(), "/b"));
+        log.add(entry(log.nextId(), "/c"));
+        log.done(2);
+        log.close();
+
+        OutboxLog reopened = new OutboxLog(file);
+        List<OutboxEntry> pending = reopened.open();
+        assertEquals(Arrays.asList("/a", "/c"), subPaths(pending));
+        OutboxEntry first = pending.get(0);
+        assertEquals("token", first.headers.get("Authorization"));
+        assertEquals("id=1", new String(first.body));
+        assertEquals(2500, first.timeoutMs);
+        assertEquals(4, reopened.nextId());
+    }
+
+    @Test
+    public void tornRecord_endsTheLog() throws Exception {
+        File file = new File(folder.getRoot(), "outbox.log");
+        OutboxLog log = new OutboxLog(file);
+        log.open();
+        log.add(entry(log.nextId(), "/a"));
+        log.add(entry(log.nextId(), "/b"));
+        log.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 5);
+        raf.close();
+
+        OutboxLog reopened = new OutboxLog(file);
+        assertEquals(Collections.singletonList("/a"), subPaths(reopened.open()));
+        reopened.add(entry(reopened.nextId(), "/c"));
+        reopened.close();
+        assertEquals(Arrays.asList("/a", "/c"), subPaths(new OutboxLog(file).open()));
+    }
+
+    @Test
+    public void compact_dropsDoneRecords() throws Exception {
+        File file = new File(folder.getRoot(), "outbox.log");
+        OutboxLog log = new OutboxLog(file);
+        log.open();
+        List<OutboxEntry> pending = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            OutboxEntry entry = entry(log.nextId(), "/" + i);
+            log.add(entry);
+            if (i % 10 == 0) {
+                pending.add(entry);
+            } else {
+                log.done(entry.id);
+            }
+        }
+        assertTrue(log.needsCompaction(pending.size()));
+        long before = file.length();
+        log.compact(pending);
+        assertTrue(file.length() < before);
+        assertFalse(log.needsCompaction(pending.size()));
+        assertEquals(101, log.nextId());
+        log.close();
+
+        assertEquals(subPaths(pending), subPaths(new OutboxLog(file).open()));
+    }
+
+    @Test
+    public void sameRequest_comparesContent() throws Exception {
+        assertTrue(entry(1, "/a").isSameRequest(entry(1, "/a")));
+        assertFalse(entry(1, "/a").isSameRequest(entry(1, "/b")));
+        assertFalse(entry(1, "/a").isSameRequest(entry(2, "/a")));
+    }
+
+    @Test
+    public void credentials_areNotLogged() throws Exception {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("authorization", "Bearer token");
+        headers.put("Cookie", "session=1");
+        headers.put("Proxy-Authorization", "Basic secret");
+        headers.put("Accept-Language", "fr");
+
+        assertEquals(Collections.singletonMap("Accept-Language", "fr"),
+                OutboxEntry.withoutCredentials(headers));
+        Map<String, String> credentials = OutboxEntry.credentialsOf(headers);
+        assertEquals(3, credentials.size());
+        assertEquals("Bearer token", credentials.get("authorization"));
+        assertTrue(OutboxEntry.withoutCredentials(null).isEmpty());
+    }
+}
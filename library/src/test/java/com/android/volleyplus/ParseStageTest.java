@@ -0,0 +1,29 @@
+package com.android.volleyplus;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link ParseStage}.
+ */
+public class ParseStageTest {
+
+    @Test
+    public void shutDownExecutor_parsesOnTheCallerThread() throws Exception {
+        ThreadPoolExecutor executor = ParseStage.newExecutor(1, 1);
+        executor.shutdown();
+
+        final AtomicReference<Thread> ranOn = new AtomicReference<>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ranOn.set(Thread.currentThread());
+            }
+        });
+        assertSame(Thread.currentThread(), ranOn.get());
+    }
+}
@@ -0,0 +1,44 @@
+package com.android.volleyplus;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link RequestBatcher.Window}.
+ */
+public class RequestBatcherTest {
+
+    @Test
+    public void firstAdd_opensTheWindow() throws Exception {
+        RequestBatcher.Window<String> window = new RequestBatcher.Window<>(3);
+        assertEquals(RequestBatcher.Window.OPENED, window.add("a"));
+        assertEquals(RequestBatcher.Window.ADDED, window.add("b"));
+    }
+
+    @Test
+    public void maxSize_flushesNow() throws Exception {
+        RequestBatcher.Window<String> window = new RequestBatcher.Window<>(3);
+        window.add("a");
+        window.add("b");
+        assertEquals(RequestBatcher.Window.FULL, window.add("c"));
+        assertEquals(Arrays.asList("a", "b", "c"), window.drain());
+        assertEquals(RequestBatcher.Window.OPENED, window.add("d"));
+    }
+
+    @Test
+    public void sizeOfOne_neverWaits() throws Exception {
+        RequestBatcher.Window<String> window = new RequestBatcher.Window<>(1);
+        assertEquals(RequestBatcher.Window.FULL, window.add("a"));
+    }
+
+    @Test
+    public void drain_emptiesTheWindow() throws Exception {
+        RequestBatcher.Window<String> window = new RequestBatcher.Window<>(3);
+        window.add("a");
+        assertEquals(Arrays.asList("a"), window.drain());
+        assertTrue(window.drain().isEmpty());
+    }
+}
@@ -0,0 +1,74 @@
+package com.android.volleyplus;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link RequestCoalescer.Followers}.
+ */
+public class RequestCoalescerTest {
+
+    private final Set<String> canceled = new HashSet<>();
+
+    private final RequestCoalescer.Followers<String> followers =
+            new RequestCoalescer.Followers<String>() {
+                @Override
+                boolean isCanceled(String follower) {
+                    return canceled.contains(follower);
+                }
+            };
+
+    @Test
+    public void attachedBeforeTheDelivery_receiveIt() throws Exception {
+        followers.attach("a");
+        followers.attach("b");
+        assertEquals(Arrays.asList("a", "b"), followers.deliverable());
+        assertEquals(Collections.emptyList(), followers.finish());
+    }
+
+    @Test
+    public void attachedAfterTheDelivery_areOrphans() throws Exception {
+        followers.attach("a");
+        assertEquals(Arrays.asList("a"), followers.deliverable());
+        followers.attach("b");
+        assertEquals(Arrays.asList("b"), followers.finish());
+        // Nothing is delivered once the leader is finished
+        assertEquals(Collections.emptyList(), followers.deliverable());
+    }
+
+    @Test
+    public void canceledLeader_orphansAllTheFollowers() throws Exception {
+        followers.attach("a");
+        followers.attach("b");
+        assertEquals(Arrays.asList("a", "b"), followers.finish());
+        assertEquals(Arrays.asList("a", "b"), followers.all());
+    }
+
+    @Test
+    public void canceledFollowers_areSkipped() throws Exception {
+        followers.attach("a");
+        followers.attach("b");
+        canceled.add("a");
+        assertEquals(Arrays.asList("b"), followers.deliverable());
+        followers.attach("c");
+        canceled.add("c");
+        assertEquals(Collections.emptyList(), followers.finish());
+    }
+
+    @Test
+    public void softExpiredEntry_isDeliveredTwice() throws Exception {
+        followers.attach("a");
+        // The cached response
+        assertEquals(Arrays.asList("a"), followers.deliverable());
+        followers.attach("b");
+        // The network response, also received by the request attached in between
+        assertEquals(Arrays.asList("a", "b"), followers.deliverable());
+        assertEquals(Collections.emptyList(), followers.finish());
+    }
+}
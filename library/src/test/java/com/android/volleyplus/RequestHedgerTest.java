@@ -0,0 +1,103 @@
+package com.android.volleyplus;
+
+import com.android.volley.Request;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link RequestHedger}.
+ */
+public class RequestHedgerTest {
+
+    private static RequestHedger.Race withTwin() {
+        RequestHedger.Race race = new RequestHedger.Race();
+        assertTrue(race.canStartTwin());
+        race.onTwinStarted();
+        assertFalse(race.canStartTwin());
+        return race;
+    }
+
+    @Test
+    public void primaryWins_beforeTheDelay() throws Exception {
+        RequestHedger.Race race = new RequestHedger.Race();
+        assertTrue(race.onPrimaryResponse());
+        assertFalse(race.canStartTwin());
+    }
+
+    @Test
+    public void primaryWins_andTheTwinIsIgnored() throws Exception {
+        RequestHedger.Race race = withTwin();
+        assertTrue(race.onPrimaryResponse());
+        assertFalse(race.onTwinResponse());
+        assertFalse(race.onTwinError());
+        // The network response refreshing a soft-expired cache entry
+        assertTrue(race.onPrimaryResponse());
+    }
+
+    @Test
+    public void twinWins_andThePrimaryIsIgnored() throws Exception {
+        RequestHedger.Race race = withTwin();
+        assertTrue(race.onTwinResponse());
+        assertFalse(race.onPrimaryResponse());
+        assertFalse(race.onPrimaryError());
+        // Cancelled by the hedge, nothing left to cancel
+        assertFalse(race.onPrimaryCanceled());
+    }
+
+    @Test
+    public void bothFail_primaryFirst_deliversTheErrorOnce() throws Exception {
+        RequestHedger.Race race = withTwin();
+        assertFalse(race.onPrimaryError());
+        assertTrue(race.onTwinError());
+        assertFalse(race.onTwinError());
+        assertFalse(race.onPrimaryError());
+    }
+
+    @Test
+    public void bothFail_twinFirst_deliversTheErrorOnce() throws Exception {
+        RequestHedger.Race race = withTwin();
+        assertFalse(race.onTwinError());
+        assertTrue(race.onPrimaryError());
+        assertFalse(race.onPrimaryError());
+    }
+
+    @Test
+    public void primaryFails_withoutTwin_deliversTheError() throws Exception {
+        RequestHedger.Race race = new RequestHedger.Race();
+        assertTrue(race.onPrimaryError());
+        assertFalse(race.canStartTwin());
+    }
+
+    @Test
+    public void primaryFails_thenTwinWins() throws Exception {
+        RequestHedger.Race race = withTwin();
+        assertFalse(race.onPrimaryError());
+        assertTrue(race.onTwinResponse());
+    }
+
+    @Test
+    public void cancel_whileTheTwinIsInFlight_cancelsTheTwin() throws Exception {
+        RequestHedger.Race race = withTwin();
+        assertTrue(race.onPrimaryCanceled());
+        assertFalse(race.onPrimaryCanceled());
+        assertFalse(race.onTwinResponse());
+        assertFalse(race.onTwinError());
+    }
+
+    @Test
+    public void cancel_beforeTheDelay_leavesNoTwinToCancel() throws Exception {
+        RequestHedger.Race race = new RequestHedger.Race();
+        assertFalse(race.onPrimaryCanceled());
+    }
+
+    @Test
+    public void isHedgeable_onlyNotStreamedGets() throws Exception {
+        assertTrue(RequestHedger.isHedgeable(true, Request.Method.GET, false));
+        assertFalse(RequestHedger.isHedgeable(false, Request.Method.GET, false));
+        assertFalse(RequestHedger.isHedgeable(true, Request.Method.POST, false));
+        // Both copies would write to the sink of the request
+        assertFalse(RequestHedger.isHedgeable(true, Request.Method.GET, true));
+    }
+}
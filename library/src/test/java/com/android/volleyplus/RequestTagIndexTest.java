@@ -0,0 +1,64 @@
+package com.android.volleyplus;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link RequestTagIndex.Tags}.
+ */
+public class RequestTagIndexTest {
+
+    private final Set<String> canceled = new HashSet<>();
+
+    private final RequestTagIndex.Tags<String> tags = new RequestTagIndex.Tags<String>() {
+        @Override
+        void cancelRequest(String request) {
+            canceled.add(request);
+        }
+    };
+
+    @Test
+    public void cancel_cancelsTheRequestsOfTheTag() throws Exception {
+        tags.add("tag", "a");
+        tags.add("tag", "b");
+        tags.add("other", "c");
+        tags.cancel("tag");
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), canceled);
+        assertTrue(tags.contains("other", "c"));
+        assertFalse(tags.contains("tag", "a"));
+    }
+
+    @Test
+    public void removedRequests_areNotCanceled() throws Exception {
+        tags.add("tag", "a");
+        tags.remove("tag", "a");
+        tags.cancel("tag");
+        assertTrue(canceled.isEmpty());
+    }
+
+    @Test
+    public void cancel_duringAdd_cancelsTheRequest() throws Exception {
+        RequestTagIndex.Entry<String> entry = tags.entryFor("tag");
+        // cancel() takes the entry after add() got it, before the request is in it
+        tags.cancel("tag");
+        assertTrue(tags.tryAdd("tag", "a", entry));
+        assertTrue(canceled.contains("a"));
+    }
+
+    @Test
+    public void remove_duringAdd_addsTheRequestAgain() throws Exception {
+        RequestTagIndex.Entry<String> entry = tags.entryFor("tag");
+        tags.add("tag", "a");
+        // The entry is dropped once empty
+        tags.remove("tag", "a");
+        assertFalse(tags.tryAdd("tag", "b", entry));
+        tags.add("tag", "b");
+        assertTrue(tags.contains("tag", "b"));
+        assertTrue(canceled.isEmpty());
+    }
+}
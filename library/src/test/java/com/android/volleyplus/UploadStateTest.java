@@ -0,0 +1,106 @@
+package com.android.volleyplus;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link UploadState}.
+ */
+public class UploadStateTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void chunks_coverTheFile() {
+        UploadState state = new UploadState("f", 10, 4);
+        assertEquals(3, state.urls.length);
+        assertEquals(8, state.startOf(2));
+        assertEquals(4, state.lengthOf(1, 10));
+        assertEquals(2, state.lengthOf(2, 10));
+    }
+
+    @Test
+    public void save_thenLoad_returnsState() throws Exception {
+        File stateFile = new File(folder.getRoot(), "video.upload");
+        UploadState state = new UploadState("f", 10, 4);
+        state.urls[0] = "http://example.com/files/a";
+        state.offsets[0] = 4;
+        state.urls[1] = "http://example.com/files/b";
+        state.offsets[1] = 1;
+        state.save(stateFile);
+        state.offsets[1] = 3;
+        state.save(stateFile);
+
+        UploadState loaded = UploadState.load(stateFile, "f", 10, 4);
+        assertNotNull(loaded);
+        assertArrayEquals(state.urls, loaded.urls);
+        assertArrayEquals(state.offsets, loaded.offsets);
+        assertNull(loaded.finalUrl);
+        assertFalse(new File(folder.getRoot(), "video.upload.tmp").exists());
+    }
+
+    @Test
+    public void load_ofAnOtherFileOrChunkSize_returnsNull() throws Exception {
+        File stateFile = new File(folder.getRoot(), "video.upload");
+        new UploadState("f", 10, 4).save(stateFile);
+        assertNull(UploadState.load(stateFile, "g", 10, 4));
+        assertNull(UploadState.load(stateFile, "f", 10, 5));
+        assertNull(UploadState.load(new File(folder.getRoot(), "missing"), "f", 10, 4));
+    }
+
+    @Test
+    public void load_corrupted_returnsNull() throws Exception {
+        File stateFile = new File(folder.getRoot(), "video.upload");
+        UploadState state = new UploadState("f", 10, 4);
+        state.finalUrl = "http://example.com/files/c";
+        state.save(stateFile);
+
+        RandomAccessFile file = new RandomAccessFile(stateFile, "rw");
+        file.seek(file.length() - 1);
+        file.write('x');
+        file.close();
+        assertNull(UploadState.load(stateFile, "f", 10, 4));
+
+        file = new RandomAccessFile(stateFile, "rw");
+        file.setLength(file.length() - 5);
+        file.close();
+        assertNull(UploadState.load(stateFile, "f", 10, 4));
+    }
+
+    @Test
+    public void load_withACorruptedLength_returnsNull() throws Exception {
+        File stateFile = new File(folder.getRoot(), "video.upload");
+        new UploadState("f", 10, 4).save(stateFile);
+
+        RandomAccessFile file = new RandomAccessFile(stateFile, "rw");
+        file.seek(4);
+        file.writeInt(-1);
+        file.close();
+        assertNull(UploadState.load(stateFile, "f", 10, 4));
+
+        file = new RandomAccessFile(stateFile, "rw");
+        file.seek(4);
+        file.writeInt(Integer.MAX_VALUE);
+        file.close();
+        assertNull(UploadState.load(stateFile, "f", 10, 4));
+    }
+
+    @Test
+    public void copy_isNotChangedByTheState() throws Exception {
+        UploadState state = new UploadState("f", 10, 4);
+        state.urls[0] = "http://example.com/files/a";
+        UploadState copy = state.copy();
+        state.urls[0] = null;
+        state.offsets[0] = 4;
+        assertEquals("http://example.com/files/a", copy.urls[0]);
+        assertEquals(0, copy.offsets[0]);
+        assertEquals(3, copy.urls.length);
+    }
+}
@@ -0,0 +1,112 @@
+package com.android.volleyplus.toolbox;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the {@link Codec}s.
+ */
+public class CodecTest {
+
+    private static Map<Object, Object> sample() {
+        Map<Object, Object> nested = new LinkedHashMap<>();
+        nested.put("flag", true);
+        nested.put("none", null);
+        Map<Object, Object> value = new LinkedHashMap<>();
+        value.put("id", 42L);
+        value.put("big", 1L << 40);
+        value.put("negative", -100000L);
+        value.put("ratio", 0.25);
+        value.put("name", "héllo \"wörld\"\n😀");
+        value.put("items", Arrays.<Object>asList(1L, "two", Arrays.asList(), nested));
+        return value;
+    }
+
+    private static byte[] encode(Codec codec, Object value) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(value, out);
+        return out.toByteArray();
+    }
+
+    private static Object roundTrip(Codec codec, Object value) throws Exception {
+        return codec.decode(new ByteArrayInputStream(encode(codec, value)));
+    }
+
+    @Test
+    public void json_roundTrip() throws Exception {
+        assertEquals(sample(), roundTrip(new JsonCodec(), sample()));
+    }
+
+    @Test
+    public void json_decodesText() throws Exception {
+        Object decoded = new JsonCodec().decode(new ByteArrayInputStream(
+                " {\"a\" : [1, -2.5e1, \"\\u0041\\/\"], \"b\":null} ".getBytes("UTF-8")));
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("a", Arrays.<Object>asList(1L, -25.0, "A/"));
+        expected.put("b", null);
+        assertEquals(expected, decoded);
+        assertEquals("\"AQID\"", new String(encode(new JsonCodec(), new byte[]{1, 2, 3}), "UTF-8"));
+    }
+
+    @Test(expected = CodecException.class)
+    public void json_rejectsMalformedText() throws Exception {
+        new JsonCodec().decode(new ByteArrayInputStream("{\"a\": [1, 2}".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void messagePack_roundTrip() throws Exception {
+        MessagePackCodec codec = new MessagePackCodec();
+        assertEquals(sample(), roundTrip(codec, sample()));
+        assertArrayEquals(new byte[]{1, 2}, (byte[]) roundTrip(codec, new byte[]{1, 2}));
+        // {"a": 1} in its smallest form
+        assertArrayEquals(new byte[]{(byte) 0x81, (byte) 0xa1, 'a', 1},
+                encode(codec, Collections.singletonMap("a", 1)));
+    }
+
+    @Test
+    public void cbor_roundTrip() throws Exception {
+        CborCodec codec = new CborCodec();
+        assertEquals(sample(), roundTrip(codec, sample()));
+        assertArrayEquals(new byte[]{1, 2}, (byte[]) roundTrip(codec, new byte[]{1, 2}));
+    }
+
+    @Test
+    public void cbor_decodesIndefiniteLengthsAndHalfFloats() throws Exception {
+        // [_ "ab", 1.5 (half precision)] with "ab" as two chunks
+        byte[] data = {(byte) 0x9f, 0x7f, 0x61, 'a', 0x61, 'b', (byte) 0xff,
+                (byte) 0xf9, 0x3e, 0x00, (byte) 0xff};
+        assertEquals(Arrays.<Object>asList("ab", 1.5),
+                new CborCodec().decode(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void protobuf_roundTrip() throws Exception {
+        Map<Integer, Object> nested = new LinkedHashMap<>();
+        nested.put(1, "inner");
+        Map<Integer, Object> message = new LinkedHashMap<>();
+        message.put(1, 150);
+        message.put(2, "testing");
+        message.put(3, Arrays.asList(1L, -1L));
+        message.put(4, 2.5);
+        message.put(5, nested);
+
+        byte[] encoded = encode(new ProtobufCodec(), message);
+        // Field 1 = 150 as in the protobuf encoding guide
+        assertArrayEquals(new byte[]{0x08, (byte) 0x96, 0x01}, Arrays.copyOf(encoded, 3));
+
+        Map<?, ?> decoded = (Map<?, ?>) new ProtobufCodec().decode(new ByteArrayInputStream(encoded));
+        assertEquals(150L, decoded.get(1));
+        assertEquals("testing", ProtobufCodec.string(decoded.get(2)));
+        assertEquals(Arrays.asList(1L, -1L), decoded.get(3));
+        assertEquals(2.5, Double.longBitsToDouble((Long) decoded.get(4)), 0);
+        assertEquals("inner", ProtobufCodec.string(ProtobufCodec.message(decoded.get(5)).get(1)));
+    }
+}
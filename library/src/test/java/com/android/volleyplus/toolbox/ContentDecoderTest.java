@@ -0,0 +1,68 @@
+package com.android.volleyplus.toolbox;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link ContentDecoder} and the request compression of {@link SslHurlStack}.
+ */
+public class ContentDecoderTest {
+
+    private static byte[] body() {
+        byte[] body = new byte[20000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) ("analytics event " + (i % 100)).charAt(i % 16);
+        }
+        return body;
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void gzip_roundTrip() throws Exception {
+        byte[] compressed = SslHurlStack.compress(body(), "gzip");
+        assertTrue(compressed.length < body().length / 5);
+        assertArrayEquals(body(), readAll(ContentDecoder.GZIP.decode(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void deflate_decodesZlibAndRawData() throws Exception {
+        byte[] zlib = SslHurlStack.compress(body(), "deflate");
+        assertArrayEquals(body(), readAll(ContentDecoder.DEFLATE.decode(new ByteArrayInputStream(zlib))));
+
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        DeflaterOutputStream out = new DeflaterOutputStream(raw, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        out.write(body());
+        out.close();
+        assertArrayEquals(body(), readAll(ContentDecoder.DEFLATE.decode(new ByteArrayInputStream(raw.toByteArray()))));
+    }
+
+    @Test
+    public void deflate_emptyBody() throws Exception {
+        assertEquals(0, readAll(ContentDecoder.DEFLATE.decode(new ByteArrayInputStream(new byte[0]))).length);
+    }
+
+    @Test
+    public void countingStream_countsBytesRead() throws Exception {
+        AtomicLong counter = new AtomicLong();
+        readAll(new CountingInputStream(new ByteArrayInputStream(body()), counter));
+        assertEquals(body().length, counter.get());
+    }
+}
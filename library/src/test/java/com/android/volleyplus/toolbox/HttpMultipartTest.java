@@ -0,0 +1,113 @@
+package com.android.volleyplus.toolbox;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link HttpMultipart}.
+ */
+public class HttpMultipartTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Records the streaming mode and the body instead of sending it
+     */
+    private static final class RecordingConnection extends HttpURLConnection {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        RecordingConnection() throws Exception {
+            super(new URL("http://localhost/upload"));
+        }
+
+        int fixedLength() {
+            return fixedContentLength;
+        }
+
+        int chunkLength() {
+            return chunkLength;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return body;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+
+    private File file(int size) throws Exception {
+        File file = folder.newFile("photo.png");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[size]);
+        out.close();
+        return file;
+    }
+
+    @Test
+    public void contentLength_matchesWrittenBody() throws Exception {
+        HttpMultipart multipart = new HttpMultipart("boundary");
+        multipart.addStringPart("name", "café 東京");
+        multipart.addImagePart("image", file(10000));
+
+        RecordingConnection connection = new RecordingConnection();
+        multipart.doWriteTo(connection);
+
+        assertEquals(connection.body.size(), multipart.getContentLength());
+        assertEquals(connection.body.size(), connection.fixedLength());
+        assertTrue(new String(connection.body.toByteArray(), "UTF-8").contains("café 東京"));
+        assertTrue(new String(connection.body.toByteArray(), "UTF-8").endsWith("--boundary--\r\n"));
+    }
+
+    @Test
+    public void missingFile_streamsInChunks() throws Exception {
+        HttpMultipart multipart = new HttpMultipart("boundary");
+        multipart.addImagePart("image", new File(folder.getRoot(), "missing.png"));
+
+        assertEquals(-1, multipart.getContentLength());
+        RecordingConnection connection = new RecordingConnection();
+        try {
+            multipart.doWriteTo(connection);
+        } catch (Exception expected) {
+            // the file can not be read
+        }
+        assertEquals(-1, connection.fixedLength());
+        assertTrue(connection.chunkLength() > 0);
+    }
+
+    @Test
+    public void fileName_replacesTheNameOfTheFile() throws Exception {
+        HttpMultipart multipart = new HttpMultipart("boundary");
+        multipart.addImagePart("image", file(16));
+        multipart.setFileName("image", "IMG_0001.jpg");
+
+        RecordingConnection connection = new RecordingConnection();
+        multipart.doWriteTo(connection);
+        String body = connection.body.toString("UTF-8");
+        assertTrue(body.contains("filename=\"IMG_0001.jpg\""));
+        assertFalse(body.contains("photo.png"));
+        assertEquals(multipart.getContentLength(), connection.body.size());
+    }
+}
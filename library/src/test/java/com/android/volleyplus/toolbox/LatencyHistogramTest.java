@@ -0,0 +1,57 @@
+package com.android.volleyplus.toolbox;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram_hasNoPercentile() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(-1, histogram.percentile(0.5));
+    }
+
+    @Test
+    public void bucketBounds_areContiguous() throws Exception {
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value <= LatencyHistogram.highestValueOf(index));
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.highestValueOf(index - 1));
+            }
+        }
+        assertEquals(Long.MAX_VALUE,
+                LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentiles_areWithinPrecision() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int ms = 1; ms <= 1000; ms++) {
+            histogram.record(ms * 1000000L);
+        }
+        assertEquals(1000, histogram.count());
+        assertWithin(500, histogram.percentile(0.50));
+        assertWithin(950, histogram.percentile(0.95));
+        assertWithin(990, histogram.percentile(0.99));
+        assertWithin(1000, histogram.percentile(1));
+    }
+
+    @Test
+    public void negativeValues_areIgnored() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        assertEquals(0, histogram.count());
+    }
+
+    private static void assertWithin(long expectedMs, long actualNanos) {
+        double actualMs = actualNanos / 1000000.0;
+        assertTrue("expected ~" + expectedMs + " but was " + actualMs,
+                actualMs >= expectedMs && actualMs <= expectedMs * 1.125);
+    }
+}
@@ -0,0 +1,231 @@
+package com.android.volleyplus.toolbox;
+
+import com.android.volley.Cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link SegmentedDiskCache}, maintenance runs on the calling thread.
+ */
+public class SegmentedDiskCacheTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SegmentedDiskCache open(long maxSize) {
+        SegmentedDiskCache cache = new SegmentedDiskCache(folder.getRoot(), maxSize, DIRECT);
+        cache.initialize();
+        return cache;
+    }
+
+    private static Cache.Entry entry(String body) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = body.getBytes();
+        entry.etag = "\"" + body.length() + "\"";
+        entry.serverDate = 1;
+        entry.lastModified = 2;
+        entry.ttl = 3;
+        entry.softTtl = 4;
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "text/plain");
+        entry.responseHeaders = headers;
+        return entry;
+    }
+
+    private static void assertEntry(String body, Cache.Entry entry) {
+        assertNotNull(entry);
+        assertEquals(body, new String(entry.data));
+        assertEquals("\"" + body.length() + "\"", entry.etag);
+        assertEquals(1, entry.serverDate);
+        assertEquals(2, entry.lastModified);
+        assertEquals(3, entry.ttl);
+        assertEquals(4, entry.softTtl);
+        assertEquals("text/plain", entry.responseHeaders.get("Content-Type"));
+    }
+
+    private int segmentFiles() {
+        int count = 0;
+        for (File file : folder.getRoot().listFiles()) {
+            count += file.getName().startsWith("segment-") ? 1 : 0;
+        }
+        return count;
+    }
+
+    @Test
+    public void put_thenGet_returnsEntry() throws Exception {
+        SegmentedDiskCache cache = open(1024 * 1024);
+        cache.put("a", entry("alpha"));
+        cache.put("b", entry("beta"));
+        assertEntry("alpha", cache.get("a"));
+        assertEntry("beta", cache.get("b"));
+        assertNull(cache.get("c"));
+    }
+
+    @Test
+    public void reopen_restoresEntriesAndRemovals() throws Exception {
+        SegmentedDiskCache cache = open(1024 * 1024);
+        // Enough writes for an index snapshot, then a tail to replay
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, entry("value" + i));
+        }
+        cache.put("key1", entry("updated"));
+        cache.remove("key2");
+
+        SegmentedDiskCache reopened = open(1024 * 1024);
+        assertEntry("value0", reopened.get("key0"));
+        assertEntry("updated", reopened.get("key1"));
+        assertNull(reopened.get("key2"));
+        assertEntry("value99", reopened.get("key99"));
+        assertEquals(cache.getSize(), reopened.getSize());
+    }
+
+    @Test
+    public void invalidate_expiresEntry() throws Exception {
+        SegmentedDiskCache cache = open(1024 * 1024);
+        cache.put("a", entry("alpha"));
+        cache.invalidate("a", false);
+        assertEquals(0, cache.get("a").softTtl);
+        assertEquals(3, cache.get("a").ttl);
+        cache.invalidate("a", true);
+        assertEquals(0, cache.get("a").ttl);
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() throws Exception {
+        char[] body = new char[10 * 1024];
+        Arrays.fill(body, 'x');
+        String large = new String(body);
+
+        SegmentedDiskCache cache = open(64 * 1024);
+        for (int i = 0; i < 5; i++) {
+            cache.put("key" + i, entry(large));
+        }
+        cache.get("key0");
+        cache.put("key5", entry(large));
+        cache.put("key6", entry(large));
+
+        assertTrue(cache.getSize() <= 64 * 1024);
+        assertNotNull(cache.get("key0"));
+        assertNull(cache.get("key1"));
+        assertNotNull(cache.get("key6"));
+    }
+
+    @Test
+    public void evictions_surviveAReplay() throws Exception {
+        char[] body = new char[10 * 1024];
+        Arrays.fill(body, 'x');
+        String large = new String(body);
+
+        SegmentedDiskCache cache = open(64 * 1024);
+        for (int i = 0; i < 5; i++) {
+            cache.put("key" + i, entry(large));
+        }
+        cache.get("key0");
+        cache.put("key5", entry(large));
+        cache.put("key6", entry(large));
+
+        // Without the index, every segment is replayed
+        new File(folder.getRoot(), "index").delete();
+        SegmentedDiskCache reopened = open(64 * 1024);
+        assertNotNull(reopened.get("key0"));
+        assertNull(reopened.get("key1"));
+        assertNotNull(reopened.get("key6"));
+    }
+
+    @Test
+    public void tombstones_outliveTheirSegment() throws Exception {
+        char[] body = new char[8 * 1024];
+        Arrays.fill(body, 'x');
+        String large = new String(body);
+
+        // Segments of 64KB
+        SegmentedDiskCache cache = open(512 * 1024);
+        cache.put("removed", entry(large));
+        for (int i = 0; i < 7; i++) {
+            cache.put("key" + i, entry(large));
+        }
+        // The tombstone goes to the second segment, which the overwrites then get compacted
+        cache.remove("removed");
+        for (int i = 0; i < 20; i++) {
+            cache.put("overwritten", entry(large + i));
+        }
+        assertTrue(new File(folder.getRoot(), "segment-0").exists());
+        assertFalse(new File(folder.getRoot(), "segment-1").exists());
+
+        new File(folder.getRoot(), "index").delete();
+        SegmentedDiskCache reopened = open(512 * 1024);
+        assertNull(reopened.get("removed"));
+        assertEntry(large, reopened.get("key0"));
+        assertEntry(large + 19, reopened.get("overwritten"));
+    }
+
+    @Test
+    public void overwrites_areCompacted() throws Exception {
+        char[] body = new char[8 * 1024];
+        Arrays.fill(body, 'x');
+        String large = new String(body);
+
+        SegmentedDiskCache cache = open(1024 * 1024);
+        for (int i = 0; i < 200; i++) {
+            cache.put("key" + (i % 4), entry(large + i));
+        }
+        // 1.6MB written for 4 live entries: dead segments have been dropped
+        assertTrue(segmentFiles() <= 2);
+        for (int i = 196; i < 200; i++) {
+            assertEntry(large + i, cache.get("key" + (i % 4)));
+        }
+
+        SegmentedDiskCache reopened = open(1024 * 1024);
+        for (int i = 196; i < 200; i++) {
+            assertEntry(large + i, reopened.get("key" + (i % 4)));
+        }
+    }
+
+    @Test
+    public void tornRecord_isDroppedOnReplay() throws Exception {
+        SegmentedDiskCache cache = open(1024 * 1024);
+        cache.put("a", entry("alpha"));
+        cache.put("b", entry("beta"));
+
+        File segment = new File(folder.getRoot(), "segment-0");
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        SegmentedDiskCache reopened = open(1024 * 1024);
+        assertEntry("alpha", reopened.get("a"));
+        assertNull(reopened.get("b"));
+        reopened.put("c", entry("gamma"));
+        assertEntry("gamma", open(1024 * 1024).get("c"));
+    }
+
+    @Test
+    public void clear_removesEverything() throws Exception {
+        SegmentedDiskCache cache = open(1024 * 1024);
+        cache.put("a", entry("alpha"));
+        cache.clear();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+        cache.put("b", entry("beta"));
+        assertNull(open(1024 * 1024).get("a"));
+        assertEntry("beta", open(1024 * 1024).get("b"));
+    }
+}
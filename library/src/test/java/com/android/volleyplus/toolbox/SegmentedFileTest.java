@@ -0,0 +1,85 @@
+package com.android.volleyplus.toolbox;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link SegmentedFile}.
+ */
+public class SegmentedFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void split_coversTheFile() throws Exception {
+        long[][] ranges = SegmentedFile.split(10, 3);
+        assertEquals(3, ranges.length);
+        assertArrayEquals(new long[]{0, 3}, ranges[0]);
+        assertArrayEquals(new long[]{3, 3}, ranges[1]);
+        assertArrayEquals(new long[]{6, 4}, ranges[2]);
+        assertEquals(2, SegmentedFile.split(2, 4).length);
+    }
+
+    @Test
+    public void transfer_writesRangesInAnyOrder() throws Exception {
+        byte[] content = new byte[100000];
+        new Random(1).nextBytes(content);
+        File target = folder.newFile();
+        SegmentedFile file = new SegmentedFile(target, content.length);
+        AtomicLong progress = new AtomicLong();
+
+        long[][] ranges = SegmentedFile.split(content.length, 4);
+        for (int i = ranges.length - 1; i >= 0; i--) {
+            long start = ranges[i][0];
+            long length = ranges[i][1];
+            // The stream may hold more than the range
+            ByteArrayInputStream in = new ByteArrayInputStream(content, (int) start,
+                    content.length - (int) start);
+            assertEquals(length, file.transfer(in, start, length, new byte[1000], progress));
+        }
+        file.close();
+
+        assertEquals(content.length, progress.get());
+        byte[] written = new byte[content.length];
+        RandomAccessFile read = new RandomAccessFile(target, "r");
+        read.readFully(written);
+        read.close();
+        assertTrue(Arrays.equals(content, written));
+    }
+
+    @Test
+    public void transfer_returnsShortCountOnEarlyEnd() throws Exception {
+        SegmentedFile file = new SegmentedFile(folder.newFile(), 100);
+        assertEquals(10, file.transfer(new ByteArrayInputStream(new byte[10]), 50, 50,
+                new byte[8], null));
+        file.close();
+    }
+
+    @Test
+    public void digest_matchesMessageDigest() throws Exception {
+        byte[] content = new byte[200000];
+        new Random(2).nextBytes(content);
+        SegmentedFile file = new SegmentedFile(folder.newFile(), content.length);
+        file.transfer(new ByteArrayInputStream(content), 0, content.length, new byte[4096], null);
+
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(content);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : expected) {
+            hex.append(String.format("%02x", b));
+        }
+        assertEquals(hex.toString(), file.digest("SHA-256"));
+        file.close();
+    }
+}
@@ -0,0 +1,54 @@
+package com.android.volleyplus.toolbox;
+
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link UrlTemplate}.
+ */
+public class UrlTemplateTest {
+
+    @Test
+    public void expand_positionalValues() throws Exception {
+        UrlTemplate template = UrlTemplate.compile("users/{id}/posts/{post}");
+        assertEquals("users/42/posts/a%20b%2Fc", template.expand(42, "a b/c"));
+        assertEquals("users/{id}/posts/{post}", template.toString());
+    }
+
+    @Test
+    public void expand_namedValuesAndQuery() throws Exception {
+        UrlTemplate template = UrlTemplate.compile("users/{id}");
+        Map<String, Object> path = new HashMap<>();
+        path.put("id", "me");
+        Map<String, String> query = new LinkedHashMap<>();
+        query.put("q", "x y");
+        query.put("page", "2");
+        assertEquals("users/me?q=x+y&page=2", template.expand(path, query));
+        assertEquals("users/me", template.expand(path, null));
+    }
+
+    @Test
+    public void encodeQuery_matchesUrlEncoder() throws Exception {
+        String value = "a-z_0.9*~!'()&=+ é€😀\uD800";
+        Map<String, String> query = new LinkedHashMap<>();
+        query.put("k y", value);
+        assertEquals(URLEncoder.encode("k y", "UTF-8") + "=" + URLEncoder.encode(value, "UTF-8"),
+                UrlTemplate.encodeQuery(query));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compile_rejectsUnclosedParameter() throws Exception {
+        UrlTemplate.compile("users/{id");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void expand_rejectsMissingValue() throws Exception {
+        UrlTemplate.compile("users/{id}").expand(new HashMap<String, Object>(), null);
+    }
+}